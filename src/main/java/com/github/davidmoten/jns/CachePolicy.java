@@ -0,0 +1,133 @@
+package com.github.davidmoten.jns;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Determines how the cells of each time level of a lazy {@link Mesh} are
+ * cached and when earlier time levels are released.
+ */
+public final class CachePolicy {
+
+    private static final CachePolicy UNBOUNDED = new CachePolicy(0, false, false);
+    private static final CachePolicy RELEASE_COMPLETED_LEVELS = new CachePolicy(0, true, false);
+    private static final CachePolicy DEPENDENCY_CONE = new CachePolicy(0, false, true);
+
+    // the cell being stepped and the cells either side of it along each axis
+    private static final int STENCIL_CELLS = 1 + 6 * Solver.STENCIL_RADIUS;
+
+    private final int maxCellsPerLevel;
+    private final boolean releaseCompletedLevels;
+    private final boolean dependencyCone;
+
+    private CachePolicy(int maxCellsPerLevel, boolean releaseCompletedLevels,
+            boolean dependencyCone) {
+        this.maxCellsPerLevel = maxCellsPerLevel;
+        this.releaseCompletedLevels = releaseCompletedLevels;
+        this.dependencyCone = dependencyCone;
+    }
+
+    /**
+     * Every cell evaluated at every time level is kept. This is the default.
+     *
+     * @return policy
+     */
+    public static CachePolicy unbounded() {
+        return UNBOUNDED;
+    }
+
+    /**
+     * At most <code>maxCellsPerLevel</code> cells are kept per time level, the
+     * least recently used being evicted first. An evicted cell is recalculated
+     * from the previous time level if it is needed again, so every earlier time
+     * level is retained and memory still grows with the number of steps (by at
+     * most <code>maxCellsPerLevel</code> cells a level).
+     *
+     * <p>
+     * The cap should be at least the number of cells read at each level (the
+     * dependency cone of the cells asked for, see {@link MeshQuery}). Below
+     * that, recalculating an evicted cell needs cells of the previous level
+     * that have themselves been evicted, and the work multiplies with each
+     * level. Caps smaller than the stencil of one cell are rejected.
+     *
+     * @param maxCellsPerLevel
+     *            maximum number of cells cached per time level
+     * @return policy
+     * @throws IllegalArgumentException
+     *             if <code>maxCellsPerLevel</code> is less than the number of
+     *             cells in the stencil of one cell
+     */
+    public static CachePolicy leastRecentlyUsed(int maxCellsPerLevel) {
+        if (maxCellsPerLevel < STENCIL_CELLS)
+            throw new IllegalArgumentException(
+                    "maxCellsPerLevel must be at least the stencil size " + STENCIL_CELLS);
+        return new CachePolicy(maxCellsPerLevel, false, false);
+    }
+
+    /**
+     * Every cell evaluated is kept but once every FLUID cell in the dense
+     * extent of a time level has been evaluated the level is moved into flat
+     * arrays and its reference to the previous time level is dropped. Only
+     * applies to meshes built with {@link Mesh.Builder#dense(int, int, int)}
+     * and does not bound memory when only a few cells of each level are read
+     * (use {@link #dependencyCone()} for that).
+     *
+     * @return policy
+     */
+    public static CachePolicy releaseCompletedLevels() {
+        return RELEASE_COMPLETED_LEVELS;
+    }
+
+    /**
+     * A stepped time level does not reference the level it was stepped from.
+     * It keeps only an anchor level (the last level that was not stepped under
+     * this policy) and the time steps since the anchor, held as runs of equal
+     * steps. Cells are evaluated by working out the cells they depend on at
+     * each level since the anchor and evaluating those levels oldest first,
+     * as {@link MeshQuery} does, holding two levels at a time. Only the cells
+     * evaluated are cached at the level.
+     *
+     * <p>
+     * Memory does not grow with the number of steps, so a long lazy
+     * {@link Mesh#stepMultiple(double, long)} can be probed at a few cells.
+     * The cost is that the earlier levels are recalculated from the anchor
+     * for each batch of cells evaluated. A cell read that is not cached
+     * evaluates, in one pass, every FLUID cell of the dense extent it is in
+     * or, without an extent, of the cube of 16 cells along each axis that
+     * holds it. Stepping a level under another policy, which reads every cell
+     * of it, then costs one pass per extent or cube. Cells of a level asked
+     * for with {@link Mesh#query(java.util.Collection, double, int)} (for zero
+     * steps) are evaluated in one pass.
+     *
+     * @return policy
+     */
+    public static CachePolicy dependencyCone() {
+        return DEPENDENCY_CONE;
+    }
+
+    boolean releasesCompletedLevels() {
+        return releaseCompletedLevels;
+    }
+
+    boolean evaluatesDependencyCone() {
+        return dependencyCone;
+    }
+
+    Map<Indices, Cell> createCache() {
+        if (maxCellsPerLevel == 0)
+            return new ConcurrentHashMap<>();
+        else
+            return Collections.synchronizedMap(new LinkedHashMap<Indices, Cell>(16, 0.75f, true) {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Indices, Cell> eldest) {
+                    return size() > maxCellsPerLevel;
+                }
+            });
+    }
+
+}
@@ -4,6 +4,17 @@ public interface Cell extends CellData {
 
     Cell neighbour(Direction direction, int count);
 
+    /**
+     * Returns the classes of the difference stencils that {@link Solver}
+     * uses at this cell along each axis, packed into an int. Cell types do not
+     * change over time so implementations cache the classes where they can.
+     *
+     * @return packed stencil classes
+     */
+    default int stencils() {
+        return Stencil.classify(this);
+    }
+
     default Cell north() {
         return neighbour(Direction.NORTH, 1);
     }
@@ -66,4 +66,12 @@ public class CellDelegator implements Cell {
         return cell.isBoundary();
     }
 
+    @Override
+    public int stencils() {
+        if (type.isPresent() && type.get() != cell.type())
+            return Stencil.classify(this);
+        else
+            return cell.stencils();
+    }
+
 }
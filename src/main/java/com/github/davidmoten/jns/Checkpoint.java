@@ -0,0 +1,493 @@
+package com.github.davidmoten.jns;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.github.davidmoten.guavamini.Preconditions;
+
+/**
+ * The state of a solver at a point in time (grid sizes, spacing, time, time
+ * step and named blocks of values) that is written to a file so a run can be
+ * restarted from it. Solvers copy their fields into a checkpoint so it can be
+ * written (see {@link CheckpointWriter}) while the solver carries on.
+ * <p>
+ * The file is little-endian throughout:
+ *
+ * <pre>
+ * int    magic 0x4A4E5343 ("JNSC")
+ * int    version
+ * int    flags, bit 0 set if blocks are compressed
+ * int    nx, ny, nz
+ * double dx, dy
+ * int    number of dz values followed by the values
+ * double time, time step
+ * int    number of blocks
+ * then for each block
+ * int    length of the UTF-8 name followed by the name
+ * int    number of values
+ * long   number of bytes that follow
+ * bytes  the values as doubles, deflated if compressed
+ * </pre>
+ */
+public final class Checkpoint {
+
+    static final int MAGIC = 0x4A4E5343;
+
+    /**
+     * Version of the file format written.
+     */
+    public static final int VERSION = 1;
+
+    private static final int FLAG_COMPRESSED = 1;
+
+    // values are encoded 1MB at a time
+    private static final int CHUNK_VALUES = 1 << 17;
+    private static final int CHUNK_BYTES = CHUNK_VALUES * Double.BYTES;
+
+    private final int nx;
+    private final int ny;
+    private final int nz;
+    private final double dx;
+    private final double dy;
+    private final double[] dz;
+    private final double time;
+    private final double timeStep;
+    private final Map<String, double[]> fields;
+
+    private Checkpoint(int nx, int ny, int nz, double dx, double dy, double[] dz, double time,
+            double timeStep, Map<String, double[]> fields) {
+        this.nx = nx;
+        this.ny = ny;
+        this.nz = nz;
+        this.dx = dx;
+        this.dy = dy;
+        this.dz = dz;
+        this.time = time;
+        this.timeStep = timeStep;
+        this.fields = fields;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private int nx;
+        private int ny;
+        private int nz;
+        private double dx;
+        private double dy;
+        private double[] dz = new double[0];
+        private double time;
+        private double timeStep;
+        private final Map<String, double[]> fields = new LinkedHashMap<>();
+
+        private Builder() {
+        }
+
+        public Builder gridSize(int nx, int ny, int nz) {
+            this.nx = nx;
+            this.ny = ny;
+            this.nz = nz;
+            return this;
+        }
+
+        public Builder dx(double dx) {
+            this.dx = dx;
+            return this;
+        }
+
+        public Builder dy(double dy) {
+            this.dy = dy;
+            return this;
+        }
+
+        /**
+         * Sets the vertical spacing, one value for each gap between levels or
+         * a single value if the spacing is uniform. Defaults to no values.
+         *
+         * @param dz
+         *            vertical spacing
+         * @return this
+         */
+        public Builder dz(double... dz) {
+            Preconditions.checkNotNull(dz, "dz cannot be null");
+            this.dz = dz.clone();
+            return this;
+        }
+
+        /**
+         * Sets the simulated time. Defaults to 0 (for solvers that do not
+         * keep the time).
+         *
+         * @param time
+         *            simulated time in seconds
+         * @return this
+         */
+        public Builder time(double time) {
+            this.time = time;
+            return this;
+        }
+
+        public Builder timeStep(double timeStep) {
+            this.timeStep = timeStep;
+            return this;
+        }
+
+        /**
+         * Adds a block of values. The array is not copied so must not be
+         * changed afterwards.
+         *
+         * @param name
+         *            name of the block, unique within the checkpoint
+         * @param values
+         *            values
+         * @return this
+         */
+        public Builder field(String name, double[] values) {
+            Preconditions.checkNotNull(name, "name cannot be null");
+            Preconditions.checkNotNull(values, "values cannot be null");
+            Preconditions.checkArgument(!fields.containsKey(name), "duplicate field " + name);
+            fields.put(name, values);
+            return this;
+        }
+
+        public Checkpoint build() {
+            Preconditions.checkArgument(nx >= 0 && ny >= 0 && nz >= 0,
+                    "grid sizes must be 0 or more");
+            return new Checkpoint(nx, ny, nz, dx, dy, dz, time, timeStep,
+                    Collections.unmodifiableMap(new LinkedHashMap<>(fields)));
+        }
+    }
+
+    public int nx() {
+        return nx;
+    }
+
+    public int ny() {
+        return ny;
+    }
+
+    public int nz() {
+        return nz;
+    }
+
+    public double dx() {
+        return dx;
+    }
+
+    public double dy() {
+        return dy;
+    }
+
+    public double[] dz() {
+        return dz.clone();
+    }
+
+    public double time() {
+        return time;
+    }
+
+    public double timeStep() {
+        return timeStep;
+    }
+
+    public Set<String> fieldNames() {
+        return fields.keySet();
+    }
+
+    /**
+     * Returns the values of the block with the given name (not a copy).
+     *
+     * @param name
+     *            name of the block
+     * @return values
+     * @throws IllegalArgumentException
+     *             if there is no block with the name
+     */
+    public double[] field(String name) {
+        final double[] values = fields.get(name);
+        Preconditions.checkArgument(values != null, "checkpoint has no field " + name);
+        return values;
+    }
+
+    /**
+     * Returns the values of the block with the given name checking that it
+     * has <code>size</code> values.
+     *
+     * @param name
+     *            name of the block
+     * @param size
+     *            expected number of values
+     * @return values
+     * @throws IllegalArgumentException
+     *             if there is no block with the name or it has another size
+     */
+    public double[] field(String name, int size) {
+        final double[] values = field(name);
+        Preconditions.checkArgument(values.length == size,
+                "field " + name + " has " + values.length + " values but expected " + size);
+        return values;
+    }
+
+    /**
+     * Writes this checkpoint uncompressed to <code>file</code>, see
+     * {@link #write(File, boolean)}.
+     *
+     * @param file
+     *            file to write
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    public void write(File file) throws IOException {
+        write(file, false);
+    }
+
+    /**
+     * Writes this checkpoint to <code>file</code>. Each block is written with
+     * one gathering write of its header and encoded values. The checkpoint is
+     * written to a temporary file that is forced to disk and then moved over
+     * <code>file</code>, so a crash while writing leaves the previous
+     * checkpoint intact.
+     *
+     * @param file
+     *            file to write
+     * @param compress
+     *            if true then blocks are deflated (at the fastest level)
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    public void write(File file, boolean compress) throws IOException {
+        final File tmp = new File(file.getPath() + ".tmp");
+        final Deflater deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), CREATE, WRITE,
+                TRUNCATE_EXISTING)) {
+            writeFully(channel, new ByteBuffer[] { header(compress) });
+            for (final Entry<String, double[]> entry : fields.entrySet()) {
+                final List<ByteBuffer> data = encode(entry.getValue(), deflater);
+                long stored = 0;
+                for (final ByteBuffer b : data) {
+                    stored += b.remaining();
+                }
+                final ByteBuffer[] buffers = new ByteBuffer[data.size() + 1];
+                buffers[0] = blockHeader(entry.getKey(), entry.getValue().length, stored);
+                for (int i = 0; i < data.size(); i++) {
+                    buffers[i + 1] = data.get(i);
+                }
+                writeFully(channel, buffers);
+            }
+            channel.force(true);
+        } finally {
+            if (deflater != null)
+                deflater.end();
+        }
+        Files.move(tmp.toPath(), file.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    private ByteBuffer header(boolean compress) {
+        final ByteBuffer b = allocate(8 * Integer.BYTES + (4 + dz.length) * Double.BYTES);
+        b.putInt(MAGIC);
+        b.putInt(VERSION);
+        b.putInt(compress ? FLAG_COMPRESSED : 0);
+        b.putInt(nx);
+        b.putInt(ny);
+        b.putInt(nz);
+        b.putDouble(dx);
+        b.putDouble(dy);
+        b.putInt(dz.length);
+        for (final double d : dz) {
+            b.putDouble(d);
+        }
+        b.putDouble(time);
+        b.putDouble(timeStep);
+        b.putInt(fields.size());
+        b.flip();
+        return b;
+    }
+
+    private static ByteBuffer blockHeader(String name, int count, long stored) {
+        final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer b = allocate(
+                Integer.BYTES + bytes.length + Integer.BYTES + Long.BYTES);
+        b.putInt(bytes.length);
+        b.put(bytes);
+        b.putInt(count);
+        b.putLong(stored);
+        b.flip();
+        return b;
+    }
+
+    private static List<ByteBuffer> encode(double[] values, Deflater deflater) {
+        final List<ByteBuffer> buffers = new ArrayList<>();
+        final byte[] out = deflater == null ? null : new byte[CHUNK_BYTES];
+        int from = 0;
+        do {
+            final int n = Math.min(CHUNK_VALUES, values.length - from);
+            final ByteBuffer b = allocate(n * Double.BYTES);
+            b.asDoubleBuffer().put(values, from, n);
+            from += n;
+            if (deflater == null) {
+                buffers.add(b);
+            } else {
+                final boolean last = from == values.length;
+                deflater.setInput(b.array());
+                if (last)
+                    deflater.finish();
+                while (last ? !deflater.finished() : !deflater.needsInput()) {
+                    final int length = deflater.deflate(out);
+                    if (length > 0)
+                        buffers.add(ByteBuffer.wrap(Arrays.copyOf(out, length)));
+                }
+            }
+        } while (from < values.length);
+        if (deflater != null)
+            deflater.reset();
+        return buffers;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer[] buffers) throws IOException {
+        int first = 0;
+        while (true) {
+            while (first < buffers.length && !buffers[first].hasRemaining())
+                first++;
+            if (first == buffers.length)
+                return;
+            channel.write(buffers, first, buffers.length - first);
+        }
+    }
+
+    /**
+     * Reads a checkpoint written by {@link #write(File, boolean)}.
+     *
+     * @param file
+     *            file to read
+     * @return checkpoint
+     * @throws IOException
+     *             if the file cannot be read or is not a checkpoint of a
+     *             supported version
+     */
+    public static Checkpoint read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), READ)) {
+            ByteBuffer b = readFully(channel, 7 * Integer.BYTES + 2 * Double.BYTES);
+            if (b.getInt() != MAGIC)
+                throw new IOException("not a checkpoint: " + file);
+            final int version = b.getInt();
+            if (version < 1 || version > VERSION)
+                throw new IOException("unsupported checkpoint version " + version + ": " + file);
+            final boolean compressed = (b.getInt() & FLAG_COMPRESSED) != 0;
+            final Builder builder = builder().gridSize(b.getInt(), b.getInt(), b.getInt())
+                    .dx(b.getDouble()).dy(b.getDouble());
+            final double[] dz = new double[checkLength(b.getInt(), file)];
+            b = readFully(channel, dz.length * Double.BYTES + 2 * Double.BYTES + Integer.BYTES);
+            b.asDoubleBuffer().get(dz);
+            b.position(dz.length * Double.BYTES);
+            builder.dz(dz).time(b.getDouble()).timeStep(b.getDouble());
+            final int blocks = checkLength(b.getInt(), file);
+            for (int i = 0; i < blocks; i++) {
+                final byte[] name = new byte[checkLength(readFully(channel, Integer.BYTES).getInt(),
+                        file)];
+                b = readFully(channel, name.length + Integer.BYTES + Long.BYTES);
+                b.get(name);
+                final double[] values = new double[checkLength(b.getInt(), file)];
+                final long stored = b.getLong();
+                if (compressed)
+                    inflate(channel, stored, values, file);
+                else if (stored != (long) values.length * Double.BYTES)
+                    throw new IOException("corrupt checkpoint: " + file);
+                else
+                    decode(channel, values);
+                builder.field(new String(name, StandardCharsets.UTF_8), values);
+            }
+            return builder.build();
+        }
+    }
+
+    private static void decode(FileChannel channel, double[] values) throws IOException {
+        for (int from = 0; from < values.length; from += CHUNK_VALUES) {
+            final int n = Math.min(CHUNK_VALUES, values.length - from);
+            readFully(channel, n * Double.BYTES).asDoubleBuffer().get(values, from, n);
+        }
+    }
+
+    private static void inflate(FileChannel channel, long stored, double[] values, File file)
+            throws IOException {
+        final Inflater inflater = new Inflater();
+        try {
+            final byte[] out = new byte[CHUNK_BYTES];
+            long remaining = stored;
+            int index = 0;
+            int filled = 0;
+            while (index < values.length) {
+                final int wanted = Math.min(CHUNK_VALUES, values.length - index) * Double.BYTES;
+                if (inflater.needsInput()) {
+                    if (remaining == 0)
+                        throw new IOException("corrupt checkpoint: " + file);
+                    final int n = (int) Math.min(remaining, CHUNK_BYTES);
+                    inflater.setInput(readFully(channel, n).array());
+                    remaining -= n;
+                }
+                final int n = inflater.inflate(out, filled, wanted - filled);
+                if (n == 0 && (inflater.finished() || inflater.needsDictionary()))
+                    throw new IOException("corrupt checkpoint: " + file);
+                filled += n;
+                if (filled == wanted) {
+                    ByteBuffer.wrap(out, 0, filled).order(ByteOrder.LITTLE_ENDIAN)
+                            .asDoubleBuffer().get(values, index, filled / Double.BYTES);
+                    index += filled / Double.BYTES;
+                    filled = 0;
+                }
+            }
+            // skip the end of the deflate stream
+            channel.position(channel.position() + remaining);
+        } catch (final DataFormatException e) {
+            throw new IOException("corrupt checkpoint: " + file, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, int bytes) throws IOException {
+        final ByteBuffer b = allocate(bytes);
+        while (b.hasRemaining()) {
+            if (channel.read(b) < 0)
+                throw new IOException("unexpected end of checkpoint");
+        }
+        b.flip();
+        return b;
+    }
+
+    private static int checkLength(int length, File file) throws IOException {
+        if (length < 0)
+            throw new IOException("corrupt checkpoint: " + file);
+        return length;
+    }
+
+    private static ByteBuffer allocate(int bytes) {
+        return ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+}
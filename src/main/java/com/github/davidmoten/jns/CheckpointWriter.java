@@ -0,0 +1,72 @@
+package com.github.davidmoten.jns;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes {@link Checkpoint}s on a background thread. A solver copies its
+ * fields into a checkpoint (an arraycopy per field for fields on the heap) and
+ * carries on stepping while the copy is encoded and written, so a run only
+ * stalls for the copy rather than for the disk.
+ * <p>
+ * Checkpoints are written one at a time in the order they are submitted. Each
+ * pending checkpoint holds a copy of the solver state so snapshots should be
+ * taken less often than it takes to write one.
+ */
+public final class CheckpointWriter implements AutoCloseable {
+
+    private final boolean compress;
+    private final ExecutorService executor;
+
+    /**
+     * Constructor.
+     *
+     * @param compress
+     *            if true then blocks are deflated, see
+     *            {@link Checkpoint#write(File, boolean)}
+     */
+    public CheckpointWriter(boolean compress) {
+        this.compress = compress;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            final Thread t = new Thread(r, "checkpoint-writer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Writes <code>checkpoint</code> to <code>file</code> on the background
+     * thread.
+     *
+     * @param checkpoint
+     *            checkpoint to write
+     * @param file
+     *            file to write
+     * @return completes with <code>file</code> once it is written, or with
+     *         the failure to write it
+     */
+    public Future<File> write(Checkpoint checkpoint, File file) {
+        return executor.submit(() -> {
+            checkpoint.write(file, compress);
+            return file;
+        });
+    }
+
+    /**
+     * Waits for pending checkpoints to be written and stops the background
+     * thread.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.github.davidmoten.jns;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A {@link Cell} view over a slot of a {@link DenseCellStore}. Views are cheap
+ * to create and hold no values of their own.
+ */
+final class DenseCell implements Cell {
+
+    private final Mesh mesh;
+    private final DenseCellStore store;
+    private final int index;
+    private final int indexEast;
+    private final int indexNorth;
+    private final int indexUp;
+
+    DenseCell(Mesh mesh, DenseCellStore store, int indexEast, int indexNorth, int indexUp) {
+        this.mesh = mesh;
+        this.store = store;
+        this.index = store.index(indexEast, indexNorth, indexUp);
+        this.indexEast = indexEast;
+        this.indexNorth = indexNorth;
+        this.indexUp = indexUp;
+    }
+
+    @Override
+    public CellType type() {
+        return store.type(index);
+    }
+
+    @Override
+    public Vector position() {
+        return Vector.create(store.positionEast[index], store.positionNorth[index],
+                store.positionUp[index]);
+    }
+
+    @Override
+    public double pressure() {
+        checkFluid();
+        return store.pressure[index];
+    }
+
+    @Override
+    public Vector velocity() {
+        checkFluid();
+        return Vector.create(store.velocityEast[index], store.velocityNorth[index],
+                store.velocityUp[index]);
+    }
+
+    @Override
+    public double density() {
+        return store.density[index];
+    }
+
+    @Override
+    public double viscosity() {
+        return store.viscosity[index];
+    }
+
+    @Override
+    public boolean isBoundary() {
+        return store.boundary[index];
+    }
+
+    @Override
+    public Cell neighbour(Direction direction, int count) {
+        if (direction == Direction.EAST)
+            return mesh.cell(indexEast + count, indexNorth, indexUp);
+        else if (direction == Direction.NORTH)
+            return mesh.cell(indexEast, indexNorth + count, indexUp);
+        else if (direction == Direction.UP)
+            return mesh.cell(indexEast, indexNorth, indexUp + count);
+        else
+            return Util.unexpected();
+    }
+
+    @Override
+    public int stencils() {
+        final int s = store.stencils(index);
+        // slots on the outside of the halo have neighbours outside the store
+        return s != Stencil.UNCLASSIFIED ? s : Stencil.classify(this);
+    }
+
+    private void checkFluid() {
+        // same behaviour as MeshCell which only holds values for FLUID cells
+        if (store.type[index] != CellType.FLUID.ordinal())
+            throw new NoSuchElementException("No value present");
+    }
+
+}
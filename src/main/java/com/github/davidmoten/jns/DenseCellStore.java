@@ -0,0 +1,271 @@
+package com.github.davidmoten.jns;
+
+import java.util.function.Function;
+
+/**
+ * Structure-of-arrays storage for a regular block of cells. Type, position,
+ * pressure, velocity, density, viscosity and the boundary flag are held in
+ * flat primitive arrays indexed by a linearised (east, north, up) offset with
+ * east varying fastest.
+ *
+ * <p>
+ * The block covers indices <code>0..cellsEast-1</code> etc. plus a halo of
+ * {@link #HALO} cells on every side for the OBSTACLE/UNKNOWN ghost ring. The
+ * halo is two cells wide because the continuity function in {@link Solver}
+ * takes gradients at the neighbours of a cell.
+ */
+final class DenseCellStore {
+
+    static final int HALO = 2;
+
+    private static final CellType[] TYPES = CellType.values();
+
+    private final int cellsEast;
+    private final int cellsNorth;
+    private final int cellsUp;
+
+    private final int sizeEast;
+    private final int sizeNorth;
+    private final int sizeUp;
+
+    final byte[] type;
+    final double[] positionEast;
+    final double[] positionNorth;
+    final double[] positionUp;
+    final double[] pressure;
+    final double[] velocityEast;
+    final double[] velocityNorth;
+    final double[] velocityUp;
+    final double[] density;
+    final double[] viscosity;
+    final boolean[] boundary;
+    // packed stencil classes of each slot, worked out from the types on first
+    // use (a race only works them out twice)
+    private int[] stencils;
+
+    DenseCellStore(int cellsEast, int cellsNorth, int cellsUp) {
+        if (cellsEast < 1 || cellsNorth < 1 || cellsUp < 1)
+            throw new IllegalArgumentException("cell counts must be 1 or more");
+        this.cellsEast = cellsEast;
+        this.cellsNorth = cellsNorth;
+        this.cellsUp = cellsUp;
+        this.sizeEast = cellsEast + 2 * HALO;
+        this.sizeNorth = cellsNorth + 2 * HALO;
+        this.sizeUp = cellsUp + 2 * HALO;
+        final int size = Math.multiplyExact(Math.multiplyExact(sizeEast, sizeNorth), sizeUp);
+        this.type = new byte[size];
+        this.positionEast = new double[size];
+        this.positionNorth = new double[size];
+        this.positionUp = new double[size];
+        this.pressure = new double[size];
+        this.velocityEast = new double[size];
+        this.velocityNorth = new double[size];
+        this.velocityUp = new double[size];
+        this.density = new double[size];
+        this.viscosity = new double[size];
+        this.boundary = new boolean[size];
+    }
+
+    static DenseCellStore create(int cellsEast, int cellsNorth, int cellsUp,
+            Function<Indices, CellData> creator) {
+        final DenseCellStore store = new DenseCellStore(cellsEast, cellsNorth, cellsUp);
+        for (int i = 0; i < store.size(); i++) {
+            store.set(i, creator.apply(store.indices(i)));
+        }
+        return store;
+    }
+
+    /**
+     * Returns a copy of this store with its own arrays.
+     *
+     * @return copy
+     */
+    DenseCellStore copy() {
+        final DenseCellStore s = new DenseCellStore(cellsEast, cellsNorth, cellsUp);
+        final int size = size();
+        System.arraycopy(type, 0, s.type, 0, size);
+        System.arraycopy(positionEast, 0, s.positionEast, 0, size);
+        System.arraycopy(positionNorth, 0, s.positionNorth, 0, size);
+        System.arraycopy(positionUp, 0, s.positionUp, 0, size);
+        System.arraycopy(pressure, 0, s.pressure, 0, size);
+        System.arraycopy(velocityEast, 0, s.velocityEast, 0, size);
+        System.arraycopy(velocityNorth, 0, s.velocityNorth, 0, size);
+        System.arraycopy(velocityUp, 0, s.velocityUp, 0, size);
+        System.arraycopy(density, 0, s.density, 0, size);
+        System.arraycopy(viscosity, 0, s.viscosity, 0, size);
+        System.arraycopy(boundary, 0, s.boundary, 0, size);
+        return s;
+    }
+
+    int cellsEast() {
+        return cellsEast;
+    }
+
+    int cellsNorth() {
+        return cellsNorth;
+    }
+
+    int cellsUp() {
+        return cellsUp;
+    }
+
+    /**
+     * Returns the number of slots in the store including the halo.
+     *
+     * @return number of slots
+     */
+    int size() {
+        return type.length;
+    }
+
+    /**
+     * Returns the packed stencil classes (see {@link Cell#stencils()}) of the
+     * slot at <code>index</code>, or {@link Stencil#UNCLASSIFIED} for a slot on
+     * the outside of the halo.
+     *
+     * @param index
+     *            slot index
+     * @return packed stencil classes
+     */
+    int stencils(int index) {
+        int[] s = stencils;
+        if (s == null) {
+            s = classify();
+            stencils = s;
+        }
+        return s[index];
+    }
+
+    private int[] classify() {
+        final CellType[] types = new CellType[type.length];
+        for (int i = 0; i < type.length; i++) {
+            types[i] = TYPES[type[i]];
+        }
+        final int[] strides = { stride(Direction.EAST), stride(Direction.NORTH),
+                stride(Direction.UP) };
+        final int[] s = new int[type.length];
+        for (int i = 0; i < s.length; i++) {
+            final int e = east(i);
+            final int n = north(i);
+            final int u = up(i);
+            if (contains(e - 1, n - 1, u - 1) && contains(e + 1, n + 1, u + 1)) {
+                int classes = 0;
+                for (int axis = 0; axis < 3; axis++) {
+                    classes |= Stencil.classify(types[i - strides[axis]], types[i],
+                            types[i + strides[axis]]) << (8 * axis);
+                }
+                s[i] = classes;
+            } else {
+                s[i] = Stencil.UNCLASSIFIED;
+            }
+        }
+        return s;
+    }
+
+    boolean contains(int indexEast, int indexNorth, int indexUp) {
+        return indexEast >= -HALO && indexEast < cellsEast + HALO && indexNorth >= -HALO
+                && indexNorth < cellsNorth + HALO && indexUp >= -HALO && indexUp < cellsUp + HALO;
+    }
+
+    boolean isInterior(int indexEast, int indexNorth, int indexUp) {
+        return indexEast >= 0 && indexEast < cellsEast && indexNorth >= 0
+                && indexNorth < cellsNorth && indexUp >= 0 && indexUp < cellsUp;
+    }
+
+    int index(int indexEast, int indexNorth, int indexUp) {
+        return ((indexUp + HALO) * sizeNorth + indexNorth + HALO) * sizeEast + indexEast + HALO;
+    }
+
+    int stride(Direction direction) {
+        if (direction == Direction.EAST)
+            return 1;
+        else if (direction == Direction.NORTH)
+            return sizeEast;
+        else if (direction == Direction.UP)
+            return sizeEast * sizeNorth;
+        else
+            return Util.unexpected();
+    }
+
+    int east(int index) {
+        return index % sizeEast - HALO;
+    }
+
+    int north(int index) {
+        return (index / sizeEast) % sizeNorth - HALO;
+    }
+
+    int up(int index) {
+        return index / (sizeEast * sizeNorth) - HALO;
+    }
+
+    Indices indices(int index) {
+        return new Indices(east(index), north(index), up(index));
+    }
+
+    int count(CellType cellType) {
+        int count = 0;
+        for (int i = 0; i < type.length; i++) {
+            if (type[i] == cellType.ordinal())
+                count++;
+        }
+        return count;
+    }
+
+    double position(int index, int axis) {
+        if (axis == 0)
+            return positionEast[index];
+        else if (axis == 1)
+            return positionNorth[index];
+        else
+            return positionUp[index];
+    }
+
+    double velocity(int index, int axis) {
+        if (axis == 0)
+            return velocityEast[index];
+        else if (axis == 1)
+            return velocityNorth[index];
+        else
+            return velocityUp[index];
+    }
+
+    CellType type(int index) {
+        return TYPES[type[index]];
+    }
+
+    /**
+     * Copies the values of <code>cellData</code> into the slot at
+     * <code>index</code>. As with {@link MeshCell} velocity and pressure are
+     * only read for FLUID cells.
+     *
+     * @param index
+     *            slot index
+     * @param cellData
+     *            values to copy
+     */
+    void set(int index, CellData cellData) {
+        final CellType t = cellData.type();
+        type[index] = (byte) t.ordinal();
+        final Vector position = cellData.position();
+        positionEast[index] = position.east();
+        positionNorth[index] = position.north();
+        positionUp[index] = position.up();
+        density[index] = cellData.density();
+        viscosity[index] = cellData.viscosity();
+        if (t == CellType.FLUID) {
+            final Vector velocity = cellData.velocity();
+            velocityEast[index] = velocity.east();
+            velocityNorth[index] = velocity.north();
+            velocityUp[index] = velocity.up();
+            pressure[index] = cellData.pressure();
+        } else {
+            velocityEast[index] = Double.NaN;
+            velocityNorth[index] = Double.NaN;
+            velocityUp[index] = Double.NaN;
+            pressure[index] = Double.NaN;
+        }
+        boundary[index] = cellData.isBoundary();
+    }
+
+}
@@ -0,0 +1,327 @@
+package com.github.davidmoten.jns;
+
+import static com.github.davidmoten.jns.Util.unexpected;
+import static com.github.davidmoten.jns.Util.validate;
+
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Primitive version of {@link Solver#step(Cell, double)} for the interior
+ * cells of a {@link DenseCellStore}. Stencils are read straight from the
+ * arrays of the store and the virtual cells that {@link Solver} creates for
+ * obstacles (and for the cell under evaluation in the continuity function)
+ * are held in a small stack of registers, so no objects are allocated per
+ * cell. The arithmetic is done in the same order as {@link Solver} so results
+ * agree to the bit.
+ *
+ * <p>
+ * Not thread safe, use one instance per thread.
+ */
+final class DenseSolver implements DoubleUnaryOperator {
+
+    private static final byte FLUID = (byte) CellType.FLUID.ordinal();
+    private static final byte OBSTACLE = (byte) CellType.OBSTACLE.ordinal();
+    private static final byte UNKNOWN = (byte) CellType.UNKNOWN.ordinal();
+
+    // value functions that gradients are taken of, velocity components are
+    // 0 to 2 and gradient dot products are GRADIENT_DOT + axis
+    private static final int PRESSURE = 3;
+    private static final int GRADIENT_DOT = 4;
+
+    private static final double[] GRAVITY = { Util.GRAVITY.east(), Util.GRAVITY.north(),
+            Util.GRAVITY.up() };
+
+    // deep enough for the cell being solved plus two virtual obstacles at
+    // each of the two levels of nested gradient
+    private static final int REGISTERS = 8;
+
+    private final DenseCellStore store;
+    private final int[] strides;
+    private final boolean debug;
+
+    // registers for virtual cells, referenced by ~register
+    private final byte[] type = new byte[REGISTERS];
+    private final double[][] position = new double[3][REGISTERS];
+    private final double[][] velocity = new double[3][REGISTERS];
+    private final double[] pressure = new double[REGISTERS];
+    private final double[] density = new double[REGISTERS];
+    // store index of the cell whose neighbours the register uses
+    private final int[] base = new int[REGISTERS];
+    private int top;
+
+    private final double[] newVelocity = new double[3];
+    // the continuity function terms that do not depend on pressure
+    private double velocityTerm;
+
+    DenseSolver(DenseCellStore store) {
+        this(store, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param store
+     *            values of the previous time level
+     * @param debug
+     *            if true every derivative and new velocity is checked to be
+     *            finite (see {@link Validation#DEBUG})
+     */
+    DenseSolver(DenseCellStore store, boolean debug) {
+        this.store = store;
+        this.debug = debug;
+        this.strides = new int[] { store.stride(Direction.EAST), store.stride(Direction.NORTH),
+                store.stride(Direction.UP) };
+    }
+
+    /**
+     * Sets the slot <code>index</code> of <code>target</code> to the value of
+     * the same slot of the store after <code>timeStepSeconds</code>. The slot
+     * must be an interior cell so that the stencil stays inside the halo.
+     *
+     * @param index
+     *            slot index
+     * @param timeStepSeconds
+     *            time step
+     * @param target
+     *            store with the same dimensions to write to
+     */
+    void step(int index, double timeStepSeconds, DenseCellStore target) {
+        target.type[index] = store.type[index];
+        target.positionEast[index] = store.positionEast[index];
+        target.positionNorth[index] = store.positionNorth[index];
+        target.positionUp[index] = store.positionUp[index];
+        target.density[index] = store.density[index];
+        target.viscosity[index] = store.viscosity[index];
+        target.boundary[index] = store.boundary[index];
+        if (store.type[index] != FLUID) {
+            target.velocityEast[index] = Double.NaN;
+            target.velocityNorth[index] = Double.NaN;
+            target.velocityUp[index] = Double.NaN;
+            target.pressure[index] = Double.NaN;
+        } else if (store.boundary[index]) {
+            target.velocityEast[index] = store.velocityEast[index];
+            target.velocityNorth[index] = store.velocityNorth[index];
+            target.velocityUp[index] = store.velocityUp[index];
+            target.pressure[index] = store.pressure[index];
+        } else {
+            velocityAfterTime(index, timeStepSeconds, target);
+            target.pressure[index] = solveForPressure(index);
+        }
+    }
+
+    /**
+     * Sets the velocity of the slot <code>index</code> of <code>target</code>
+     * to the velocity of the same slot of the store after
+     * <code>timeStepSeconds</code> (without the pressure solve). The slot must
+     * be an interior, non-boundary FLUID cell.
+     *
+     * @param index
+     *            slot index
+     * @param timeStepSeconds
+     *            time step
+     * @param target
+     *            store with the same dimensions to write to
+     */
+    void velocityAfterTime(int index, double timeStepSeconds, DenseCellStore target) {
+        top = 0;
+        for (int axis = 0; axis < 3; axis++) {
+            newVelocity[axis] = check(
+                    velocity(index, axis) + dvdt(index, axis) * timeStepSeconds);
+        }
+        target.velocityEast[index] = newVelocity[0];
+        target.velocityNorth[index] = newVelocity[1];
+        target.velocityUp[index] = newVelocity[2];
+    }
+
+    /**
+     * Returns the part of the continuity function at the interior FLUID slot
+     * <code>index</code> that does not depend on pressure, using the
+     * velocities in the store.
+     *
+     * @param index
+     *            slot index
+     * @return velocity term of the continuity function
+     */
+    double velocityTerm(int index) {
+        top = 0;
+        return velocity(index, 0) * gradient(index, 0, GRADIENT_DOT, false)
+                + velocity(index, 1) * gradient(index, 1, GRADIENT_DOT + 1, false)
+                + velocity(index, 2) * gradient(index, 2, GRADIENT_DOT + 2, false);
+    }
+
+    private double dvdt(int index, int axis) {
+        final double velocityLaplacian = gradient(index, axis, 0, true)
+                + gradient(index, axis, 1, true) + gradient(index, axis, 2, true);
+        final double pressureGradient = gradient(index, axis, PRESSURE, false);
+        final double divergenceOfStress = velocityLaplacian * store.viscosity[index]
+                - pressureGradient + GRAVITY[axis] * store.density[index];
+        if (store.density[index] == 0)
+            throw new RuntimeException("cannot divide by 0");
+        final double advection = gradient(index, axis, 0, false) * velocity(index, 0)
+                + gradient(index, axis, 1, false) * velocity(index, 1)
+                + gradient(index, axis, 2, false) * velocity(index, 2);
+        return divergenceOfStress / store.density[index] - advection;
+    }
+
+    private double solveForPressure(int index) {
+        // register 0 is the cell with its new velocity and trial pressure
+        final int cell = ~0;
+        type[0] = FLUID;
+        for (int axis = 0; axis < 3; axis++) {
+            position[axis][0] = position(index, axis);
+            velocity[axis][0] = newVelocity[axis];
+        }
+        pressure[0] = store.pressure[index];
+        density[0] = store.density[index];
+        base[0] = index;
+        top = 1;
+        // virtual obstacles have zero velocity so this part of the continuity
+        // function does not change with the trial pressure
+        velocityTerm = newVelocity[0] * gradient(cell, 0, GRADIENT_DOT, false)
+                + newVelocity[1] * gradient(cell, 1, GRADIENT_DOT + 1, false)
+                + newVelocity[2] * gradient(cell, 2, GRADIENT_DOT + 2, false);
+        // same parameters as Solver
+        final double p = NewtonsMethod.solveOrNaN(this, store.pressure[index], 100, 10, 15);
+        if (!(p >= 0))
+            unexpected("could not find pressure at " + store.indices(index));
+        return p;
+    }
+
+    /**
+     * The continuity function for the cell in register 0 with the given
+     * pressure.
+     */
+    @Override
+    public double applyAsDouble(double p) {
+        pressure[0] = p;
+        final int cell = ~0;
+        final double pressureLaplacian = gradient(cell, 0, PRESSURE, true)
+                + gradient(cell, 1, PRESSURE, true) + gradient(cell, 2, PRESSURE, true);
+        return pressureLaplacian + velocityTerm;
+    }
+
+    /**
+     * Mirrors Solver.getGradient and Solver.transform for a FLUID cell.
+     */
+    private double gradient(int cell, int axis, int f, boolean second) {
+        if (type(cell) == OBSTACLE)
+            return unexpected("why ask for gradient at obstacle?");
+        final int mark = top;
+        final int b = cell >= 0 ? cell : base[~cell];
+        int c1 = b - strides[axis];
+        int c3 = b + strides[axis];
+        byte t1 = store.type[c1];
+        byte t3 = store.type[c3];
+        if (t3 == OBSTACLE) {
+            c3 = obstacleToValue(c3, cell);
+            t3 = FLUID;
+        }
+        if (t1 == OBSTACLE) {
+            c1 = obstacleToValue(c1, cell);
+            t1 = FLUID;
+        }
+        final double result;
+        if (t1 == FLUID && t3 == FLUID)
+            result = second ? secondDerivative(f, c1, cell, c3, axis)
+                    : firstDerivativeSecondOrder(f, c1, cell, c3, axis);
+        else if (t1 == FLUID && t3 == UNKNOWN)
+            // only have two points so must assume 2nd derivative is zero
+            result = second ? 0 : firstDerivative(f, c1, cell, axis);
+        else if (t1 == UNKNOWN && t3 == FLUID)
+            result = second ? 0 : firstDerivative(f, cell, c3, axis);
+        else
+            result = unexpected("not handled " + store.indices(b) + " along axis " + axis);
+        top = mark;
+        return result;
+    }
+
+    private double firstDerivativeSecondOrder(int f, int c1, int c2, int c3, int axis) {
+        final double a = position(c1, axis);
+        final double b = position(c2, axis);
+        final double c = position(c3, axis);
+        final double h1 = b - a;
+        final double h2 = c - b;
+        final double sqrH1 = h1 * h1;
+        final double sqrH2 = h2 * h2;
+        final double fa = value(f, c1);
+        final double fb = value(f, c2);
+        final double fc = value(f, c3);
+        final double result = ((sqrH2 - sqrH1) * fb + sqrH1 * fc - sqrH2 * fa)
+                / (sqrH1 * h2 + h1 * sqrH2);
+        return check(result);
+    }
+
+    private double firstDerivative(int f, int c1, int c3, int axis) {
+        return check(
+                (value(f, c3) - value(f, c1)) / (position(c3, axis) - position(c1, axis)));
+    }
+
+    private double secondDerivative(int f, int c1, int c2, int c3, int axis) {
+        final double d = position(c3, axis) - position(c1, axis);
+        return check((value(f, c3) + value(f, c1) - 2 * value(f, c2)) / (d * d));
+    }
+
+    private double check(double d) {
+        return debug ? validate(d) : d;
+    }
+
+    private double value(int f, int cell) {
+        if (f < PRESSURE)
+            return velocity(cell, f);
+        else if (f == PRESSURE)
+            return pressure(cell);
+        else {
+            // dot product of the velocity gradient along an axis with the
+            // velocity
+            final int axis = f - GRADIENT_DOT;
+            return gradient(cell, axis, 0, false) * velocity(cell, 0)
+                    + gradient(cell, axis, 1, false) * velocity(cell, 1)
+                    + gradient(cell, axis, 2, false) * velocity(cell, 2);
+        }
+    }
+
+    /**
+     * Pushes a register holding the obstacle at store index
+     * <code>obstacle</code> as a FLUID cell with zero velocity and the pressure
+     * in equilibrium with <code>wrt</code>.
+     */
+    private int obstacleToValue(int obstacle, int wrt) {
+        if (top == REGISTERS)
+            return unexpected("stencil too deep");
+        final int r = top++;
+        final double wrtDensity = density(wrt);
+        for (int axis = 0; axis < 3; axis++) {
+            position[axis][r] = store.position(obstacle, axis);
+            velocity[axis][r] = 0;
+        }
+        final double dot = (position[0][r] - position(wrt, 0)) * (GRAVITY[0] * wrtDensity)
+                + (position[1][r] - position(wrt, 1)) * (GRAVITY[1] * wrtDensity)
+                + (position[2][r] - position(wrt, 2)) * (GRAVITY[2] * wrtDensity);
+        type[r] = FLUID;
+        pressure[r] = pressure(wrt) + dot;
+        density[r] = store.density[obstacle];
+        base[r] = obstacle;
+        return ~r;
+    }
+
+    private byte type(int cell) {
+        return cell >= 0 ? store.type[cell] : type[~cell];
+    }
+
+    private double position(int cell, int axis) {
+        return cell >= 0 ? store.position(cell, axis) : position[axis][~cell];
+    }
+
+    private double velocity(int cell, int axis) {
+        return cell >= 0 ? store.velocity(cell, axis) : velocity[axis][~cell];
+    }
+
+    private double pressure(int cell) {
+        return cell >= 0 ? store.pressure[cell] : pressure[~cell];
+    }
+
+    private double density(int cell) {
+        return cell >= 0 ? store.density[cell] : density[~cell];
+    }
+
+}
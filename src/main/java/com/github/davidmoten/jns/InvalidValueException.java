@@ -0,0 +1,45 @@
+package com.github.davidmoten.jns;
+
+/**
+ * Thrown when a {@link Validation} check finds a NaN or infinite value.
+ */
+public class InvalidValueException extends RuntimeException {
+
+    private static final long serialVersionUID = -3094716618305938712L;
+
+    private final String field;
+    private final Indices indices;
+    private final double value;
+
+    public InvalidValueException(String field, Indices indices, double value) {
+        super("invalid " + field + " at " + indices + ": " + value);
+        this.field = field;
+        this.indices = indices;
+        this.value = value;
+    }
+
+    /**
+     * Returns the name of the field holding the value (for example "u" or
+     * "pressure").
+     *
+     * @return field name
+     */
+    public String field() {
+        return field;
+    }
+
+    /**
+     * Returns the indices of the cell holding the value. Grids indexed by i, j
+     * and k map them to east, north and up.
+     *
+     * @return indices of the cell
+     */
+    public Indices indices() {
+        return indices;
+    }
+
+    public double value() {
+        return value;
+    }
+
+}
@@ -16,6 +16,20 @@ public class Matrix {
         return Vector.create(row1.dotProduct(v), row2.dotProduct(v), row3.dotProduct(v));
     }
 
+    /**
+     * Sets <code>out</code> to this matrix times <code>v</code> without
+     * allocating.
+     *
+     * @param v
+     *            vector
+     * @param out
+     *            result
+     * @return out
+     */
+    public MutableVector3 times(Vector v, MutableVector3 out) {
+        return out.set(row1.dotProduct(v), row2.dotProduct(v), row3.dotProduct(v));
+    }
+
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
@@ -0,0 +1,80 @@
+package com.github.davidmoten.jns;
+
+/**
+ * Mutable 3x3 matrix for scratch calculations in hot loops, the counterpart of
+ * {@link Matrix}. Rows are indexed by {@link Direction} (east, north, up) in
+ * the same order as the rows of {@link Matrixes#create(java.util.function.Function)}.
+ *
+ * <p>
+ * Not thread safe.
+ */
+public final class Matrix3 {
+
+    private final double[] values = new double[9];
+
+    public Matrix3 setRow(Direction row, double east, double north, double up) {
+        final int r = row.ordinal() * 3;
+        values[r] = east;
+        values[r + 1] = north;
+        values[r + 2] = up;
+        return this;
+    }
+
+    public Matrix3 setRow(Direction row, MutableVector3 v) {
+        return setRow(row, v.east(), v.north(), v.up());
+    }
+
+    public Matrix3 set(Direction row, Direction column, double value) {
+        values[row.ordinal() * 3 + column.ordinal()] = value;
+        return this;
+    }
+
+    public double value(Direction row, Direction column) {
+        return values[row.ordinal() * 3 + column.ordinal()];
+    }
+
+    /**
+     * Sets <code>out</code> to this matrix times the vector with the given
+     * components.
+     *
+     * @param east
+     *            east component
+     * @param north
+     *            north component
+     * @param up
+     *            up component
+     * @param out
+     *            result
+     * @return out
+     */
+    public MutableVector3 times(double east, double north, double up, MutableVector3 out) {
+        final double[] m = values;
+        return out.set(m[0] * east + m[1] * north + m[2] * up,
+                m[3] * east + m[4] * north + m[5] * up, m[6] * east + m[7] * north + m[8] * up);
+    }
+
+    public MutableVector3 times(Vector v, MutableVector3 out) {
+        return times(v.east(), v.north(), v.up(), out);
+    }
+
+    public MutableVector3 times(MutableVector3 v, MutableVector3 out) {
+        return times(v.east(), v.north(), v.up(), out);
+    }
+
+    /**
+     * Returns an immutable copy of this matrix.
+     *
+     * @return copy
+     */
+    public Matrix toMatrix() {
+        final double[] m = values;
+        return new Matrix(Vector.create(m[0], m[1], m[2]), Vector.create(m[3], m[4], m[5]),
+                Vector.create(m[6], m[7], m[8]));
+    }
+
+    @Override
+    public String toString() {
+        return toMatrix().toString();
+    }
+
+}
@@ -1,7 +1,14 @@
 package com.github.davidmoten.jns;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 
@@ -12,32 +19,174 @@ public class Mesh {
 
     private static Logger log = LoggerFactory.getLogger(Mesh.class);
 
+    // tiles are columns of TILE_SIZE x TILE_SIZE cells in the east-north plane
+    private static final int TILE_SIZE = 16;
+
     private final double cellSizeEast;
     private final double cellSizeNorth;
     private final double cellSizeUp;
 
-    private final ConcurrentHashMap<Indices, Cell> cells = new ConcurrentHashMap<>();
+    private final Map<Indices, Cell> cells;
     private final Function<Indices, CellData> creator;
+    // present when cells (and the surrounding halo) are held in flat arrays
+    private volatile Optional<DenseCellStore> store;
+    // present when the mesh (or the mesh it was stepped from) is dense
+    private final Optional<Extent> extent;
+    // the mesh at time zero, cell types do not change between time steps
+    private final Mesh root;
+    private final CachePolicy cachePolicy;
+    private final Validation validation;
+    // the time level this mesh was stepped from, null once released
+    private final AtomicReference<Mesh> parent;
+    // present when stepped under CachePolicy.dependencyCone(), cells are then
+    // evaluated from an earlier level rather than from the parent
+    private final Optional<Lineage> lineage;
+    private final AtomicInteger fluidCellsCached = new AtomicInteger();
+    // number of passes from the anchor made by prefetch
+    private final AtomicInteger lineageEvaluations = new AtomicInteger();
 
     private Mesh(Function<Indices, CellData> creator, double cellSizeEast, double cellSizeNorth,
-            double cellSizeUp) {
+            double cellSizeUp, Optional<DenseCellStore> store, Optional<Extent> extent,
+            Optional<Mesh> root, CachePolicy cachePolicy, Validation validation,
+            AtomicReference<Mesh> parent, Optional<Lineage> lineage) {
         this.creator = creator;
         this.cellSizeEast = cellSizeEast;
         this.cellSizeNorth = cellSizeNorth;
         this.cellSizeUp = cellSizeUp;
+        this.store = store;
+        this.extent = extent;
+        this.root = root.orElse(this);
+        this.cachePolicy = cachePolicy;
+        this.validation = validation;
+        this.parent = parent;
+        this.lineage = lineage;
+        this.cells = cachePolicy.createCache();
     }
 
     public Collection<Cell> cells() {
-        return cells.values();
+        final Optional<DenseCellStore> store = this.store;
+        if (store.isPresent()) {
+            final DenseCellStore s = store.get();
+            final List<Cell> list = new ArrayList<>(s.size());
+            for (int i = 0; i < s.size(); i++) {
+                list.add(new DenseCell(this, s, s.east(i), s.north(i), s.up(i)));
+            }
+            return list;
+        } else
+            return cells.values();
     }
 
     public Cell cell(int indexEast, int indexNorth, int indexUp) {
+        final Optional<DenseCellStore> store = this.store;
+        if (store.isPresent() && store.get().contains(indexEast, indexNorth, indexUp)) {
+            // no key allocation or hashing for cells in the dense store
+            return new DenseCell(this, store.get(), indexEast, indexNorth, indexUp);
+        }
         final Indices indices = new Indices(indexEast, indexNorth, indexUp);
-        if (cells.get(indices) == null) {
-            final CellData cellData = creator.apply(indices);
-            cells.putIfAbsent(indices, new MeshCell(this, indexEast, indexNorth, indexUp, cellData));
+        final Cell cached = cells.get(indices);
+        if (cached != null)
+            return cached;
+        if (lineage.isPresent()) {
+            // evaluate the cells around this one in the same pass from the
+            // anchor rather than one pass per cell read
+            prefetch(batch(indices));
+            final Cell evaluated = cells.get(indices);
+            if (evaluated != null)
+                return evaluated;
+        }
+        final CellData cellData = creator.apply(indices);
+        final Cell cell = new MeshCell(this, indexEast, indexNorth, indexUp, cellData);
+        // the cache may evict so return what we put rather than get again
+        final Cell existing = cells.putIfAbsent(indices, cell);
+        if (existing != null)
+            return existing;
+        if (cell.type() == CellType.FLUID)
+            fluidCellCached(indexEast, indexNorth, indexUp);
+        return cell;
+    }
+
+    private void fluidCellCached(int indexEast, int indexNorth, int indexUp) {
+        if (cachePolicy.releasesCompletedLevels() && parent.get() != null && extent.isPresent()) {
+            final Extent e = extent.get();
+            if (e.contains(indexEast, indexNorth, indexUp)
+                    && fluidCellsCached.incrementAndGet() == e.fluidCells) {
+                release();
+            }
+        }
+    }
+
+    /**
+     * Called once every FLUID cell in the extent has been evaluated. Moves the
+     * extent into flat arrays and drops the reference to the previous time
+     * level.
+     */
+    private synchronized void release() {
+        final Extent e = extent.get();
+        final DenseCellStore s = new DenseCellStore(e.cellsEast, e.cellsNorth, e.cellsUp);
+        for (int i = 0; i < s.size(); i++) {
+            final Indices indices = s.indices(i);
+            final Cell cell = cells.get(indices);
+            // all fluid cells are cached so others come from time zero
+            s.set(i, cell != null ? cell : root.cell(indices));
         }
-        return cells.get(indices);
+        store = Optional.of(s);
+        cells.keySet().removeIf(i -> s.contains(i.east(), i.north(), i.up()));
+        parent.set(null);
+        log.debug("released previous time level");
+    }
+
+    // Visible for testing
+    boolean isReleased() {
+        return parent.get() == null;
+    }
+
+    Mesh root() {
+        return root;
+    }
+
+    // Visible for testing
+    int earlierLevelsReachable() {
+        int count = 0;
+        Mesh m = this;
+        while (true) {
+            final Mesh p = m.parent.get();
+            final Mesh next = p != null ? p : m.lineage.map(l -> l.anchor).orElse(null);
+            if (next == null)
+                return count;
+            count++;
+            m = next;
+        }
+    }
+
+    // Visible for testing
+    int cachedCells() {
+        return cells.size();
+    }
+
+    // Visible for testing
+    int lineageEvaluations() {
+        return lineageEvaluations.get();
+    }
+
+    /**
+     * Returns the packed stencil classes of a cell of this mesh. Cell types do
+     * not change over time so they are worked out once by the cell of the mesh
+     * at time zero.
+     */
+    int stencils(Cell cell, int indexEast, int indexNorth, int indexUp) {
+        if (root == this)
+            return Stencil.classify(cell);
+        else
+            return root.cell(indexEast, indexNorth, indexUp).stencils();
+    }
+
+    Validation validation() {
+        return validation;
+    }
+
+    // Visible for testing
+    Optional<DenseCellStore> store() {
+        return store;
     }
 
     public Cell cell(Indices ind) {
@@ -54,6 +203,10 @@ public class Mesh {
         private double cellSizeEast;
         private double cellSizeNorth;
         private double cellSizeUp;
+        private Optional<Extent> extent = Optional.empty();
+        private CachePolicy cachePolicy = CachePolicy.unbounded();
+        private Validation validation = Validation.SWEEP;
+        private Optional<Mesh> root = Optional.empty();
 
         private Builder() {
         }
@@ -85,11 +238,160 @@ public class Mesh {
             return this;
         }
 
+        /**
+         * Stores the cells with indices <code>0..cellsEast-1</code>,
+         * <code>0..cellsNorth-1</code>, <code>0..cellsUp-1</code> and a ghost
+         * ring around them in flat primitive arrays instead of a map. The
+         * values are read from the creator once when the mesh is built. Cells
+         * outside of that block are still obtained from the creator on demand.
+         *
+         * @param cellsEast
+         *            number of cells in the east direction
+         * @param cellsNorth
+         *            number of cells in the north direction
+         * @param cellsUp
+         *            number of cells in the up direction
+         * @return this
+         */
+        public Builder dense(int cellsEast, int cellsNorth, int cellsUp) {
+            this.extent = Optional.of(new Extent(cellsEast, cellsNorth, cellsUp, 0));
+            return this;
+        }
+
+        /**
+         * Sets how cells are cached in this mesh and in the meshes stepped
+         * from it. Defaults to {@link CachePolicy#unbounded()}.
+         *
+         * @param cachePolicy
+         *            cache policy
+         * @return this
+         */
+        public Builder cachePolicy(CachePolicy cachePolicy) {
+            this.cachePolicy = cachePolicy;
+            return this;
+        }
+
+        /**
+         * Sets how the values of cells stepped from this mesh are checked to
+         * be finite. Defaults to {@link Validation#SWEEP}.
+         *
+         * @param validation
+         *            validation
+         * @return this
+         */
+        public Builder validation(Validation validation) {
+            this.validation = validation;
+            return this;
+        }
+
+        /**
+         * Marks the built mesh as a time level of <code>mesh</code> so that
+         * cell types (and stencil classes) are read from the mesh at time zero.
+         *
+         * @param mesh
+         *            mesh the built mesh was stepped from
+         * @return this
+         */
+        Builder steppedFrom(Mesh mesh) {
+            this.root = Optional.of(mesh.root);
+            return this;
+        }
+
         public Mesh build() {
-            return new Mesh(creator, cellSizeEast, cellSizeNorth, cellSizeUp);
+            final Optional<DenseCellStore> store = extent.map(
+                    e -> DenseCellStore.create(e.cellsEast, e.cellsNorth, e.cellsUp, creator));
+            final Optional<Extent> ext = store.map(s -> new Extent(s.cellsEast(), s.cellsNorth(),
+                    s.cellsUp(), s.count(CellType.FLUID)));
+            return new Mesh(creator, cellSizeEast, cellSizeNorth, cellSizeUp, store, ext,
+                    root, cachePolicy, validation, new AtomicReference<>(), Optional.empty());
         }
     }
 
+    /**
+     * Returns a mesh with the same cells as this one that caches cells
+     * according to <code>cachePolicy</code>. Meshes stepped from the returned
+     * mesh use the same policy.
+     *
+     * @param cachePolicy
+     *            cache policy
+     * @return mesh using the given cache policy
+     */
+    public Mesh withCachePolicy(CachePolicy cachePolicy) {
+        return new Mesh(creator, cellSizeEast, cellSizeNorth, cellSizeUp, store, extent,
+                root == this ? Optional.empty() : Optional.of(root), cachePolicy, validation,
+                parent, lineage);
+    }
+
+    /**
+     * Returns a mesh with the same cells as this one whose cells are stepped
+     * with the given validation. Meshes stepped from the returned mesh use the
+     * same validation.
+     *
+     * @param validation
+     *            validation
+     * @return mesh using the given validation
+     */
+    public Mesh withValidation(Validation validation) {
+        return new Mesh(creator, cellSizeEast, cellSizeNorth, cellSizeUp, store, extent,
+                root == this ? Optional.empty() : Optional.of(root), cachePolicy, validation,
+                parent, lineage);
+    }
+
+    /**
+     * Returns a copy of the velocity and pressure of every slot of the dense
+     * store of this mesh (including the ghost ring) as a {@link Checkpoint}.
+     * The mesh does not keep the simulated time so the time is 0.
+     *
+     * @return checkpoint
+     * @throws IllegalStateException
+     *             if the mesh is not dense, see {@link #materialize(ForkJoinPool)}
+     */
+    public Checkpoint checkpoint() {
+        final DenseCellStore s = store
+                .orElseThrow(() -> new IllegalStateException("only a dense mesh can be checkpointed, "
+                        + "build it using Builder.dense() or materialize it"));
+        return Checkpoint.builder() //
+                .gridSize(s.cellsEast(), s.cellsNorth(), s.cellsUp()) //
+                .dx(cellSizeEast) //
+                .dy(cellSizeNorth) //
+                .dz(cellSizeUp) //
+                .field("velocityEast", s.velocityEast.clone()) //
+                .field("velocityNorth", s.velocityNorth.clone()) //
+                .field("velocityUp", s.velocityUp.clone()) //
+                .field("pressure", s.pressure.clone()) //
+                .build();
+    }
+
+    /**
+     * Returns a dense mesh with the cells of this dense mesh but the velocities
+     * and pressures of <code>checkpoint</code>, for example to restart a run
+     * from a mesh built the way the checkpointed mesh was at time zero.
+     *
+     * @param checkpoint
+     *            checkpoint of a dense mesh with the same number of cells
+     * @return restored mesh
+     * @throws IllegalStateException
+     *             if the mesh is not dense
+     */
+    public Mesh restore(Checkpoint checkpoint) {
+        final DenseCellStore s = store
+                .orElseThrow(() -> new IllegalStateException("only a dense mesh can be restored, "
+                        + "build it using Builder.dense() or materialize it"))
+                .copy();
+        if (checkpoint.nx() != s.cellsEast() || checkpoint.ny() != s.cellsNorth()
+                || checkpoint.nz() != s.cellsUp())
+            throw new IllegalArgumentException(
+                    "checkpoint size does not match the dense extent of the mesh");
+        final int size = s.size();
+        System.arraycopy(checkpoint.field("velocityEast", size), 0, s.velocityEast, 0, size);
+        System.arraycopy(checkpoint.field("velocityNorth", size), 0, s.velocityNorth, 0, size);
+        System.arraycopy(checkpoint.field("velocityUp", size), 0, s.velocityUp, 0, size);
+        System.arraycopy(checkpoint.field("pressure", size), 0, s.pressure, 0, size);
+        return new Mesh(nonFluidFromRoot(root), cellSizeEast, cellSizeNorth, cellSizeUp,
+                Optional.of(s), extent, Optional.of(root), cachePolicy, validation,
+                new AtomicReference<>(), Optional.empty());
+    }
+
     public double cellSizeEast() {
         return cellSizeEast;
     }
@@ -111,55 +413,418 @@ public class Mesh {
         return m;
     }
 
-    public Mesh step(double timeStepSeconds) {
-        final Mesh m = this;
-        return new Mesh(i -> new CellData() {
-            final Solver solver = new Solver();
-            final AtomicReference<VelocityPressure> vp = new AtomicReference<VelocityPressure>();
-
-            @Override
-            public CellType type() {
-                return m.cell(i).type();
-            }
+    /**
+     * Returns the velocity and pressure at each of the given FLUID cells after
+     * <code>numberOfSteps</code> time steps. Only the cells the probes depend
+     * on are evaluated (see {@link MeshQuery}).
+     *
+     * @param probes
+     *            indices of FLUID cells
+     * @param timeStepSeconds
+     *            time step
+     * @param numberOfSteps
+     *            number of steps
+     * @return velocity and pressure keyed by probe
+     */
+    public Map<Indices, VelocityPressure> query(Collection<Indices> probes, double timeStepSeconds,
+            int numberOfSteps) {
+        return query().probes(probes).timeStepSeconds(timeStepSeconds).steps(numberOfSteps).run();
+    }
 
-            @Override
-            public Vector position() {
-                return m.cell(i).position();
-            }
+    public MeshQuery.Builder query() {
+        return MeshQuery.builder(this);
+    }
 
-            @Override
-            public double pressure() {
-                return velocityPressure().getPressure();
-            }
+    /**
+     * Returns the mesh after <code>numberOfSteps</code> time steps where every
+     * time level is evaluated eagerly across the threads of <code>pool</code>
+     * (see {@link #materialize(ForkJoinPool)}). Gives the same values as
+     * {@link #stepMultiple(double, long)} but only two time levels are held in
+     * memory at once.
+     *
+     * @param timeStepSeconds
+     *            time step
+     * @param numberOfSteps
+     *            number of steps
+     * @param pool
+     *            pool to evaluate cells on
+     * @return mesh after the given number of steps
+     */
+    public Mesh stepMultipleParallel(double timeStepSeconds, long numberOfSteps,
+            ForkJoinPool pool) {
+        Mesh m = materialize(pool);
+        for (int i = 0; i < numberOfSteps; i++) {
+            log.info("step " + i);
+            m = m.step(timeStepSeconds).materialize(pool, Optional.of(timeStepSeconds));
+        }
+        return m;
+    }
 
-            @Override
-            public Vector velocity() {
-                return velocityPressure().getVelocity();
+    /**
+     * As {@link #stepMultipleParallel(double, long, ForkJoinPool)} but the
+     * pressure of each time level is found for all FLUID cells at once by
+     * <code>projection</code> rather than cell by cell.
+     *
+     * @param timeStepSeconds
+     *            time step
+     * @param numberOfSteps
+     *            number of steps
+     * @param pool
+     *            pool to evaluate cells on
+     * @param projection
+     *            global pressure solver
+     * @return mesh after the given number of steps
+     */
+    public Mesh stepMultipleParallel(double timeStepSeconds, long numberOfSteps,
+            ForkJoinPool pool, PressureProjection projection) {
+        Mesh m = materialize(pool);
+        for (int i = 0; i < numberOfSteps; i++) {
+            log.info("step " + i);
+            final DenseCellStore s = projection.step(m.store.get(), timeStepSeconds, pool);
+            if (validation != Validation.OFF)
+                Sweep.check(s);
+            m = new Mesh(nonFluidFromRoot(root), cellSizeEast, cellSizeNorth, cellSizeUp,
+                    Optional.of(s), extent, Optional.of(root), cachePolicy, validation,
+                    new AtomicReference<>(), Optional.empty());
+        }
+        return m;
+    }
+
+    /**
+     * Evaluates every cell of the dense extent (including the ghost ring) on
+     * <code>pool</code> and returns a dense mesh holding the values. The
+     * extent is split into tiles of columns that are evaluated concurrently.
+     * Only meshes built with {@link Builder#dense(int, int, int)} (or stepped
+     * from one) have an extent.
+     *
+     * <p>
+     * The returned mesh does not reference earlier time levels. Lookups
+     * outside of the extent are answered from the mesh at time zero and so
+     * must not be FLUID cells.
+     *
+     * @param pool
+     *            pool to evaluate cells on
+     * @return dense mesh with the values of this mesh
+     */
+    public Mesh materialize(ForkJoinPool pool) {
+        return materialize(pool, Optional.empty());
+    }
+
+    /**
+     * As {@link #materialize(ForkJoinPool)} but if this mesh was stepped by
+     * <code>timeStepSeconds</code> from a dense mesh then the interior cells
+     * are calculated straight from the arrays of the previous time level with
+     * {@link DenseSolver}.
+     */
+    private Mesh materialize(ForkJoinPool pool, Optional<Double> timeStepSeconds) {
+        if (store.isPresent())
+            return this;
+        if (!extent.isPresent())
+            throw new IllegalStateException(
+                    "mesh has no extent to materialize, build it using Builder.dense()");
+        final Extent e = extent.get();
+        final DenseCellStore s = new DenseCellStore(e.cellsEast, e.cellsNorth, e.cellsUp);
+        final Mesh p = previousLevel();
+        final Optional<DenseCellStore> previous;
+        if (timeStepSeconds.isPresent() && p != null)
+            previous = p.store;
+        else
+            previous = Optional.empty();
+        if (!previous.isPresent())
+            // one pass over the dependency cone rather than one per cell
+            prefetch(extentFluidCells(e));
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        for (int east = -DenseCellStore.HALO; east < e.cellsEast
+                + DenseCellStore.HALO; east += TILE_SIZE) {
+            for (int north = -DenseCellStore.HALO; north < e.cellsNorth
+                    + DenseCellStore.HALO; north += TILE_SIZE) {
+                final int tileEast = east;
+                final int tileNorth = north;
+                tasks.add(() -> {
+                    evaluateTile(s, tileEast, tileNorth, previous, timeStepSeconds);
+                    return null;
+                });
             }
+        }
+        Util.invokeAll(pool, tasks);
+        if (validation != Validation.OFF)
+            Sweep.check(s);
+        return new Mesh(nonFluidFromRoot(root), cellSizeEast, cellSizeNorth, cellSizeUp,
+                Optional.of(s), extent, Optional.of(root), cachePolicy, validation,
+                new AtomicReference<>(), Optional.empty());
+    }
+
+    // the level one step before this one if it is held
+    private Mesh previousLevel() {
+        final Mesh p = parent.get();
+        if (p != null)
+            return p;
+        else if (lineage.isPresent() && lineage.get().steps() == 1)
+            return lineage.get().anchor;
+        else
+            return null;
+    }
 
-            @Override
-            public double density() {
-                return m.cell(i).density();
+    private List<Indices> extentFluidCells(Extent e) {
+        final List<Indices> list = new ArrayList<>();
+        if (!lineage.isPresent())
+            return list;
+        final int h = DenseCellStore.HALO;
+        for (int east = -h; east < e.cellsEast + h; east++) {
+            for (int north = -h; north < e.cellsNorth + h; north++) {
+                for (int up = -h; up < e.cellsUp + h; up++) {
+                    final Indices i = new Indices(east, north, up);
+                    if (root.cell(i).type() == CellType.FLUID)
+                        list.add(i);
+                }
             }
+        }
+        return list;
+    }
+
+    private static Function<Indices, CellData> nonFluidFromRoot(Mesh root) {
+        return i -> {
+            final Cell cell = root.cell(i);
+            if (cell.type() == CellType.FLUID)
+                return Util.unexpected("fluid cell outside of evaluated extent: " + i);
+            else
+                return cell;
+        };
+    }
 
-            @Override
-            public double viscosity() {
-                return m.cell(i).viscosity();
+    private void evaluateTile(DenseCellStore s, int tileEast, int tileNorth,
+            Optional<DenseCellStore> previous, Optional<Double> timeStepSeconds) {
+        final Optional<DenseSolver> solver = previous
+                .map(p -> new DenseSolver(p, validation == Validation.DEBUG));
+        final int maxEast = Math.min(tileEast + TILE_SIZE, s.cellsEast() + DenseCellStore.HALO);
+        final int maxNorth = Math.min(tileNorth + TILE_SIZE,
+                s.cellsNorth() + DenseCellStore.HALO);
+        for (int up = -DenseCellStore.HALO; up < s.cellsUp() + DenseCellStore.HALO; up++) {
+            for (int north = tileNorth; north < maxNorth; north++) {
+                for (int east = tileEast; east < maxEast; east++) {
+                    if (solver.isPresent() && s.isInterior(east, north, up)) {
+                        solver.get().step(s.index(east, north, up), timeStepSeconds.get(), s);
+                        continue;
+                    }
+                    final Indices indices = new Indices(east, north, up);
+                    // reuse a cell already evaluated lazily if there is one
+                    final Cell cell = cells.get(indices);
+                    s.set(s.index(east, north, up), cell != null ? cell : creator.apply(indices));
+                }
             }
+        }
+    }
+
+    public Mesh step(double timeStepSeconds) {
+        if (cachePolicy.evaluatesDependencyCone())
+            return stepFromAnchor(timeStepSeconds);
+        final AtomicReference<Mesh> parent = new AtomicReference<>(this);
+        // cell attributes other than velocity and pressure do not change over
+        // time so are read from time zero rather than the previous time level
+        final Mesh r = root;
+        final Function<Indices, CellData> released = nonFluidFromRoot(r);
+        final Validation validation = this.validation;
+        final Solver solver = new Solver(validation);
+        return new Mesh(i -> {
+            final Mesh m = parent.get();
+            if (m == null)
+                return released.apply(i);
+            return new CellData() {
+                final AtomicReference<VelocityPressure> vp = new AtomicReference<>();
+
+                @Override
+                public CellType type() {
+                    return r.cell(i).type();
+                }
+
+                @Override
+                public Vector position() {
+                    return r.cell(i).position();
+                }
+
+                @Override
+                public double pressure() {
+                    return velocityPressure().getPressure();
+                }
+
+                @Override
+                public Vector velocity() {
+                    return velocityPressure().getVelocity();
+                }
+
+                @Override
+                public double density() {
+                    return r.cell(i).density();
+                }
 
-            private VelocityPressure velocityPressure() {
-                // retrieve or if not present calculate, cache and return
-                if (vp.get() == null) {
-                    vp.compareAndSet(null, solver.step(m.cell(i), timeStepSeconds));
+                @Override
+                public double viscosity() {
+                    return r.cell(i).viscosity();
+                }
+
+                private VelocityPressure velocityPressure() {
+                    // retrieve or if not present calculate, cache and return
+                    if (vp.get() == null) {
+                        final VelocityPressure value = solver.step(m.cell(i), timeStepSeconds);
+                        if (validation != Validation.OFF)
+                            Sweep.check(i, value);
+                        vp.compareAndSet(null, value);
+                    }
+                    return vp.get();
+                }
+
+                @Override
+                public boolean isBoundary() {
+                    return r.cell(i).isBoundary();
+                }
+
+            };
+        }, cellSizeEast, cellSizeNorth, cellSizeUp, Optional.empty(), extent, Optional.of(root),
+                cachePolicy, validation, parent, Optional.empty());
+    }
+
+    /**
+     * Step under {@link CachePolicy#dependencyCone()}. The new level holds its
+     * anchor (this level's anchor if this level was stepped under the policy,
+     * otherwise this level) and the time steps from it instead of a reference
+     * to this level.
+     */
+    private Mesh stepFromAnchor(double timeStepSeconds) {
+        final Lineage l = lineage.map(x -> x.then(timeStepSeconds))
+                .orElseGet(() -> new Lineage(this, new Run(timeStepSeconds, 1, null)));
+        // FLUID cells are evaluated by prefetch
+        return new Mesh(nonFluidFromRoot(root), cellSizeEast, cellSizeNorth, cellSizeUp,
+                Optional.empty(), extent, Optional.of(root), cachePolicy, validation,
+                new AtomicReference<>(), Optional.of(l));
+    }
+
+    /**
+     * Evaluates and caches the FLUID cells of <code>indices</code> that are not
+     * cached yet in one pass from the anchor of this level. Does nothing unless
+     * this level was stepped under {@link CachePolicy#dependencyCone()}.
+     */
+    void prefetch(Collection<Indices> indices) {
+        if (!lineage.isPresent())
+            return;
+        final List<Indices> missing = new ArrayList<>();
+        for (final Indices i : indices) {
+            if (!cells.containsKey(i) && root.cell(i).type() == CellType.FLUID)
+                missing.add(i);
+        }
+        if (missing.isEmpty())
+            return;
+        lineageEvaluations.incrementAndGet();
+        final Map<Indices, VelocityPressure> values = lineage.get().evaluate(missing);
+        for (final Indices i : missing) {
+            cells.putIfAbsent(i, new MeshCell(this, i.east(), i.north(), i.up(),
+                    new MeshQuery.LevelCellData(root.cell(i), values.get(i))));
+        }
+    }
+
+    /**
+     * Returns the cells evaluated with <code>i</code> when it is read from a
+     * level stepped under {@link CachePolicy#dependencyCone()}: the FLUID cells
+     * of the extent if <code>i</code> is in it (as for
+     * {@link #materialize(ForkJoinPool)}), otherwise of the cube of
+     * <code>TILE_SIZE</code> cells along each axis that contains
+     * <code>i</code>. Reading every cell of a level (as stepping it does) then
+     * takes one pass from the anchor for each extent or cube.
+     */
+    private Collection<Indices> batch(Indices i) {
+        if (extent.isPresent() && extent.get().contains(i.east(), i.north(), i.up()))
+            return extentFluidCells(extent.get());
+        final int east = Math.floorDiv(i.east(), TILE_SIZE) * TILE_SIZE;
+        final int north = Math.floorDiv(i.north(), TILE_SIZE) * TILE_SIZE;
+        final int up = Math.floorDiv(i.up(), TILE_SIZE) * TILE_SIZE;
+        final List<Indices> list = new ArrayList<>();
+        for (int e = east; e < east + TILE_SIZE; e++) {
+            for (int n = north; n < north + TILE_SIZE; n++) {
+                for (int u = up; u < up + TILE_SIZE; u++) {
+                    final Indices j = new Indices(e, n, u);
+                    if (root.cell(j).type() == CellType.FLUID)
+                        list.add(j);
                 }
-                return vp.get();
             }
+        }
+        return list;
+    }
+
+    /**
+     * A time level given by the time steps from an earlier level that can
+     * evaluate its own cells (the anchor). The time steps are held as runs of
+     * equal steps so a level holds one small object per change of time step
+     * rather than a reference to each earlier level.
+     */
+    private static final class Lineage {
+        final Mesh anchor;
+        final Run last;
+
+        Lineage(Mesh anchor, Run last) {
+            this.anchor = anchor;
+            this.last = last;
+        }
+
+        Lineage then(double timeStepSeconds) {
+            if (last.timeStepSeconds == timeStepSeconds)
+                return new Lineage(anchor,
+                        new Run(timeStepSeconds, last.steps + 1, last.previous));
+            else
+                return new Lineage(anchor, new Run(timeStepSeconds, 1, last));
+        }
+
+        int steps() {
+            int steps = 0;
+            for (Run run = last; run != null; run = run.previous)
+                steps += run.steps;
+            return steps;
+        }
 
-            @Override
-            public boolean isBoundary() {
-                return m.cell(i).isBoundary();
+        Map<Indices, VelocityPressure> evaluate(Collection<Indices> cells) {
+            final int steps = steps();
+            final double[] timeSteps = new double[steps];
+            int end = steps;
+            for (Run run = last; run != null; run = run.previous) {
+                Arrays.fill(timeSteps, end - run.steps, end, run.timeStepSeconds);
+                end -= run.steps;
             }
+            return MeshQuery.builder(anchor).probes(cells)
+                    .timeStepSeconds(step -> timeSteps[step - 1]).steps(steps).run();
+        }
+    }
+
+    /**
+     * A number of equal time steps following the steps of <code>previous</code>.
+     */
+    private static final class Run {
+        final double timeStepSeconds;
+        final int steps;
+        final Run previous;
+
+        Run(double timeStepSeconds, int steps, Run previous) {
+            this.timeStepSeconds = timeStepSeconds;
+            this.steps = steps;
+            this.previous = previous;
+        }
+    }
 
-        }, cellSizeEast, cellSizeNorth, cellSizeUp);
+    private static final class Extent {
+        final int cellsEast;
+        final int cellsNorth;
+        final int cellsUp;
+        // number of FLUID cells in the extent including the halo
+        final int fluidCells;
+
+        Extent(int cellsEast, int cellsNorth, int cellsUp, int fluidCells) {
+            this.cellsEast = cellsEast;
+            this.cellsNorth = cellsNorth;
+            this.cellsUp = cellsUp;
+            this.fluidCells = fluidCells;
+        }
+
+        boolean contains(int indexEast, int indexNorth, int indexUp) {
+            final int h = DenseCellStore.HALO;
+            return indexEast >= -h && indexEast < cellsEast + h && indexNorth >= -h
+                    && indexNorth < cellsNorth + h && indexUp >= -h && indexUp < cellsUp + h;
+        }
     }
 }
@@ -20,6 +20,8 @@ public class MeshCell implements Cell {
     private final double density;
     private final double viscosity;
     private final boolean isBoundary;
+    // written once, a race only works the classes out twice
+    private int stencils = Stencil.UNCLASSIFIED;
 
     MeshCell(Mesh mesh, int indexEast, int indexNorth, int indexUp, CellData cellData) {
         this.mesh = mesh;
@@ -87,4 +89,14 @@ public class MeshCell implements Cell {
         return isBoundary;
     }
 
+    @Override
+    public int stencils() {
+        int s = stencils;
+        if (s == Stencil.UNCLASSIFIED) {
+            s = mesh.stencils(this, indexEast, indexNorth, indexUp);
+            stencils = s;
+        }
+        return s;
+    }
+
 }
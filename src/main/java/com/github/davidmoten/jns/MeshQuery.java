@@ -0,0 +1,296 @@
+package com.github.davidmoten.jns;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.IntToDoubleFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Calculates velocity and pressure at a few probe cells after a number of time
+ * steps without evaluating the whole mesh. The dependency cone of the probes is
+ * worked out up front from the {@link Solver} stencil and then evaluated one
+ * time level at a time (oldest first) so there is no deep recursion and only
+ * two time levels are held in memory.
+ */
+public final class MeshQuery {
+
+    private static final Logger log = LoggerFactory.getLogger(MeshQuery.class);
+
+    private static final int CHUNK_SIZE = 256;
+
+    private final Mesh mesh;
+    // cell types and other attributes that do not change over time
+    private final Mesh root;
+    private final Collection<Indices> probes;
+    // the time step of each step (1 to steps)
+    private final IntToDoubleFunction timeStepSeconds;
+    private final int steps;
+    private final ForkJoinPool pool;
+    private final ProgressListener listener;
+
+    private MeshQuery(Mesh mesh, Collection<Indices> probes, IntToDoubleFunction timeStepSeconds,
+            int steps, ForkJoinPool pool, ProgressListener listener) {
+        this.mesh = mesh;
+        this.root = mesh.root();
+        this.probes = probes;
+        this.timeStepSeconds = timeStepSeconds;
+        this.steps = steps;
+        this.pool = pool;
+        this.listener = listener;
+    }
+
+    /**
+     * Notified as each time level of a query is evaluated.
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        /**
+         * Called after a time level has been evaluated.
+         *
+         * @param step
+         *            the time step just evaluated (1 to steps)
+         * @param steps
+         *            the total number of steps in the query
+         * @param cells
+         *            the number of cells evaluated for the time step
+         */
+        void stepEvaluated(int step, int steps, int cells);
+    }
+
+    public static Builder builder(Mesh mesh) {
+        return new Builder(mesh);
+    }
+
+    public static final class Builder {
+
+        private final Mesh mesh;
+        private Collection<Indices> probes = Collections.emptyList();
+        private IntToDoubleFunction timeStepSeconds = step -> 0;
+        private int steps;
+        private ForkJoinPool pool = ForkJoinPool.commonPool();
+        private ProgressListener listener = (step, steps, cells) -> {
+        };
+
+        private Builder(Mesh mesh) {
+            this.mesh = mesh;
+        }
+
+        public Builder probes(Collection<Indices> probes) {
+            this.probes = probes;
+            return this;
+        }
+
+        public Builder timeStepSeconds(double timeStepSeconds) {
+            this.timeStepSeconds = step -> timeStepSeconds;
+            return this;
+        }
+
+        /**
+         * Sets the time step of each step where the steps are not all equal.
+         *
+         * @param timeStepSeconds
+         *            returns the time step of a step (1 to steps)
+         * @return this
+         */
+        Builder timeStepSeconds(IntToDoubleFunction timeStepSeconds) {
+            this.timeStepSeconds = timeStepSeconds;
+            return this;
+        }
+
+        public Builder steps(int steps) {
+            this.steps = steps;
+            return this;
+        }
+
+        public Builder pool(ForkJoinPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        public Builder listener(ProgressListener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        public MeshQuery build() {
+            if (steps < 0)
+                throw new IllegalArgumentException("steps must be 0 or more");
+            return new MeshQuery(mesh, probes, timeStepSeconds, steps, pool, listener);
+        }
+
+        public Map<Indices, VelocityPressure> run() {
+            return build().run();
+        }
+    }
+
+    /**
+     * Returns the velocity and pressure at each probe after the configured
+     * number of steps.
+     *
+     * @return velocity and pressure keyed by probe
+     */
+    public Map<Indices, VelocityPressure> run() {
+        for (final Indices probe : probes) {
+            if (root.cell(probe).type() != CellType.FLUID)
+                throw new IllegalArgumentException("probe is not a FLUID cell: " + probe);
+        }
+        final List<Set<Indices>> cone = dependencyCone();
+        // evaluated together if the mesh is itself a lazy time level
+        mesh.prefetch(cone.get(0));
+        Map<Indices, VelocityPressure> values = Collections.emptyMap();
+        Mesh previous = mesh;
+        for (int step = 1; step <= steps; step++) {
+            values = evaluate(previous, cone.get(step), timeStepSeconds.applyAsDouble(step));
+            previous = levelMesh(values);
+            listener.stepEvaluated(step, steps, values.size());
+            log.debug("evaluated step {} of {}, cells={}", step, steps, values.size());
+        }
+        final Map<Indices, VelocityPressure> result = new ConcurrentHashMap<>();
+        for (final Indices probe : probes) {
+            final Cell cell = previous.cell(probe);
+            result.put(probe, new VelocityPressure(cell.velocity(), cell.pressure()));
+        }
+        return result;
+    }
+
+    /**
+     * Returns for each time step the FLUID cells that must be evaluated at that
+     * step. Index 0 holds the cells read from the mesh itself.
+     */
+    private List<Set<Indices>> dependencyCone() {
+        final List<Set<Indices>> cone = new ArrayList<>(Collections.nCopies(steps + 1, null));
+        Set<Indices> level = new HashSet<>(probes);
+        for (int step = steps; step >= 1; step--) {
+            cone.set(step, level);
+            final Set<Indices> previous = new HashSet<>();
+            for (final Indices i : level) {
+                if (root.cell(i).isBoundary()) {
+                    // boundary cells just carry their values forward
+                    previous.add(i);
+                } else {
+                    addStencil(i, previous);
+                }
+            }
+            level = previous;
+        }
+        cone.set(0, level);
+        return cone;
+    }
+
+    private void addStencil(Indices i, Set<Indices> set) {
+        final int r = Solver.STENCIL_RADIUS;
+        for (int k = -r; k <= r; k++) {
+            addIfFluid(new Indices(i.east() + k, i.north(), i.up()), set);
+            addIfFluid(new Indices(i.east(), i.north() + k, i.up()), set);
+            addIfFluid(new Indices(i.east(), i.north(), i.up() + k), set);
+        }
+    }
+
+    private void addIfFluid(Indices i, Set<Indices> set) {
+        // other cell types are read from the mesh at time zero
+        if (root.cell(i).type() == CellType.FLUID)
+            set.add(i);
+    }
+
+    private Map<Indices, VelocityPressure> evaluate(Mesh previous, Set<Indices> level,
+            double timeStepSeconds) {
+        final Map<Indices, VelocityPressure> values = new ConcurrentHashMap<>(level.size());
+        final List<Indices> list = new ArrayList<>(level);
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        final Validation validation = mesh.validation();
+        final Solver solver = new Solver(validation);
+        for (int start = 0; start < list.size(); start += CHUNK_SIZE) {
+            final List<Indices> chunk = list.subList(start,
+                    Math.min(start + CHUNK_SIZE, list.size()));
+            tasks.add(() -> {
+                for (final Indices i : chunk) {
+                    final VelocityPressure vp = solver.step(previous.cell(i), timeStepSeconds);
+                    if (validation != Validation.OFF)
+                        Sweep.check(i, vp);
+                    values.put(i, vp);
+                }
+                return null;
+            });
+        }
+        Util.invokeAll(pool, tasks);
+        return values;
+    }
+
+    private Mesh levelMesh(Map<Indices, VelocityPressure> values) {
+        final Function<Indices, CellData> creator = i -> {
+            final Cell cell = root.cell(i);
+            final VelocityPressure vp = values.get(i);
+            if (vp != null)
+                return new LevelCellData(cell, vp);
+            else if (cell.type() != CellType.FLUID)
+                return cell;
+            else
+                return Util.unexpected("cell outside of dependency cone: " + i);
+        };
+        return Mesh.builder().creator(creator).cellSizeEast(mesh.cellSizeEast())
+                .cellSizeNorth(mesh.cellSizeNorth()).cellSizeUp(mesh.cellSizeUp())
+                .steppedFrom(mesh).build();
+    }
+
+    /**
+     * A cell of a later time level: the velocity and pressure given, the other
+     * attributes those of the cell at time zero.
+     */
+    static final class LevelCellData implements CellData {
+
+        private final Cell cell;
+        private final VelocityPressure vp;
+
+        LevelCellData(Cell cell, VelocityPressure vp) {
+            this.cell = cell;
+            this.vp = vp;
+        }
+
+        @Override
+        public CellType type() {
+            return cell.type();
+        }
+
+        @Override
+        public Vector position() {
+            return cell.position();
+        }
+
+        @Override
+        public double pressure() {
+            return vp.getPressure();
+        }
+
+        @Override
+        public Vector velocity() {
+            return vp.getVelocity();
+        }
+
+        @Override
+        public double density() {
+            return cell.density();
+        }
+
+        @Override
+        public double viscosity() {
+            return cell.viscosity();
+        }
+
+        @Override
+        public boolean isBoundary() {
+            return cell.isBoundary();
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+package com.github.davidmoten.jns;
+
+/**
+ * Mutable counterpart of {@link Vector} for scratch calculations in hot loops.
+ * Operations update this vector in place and return it so they can be chained
+ * without allocating. Components are not validated as they are set, call
+ * {@link #validate()} when a check is wanted.
+ *
+ * <p>
+ * Not thread safe.
+ */
+public final class MutableVector3 {
+
+    private double east;
+    private double north;
+    private double up;
+
+    public MutableVector3() {
+        this(0, 0, 0);
+    }
+
+    public MutableVector3(double east, double north, double up) {
+        set(east, north, up);
+    }
+
+    public MutableVector3 set(double east, double north, double up) {
+        this.east = east;
+        this.north = north;
+        this.up = up;
+        return this;
+    }
+
+    public MutableVector3 set(Vector v) {
+        return set(v.east(), v.north(), v.up());
+    }
+
+    public MutableVector3 set(MutableVector3 v) {
+        return set(v.east, v.north, v.up);
+    }
+
+    public MutableVector3 set(Direction direction, double value) {
+        if (direction == Direction.EAST)
+            east = value;
+        else if (direction == Direction.NORTH)
+            north = value;
+        else if (direction == Direction.UP)
+            up = value;
+        else
+            throw new RuntimeException("direction " + direction + " not expected");
+        return this;
+    }
+
+    public double value(Direction direction) {
+        if (direction == Direction.EAST)
+            return east;
+        else if (direction == Direction.NORTH)
+            return north;
+        else if (direction == Direction.UP)
+            return up;
+        else
+            throw new RuntimeException("direction " + direction + " not expected");
+    }
+
+    public double east() {
+        return east;
+    }
+
+    public double north() {
+        return north;
+    }
+
+    public double up() {
+        return up;
+    }
+
+    public MutableVector3 add(MutableVector3 v) {
+        return set(east + v.east, north + v.north, up + v.up);
+    }
+
+    public MutableVector3 add(Vector v) {
+        return set(east + v.east(), north + v.north(), up + v.up());
+    }
+
+    public MutableVector3 add(double east, double north, double up) {
+        return set(this.east + east, this.north + north, this.up + up);
+    }
+
+    public MutableVector3 minus(MutableVector3 v) {
+        return set(east - v.east, north - v.north, up - v.up);
+    }
+
+    public MutableVector3 minus(Vector v) {
+        return set(east - v.east(), north - v.north(), up - v.up());
+    }
+
+    public MutableVector3 times(double value) {
+        return set(east * value, north * value, up * value);
+    }
+
+    public MutableVector3 divideBy(double value) {
+        if (value == 0)
+            throw new RuntimeException("cannot divide by 0");
+        return set(east / value, north / value, up / value);
+    }
+
+    public double sum() {
+        return east + north + up;
+    }
+
+    public double dotProduct(MutableVector3 v) {
+        return east * v.east + north * v.north + up * v.up;
+    }
+
+    public double dotProduct(Vector v) {
+        return east * v.east() + north * v.north() + up * v.up();
+    }
+
+    public double magnitude() {
+        return Math.sqrt(east * east + north * north + up * up);
+    }
+
+    /**
+     * Returns true if no component is infinite or NaN.
+     *
+     * @return true if all components are valid
+     */
+    public boolean isValid() {
+        return Util.isValid(east) && Util.isValid(north) && Util.isValid(up);
+    }
+
+    /**
+     * Throws if any component is infinite or NaN (the check {@link Vector}
+     * makes on construction).
+     *
+     * @return this
+     */
+    public MutableVector3 validate() {
+        if (!Util.isValid(east))
+            throw new RuntimeException("east is invalid: " + east);
+        if (!Util.isValid(north))
+            throw new RuntimeException("north is invalid: " + north);
+        if (!Util.isValid(up))
+            throw new RuntimeException("up is invalid: " + up);
+        return this;
+    }
+
+    /**
+     * Returns an immutable copy of this vector.
+     *
+     * @return copy
+     */
+    public Vector toVector() {
+        return Vector.create(east, north, up);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("MutableVector3 [east=");
+        builder.append(east);
+        builder.append(", north=");
+        builder.append(north);
+        builder.append(", up=");
+        builder.append(up);
+        builder.append("]");
+        return builder.toString();
+    }
+
+}
@@ -1,6 +1,7 @@
 package com.github.davidmoten.jns;
 
 import java.util.Optional;
+import java.util.function.DoubleUnaryOperator;
 import java.util.function.Function;
 
 import org.slf4j.Logger;
@@ -12,28 +13,58 @@ public class NewtonsMethod {
 
     public static Optional<Double> solve(Function<Double, Double> f, double initialValue,
             double delta, double precision, int maxIterations) {
+        checkParameters(f, delta, precision, maxIterations);
+        final double x = solveOrNaN(f::apply, initialValue, delta, precision, maxIterations);
+        if (Double.isNaN(x))
+            return Optional.empty();
+        else
+            return Optional.of(x);
+    }
+
+    /**
+     * As {@link #solve(Function, double, double, double, int)} but without
+     * boxing. Returns {@link Double#NaN} if a root within
+     * <code>precision</code> was not found.
+     *
+     * @param f
+     *            function to find a root of
+     * @param initialValue
+     *            starting point
+     * @param delta
+     *            step used to estimate the gradient
+     * @param precision
+     *            maximum absolute value of f at the root
+     * @param maxIterations
+     *            maximum number of iterations
+     * @return root or NaN
+     */
+    public static double solveOrNaN(DoubleUnaryOperator f, double initialValue, double delta,
+            double precision, int maxIterations) {
         double x = initialValue;
         checkParameters(f, delta, precision, maxIterations);
-        double fx = f.apply(x);
+        double fx = f.applyAsDouble(x);
         int i = 1;
-        log.debug("x={}, fx={}", x, fx);
-        while (Math.abs(fx) > precision && i <= maxIterations) {
+        final boolean debug = log.isDebugEnabled();
+        if (debug)
             log.debug("x={}, fx={}", x, fx);
-            final double gradient = (f.apply(x + delta) - fx) / delta;
+        while (Math.abs(fx) > precision && i <= maxIterations) {
+            if (debug)
+                log.debug("x={}, fx={}", x, fx);
+            final double gradient = (f.applyAsDouble(x + delta) - fx) / delta;
             if (gradient == 0)
-                return Optional.empty();
+                return Double.NaN;
             else
                 x = x - fx / gradient;
-            fx = f.apply(x);
+            fx = f.applyAsDouble(x);
             i++;
         }
         if (Math.abs(fx) <= precision)
-            return Optional.of(x);
+            return x;
         else
-            return Optional.empty();
+            return Double.NaN;
     }
 
-    private static void checkParameters(Function<Double, Double> f, double h, double precision,
+    private static void checkParameters(Object f, double h, double precision,
             int maxIterations) {
         if (f == null)
             throw new NullPointerException("f must not be null");
@@ -0,0 +1,55 @@
+package com.github.davidmoten.jns;
+
+import com.github.davidmoten.guavamini.Preconditions;
+
+/**
+ * A pair of buffers for time stepping: a step reads the current buffer and
+ * writes the next one, then {@link #swap()} exchanges them so the next step
+ * writes over the values of the step before last. Swapping exchanges
+ * references only so a solver can run any number of steps without allocating.
+ * <p>
+ * Cells that a step does not write (boundaries, obstacles) keep whatever the
+ * next buffer held so callers copy them across before the step.
+ *
+ * @param <T> buffer type (for example double[])
+ */
+public final class PingPong<T> {
+
+    private final T first;
+    private T current;
+    private T next;
+
+    public PingPong(T current, T next) {
+        Preconditions.checkNotNull(current);
+        Preconditions.checkNotNull(next);
+        Preconditions.checkArgument(current != next, "buffers must be distinct");
+        this.first = current;
+        this.current = current;
+        this.next = next;
+    }
+
+    public T current() {
+        return current;
+    }
+
+    public T next() {
+        return next;
+    }
+
+    public void swap() {
+        T temp = current;
+        current = next;
+        next = temp;
+    }
+
+    /**
+     * Returns 0 if the current buffer is the one passed as current to the
+     * constructor, 1 otherwise.
+     *
+     * @return which buffer is current
+     */
+    public int index() {
+        return current == first ? 0 : 1;
+    }
+
+}
@@ -0,0 +1,356 @@
+package com.github.davidmoten.jns;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Solves for the pressure of every FLUID cell of a dense mesh at once instead
+ * of running Newton's method per cell as {@link Solver} does. Each time step
+ * the velocities are advanced explicitly as in {@link Solver} and then the
+ * discrete continuity equation (the pressure Laplacian of {@link Solver} plus
+ * the velocity terms) is assembled over all interior FLUID cells and solved
+ * with a Jacobi preconditioned conjugate gradient method.
+ *
+ * <p>
+ * Neighbours are handled as in {@link Solver}:
+ * <ul>
+ * <li>an OBSTACLE neighbour takes the pressure in hydrostatic equilibrium with
+ * the cell (a Neumann condition)</li>
+ * <li>an UNKNOWN (air) neighbour takes the pressure in hydrostatic equilibrium
+ * with the cell at the start of the time step (a Dirichlet condition), this
+ * gives the free surface a reference pressure so that the system has a unique
+ * solution</li>
+ * <li>boundary cells and FLUID cells in the halo keep their pressure</li>
+ * </ul>
+ * The matrix is symmetric when cell sizes are constant along each axis.
+ */
+public final class PressureProjection {
+
+    private static final Logger log = LoggerFactory.getLogger(PressureProjection.class);
+
+    private static final byte FLUID = (byte) CellType.FLUID.ordinal();
+    private static final byte OBSTACLE = (byte) CellType.OBSTACLE.ordinal();
+    private static final byte UNKNOWN = (byte) CellType.UNKNOWN.ordinal();
+
+    private static final int CHUNK_SIZE = 4096;
+
+    private final double tolerance;
+    private final int maxIterations;
+
+    private PressureProjection(double tolerance, int maxIterations) {
+        this.tolerance = tolerance;
+        this.maxIterations = maxIterations;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private double tolerance = 1e-10;
+        private int maxIterations = 1000;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the relative residual (2-norm of the residual over the 2-norm
+         * of the right hand side) at which iteration stops. Defaults to
+         * 1e-10.
+         *
+         * @param tolerance
+         *            relative residual
+         * @return this
+         */
+        public Builder tolerance(double tolerance) {
+            this.tolerance = tolerance;
+            return this;
+        }
+
+        public Builder maxIterations(int maxIterations) {
+            this.maxIterations = maxIterations;
+            return this;
+        }
+
+        public PressureProjection build() {
+            if (tolerance <= 0)
+                throw new IllegalArgumentException("tolerance must be >0");
+            if (maxIterations < 1)
+                throw new IllegalArgumentException("maxIterations must be 1 or more");
+            return new PressureProjection(tolerance, maxIterations);
+        }
+    }
+
+    /**
+     * Returns a new store holding the values of <code>store</code> after
+     * <code>timeStepSeconds</code>.
+     *
+     * @param store
+     *            values at the start of the time step
+     * @param timeStepSeconds
+     *            time step
+     * @param pool
+     *            pool to advance velocities on
+     * @return values at the end of the time step
+     */
+    DenseCellStore step(DenseCellStore store, double timeStepSeconds, ForkJoinPool pool) {
+        final DenseCellStore next = store.copy();
+
+        // advance velocities explicitly (uses the pressures at the start of
+        // the step)
+        final int[] fluid = fluidCells(store);
+        forEachChunk(pool, fluid.length, () -> new DenseSolver(store), (solver, from, to) -> {
+            for (int f = from; f < to; f++) {
+                solver.velocityAfterTime(fluid[f], timeStepSeconds, next);
+            }
+        });
+
+        final int[] unknowns = unknowns(store, fluid);
+        final int n = count(unknowns);
+        final int[] cells = new int[n];
+        for (int i = 0; i < unknowns.length; i++) {
+            if (unknowns[i] >= 0)
+                cells[unknowns[i]] = i;
+        }
+
+        // the velocity terms of the continuity equation using the new
+        // velocities
+        final double[] b = new double[n];
+        forEachChunk(pool, n, () -> new DenseSolver(next), (solver, from, to) -> {
+            for (int u = from; u < to; u++) {
+                b[u] = solver.velocityTerm(cells[u]);
+            }
+        });
+
+        final Laplacian a = new Laplacian(store, unknowns, cells, b);
+        final double[] x = new double[n];
+        for (int u = 0; u < n; u++) {
+            x[u] = store.pressure[cells[u]];
+        }
+        solve(a, b, x);
+        for (int u = 0; u < n; u++) {
+            next.pressure[cells[u]] = x[u];
+        }
+        return next;
+    }
+
+    /**
+     * Returns the slots of the interior FLUID cells that are not boundary
+     * cells.
+     */
+    private static int[] fluidCells(DenseCellStore store) {
+        int n = 0;
+        final int[] cells = new int[store.size()];
+        for (int i = 0; i < store.size(); i++) {
+            if (store.type[i] == FLUID && !store.boundary[i]
+                    && store.isInterior(store.east(i), store.north(i), store.up(i)))
+                cells[n++] = i;
+        }
+        return Arrays.copyOf(cells, n);
+    }
+
+    /**
+     * Returns for each slot the unknown number of the slot or -1 if the
+     * pressure of the slot is not solved for. A FLUID cell with obstacles on
+     * every side keeps its pressure.
+     */
+    private static int[] unknowns(DenseCellStore store, int[] fluid) {
+        final int[] unknowns = new int[store.size()];
+        Arrays.fill(unknowns, -1);
+        int n = 0;
+        for (final int i : fluid) {
+            if (!enclosed(store, i))
+                unknowns[i] = n++;
+        }
+        return unknowns;
+    }
+
+    private static boolean enclosed(DenseCellStore store, int index) {
+        for (final Direction d : Direction.values()) {
+            final int s = store.stride(d);
+            if (store.type[index - s] != OBSTACLE || store.type[index + s] != OBSTACLE)
+                return false;
+        }
+        return true;
+    }
+
+    private static int count(int[] unknowns) {
+        int n = 0;
+        for (final int u : unknowns) {
+            if (u >= 0)
+                n++;
+        }
+        return n;
+    }
+
+    /**
+     * The negated pressure Laplacian over the unknowns as a seven point
+     * stencil. Known pressures are moved to the right hand side during
+     * assembly.
+     */
+    private static final class Laplacian {
+
+        final int n;
+        final double[] diagonal;
+        // unknown number of the neighbour (or -1) and coefficient for each of
+        // the six neighbours of each unknown
+        final int[] neighbour;
+        final double[] coefficient;
+
+        Laplacian(DenseCellStore store, int[] unknowns, int[] cells, double[] b) {
+            this.n = cells.length;
+            this.diagonal = new double[n];
+            this.neighbour = new int[6 * n];
+            this.coefficient = new double[6 * n];
+            final Direction[] directions = Direction.values();
+            for (int u = 0; u < n; u++) {
+                final int i = cells[u];
+                double diag = 0;
+                // known part of the row, ends up on the right hand side
+                double known = 0;
+                for (int axis = 0; axis < 3; axis++) {
+                    final int s = store.stride(directions[axis]);
+                    final int c1 = i - s;
+                    final int c3 = i + s;
+                    final double d = store.position(c3, axis) - store.position(c1, axis);
+                    final double w = 1 / (d * d);
+                    diag -= 2 * w;
+                    for (int side = 0; side < 2; side++) {
+                        final int c = side == 0 ? c1 : c3;
+                        final int k = 6 * u + 2 * axis + side;
+                        neighbour[k] = -1;
+                        final byte t = store.type[c];
+                        if (t == FLUID) {
+                            if (unknowns[c] >= 0) {
+                                neighbour[k] = unknowns[c];
+                                coefficient[k] = -w;
+                            } else
+                                known += w * store.pressure[c];
+                        } else if (t == OBSTACLE) {
+                            // pressure relative to this cell's pressure
+                            diag += w;
+                            known += w * hydrostatic(store, c, i);
+                        } else if (t == UNKNOWN) {
+                            known += w * (store.pressure[i] + hydrostatic(store, c, i));
+                        } else
+                            Util.unexpected();
+                    }
+                }
+                // the row is diag * p + sum(w * p_neighbour) + known +
+                // velocityTerm = 0, negate to make the matrix positive definite
+                diagonal[u] = -diag;
+                b[u] += known;
+            }
+        }
+
+        void times(double[] x, double[] result) {
+            for (int u = 0; u < n; u++) {
+                double sum = diagonal[u] * x[u];
+                for (int k = 6 * u; k < 6 * u + 6; k++) {
+                    if (neighbour[k] >= 0)
+                        sum += coefficient[k] * x[neighbour[k]];
+                }
+                result[u] = sum;
+            }
+        }
+    }
+
+    /**
+     * Returns the pressure difference between the cell at <code>index</code>
+     * and <code>wrt</code> if they were in hydrostatic equilibrium (as in
+     * Solver.obstacleToValue).
+     */
+    private static double hydrostatic(DenseCellStore store, int index, int wrt) {
+        final double density = store.density[wrt];
+        return (store.positionEast[index] - store.positionEast[wrt])
+                * (Util.GRAVITY.east() * density)
+                + (store.positionNorth[index] - store.positionNorth[wrt])
+                        * (Util.GRAVITY.north() * density)
+                + (store.positionUp[index] - store.positionUp[wrt])
+                        * (Util.GRAVITY.up() * density);
+    }
+
+    private void solve(Laplacian a, double[] b, double[] x) {
+        final int n = a.n;
+        final double[] r = new double[n];
+        final double[] z = new double[n];
+        final double[] p = new double[n];
+        final double[] q = new double[n];
+        a.times(x, r);
+        for (int i = 0; i < n; i++) {
+            r[i] = b[i] - r[i];
+        }
+        final double target = tolerance * Math.max(norm(b), Double.MIN_NORMAL);
+        double residual = norm(r);
+        int iteration = 0;
+        double rz = 0;
+        while (residual > target) {
+            if (iteration == maxIterations)
+                Util.unexpected("pressure projection did not converge after " + maxIterations
+                        + " iterations, relative residual=" + residual / norm(b));
+            double rzNext = 0;
+            for (int i = 0; i < n; i++) {
+                z[i] = r[i] / a.diagonal[i];
+                rzNext += r[i] * z[i];
+            }
+            if (iteration == 0) {
+                System.arraycopy(z, 0, p, 0, n);
+            } else {
+                final double beta = rzNext / rz;
+                for (int i = 0; i < n; i++) {
+                    p[i] = z[i] + beta * p[i];
+                }
+            }
+            rz = rzNext;
+            a.times(p, q);
+            final double alpha = rz / dot(p, q);
+            for (int i = 0; i < n; i++) {
+                x[i] += alpha * p[i];
+                r[i] -= alpha * q[i];
+            }
+            residual = norm(r);
+            iteration++;
+        }
+        log.debug("pressure projection converged in {} iterations", iteration);
+    }
+
+    private static double dot(double[] a, double[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    private static double norm(double[] a) {
+        return Math.sqrt(dot(a, a));
+    }
+
+    @FunctionalInterface
+    private interface ChunkTask {
+        void run(DenseSolver solver, int from, int to);
+    }
+
+    private static void forEachChunk(ForkJoinPool pool, int n, Supplier<DenseSolver> factory,
+            ChunkTask task) {
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        for (int from = 0; from < n; from += CHUNK_SIZE) {
+            final int start = from;
+            final int end = Math.min(from + CHUNK_SIZE, n);
+            tasks.add(() -> {
+                task.run(factory.get(), start, end);
+                return null;
+            });
+        }
+        Util.invokeAll(pool, tasks);
+    }
+
+}
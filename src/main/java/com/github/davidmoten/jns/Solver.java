@@ -3,106 +3,163 @@ package com.github.davidmoten.jns;
 import static com.github.davidmoten.jns.CellType.FLUID;
 import static com.github.davidmoten.jns.CellType.OBSTACLE;
 import static com.github.davidmoten.jns.CellType.UNKNOWN;
-import static com.github.davidmoten.jns.NewtonsMethod.solve;
-import static com.github.davidmoten.jns.Util.pressureGradientDueToGravity;
+import static com.github.davidmoten.jns.NewtonsMethod.solveOrNaN;
+import static com.github.davidmoten.jns.Util.GRAVITY;
 import static com.github.davidmoten.jns.Util.unexpected;
 import static com.github.davidmoten.jns.Util.validate;
 
-import java.util.Optional;
-import java.util.function.Function;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.ToDoubleFunction;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Navier-Stokes equation solver for incompressible fluid.
+ *
+ * <p>
+ * Intermediate vectors are held in {@link MutableVector3} and {@link Matrix3}
+ * scratch objects pooled per thread so stepping a cell allocates little more
+ * than its result. A solver has no other state and can be shared between
+ * threads.
  */
 public class Solver {
 
     private static Logger log = LoggerFactory.getLogger(Solver.class);
 
+    /**
+     * The number of cells either side of a cell along each axis that
+     * {@link #step(Cell, double)} reads. The continuity function takes
+     * gradients at the neighbours of a cell so reaches two cells away.
+     */
+    static final int STENCIL_RADIUS = 2;
+
+    private static final ToDoubleFunction<Cell> PRESSURE = c -> c.pressure();
+    private static final ToDoubleFunction<Cell> VELOCITY_EAST = c -> c.velocity().east();
+    private static final ToDoubleFunction<Cell> VELOCITY_NORTH = c -> c.velocity().north();
+    private static final ToDoubleFunction<Cell> VELOCITY_UP = c -> c.velocity().up();
+
+    // a frame of scratch objects per nested evaluation on a thread, because
+    // reading a neighbour of a lazy mesh cell may step a cell of the previous
+    // time level part way through dvdt
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal
+            .withInitial(Scratch::new);
+
+    private final boolean debug;
+    private final ToDoubleFunction<Cell> gradientDotEast = gradientDot(Direction.EAST);
+    private final ToDoubleFunction<Cell> gradientDotNorth = gradientDot(Direction.NORTH);
+    private final ToDoubleFunction<Cell> gradientDotUp = gradientDot(Direction.UP);
+
+    public Solver() {
+        this(Validation.SWEEP);
+    }
+
+    /**
+     * Constructor. Only {@link Validation#DEBUG} makes the solver check
+     * values itself, a {@link Mesh} sweeps the values of each cell it steps
+     * otherwise.
+     *
+     * @param validation
+     *            validation
+     */
+    public Solver(Validation validation) {
+        this.debug = validation == Validation.DEBUG;
+    }
+
     public VelocityPressure step(Cell cell, double timeStepSeconds) {
         if (cell.isBoundary()) {
             return new VelocityPressure(cell.velocity(), cell.pressure());
         }
-        log.debug("step {}", str(cell));
+        if (log.isDebugEnabled())
+            log.debug("step {}", str(cell));
         // explicit time advance scheme as per Ferziger and Peric 7.3.2
         final Vector v = getVelocityAfterTime(cell, timeStepSeconds);
         log.debug("velocity={}", v);
-        final Function<Double, Double> f = getContinuityFunction(cell, v, timeStepSeconds);
-        final double p = solveForPressure(cell, f);
+        final DoubleUnaryOperator f = getContinuityFunction(cell, v, timeStepSeconds);
+        final double p = check(solveForPressure(cell, f));
         return new VelocityPressure(v, p);
     }
 
-    private double solveForPressure(Cell cell, Function<Double, Double> continuityFunction) {
+    private double solveForPressure(Cell cell, DoubleUnaryOperator continuityFunction) {
         // 10 Pa is probably reasonable given that pressures are normally
         // >100000Pa.
         final double delta = 100;// Pa
         // TODO what value for precision?
         final double precision = 10;
         final int maxIterations = 15;
-        final Optional<Double> p = solve(continuityFunction, cell.pressure(), delta, precision,
-                maxIterations)
-                        // don't accept negative values
-                        .filter(d -> d >= 0);
-        if (!p.isPresent()) {
+        final double p = solveOrNaN(continuityFunction, cell.pressure(), delta, precision,
+                maxIterations);
+        // don't accept negative values (or NaN when no root was found)
+        if (!(p >= 0)) {
             unexpected("could not find pressure at " + str(cell));
         }
-        return p.orElse(cell.pressure());
+        return p;
     }
 
     // Visible for testing
     Vector getVelocityAfterTime(Cell cell, double timeSeconds) {
-        return cell.velocity().add(dvdt(cell).times(timeSeconds));
-    }
-
-    private Vector dvdt(Cell cell) {
-        log.debug("dvdt at {}", str(cell));
-        final Vector velocityLaplacian = getVelocityLaplacian(cell);
-        final Vector pressureGradient = getPressureGradient(cell);
-        final Matrix velocityJacobian = getVelocityJacobian(cell);
-        final Vector divergenceOfStress = velocityLaplacian.times(cell.viscosity())
-                .minus(pressureGradient).add(pressureGradientDueToGravity(cell));
-        final Vector result = divergenceOfStress.divideBy(cell.density())
-                .minus(velocityJacobian.times(cell.velocity()));
-        return result;
+        final Scratch scratch = SCRATCH.get();
+        SCRATCH.set(scratch.next());
+        try {
+            final MutableVector3 dvdt = dvdt(cell, scratch);
+            final Vector v = cell.velocity();
+            final double east = v.east() + dvdt.east() * timeSeconds;
+            final double north = v.north() + dvdt.north() * timeSeconds;
+            final double up = v.up() + dvdt.up() * timeSeconds;
+            return debug ? Vector.create(east, north, up)
+                    : Vector.createUnchecked(east, north, up);
+        } finally {
+            SCRATCH.set(scratch);
+        }
     }
 
-    private Vector getVelocityLaplacian(Cell cell) {
-        return Vector.create(getVelocityLaplacian(cell, Direction.EAST),
+    private MutableVector3 dvdt(Cell cell, Scratch scratch) {
+        if (log.isDebugEnabled())
+            log.debug("dvdt at {}", str(cell));
+        final MutableVector3 velocityLaplacian = scratch.velocityLaplacian.set(
+                getVelocityLaplacian(cell, Direction.EAST),
                 getVelocityLaplacian(cell, Direction.NORTH),
                 getVelocityLaplacian(cell, Direction.UP));
+        final MutableVector3 pressureGradient = scratch.pressureGradient.set(
+                getPressureGradient(cell, Direction.EAST),
+                getPressureGradient(cell, Direction.NORTH),
+                getPressureGradient(cell, Direction.UP));
+        final Matrix3 velocityJacobian = scratch.velocityJacobian;
+        setVelocityGradient(cell, Direction.EAST, velocityJacobian);
+        setVelocityGradient(cell, Direction.NORTH, velocityJacobian);
+        setVelocityGradient(cell, Direction.UP, velocityJacobian);
+        final double density = cell.density();
+        // velocityLaplacian becomes the divergence of stress
+        final MutableVector3 divergenceOfStress = velocityLaplacian.times(cell.viscosity())
+                .minus(pressureGradient)
+                .add(GRAVITY.east() * density, GRAVITY.north() * density, GRAVITY.up() * density);
+        final MutableVector3 result = divergenceOfStress.divideBy(density)
+                .minus(velocityJacobian.times(cell.velocity(), scratch.advection));
+        if (debug)
+            result.validate();
+        return result;
     }
 
     private double getVelocityLaplacian(Cell cell, Direction direction) {
-        return getVelocityGradient2nd(cell, direction).sum();
-    }
-
-    private Vector getVelocityGradient2nd(Cell cell, Direction direction) {
-        final Function<Direction, Function<Cell, Double>> velocity = d -> {
-            return c -> c.velocity().value(d);
-        };
-        final Function<Direction, Double> gradient =
-                // gradient in given direction
-                d -> getGradient(cell, direction, velocity.apply(d), DerivativeType.SECOND);
-
-        return Vector.create(gradient);
-    }
-
-    private Vector getPressureGradient(Cell cell) {
-        return Vector.create(d -> getPressureGradient(cell, d));
+        // sum of second derivatives in the given direction of each velocity
+        // component
+        return getGradient(cell, direction, VELOCITY_EAST, DerivativeType.SECOND)
+                + getGradient(cell, direction, VELOCITY_NORTH, DerivativeType.SECOND)
+                + getGradient(cell, direction, VELOCITY_UP, DerivativeType.SECOND);
     }
 
     // Visible for testing
     double getPressureGradient(Cell cell, Direction direction) {
-        return getGradient(cell, direction, c -> c.pressure(), DerivativeType.FIRST);
+        return getGradient(cell, direction, PRESSURE, DerivativeType.FIRST);
     }
 
-    private Matrix getVelocityJacobian(Cell cell) {
-        return Matrixes.create(d -> getVelocityGradient(cell, d));
+    private void setVelocityGradient(Cell cell, Direction direction, Matrix3 jacobian) {
+        jacobian.setRow(direction, getGradient(cell, direction, VELOCITY_EAST, DerivativeType.FIRST),
+                getGradient(cell, direction, VELOCITY_NORTH, DerivativeType.FIRST),
+                getGradient(cell, direction, VELOCITY_UP, DerivativeType.FIRST));
     }
 
-    private Function<Double, Double> getContinuityFunction(Cell cell, Vector newVelocity,
+    private DoubleUnaryOperator getContinuityFunction(Cell cell, Vector newVelocity,
             double timeStepSeconds) {
         return pressure -> getContinuityFunction(
                 Util.override(cell, cell.type(), newVelocity, pressure));
@@ -110,37 +167,26 @@ public class Solver {
 
     private double getContinuityFunction(Cell cell) {
         final double pressureLaplacian = getPressureLaplacian(cell);
-        final Function<Direction, Double> f = d -> cell.velocity().value(d)
-                * getGradient(cell, d, gradientDot(d), DerivativeType.FIRST);
-        return pressureLaplacian + Vector.create(f).sum();
-    }
-
-    private double getContinuityFunction2(Cell cell) {
-        final double pressureLaplacian = getPressureLaplacian(cell);
-        log.info("pressureLaplacian={}", pressureLaplacian);
-        final Function<Direction, Double> f = d -> getGradient(cell, d, gradientDot(d),
-                DerivativeType.FIRST);
-        return pressureLaplacian + Vector.create(f).sum();
-    }
-
-    private Function<Cell, Double> gradientDot(Direction d) {
-        return cell -> getVelocityGradient(cell, d).dotProduct(cell.velocity());
+        final Vector v = cell.velocity();
+        return pressureLaplacian
+                + (v.east() * getGradient(cell, Direction.EAST, gradientDotEast, DerivativeType.FIRST)
+                        + v.north() * getGradient(cell, Direction.NORTH, gradientDotNorth,
+                                DerivativeType.FIRST)
+                        + v.up() * getGradient(cell, Direction.UP, gradientDotUp,
+                                DerivativeType.FIRST));
     }
 
-    private Vector getVelocityGradient(Cell cell, Direction direction) {
-        final Function<Direction, Double> gradientFn = d -> getGradient(cell, direction,
-                c -> c.velocity().value(d), DerivativeType.FIRST);
-        return Vector.create(gradientFn);
+    private ToDoubleFunction<Cell> gradientDot(Direction d) {
+        return cell -> cell.velocity().dotProduct(
+                getGradient(cell, d, VELOCITY_EAST, DerivativeType.FIRST),
+                getGradient(cell, d, VELOCITY_NORTH, DerivativeType.FIRST),
+                getGradient(cell, d, VELOCITY_UP, DerivativeType.FIRST));
     }
 
     private double getPressureLaplacian(Cell cell) {
-        return getPressureGradient2nd(cell).sum();
-    }
-
-    private Vector getPressureGradient2nd(Cell cell) {
-        final Function<Direction, Double> f = d -> getGradient(cell, d, c -> c.pressure(),
-                DerivativeType.SECOND);
-        return Vector.create(f);
+        return getGradient(cell, Direction.EAST, PRESSURE, DerivativeType.SECOND)
+                + getGradient(cell, Direction.NORTH, PRESSURE, DerivativeType.SECOND)
+                + getGradient(cell, Direction.UP, PRESSURE, DerivativeType.SECOND);
     }
 
     private double getGradient(
@@ -149,33 +195,61 @@ public class Solver {
             // direction
             Direction d,
             // function
-            Function<Cell, Double> f,
+            ToDoubleFunction<Cell> f,
             // first or second derivative
             DerivativeType derivativeType) {
-        return getGradient(f, cell.neighbour(d, -1), cell, cell.neighbour(d, 1), d, derivativeType);
-    }
-
-    private double getGradient(Function<Cell, Double> f, Cell c1, Cell c2, Cell c3, Direction d,
-            DerivativeType derivativeType) {
-        if (c2.type() == CellType.OBSTACLE) {
+        // the case analysis of transform is looked up from the classes the
+        // cell has cached rather than worked out from neighbour types and
+        // overridden cells on every call
+        final byte stencil = Stencil.get(cell.stencils(), d);
+        if (stencil == Stencil.OBSTACLE) {
             return unexpected("why ask for gradient at obstacle?");
-        } else {
-            try {
-                final CellTriplet t = transform(c1, c2, c3);
-                if (is(FLUID, FLUID, FLUID, t)) {
-                    return getGradientFromFluid(f, t.c1(), t.c2(), t.c3(), d, derivativeType);
-                } else if (is(FLUID, FLUID, UNKNOWN, t)) {
-                    return getGradientFromFluid(f, t.c1(), t.c2(), d, derivativeType);
-                } else {
-                    return unexpected();
-                }
-            } catch (final RuntimeException e) {
-                log.error("{}:{},{},{}", d, c1.position(), c2.position(), c3.position());
-                throw e;
+        }
+        final Cell below = cell.neighbour(d, -1);
+        final Cell above = cell.neighbour(d, 1);
+        try {
+            switch (stencil) {
+            case Stencil.FFF:
+            case Stencil.OFF:
+            case Stencil.FFO:
+            case Stencil.OFO:
+                return getGradientFromFluid(f, below, cell, above, Stencil.mirrorsBelow(stencil),
+                        Stencil.mirrorsAbove(stencil), d, derivativeType);
+            case Stencil.FFU:
+            case Stencil.OFU:
+                return getGradientFromFluid(f, below, cell, Stencil.mirrorsBelow(stencil), false,
+                        d, derivativeType);
+            case Stencil.UFF:
+            case Stencil.UFO:
+                return getGradientFromFluid(f, cell, above, false, Stencil.mirrorsAbove(stencil),
+                        d, derivativeType);
+            default:
+                return unexpected("not handled " + str(below) + "," + str(cell) + "." + str(above));
             }
+        } catch (final RuntimeException e) {
+            log.error("{}:{},{},{}", d, below.position(), cell.position(), above.position());
+            throw e;
         }
     }
 
+    /**
+     * Returns the value of <code>f</code> at <code>c</code>, or if
+     * <code>mirrored</code> at the fluid cell at rest in hydrostatic
+     * equilibrium with <code>wrt</code> that replaces the obstacle
+     * <code>c</code> (see {@link #obstacleToValue(Cell, Cell)}), without
+     * creating the replacement cell for the common value functions.
+     */
+    private static double value(ToDoubleFunction<Cell> f, Cell c, boolean mirrored, Cell wrt) {
+        if (!mirrored)
+            return f.applyAsDouble(c);
+        else if (f == VELOCITY_EAST || f == VELOCITY_NORTH || f == VELOCITY_UP)
+            return 0;
+        else if (f == PRESSURE)
+            return getEquilibriumPressureRelativeTo(c, wrt);
+        else
+            return f.applyAsDouble(obstacleToValue(c, wrt));
+    }
+
     private static CellTriplet transform(Cell c1, Cell c2, Cell c3) {
         return transform(CellTriplet.create(c1, c2, c3));
     }
@@ -208,10 +282,12 @@ public class Solver {
         return s.toString();
     }
 
-    private double getGradientFromFluid(Function<Cell, Double> f, Cell c1, Cell c2, Direction d,
-            DerivativeType derivativeType) {
+    private double getGradientFromFluid(ToDoubleFunction<Cell> f, Cell c1, Cell c2,
+            boolean mirrored1, boolean mirrored2, Direction d, DerivativeType derivativeType) {
         if (derivativeType == DerivativeType.FIRST) {
-            return firstDerivative(f, c1, c2, d);
+            final Cell fluid = mirrored1 ? c2 : c1;
+            return firstDerivative(c1.position().value(d), c2.position().value(d),
+                    value(f, c1, mirrored1, fluid), value(f, c2, mirrored2, fluid));
         } else if (derivativeType == DerivativeType.SECOND)
             // only have two points so must assume 2nd derivative is zero
             return 0;
@@ -219,12 +295,17 @@ public class Solver {
             return unexpected();
     }
 
-    private static double getGradientFromFluid(Function<Cell, Double> f, Cell c1, Cell c2, Cell c3,
-            Direction d, DerivativeType derivativeType) {
+    private double getGradientFromFluid(ToDoubleFunction<Cell> f, Cell c1, Cell c2, Cell c3,
+            boolean mirrored1, boolean mirrored3, Direction d, DerivativeType derivativeType) {
+        final double a = c1.position().value(d);
+        final double c = c3.position().value(d);
+        final double fa = value(f, c1, mirrored1, c2);
+        final double fb = f.applyAsDouble(c2);
+        final double fc = value(f, c3, mirrored3, c2);
         if (derivativeType == DerivativeType.FIRST) {
-            return firstDerivativeSecondOrder(f, c1, c2, c3, d);
+            return firstDerivativeSecondOrder(a, c2.position().value(d), c, fa, fb, fc);
         } else if (derivativeType == DerivativeType.SECOND)
-            return secondDerivative(f, c1, c2, c3, d);
+            return secondDerivative(a, c, fa, fb, fc);
         else
             return unexpected();
     }
@@ -237,38 +318,33 @@ public class Solver {
     // c1.position().value(d)));
     // }
 
-    private static double firstDerivativeSecondOrder(Function<Cell, Double> f, Cell c1, Cell c2,
-            Cell c3, Direction d) {
-        double a = c1.position().value(d);
-        double b = c2.position().value(d);
-        double c = c3.position().value(d);
+    private double firstDerivativeSecondOrder(double a, double b, double c, double fa, double fb,
+            double fc) {
         double h1 = b - a;
         double h2 = c - b;
         double sqrH1 = h1 * h1;
         double sqrH2 = h2 * h2;
-        double fa = f.apply(c1);
-        double fb = f.apply(c2);
-        double fc = f.apply(c3);
         double result = ((sqrH2 - sqrH1) * fb + sqrH1 * fc - sqrH2 * fa)
                 / (sqrH1 * h2 + h1 * sqrH2);
-        return validate(result);
+        return check(result);
     }
 
-    private static double firstDerivative(Function<Cell, Double> f, Cell c1, Cell c3, Direction d) {
-        return validate(
-                (f.apply(c3) - f.apply(c1)) / (c3.position().value(d) - c1.position().value(d)));
+    private double firstDerivative(double a, double c, double fa, double fc) {
+        return check((fc - fa) / (c - a));
     }
 
-    private static double secondDerivative(Function<Cell, Double> f, Cell c1, Cell c2, Cell c3,
-            Direction d) {
-        return validate((f.apply(c3) + f.apply(c1) - 2 * f.apply(c2))
-                / sqr(c3.position().value(d) - c1.position().value(d)));
+    private double secondDerivative(double a, double c, double fa, double fb, double fc) {
+        return check((fc + fa - 2 * fb) / sqr(c - a));
     }
 
     private static double sqr(double d) {
         return d * d;
     }
 
+    private double check(double d) {
+        return debug ? validate(d) : d;
+    }
+
     private static CellType ANY = null;
 
     private static boolean is(CellType ct1, CellType ct2, CellType ct3, CellTriplet t) {
@@ -297,8 +373,28 @@ public class Solver {
     }
 
     private static double getEquilibriumPressureRelativeTo(Cell obstacle, Cell wrt) {
-        final double p = wrt.pressure() + obstacle.position().minus(wrt.position())
-                .dotProduct(Util.pressureGradientDueToGravity(wrt));
-        return p;
+        // wrt.pressure() + (obstacle - wrt).(GRAVITY * density) without the
+        // intermediate vectors
+        final Vector o = obstacle.position();
+        final Vector w = wrt.position();
+        final double density = wrt.density();
+        return wrt.pressure() + ((o.east() - w.east()) * (GRAVITY.east() * density)
+                + (o.north() - w.north()) * (GRAVITY.north() * density)
+                + (o.up() - w.up()) * (GRAVITY.up() * density));
+    }
+
+    private static final class Scratch {
+
+        final MutableVector3 velocityLaplacian = new MutableVector3();
+        final MutableVector3 pressureGradient = new MutableVector3();
+        final Matrix3 velocityJacobian = new Matrix3();
+        final MutableVector3 advection = new MutableVector3();
+        private Scratch next;
+
+        Scratch next() {
+            if (next == null)
+                next = new Scratch();
+            return next;
+        }
     }
 }
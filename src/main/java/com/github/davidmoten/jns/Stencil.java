@@ -0,0 +1,130 @@
+package com.github.davidmoten.jns;
+
+/**
+ * Classes of the three cell stencil (below, centre, above) that
+ * {@link Solver} takes a gradient over along an axis, named by the types of
+ * the cells (F for FLUID, O for OBSTACLE, U for UNKNOWN). An obstacle next to
+ * a FLUID centre is replaced by a fluid cell at rest in hydrostatic
+ * equilibrium with the centre, and a stencil with an UNKNOWN end falls back
+ * to a two point difference over the other end. This is the case analysis of
+ * {@link Solver#transform(CellTriplet)} worked out once for each combination
+ * of types.
+ * <p>
+ * Cell types do not change over time so cells cache their classes along all
+ * three axes packed in an int (see {@link Cell#stencils()}).
+ */
+final class Stencil {
+
+    // central difference over the three cells
+    static final byte FFF = 0;
+    static final byte OFF = 1;
+    static final byte FFO = 2;
+    static final byte OFO = 3;
+    // two point difference over below and centre
+    static final byte FFU = 4;
+    static final byte OFU = 5;
+    // two point difference over centre and above
+    static final byte UFF = 6;
+    static final byte UFO = 7;
+    // the centre is an obstacle
+    static final byte OBSTACLE = 8;
+    // any other combination cannot be differenced
+    static final byte NOT_HANDLED = 9;
+
+    /**
+     * Value of a cached packed classification that has not been worked out.
+     */
+    static final int UNCLASSIFIED = -1;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+    private static final int TYPES = CellType.values().length;
+    private static final byte[] CLASSES = new byte[TYPES * TYPES * TYPES];
+
+    static {
+        for (final CellType below : CellType.values()) {
+            for (final CellType centre : CellType.values()) {
+                for (final CellType above : CellType.values()) {
+                    CLASSES[(below.ordinal() * TYPES + centre.ordinal()) * TYPES
+                            + above.ordinal()] = classOf(below, centre, above);
+                }
+            }
+        }
+    }
+
+    private Stencil() {
+        // prevent instantiation
+    }
+
+    private static byte classOf(CellType below, CellType centre, CellType above) {
+        if (centre == CellType.OBSTACLE)
+            return OBSTACLE;
+        else if (centre != CellType.FLUID)
+            return NOT_HANDLED;
+        // obstacles become fluid
+        final boolean b = below == CellType.OBSTACLE;
+        final boolean a = above == CellType.OBSTACLE;
+        final boolean belowFluid = b || below == CellType.FLUID;
+        final boolean aboveFluid = a || above == CellType.FLUID;
+        if (belowFluid && aboveFluid)
+            return b ? (a ? OFO : OFF) : (a ? FFO : FFF);
+        else if (belowFluid)
+            return b ? OFU : FFU;
+        else if (aboveFluid)
+            return a ? UFO : UFF;
+        else
+            return NOT_HANDLED;
+    }
+
+    static byte classify(CellType below, CellType centre, CellType above) {
+        return CLASSES[(below.ordinal() * TYPES + centre.ordinal()) * TYPES + above.ordinal()];
+    }
+
+    /**
+     * Returns the classes of the stencils of a cell along each axis packed
+     * into an int, found from the types of its neighbours.
+     *
+     * @param cell
+     *            cell
+     * @return packed classes
+     */
+    static int classify(Cell cell) {
+        final CellType type = cell.type();
+        int classes = 0;
+        for (final Direction d : DIRECTIONS) {
+            final byte c = classify(cell.neighbour(d, -1).type(), type,
+                    cell.neighbour(d, 1).type());
+            classes |= c << (8 * d.ordinal());
+        }
+        return classes;
+    }
+
+    /**
+     * Returns the class along <code>direction</code> from packed classes.
+     *
+     * @param classes
+     *            packed classes
+     * @param direction
+     *            axis
+     * @return class
+     */
+    static byte get(int classes, Direction direction) {
+        return (byte) (classes >>> (8 * direction.ordinal()));
+    }
+
+    /**
+     * Returns true if the cell below the centre is an obstacle replaced by a
+     * fluid cell.
+     */
+    static boolean mirrorsBelow(byte c) {
+        return c == OFF || c == OFO || c == OFU;
+    }
+
+    /**
+     * Returns true if the cell above the centre is an obstacle replaced by a
+     * fluid cell.
+     */
+    static boolean mirrorsAbove(byte c) {
+        return c == FFO || c == OFO || c == UFO;
+    }
+
+}
@@ -0,0 +1,148 @@
+package com.github.davidmoten.jns;
+
+/**
+ * Checks whole fields for NaN and infinite values in one pass (see
+ * {@link Validation#SWEEP}). A value times zero is zero unless the value is NaN
+ * or infinite, when it is NaN, so the products are summed without branches
+ * and only a field that fails is scanned again for its first bad value.
+ */
+public final class Sweep {
+
+    private Sweep() {
+        // prevent instantiation
+    }
+
+    /**
+     * Returns the index of the first NaN or infinite value from
+     * <code>from</code> (inclusive) to <code>to</code> (exclusive), or -1 if
+     * every value is finite.
+     *
+     * @param values
+     *            values
+     * @param from
+     *            first index
+     * @param to
+     *            index after the last
+     * @return index of the first invalid value or -1
+     */
+    public static int firstInvalid(double[] values, int from, int to) {
+        // independent sums so the additions overlap
+        double a = 0;
+        double b = 0;
+        double c = 0;
+        double d = 0;
+        int i = from;
+        for (; i + 3 < to; i += 4) {
+            a += values[i] * 0;
+            b += values[i + 1] * 0;
+            c += values[i + 2] * 0;
+            d += values[i + 3] * 0;
+        }
+        for (; i < to; i++) {
+            a += values[i] * 0;
+        }
+        if (a + b + c + d == 0) {
+            return -1;
+        }
+        for (i = from; i < to; i++) {
+            if (!Util.isValid(values[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Throws an {@link InvalidValueException} if a value of a field stored in
+     * a flat array indexed by <code>(i * ny + j) * nz + k</code> is NaN or
+     * infinite.
+     *
+     * @param field
+     *            name of the field
+     * @param values
+     *            values
+     * @param ny
+     *            grid size in the j direction
+     * @param nz
+     *            grid size in the k direction
+     */
+    public static void check(String field, double[] values, int ny, int nz) {
+        final int c = firstInvalid(values, 0, values.length);
+        if (c >= 0) {
+            throw new InvalidValueException(field, indices(c, 0, ny, nz), values[c]);
+        }
+    }
+
+    /**
+     * Throws an {@link InvalidValueException} if a value of a field stored in
+     * a two dimensional array indexed by <code>[i][j]</code> is NaN or
+     * infinite. The indices reported are (i, j, 0).
+     *
+     * @param field
+     *            name of the field
+     * @param values
+     *            values
+     */
+    public static void check(String field, double[][] values) {
+        for (int i = 0; i < values.length; i++) {
+            final int j = firstInvalid(values[i], 0, values[i].length);
+            if (j >= 0) {
+                throw new InvalidValueException(field, new Indices(i, j, 0), values[i][j]);
+            }
+        }
+    }
+
+    /**
+     * Returns the indices of position <code>c</code> of a flat array indexed by
+     * <code>((i - firstI) * ny + j) * nz + k</code>.
+     *
+     * @param c
+     *            position in the array
+     * @param firstI
+     *            i index of position 0
+     * @param ny
+     *            grid size in the j direction
+     * @param nz
+     *            grid size in the k direction
+     * @return indices (i, j, k)
+     */
+    public static Indices indices(int c, int firstI, int ny, int nz) {
+        return new Indices(firstI + c / (ny * nz), c / nz % ny, c % nz);
+    }
+
+    static void check(Indices indices, VelocityPressure vp) {
+        final Vector v = vp.getVelocity();
+        check("velocityEast", indices, v.east());
+        check("velocityNorth", indices, v.north());
+        check("velocityUp", indices, v.up());
+        check("pressure", indices, vp.getPressure());
+    }
+
+    private static void check(String field, Indices indices, double value) {
+        if (!Util.isValid(value)) {
+            throw new InvalidValueException(field, indices, value);
+        }
+    }
+
+    /**
+     * Checks the velocity and pressure of the FLUID cells of a store (other
+     * cells hold NaN).
+     */
+    static void check(DenseCellStore store) {
+        for (int i = 0; i < store.size(); i++) {
+            if (store.type(i) == CellType.FLUID) {
+                check("velocityEast", store, i, store.velocityEast[i]);
+                check("velocityNorth", store, i, store.velocityNorth[i]);
+                check("velocityUp", store, i, store.velocityUp[i]);
+                check("pressure", store, i, store.pressure[i]);
+            }
+        }
+    }
+
+    private static void check(String field, DenseCellStore store, int index, double value) {
+        if (!Util.isValid(value)) {
+            throw new InvalidValueException(field, store.indices(index), value);
+        }
+    }
+
+}
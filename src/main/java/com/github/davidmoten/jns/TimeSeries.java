@@ -0,0 +1,156 @@
+package com.github.davidmoten.jns;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.github.davidmoten.guavamini.Preconditions;
+
+/**
+ * The records of a file written by {@link TimeSeriesWriter}, read into memory.
+ */
+public final class TimeSeries {
+
+    private final long[] steps;
+    private final double[] times;
+    private final Map<String, double[][]> values;
+
+    private TimeSeries(long[] steps, double[] times, Map<String, double[][]> values) {
+        this.steps = steps;
+        this.times = times;
+        this.values = values;
+    }
+
+    /**
+     * Reads every record of a file written by {@link TimeSeriesWriter}.
+     *
+     * @param file
+     *            file to read
+     * @return records
+     * @throws IOException
+     *             if the file cannot be read or is not a time series of a
+     *             supported version
+     */
+    public static TimeSeries read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), READ)) {
+            ByteBuffer b = readFully(channel, 3 * Integer.BYTES);
+            if (b.getInt() != TimeSeriesWriter.MAGIC)
+                throw new IOException("not a time series: " + file);
+            final int version = b.getInt();
+            if (version < 1 || version > TimeSeriesWriter.VERSION)
+                throw new IOException("unsupported time series version " + version + ": " + file);
+            final int count = checkLength(b.getInt(), file);
+            final String[] names = new String[count];
+            final int[] lengths = new int[count];
+            for (int i = 0; i < count; i++) {
+                final byte[] name = new byte[checkLength(
+                        readFully(channel, Integer.BYTES).getInt(), file)];
+                b = readFully(channel, name.length + Integer.BYTES);
+                b.get(name);
+                names[i] = new String(name, StandardCharsets.UTF_8);
+                lengths[i] = checkLength(b.getInt(), file);
+            }
+            final List<Long> steps = new ArrayList<>();
+            final List<Double> times = new ArrayList<>();
+            final List<List<double[]>> records = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                records.add(new ArrayList<>());
+            }
+            while (channel.position() < channel.size()) {
+                final int r = checkLength(readFully(channel, Integer.BYTES).getInt(), file);
+                b = readFully(channel, r * (Long.BYTES + Double.BYTES));
+                for (int j = 0; j < r; j++) {
+                    steps.add(b.getLong());
+                }
+                for (int j = 0; j < r; j++) {
+                    times.add(b.getDouble());
+                }
+                for (int i = 0; i < count; i++) {
+                    b = readFully(channel, r * lengths[i] * Double.BYTES);
+                    for (int j = 0; j < r; j++) {
+                        final double[] values = new double[lengths[i]];
+                        b.asDoubleBuffer().get(values);
+                        b.position(b.position() + values.length * Double.BYTES);
+                        records.get(i).add(values);
+                    }
+                }
+            }
+            final long[] s = new long[steps.size()];
+            final double[] t = new double[times.size()];
+            for (int j = 0; j < s.length; j++) {
+                s[j] = steps.get(j);
+                t[j] = times.get(j);
+            }
+            final Map<String, double[][]> values = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                values.put(names[i], records.get(i).toArray(new double[0][]));
+            }
+            return new TimeSeries(s, t, Collections.unmodifiableMap(values));
+        }
+    }
+
+    /**
+     * Returns the number of records.
+     *
+     * @return number of records
+     */
+    public int size() {
+        return steps.length;
+    }
+
+    public long step(int record) {
+        return steps[record];
+    }
+
+    public double time(int record) {
+        return times[record];
+    }
+
+    public Set<String> variableNames() {
+        return values.keySet();
+    }
+
+    /**
+     * Returns the values of a variable in a record (not a copy).
+     *
+     * @param name
+     *            name of the variable
+     * @param record
+     *            record number
+     * @return values
+     * @throws IllegalArgumentException
+     *             if there is no variable with the name
+     */
+    public double[] values(String name, int record) {
+        final double[][] v = values.get(name);
+        Preconditions.checkArgument(v != null, "time series has no variable " + name);
+        return v[record];
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, int bytes) throws IOException {
+        final ByteBuffer b = TimeSeriesWriter.allocate(bytes);
+        while (b.hasRemaining()) {
+            if (channel.read(b) < 0)
+                throw new IOException("unexpected end of time series");
+        }
+        b.flip();
+        return b;
+    }
+
+    private static int checkLength(int length, File file) throws IOException {
+        if (length < 0)
+            throw new IOException("corrupt time series: " + file);
+        return length;
+    }
+
+}
@@ -0,0 +1,507 @@
+package com.github.davidmoten.jns;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntToDoubleFunction;
+
+import com.github.davidmoten.guavamini.Preconditions;
+
+/**
+ * Appends the values of selected variables (whole fields or the values at a
+ * few probe points) to a binary file every few steps of a run. The values are
+ * copied into a pooled record on the calling thread and written by a
+ * dedicated writer thread, so a slow disk does not hold up the solver unless
+ * the {@link Overflow} policy asks for it.
+ * <p>
+ * Records are grouped into chunks and each chunk is stored column by column.
+ * The file is little-endian throughout:
+ *
+ * <pre>
+ * int    magic 0x4A4E5354 ("JNST")
+ * int    version
+ * int    number of variables
+ * then for each variable
+ * int    length of the UTF-8 name followed by the name
+ * int    number of values per record
+ * then chunks to the end of the file
+ * int    number of records r
+ * long   r step numbers
+ * double r times
+ * double r records of values of each variable in turn
+ * </pre>
+ *
+ * Files are read with {@link TimeSeries#read(File)}.
+ */
+public final class TimeSeriesWriter implements AutoCloseable {
+
+    static final int MAGIC = 0x4A4E5354;
+
+    /**
+     * Version of the file format written.
+     */
+    public static final int VERSION = 1;
+
+    // chunks are held in memory until written so are kept to about 8MB
+    private static final int MAX_CHUNK_BYTES = 1 << 23;
+
+    /**
+     * What {@link TimeSeriesWriter#append(long, double)} does when every
+     * record of the pool is waiting to be written.
+     */
+    public enum Overflow {
+        /**
+         * Drops the record (counted by {@link TimeSeriesWriter#dropped()}),
+         * the solver never waits for the disk.
+         */
+        DROP,
+        /**
+         * Waits for the writer thread to free a record, slowing the solver to
+         * the speed of the disk but keeping every record.
+         */
+        BLOCK;
+    }
+
+    private final List<Variable> variables;
+    private final int every;
+    private final Overflow overflow;
+    private final int recordsPerChunk;
+    private final FileChannel channel;
+    private final BlockingQueue<Record> free;
+    private final BlockingQueue<Record> queue;
+    private final Thread thread;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private volatile Throwable error;
+    private boolean closed;
+
+    private TimeSeriesWriter(File file, List<Variable> variables, int every, int queueSize,
+            Overflow overflow, int recordsPerChunk) throws IOException {
+        this.variables = variables;
+        this.every = every;
+        this.overflow = overflow;
+        long recordBytes = Long.BYTES + Double.BYTES;
+        for (final Variable v : variables) {
+            recordBytes += (long) v.length * Double.BYTES;
+        }
+        this.recordsPerChunk = (int) Math.max(1,
+                Math.min(recordsPerChunk, MAX_CHUNK_BYTES / recordBytes));
+        this.free = new ArrayBlockingQueue<>(queueSize);
+        this.queue = new ArrayBlockingQueue<>(queueSize + 1);
+        for (int i = 0; i < queueSize; i++) {
+            free.add(new Record(variables));
+        }
+        this.channel = FileChannel.open(file.toPath(), CREATE, WRITE, TRUNCATE_EXISTING);
+        try {
+            writeFully(new ByteBuffer[] { header() });
+        } catch (final IOException e) {
+            channel.close();
+            throw e;
+        }
+        this.thread = new Thread(this::run, "time-series-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static Builder builder(File file) {
+        return new Builder(file);
+    }
+
+    public static final class Builder {
+
+        private final File file;
+        private final List<Variable> variables = new ArrayList<>();
+        private int every = 1;
+        private int queueSize = 4;
+        private Overflow overflow = Overflow.DROP;
+        private int recordsPerChunk = 64;
+
+        private Builder(File file) {
+            Preconditions.checkNotNull(file, "file cannot be null");
+            this.file = file;
+        }
+
+        /**
+         * Adds a variable of <code>length</code> values per record that
+         * <code>source</code> copies into the array it is passed, for example
+         * <code>solver.u()::copyTo</code> for a whole field.
+         *
+         * @param name
+         *            name of the variable, unique within the file
+         * @param length
+         *            number of values per record
+         * @param source
+         *            copies the current values into an array of length
+         *            <code>length</code>
+         * @return this
+         */
+        public Builder variable(String name, int length, Consumer<double[]> source) {
+            Preconditions.checkNotNull(name, "name cannot be null");
+            Preconditions.checkArgument(length >= 0, "length must be 0 or more");
+            Preconditions.checkNotNull(source, "source cannot be null");
+            for (final Variable v : variables) {
+                Preconditions.checkArgument(!v.name.equals(name), "duplicate variable " + name);
+            }
+            variables.add(new Variable(name, length, source));
+            return this;
+        }
+
+        /**
+         * Adds a variable holding the values at a few probe points only, for
+         * cheap output of long runs. For example
+         * <code>probes("u", solver.u()::get, grid.index(5, 5, 3))</code>.
+         *
+         * @param name
+         *            name of the variable, unique within the file
+         * @param values
+         *            returns the current value at an index
+         * @param indices
+         *            indices of the probe points
+         * @return this
+         */
+        public Builder probes(String name, IntToDoubleFunction values, int... indices) {
+            Preconditions.checkNotNull(values, "values cannot be null");
+            final int[] probes = indices.clone();
+            return variable(name, probes.length, out -> {
+                for (int i = 0; i < probes.length; i++) {
+                    out[i] = values.applyAsDouble(probes[i]);
+                }
+            });
+        }
+
+        /**
+         * Sets the interval in steps between records. Defaults to 1.
+         *
+         * @param every
+         *            steps between records
+         * @return this
+         */
+        public Builder every(int every) {
+            Preconditions.checkArgument(every >= 1, "every must be 1 or more");
+            this.every = every;
+            return this;
+        }
+
+        /**
+         * Sets the number of records that can wait to be written. Each holds
+         * a copy of the values of every variable. Defaults to 4.
+         *
+         * @param queueSize
+         *            number of records
+         * @return this
+         */
+        public Builder queueSize(int queueSize) {
+            Preconditions.checkArgument(queueSize >= 1, "queueSize must be 1 or more");
+            this.queueSize = queueSize;
+            return this;
+        }
+
+        /**
+         * Sets what happens when every record is waiting to be written.
+         * Defaults to {@link Overflow#DROP}.
+         *
+         * @param overflow
+         *            overflow policy
+         * @return this
+         */
+        public Builder overflow(Overflow overflow) {
+            Preconditions.checkNotNull(overflow, "overflow cannot be null");
+            this.overflow = overflow;
+            return this;
+        }
+
+        /**
+         * Sets the largest number of records in a chunk. Chunks of whole
+         * fields are kept smaller so a chunk is at most about 8MB. Defaults to
+         * 64.
+         *
+         * @param recordsPerChunk
+         *            records per chunk
+         * @return this
+         */
+        public Builder recordsPerChunk(int recordsPerChunk) {
+            Preconditions.checkArgument(recordsPerChunk >= 1, "recordsPerChunk must be 1 or more");
+            this.recordsPerChunk = recordsPerChunk;
+            return this;
+        }
+
+        /**
+         * Creates (or truncates) the file, writes its header and starts the
+         * writer thread.
+         *
+         * @return writer
+         * @throws IOException
+         *             if the file cannot be written
+         */
+        public TimeSeriesWriter build() throws IOException {
+            Preconditions.checkArgument(!variables.isEmpty(), "no variables to write");
+            return new TimeSeriesWriter(file, new ArrayList<>(variables), every, queueSize,
+                    overflow, recordsPerChunk);
+        }
+    }
+
+    /**
+     * Records the current values of the variables if <code>step</code> is a
+     * multiple of the interval. The values are copied before this method
+     * returns so the solver can carry on changing them.
+     *
+     * @param step
+     *            step number
+     * @param time
+     *            simulated time
+     * @return true if a record was queued, false if the step was skipped or
+     *         the record dropped
+     * @throws UncheckedIOException
+     *             if an earlier record could not be written
+     */
+    public boolean append(long step, double time) {
+        checkError();
+        if (closed)
+            throw new IllegalStateException("writer is closed");
+        if (step % every != 0)
+            return false;
+        Record record = free.poll();
+        if (record == null) {
+            if (overflow == Overflow.DROP) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            try {
+                record = free.take();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        record.step = step;
+        record.time = time;
+        for (int i = 0; i < variables.size(); i++) {
+            variables.get(i).source.accept(record.values[i]);
+        }
+        queue.add(record);
+        return true;
+    }
+
+    /**
+     * Returns the number of records dropped because the writer fell behind.
+     *
+     * @return number of dropped records
+     */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Returns the number of records written to the file so far.
+     *
+     * @return number of written records
+     */
+    public long written() {
+        return written.get();
+    }
+
+    /**
+     * Writes the queued records and closes the file.
+     *
+     * @throws UncheckedIOException
+     *             if a record could not be written
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            queue.add(Record.END);
+            try {
+                thread.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            try {
+                channel.close();
+            } catch (final IOException e) {
+                if (error == null)
+                    error = e;
+            }
+        }
+        checkError();
+    }
+
+    private void checkError() {
+        final Throwable e = error;
+        if (e instanceof IOException)
+            throw new UncheckedIOException((IOException) e);
+        else if (e != null)
+            throw new RuntimeException(e);
+    }
+
+    private void run() {
+        final Chunk chunk = new Chunk(variables, recordsPerChunk);
+        try {
+            while (true) {
+                final Record record = queue.take();
+                if (record == Record.END)
+                    break;
+                if (error == null)
+                    write(chunk, record);
+                // the values are in the chunk so the record can be reused,
+                // after an error records are only recycled so that a blocked
+                // solver carries on to find the error
+                free.add(record);
+            }
+            if (error == null && chunk.count > 0)
+                writeChunk(chunk);
+        } catch (final InterruptedException | IOException | RuntimeException e) {
+            error = e;
+        }
+    }
+
+    private void write(Chunk chunk, Record record) {
+        try {
+            chunk.add(record);
+            if (chunk.count == recordsPerChunk)
+                writeChunk(chunk);
+        } catch (final IOException | RuntimeException e) {
+            error = e;
+        }
+    }
+
+    private void writeChunk(Chunk chunk) throws IOException {
+        writeFully(chunk.buffers());
+        written.addAndGet(chunk.count);
+        chunk.clear();
+    }
+
+    private void writeFully(ByteBuffer[] buffers) throws IOException {
+        int first = 0;
+        while (true) {
+            while (first < buffers.length && !buffers[first].hasRemaining())
+                first++;
+            if (first == buffers.length)
+                return;
+            channel.write(buffers, first, buffers.length - first);
+        }
+    }
+
+    private ByteBuffer header() {
+        final List<byte[]> names = new ArrayList<>();
+        int bytes = 3 * Integer.BYTES;
+        for (final Variable v : variables) {
+            final byte[] name = v.name.getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            bytes += 2 * Integer.BYTES + name.length;
+        }
+        final ByteBuffer b = allocate(bytes);
+        b.putInt(MAGIC);
+        b.putInt(VERSION);
+        b.putInt(variables.size());
+        for (int i = 0; i < variables.size(); i++) {
+            b.putInt(names.get(i).length);
+            b.put(names.get(i));
+            b.putInt(variables.get(i).length);
+        }
+        b.flip();
+        return b;
+    }
+
+    static ByteBuffer allocate(int bytes) {
+        return ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static final class Variable {
+        final String name;
+        final int length;
+        final Consumer<double[]> source;
+
+        Variable(String name, int length, Consumer<double[]> source) {
+            this.name = name;
+            this.length = length;
+            this.source = source;
+        }
+    }
+
+    private static final class Record {
+
+        static final Record END = new Record(Collections.emptyList());
+
+        long step;
+        double time;
+        final double[][] values;
+
+        Record(List<Variable> variables) {
+            values = new double[variables.size()][];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = new double[variables.get(i).length];
+            }
+        }
+    }
+
+    // the records of a chunk transposed into one buffer per column
+    private static final class Chunk {
+
+        final long[] steps;
+        final double[] times;
+        final ByteBuffer[] columns;
+        int count;
+
+        Chunk(List<Variable> variables, int capacity) {
+            this.steps = new long[capacity];
+            this.times = new double[capacity];
+            this.columns = new ByteBuffer[variables.size()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = allocate(capacity * variables.get(i).length * Double.BYTES);
+            }
+        }
+
+        void add(Record record) {
+            steps[count] = record.step;
+            times[count] = record.time;
+            for (int i = 0; i < columns.length; i++) {
+                columns[i].asDoubleBuffer().put(record.values[i]);
+                columns[i].position(columns[i].position() + record.values[i].length * Double.BYTES);
+            }
+            count++;
+        }
+
+        ByteBuffer[] buffers() {
+            final ByteBuffer header = allocate(Integer.BYTES + count * (Long.BYTES + Double.BYTES));
+            header.putInt(count);
+            for (int i = 0; i < count; i++) {
+                header.putLong(steps[i]);
+            }
+            for (int i = 0; i < count; i++) {
+                header.putDouble(times[i]);
+            }
+            header.flip();
+            final ByteBuffer[] buffers = new ByteBuffer[columns.length + 1];
+            buffers[0] = header;
+            for (int i = 0; i < columns.length; i++) {
+                columns[i].flip();
+                buffers[i + 1] = columns[i];
+            }
+            return buffers;
+        }
+
+        void clear() {
+            count = 0;
+            for (final ByteBuffer column : columns) {
+                column.clear();
+            }
+        }
+    }
+
+}
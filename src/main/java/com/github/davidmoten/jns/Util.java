@@ -1,6 +1,10 @@
 package com.github.davidmoten.jns;
 
-import java.util.Optional;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 
 public class Util {
@@ -29,11 +33,78 @@ public class Util {
     }
 
     public static Cell override(Cell cell, CellType type, Vector velocity, double pressure) {
-        return new CellDelegator(cell, Optional.of(type), Optional.of(velocity),
-                Optional.of(pressure));
+        return new OverriddenCell(cell, type, velocity, pressure);
+    }
+
+    /**
+     * As a {@link CellDelegator} with every value overridden but held in plain
+     * fields because the solver creates one per Newton iteration.
+     */
+    private static final class OverriddenCell implements Cell {
+
+        private final Cell cell;
+        private final CellType type;
+        private final Vector velocity;
+        private final double pressure;
+
+        OverriddenCell(Cell cell, CellType type, Vector velocity, double pressure) {
+            this.cell = cell;
+            this.type = type;
+            this.velocity = velocity;
+            this.pressure = pressure;
+        }
+
+        @Override
+        public CellType type() {
+            return type;
+        }
+
+        @Override
+        public Vector position() {
+            return cell.position();
+        }
+
+        @Override
+        public double pressure() {
+            return pressure;
+        }
+
+        @Override
+        public Vector velocity() {
+            return velocity;
+        }
+
+        @Override
+        public double density() {
+            return cell.density();
+        }
+
+        @Override
+        public double viscosity() {
+            return cell.viscosity();
+        }
+
+        @Override
+        public Cell neighbour(Direction direction, int count) {
+            return cell.neighbour(direction, count);
+        }
+
+        @Override
+        public boolean isBoundary() {
+            return cell.isBoundary();
+        }
+
+        @Override
+        public int stencils() {
+            return type == cell.type() ? cell.stencils() : Stencil.classify(this);
+        }
     }
 
     static Mesh createMeshForWhirlpool2D(int cellsEast, int cellsNorth) {
+        return createMeshForWhirlpool2D(cellsEast, cellsNorth, false);
+    }
+
+    static Mesh createMeshForWhirlpool2D(int cellsEast, int cellsNorth, boolean dense) {
         int cellsUp = 1;
         final Function<Indices, CellType> typeFunction = i -> {
             // Floored bottom, obstacle sides, open north side
@@ -63,7 +134,7 @@ public class Util {
         final Function<Indices, Boolean> isBoundary = i -> {
             return i.north() == cellsNorth - 1;
         };
-        return Mesh //
+        final Mesh.Builder builder = Mesh //
                 .builder() //
                 .cellSize(1) //
                 .creator(CellCreator //
@@ -74,15 +145,42 @@ public class Util {
                 .typeFunction(typeFunction) //
                 .velocityFunction(velocityFunction) //
                 .isBoundaryFunction(isBoundary) //
-                .build()) //
-                .build();
+                .build());
+        if (dense)
+            builder.dense(cellsEast, cellsNorth, cellsUp);
+        return builder.build();
+    }
+
+    /**
+     * Runs the tasks on the pool and waits for them all to finish, rethrowing
+     * the first failure.
+     *
+     * @param pool
+     *            pool to run the tasks on
+     * @param tasks
+     *            tasks to run
+     */
+    static void invokeAll(ForkJoinPool pool, List<Callable<Void>> tasks) {
+        for (final Future<Void> future : pool.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (final ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                else
+                    throw new RuntimeException(e.getCause());
+            }
+        }
     }
 
-    public static boolean isValid(Double d) {
-        return d != Double.NaN && d != Double.NEGATIVE_INFINITY && d != Double.POSITIVE_INFINITY;
+    public static boolean isValid(double d) {
+        return Double.isFinite(d);
     }
 
-    public static double validate(Double d) {
+    public static double validate(double d) {
         if (isValid(d))
             return d;
         else
@@ -0,0 +1,30 @@
+package com.github.davidmoten.jns;
+
+/**
+ * How a solver checks that the values it calculates are finite (not NaN or
+ * infinite). A failed check throws an {@link InvalidValueException} naming the
+ * field and the {@link Indices} of the first bad cell.
+ */
+public enum Validation {
+
+    /**
+     * No checks.
+     */
+    OFF,
+
+    /**
+     * The fields are swept once after each step (the default). Cells of a lazy
+     * {@link Mesh} are checked as each one is stepped because a lazy mesh has
+     * no step over the whole grid.
+     */
+    SWEEP,
+
+    /**
+     * As {@link #SWEEP} and every intermediate value is checked too: each
+     * derivative and acceleration of the lazy {@link Solver}, and each
+     * intermediate field after the phase that writes it in the array solvers.
+     * A failure points at the term that went bad but checking is slow.
+     */
+    DEBUG;
+
+}
@@ -12,10 +12,15 @@ public class Vector {
     private final double up;
 
     private Vector(double east, double north, double up) {
+        this(east, north, up, true);
+    }
+
+    private Vector(double east, double north, double up, boolean validate) {
         this.east = east;
         this.north = north;
         this.up = up;
-        validate();
+        if (validate)
+            validate();
     }
 
     private void validate() {
@@ -64,10 +69,22 @@ public class Vector {
         return east * v.east + north * v.north + up * v.up;
     }
 
+    public double dotProduct(double east, double north, double up) {
+        return this.east * east + this.north * north + this.up * up;
+    }
+
     public static final Vector create(double east, double north, double up) {
         return new Vector(east, north, up);
     }
 
+    /**
+     * As {@link #create(double, double, double)} but the components are not
+     * checked, for solvers that validate with a {@link Validation#SWEEP}.
+     */
+    static Vector createUnchecked(double east, double north, double up) {
+        return new Vector(east, north, up, false);
+    }
+
     public static final Vector create(Function<Direction, Double> f) {
         return new Vector(f.apply(Direction.EAST), f.apply(Direction.NORTH), f.apply(Direction.UP));
     }
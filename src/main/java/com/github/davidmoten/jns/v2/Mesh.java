@@ -4,9 +4,16 @@ import java.text.DecimalFormat;
 
 import org.ejml.data.DMatrixRMaj;
 import org.ejml.data.DMatrixSparseCSC;
-import org.ejml.sparse.csc.CommonOps_DSCC;
+import org.ejml.data.DMatrixSparseTriplet;
+import org.ejml.interfaces.linsol.LinearSolverSparse;
+import org.ejml.ops.DConvertMatrixStruct;
+import org.ejml.sparse.FillReducing;
+import org.ejml.sparse.csc.factory.LinearSolverFactory_DSCC;
 
 import com.github.davidmoten.guavamini.Preconditions;
+import com.github.davidmoten.jns.Checkpoint;
+import com.github.davidmoten.jns.Sweep;
+import com.github.davidmoten.jns.Validation;
 
 /**
  *
@@ -54,6 +61,14 @@ public class Mesh {
     private final double[][] u;
     private final double[][] v;
 
+    // the Laplacian only depends on the mesh so is factored once and reused
+    // by every time step
+    private final LinearSolverSparse<DMatrixSparseCSC, DMatrixRMaj> pressureSolver;
+    private final DMatrixRMaj pressureRhs;
+    private final DMatrixRMaj pressureVector;
+
+    private Validation validation = Validation.SWEEP;
+
 //    % Index extents
 //    imin =2; imax=imin+nx−1;
 //    jmin =2; jmax=jmin+ny−1;
@@ -136,6 +151,54 @@ public class Mesh {
                     v[i][j] = initialV[i - imin][j - jmin];
             }
         }
+
+        // Solve Lp = R where L is the Laplacian operator using the EJML
+        // library. The Laplacian is not symmetric (see laplacian()) so an LU
+        // decomposition is used rather than Cholesky. The columns are kept in
+        // their natural order (as CommonOps_DSCC.solve does) even though that
+        // fills in about nx entries per row of the factors: with Neumann
+        // conditions on every side the Laplacian is singular (to rounding) so
+        // the pressure found depends on the elimination order, and another
+        // ordering changes the velocities, not just the cost. EJML offers no
+        // fill reducing ordering other than random anyway.
+        pressureSolver = LinearSolverFactory_DSCC.lu(FillReducing.NONE);
+        if (!pressureSolver.setA(laplacian()))
+            throw new IllegalArgumentException("could not decompose the Laplacian");
+        pressureRhs = new DMatrixRMaj(nx * ny, 1);
+        pressureVector = new DMatrixRMaj(nx * ny, 1);
+    }
+
+    private DMatrixSparseCSC laplacian() {
+        // at most five entries per row
+        DMatrixSparseTriplet laplacian = new DMatrixSparseTriplet(nx * ny, nx * ny, 5 * nx * ny);
+
+        // fill the laplacian matrix
+        for (int j = 1; j <= ny; j++) {
+            for (int i = 1; i <= nx; i++) {
+                int row = i + (j - 1) * nx - 1;
+                double diagonal = 2 * dxi * dxi + 2 * dyi * dyi;
+                for (int ii = i - 1; ii <= i + 1; ii += 2) {
+                    if (ii > 0 && ii < nx) {
+                        laplacian.addItem(row, ii + (j - 1) * nx - 1, -dxi * dxi);
+                    } else { // Neuman conditions on the boundary
+                        diagonal = diagonal - dxi * dxi;
+                    }
+                }
+
+                for (int jj = j - 1; jj <= j + 1; jj += 2) {
+                    if (jj > 0 && jj < ny) {
+                        laplacian.addItem(row, i + (jj - 1) * nx - 1, -dyi * dyi);
+                    } else { // Neuman conditions on the boundary
+                        diagonal = diagonal - dyi * dyi;
+                    }
+                }
+                laplacian.addItem(row, row, diagonal);
+            }
+        }
+        DMatrixSparseCSC result = DConvertMatrixStruct.convert(laplacian,
+                (DMatrixSparseCSC) null);
+        result.sortIndices(null);
+        return result;
     }
 
     public void run(double[] uTop, double vTop[], double[] uBottom, double[] vBottom,
@@ -200,61 +263,19 @@ public class Mesh {
             }
         }
 
+        if (validation == Validation.DEBUG) {
+            Sweep.check("us", us);
+            Sweep.check("vs", vs);
+        }
+
         ////////////////////////////
         // Solve Poisson Equation //
         ////////////////////////////
 
-        // Solve Lp = R where L is the Laplacian operator
-
-        // Use EJML library
-        DMatrixSparseCSC laplacian = new DMatrixSparseCSC(nx * ny, nx * ny);
-
-        // fill the laplacian matrix
-        for (int j = 1; j <= ny; j++) {
-            for (int i = 1; i <= nx; i++) {
-                laplacian.set( //
-                        i + (j - 1) * nx - 1, //
-                        i + (j - 1) * nx - 1, 2 * dxi * dxi + 2 * dyi * dyi);
-                for (int ii = i - 1; ii <= i + 1; ii += 2) {
-                    if (ii > 0 && ii < nx) {
-                        laplacian.set( //
-                                i + (j - 1) * nx - 1, //
-                                ii + (j - 1) * nx - 1, //
-                                -dxi * dxi);
-                    } else { // Neuman conditions on the boundary
-                        laplacian.set( //
-                                i + (j - 1) * nx - 1, //
-                                i + (j - 1) * nx - 1, //
-                                laplacian.get( //
-                                        i + (j - 1) * nx - 1, //
-                                        i + (j - 1) * nx - 1) //
-                                        - dxi * dxi);
-                    }
-                }
-
-                for (int jj = j - 1; jj <= j + 1; jj += 2) {
-                    if (jj > 0 && jj < ny) {
-                        laplacian.set( //
-                                i + (j - 1) * nx - 1, //
-                                i + (jj - 1) * nx - 1, //
-                                -dyi * dyi);
-                    } else { // Neuman conditions on the boundary
-                        laplacian.set( //
-                                i + (j - 1) * nx - 1, //
-                                i + (j - 1) * nx - 1, //
-                                laplacian.get( //
-                                        i + (j - 1) * nx - 1, //
-                                        i + (j - 1) * nx - 1) //
-                                        - dyi * dyi);
-                    }
-                }
-            }
-        }
-
         // calculate pressure as a long vector
-        DMatrixRMaj pv = new DMatrixRMaj(nx * ny, 1);
+        DMatrixRMaj pv = pressureVector;
         {
-            double[] r = new double[nx * ny];
+            double[] r = pressureRhs.data;
             int n = 0;
             for (int j = jmin; j <= jmax; j++) {
                 for (int i = imin; i <= imax; i++) {
@@ -264,7 +285,7 @@ public class Mesh {
                             + (vs[i][j + 1] - vs[i][j]) * dyi);
                 }
             }
-            CommonOps_DSCC.solve(laplacian, new DMatrixRMaj(r), pv);
+            solvePressure(pressureRhs, pv);
         }
 
         // convert the pressure vector to a matrix
@@ -294,6 +315,36 @@ public class Mesh {
             }
         }
 
+        if (validation != Validation.OFF) {
+            Sweep.check("u", u);
+            Sweep.check("v", v);
+        }
+    }
+
+    /**
+     * Solves the pressure equation Lp = rhs for p. Only forward and back
+     * substitution is needed since the Laplacian was factored by the
+     * constructor.
+     *
+     * @param rhs right hand side
+     * @param p   pressure, set by this method
+     */
+    void solvePressure(DMatrixRMaj rhs, DMatrixRMaj p) {
+        pressureSolver.solve(rhs, p);
+    }
+
+    /**
+     * Sets how {@link #run} checks that velocities are finite. Defaults to
+     * {@link Validation#SWEEP} which checks u and v after each step,
+     * {@link Validation#DEBUG} also checks the intermediate velocities (us and
+     * vs) before the pressure solve. Indices reported are the one-based (i, j)
+     * of {@link #u(int, int)} with up 0.
+     *
+     * @param validation validation
+     */
+    public void setValidation(Validation validation) {
+        Preconditions.checkNotNull(validation);
+        this.validation = validation;
     }
 
     /**
@@ -322,6 +373,52 @@ public class Mesh {
         return v[i][j];
     }
 
+    /**
+     * Returns a copy of u and v (including the boundary cells) as a
+     * {@link Checkpoint} with nz 1. The mesh does not keep the simulated time
+     * so the time is 0.
+     *
+     * @return checkpoint
+     */
+    public Checkpoint checkpoint() {
+        return Checkpoint.builder() //
+                .gridSize(nx, ny, 1) //
+                .dx(dx) //
+                .dy(dy) //
+                .field("u", flatten(u)) //
+                .field("v", flatten(v)) //
+                .build();
+    }
+
+    /**
+     * Sets u and v from a checkpoint of a mesh with the same number of cells.
+     *
+     * @param checkpoint checkpoint
+     */
+    public void restore(Checkpoint checkpoint) {
+        Preconditions.checkArgument(checkpoint.nx() == nx && checkpoint.ny() == ny,
+                "checkpoint has " + checkpoint.nx() + "x" + checkpoint.ny() + " cells but expected " + nx
+                        + "x" + ny);
+        unflatten(checkpoint.field("u", (nx + 2) * (ny + 2)), u);
+        unflatten(checkpoint.field("v", (nx + 2) * (ny + 2)), v);
+    }
+
+    private static double[] flatten(double[][] a) {
+        int n = a[0].length;
+        double[] values = new double[a.length * n];
+        for (int i = 0; i < a.length; i++) {
+            System.arraycopy(a[i], 0, values, i * n, n);
+        }
+        return values;
+    }
+
+    private static void unflatten(double[] values, double[][] a) {
+        int n = a[0].length;
+        for (int i = 0; i < a.length; i++) {
+            System.arraycopy(values, i * n, a[i], 0, n);
+        }
+    }
+
     @Override
     public String toString() {
         DecimalFormat df = new DecimalFormat("0.000");
@@ -0,0 +1,232 @@
+package com.github.davidmoten.jns.v3;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+import com.github.davidmoten.guavamini.Preconditions;
+import com.github.davidmoten.jns.Validation;
+
+/**
+ * Monte-Carlo ensemble of {@link Solver}s that differ only in their tidal
+ * forcing (perturbed per member) and share one read-only {@link Geometry}.
+ * <p>
+ * Members are split into contiguous groups, one per thread of a
+ * {@link ForkJoinPool}. A group runs its members one after the other, each
+ * with its own field buffers, and adds each member's final fields to the
+ * group's {@link FieldStatistics} before the next member starts, so at most
+ * one member per thread is in memory at a time. The statistics of the groups
+ * are then combined in group order.
+ */
+public final class Ensemble {
+
+    private final Geometry geometry;
+    private final int members;
+    private final IntFunction<TidalForcing> tidalForcing;
+    private final double timeStep;
+    private final double fluidDensity;
+    private final int steps;
+    private final ForkJoinPool pool;
+    private final Validation validation;
+
+    private Ensemble(Builder b) {
+        this.geometry = b.geometry;
+        this.members = b.members;
+        this.tidalForcing = b.tidalForcing;
+        this.timeStep = b.timeStep;
+        this.fluidDensity = b.fluidDensity;
+        this.steps = b.steps;
+        this.pool = b.pool;
+        this.validation = b.validation;
+    }
+
+    public static Builder builder(Geometry geometry) {
+        return new Builder(geometry);
+    }
+
+    /**
+     * Runs every member for the given number of steps from rest and returns
+     * the mean and variance per cell of the final fields over the members.
+     *
+     * @return statistics over the members
+     */
+    public Statistics run() {
+        int groups = Math.min(pool.getParallelism(), members);
+        List<Callable<Statistics>> tasks = new ArrayList<>(groups);
+        for (int g = 0; g < groups; g++) {
+            int from = (int) ((long) members * g / groups);
+            int to = (int) ((long) members * (g + 1) / groups);
+            tasks.add(() -> run(from, to));
+        }
+        Statistics result = new Statistics(geometry.size());
+        for (Future<Statistics> future : pool.invokeAll(tasks)) {
+            try {
+                result.combine(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                } else {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        }
+        return result;
+    }
+
+    private Statistics run(int from, int to) {
+        Statistics statistics = new Statistics(geometry.size());
+        for (int member = from; member < to; member++) {
+            Solver solver = new Solver(geometry, tidalForcing.apply(member), timeStep, fluidDensity);
+            solver.setValidation(validation);
+            for (int step = 0; step < steps; step++) {
+                solver.calculateNextStepVelocity(step * timeStep);
+            }
+            statistics.add(solver);
+        }
+        return statistics;
+    }
+
+    /**
+     * Mean and variance per cell of each field over the members of an
+     * ensemble.
+     */
+    public static final class Statistics {
+
+        private final FieldStatistics u;
+        private final FieldStatistics v;
+        private final FieldStatistics w;
+        private final FieldStatistics p;
+
+        Statistics(int size) {
+            this.u = new FieldStatistics(size);
+            this.v = new FieldStatistics(size);
+            this.w = new FieldStatistics(size);
+            this.p = new FieldStatistics(size);
+        }
+
+        void add(Solver solver) {
+            u.add(solver.u());
+            v.add(solver.v());
+            w.add(solver.w());
+            p.add(solver.p());
+        }
+
+        void combine(Statistics other) {
+            u.combine(other.u);
+            v.combine(other.v);
+            w.combine(other.w);
+            p.combine(other.p);
+        }
+
+        public FieldStatistics u() {
+            return u;
+        }
+
+        public FieldStatistics v() {
+            return v;
+        }
+
+        public FieldStatistics w() {
+            return w;
+        }
+
+        public FieldStatistics p() {
+            return p;
+        }
+
+    }
+
+    public static final class Builder {
+
+        private final Geometry geometry;
+        private int members = 1;
+        private IntFunction<TidalForcing> tidalForcing = member -> (geometry, time, outX, outY) -> {
+            // no forcing, the buffers stay zero
+        };
+        private double timeStep = 1;
+        private double fluidDensity = Solver.FLUID_DENSITY;
+        private int steps = 1;
+        private ForkJoinPool pool = ForkJoinPool.commonPool();
+        private Validation validation = Validation.SWEEP;
+
+        Builder(Geometry geometry) {
+            Preconditions.checkNotNull(geometry, "geometry cannot be null");
+            this.geometry = geometry;
+        }
+
+        public Builder members(int members) {
+            Preconditions.checkArgument(members > 0, "members must be positive");
+            this.members = members;
+            return this;
+        }
+
+        /**
+         * Sets the tidal forcing of each member.
+         *
+         * @param tidalForcingX returns the x forcing of a member given its index
+         * @param tidalForcingY returns the y forcing of a member given its index
+         * @return this
+         */
+        public Builder tidalForcing(IntFunction<Forcing> tidalForcingX, IntFunction<Forcing> tidalForcingY) {
+            Preconditions.checkNotNull(tidalForcingX, "tidalForcingX cannot be null");
+            Preconditions.checkNotNull(tidalForcingY, "tidalForcingY cannot be null");
+            this.tidalForcing = member -> TidalForcing.of(tidalForcingX.apply(member), tidalForcingY.apply(member));
+            return this;
+        }
+
+        /**
+         * Sets the tidal forcing of each member, evaluated for the whole grid
+         * at once.
+         *
+         * @param tidalForcing returns the forcing of a member given its index
+         * @return this
+         */
+        public Builder tidalForcing(IntFunction<TidalForcing> tidalForcing) {
+            Preconditions.checkNotNull(tidalForcing, "tidalForcing cannot be null");
+            this.tidalForcing = tidalForcing;
+            return this;
+        }
+
+        public Builder timeStep(double timeStep) {
+            Preconditions.checkArgument(timeStep > 0, "timeStep must be positive");
+            this.timeStep = timeStep;
+            return this;
+        }
+
+        public Builder fluidDensity(double fluidDensity) {
+            Preconditions.checkArgument(fluidDensity > 0, "fluidDensity must be positive");
+            this.fluidDensity = fluidDensity;
+            return this;
+        }
+
+        public Builder steps(int steps) {
+            Preconditions.checkArgument(steps >= 0, "steps cannot be negative");
+            this.steps = steps;
+            return this;
+        }
+
+        public Builder pool(ForkJoinPool pool) {
+            Preconditions.checkNotNull(pool, "pool cannot be null");
+            this.pool = pool;
+            return this;
+        }
+
+        public Builder validation(Validation validation) {
+            Preconditions.checkNotNull(validation, "validation cannot be null");
+            this.validation = validation;
+            return this;
+        }
+
+        public Ensemble build() {
+            return new Ensemble(this);
+        }
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.github.davidmoten.jns.v3;
+
+import com.github.davidmoten.guavamini.Preconditions;
+import com.github.davidmoten.jns.v4.ArrayField;
+import com.github.davidmoten.jns.v4.Field;
+
+/**
+ * Running mean and variance of every cell of a field over a number of samples
+ * (ensemble members for example), without keeping the samples.
+ * <p>
+ * Samples are added with Welford's update and two sets of statistics are
+ * merged with the pairwise formula of Chan, Golub and LeVeque, so partial
+ * statistics gathered on separate threads can be combined into the statistics
+ * of all their samples.
+ */
+public final class FieldStatistics {
+
+    private final double[] mean;
+    private final double[] m2; // sum of squared differences from the mean
+    private long count;
+
+    public FieldStatistics(int size) {
+        Preconditions.checkArgument(size >= 0, "size cannot be negative");
+        this.mean = new double[size];
+        this.m2 = new double[size];
+    }
+
+    /**
+     * Adds one sample of the field.
+     *
+     * @param values value of every cell
+     */
+    public void add(double[] values) {
+        add(new ArrayField(values));
+    }
+
+    /**
+     * Adds one sample of the field.
+     *
+     * @param values value of every cell
+     */
+    public void add(Field values) {
+        Preconditions.checkArgument(values.size() == mean.length, "values must be the size of the field");
+        count++;
+        for (int c = 0; c < mean.length; c++) {
+            double value = values.get(c);
+            double delta = value - mean[c];
+            mean[c] += delta / count;
+            m2[c] += delta * (value - mean[c]);
+        }
+    }
+
+    /**
+     * Adds the samples of <code>other</code> to these statistics.
+     *
+     * @param other statistics of the same field
+     */
+    public void combine(FieldStatistics other) {
+        Preconditions.checkArgument(other.mean.length == mean.length, "statistics must be the size of the field");
+        if (other.count == 0) {
+            return;
+        }
+        long n = count + other.count;
+        double a = (double) count / n;
+        double b = (double) other.count / n;
+        double ab = (double) count * other.count / n;
+        for (int c = 0; c < mean.length; c++) {
+            double delta = other.mean[c] - mean[c];
+            mean[c] = a * mean[c] + b * other.mean[c];
+            m2[c] += other.m2[c] + delta * delta * ab;
+        }
+        count = n;
+    }
+
+    /**
+     * Returns the number of samples added.
+     *
+     * @return number of samples
+     */
+    public long count() {
+        return count;
+    }
+
+    public int size() {
+        return mean.length;
+    }
+
+    public double mean(int index) {
+        return mean[index];
+    }
+
+    /**
+     * Returns the sample variance of a cell (0 for fewer than two samples).
+     *
+     * @param index flat index of the cell
+     * @return sample variance
+     */
+    public double variance(int index) {
+        return count < 2 ? 0 : m2[index] / (count - 1);
+    }
+
+}
@@ -0,0 +1,185 @@
+package com.github.davidmoten.jns.v3;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import com.github.davidmoten.guavamini.Preconditions;
+
+/**
+ * Immutable bathymetry and obstacle model of a {@link Solver} grid: grid
+ * sizes, horizontal spacing, depths, the obstacle mask and the stencil
+ * coefficients that depend only on them (computed once per k rather than per
+ * cell per step).
+ * <p>
+ * A geometry never changes after it is built so one instance can be shared by
+ * any number of solvers, for example the members of an {@link Ensemble}.
+ */
+public final class Geometry {
+
+    final int gridSizeX;
+    final int gridSizeY;
+    final int gridSizeZ;
+    final double deltaX;
+    final double deltaY;
+    private final double[] depth;
+    private final BitSet obstacle;
+
+    // stencil coefficients
+    final double deltaXSquared; // deltaX^2
+    final double deltaYSquared; // deltaY^2
+    final double pressureCorrectionDeltaX; // 2 * deltaX
+    final double pressureCorrectionDeltaY; // 2 * deltaY
+    final double[] deltaZ; // sum of the half spacings either side of k
+    final double[] deltaZHalvesSquared; // sum of the squares of the half spacings
+    final double[] deltaZSquared; // deltaZ^2
+    final double[] pressureDenominator; // 2 / deltaX^2 + 2 / deltaY^2 + 2 / deltaZ^2
+    final double[] pressureCorrectionDeltaZ; // 2 * (depth[k + 1] - depth[k - 1]) / 2
+
+    Geometry(int gridSizeX, int gridSizeY, int gridSizeZ, double deltaX, double deltaY, double[] depth,
+            BitSet obstacle) {
+        Preconditions.checkArgument(gridSizeX > 0 && gridSizeY > 0 && gridSizeZ > 0, "grid sizes must be positive");
+        Preconditions.checkArgument(depth.length == gridSizeZ, "there must be one depth for each k");
+        this.gridSizeX = gridSizeX;
+        this.gridSizeY = gridSizeY;
+        this.gridSizeZ = gridSizeZ;
+        this.deltaX = deltaX;
+        this.deltaY = deltaY;
+        this.depth = depth.clone();
+        this.obstacle = (BitSet) obstacle.clone();
+
+        // the arithmetic matches what Solver did per cell so results are
+        // unchanged
+        deltaXSquared = Math.pow(deltaX, 2);
+        deltaYSquared = Math.pow(deltaY, 2);
+        pressureCorrectionDeltaX = 2 * deltaX;
+        pressureCorrectionDeltaY = 2 * deltaY;
+        deltaZ = new double[gridSizeZ];
+        deltaZHalvesSquared = new double[gridSizeZ];
+        deltaZSquared = new double[gridSizeZ];
+        pressureDenominator = new double[gridSizeZ];
+        pressureCorrectionDeltaZ = new double[gridSizeZ];
+        for (int k = 1; k < gridSizeZ - 1; k++) {
+            double deltaZPlus = (depth[k + 1] - depth[k]) / 2.0;
+            double deltaZMinus = (depth[k] - depth[k - 1]) / 2.0;
+            deltaZ[k] = deltaZPlus + deltaZMinus;
+            deltaZHalvesSquared[k] = Math.pow(deltaZPlus, 2) + Math.pow(deltaZMinus, 2);
+            deltaZSquared[k] = Math.pow(deltaZ[k], 2);
+            pressureDenominator[k] = 2 / deltaXSquared + 2 / deltaYSquared + 2 / deltaZSquared[k];
+            pressureCorrectionDeltaZ[k] = 2 * ((depth[k + 1] - depth[k - 1]) / 2);
+        }
+    }
+
+    public static Builder builder(int gridSizeX, int gridSizeY, int gridSizeZ) {
+        return new Builder(gridSizeX, gridSizeY, gridSizeZ);
+    }
+
+    public int gridSizeX() {
+        return gridSizeX;
+    }
+
+    public int gridSizeY() {
+        return gridSizeY;
+    }
+
+    public int gridSizeZ() {
+        return gridSizeZ;
+    }
+
+    /**
+     * Returns the number of grid points.
+     *
+     * @return gridSizeX * gridSizeY * gridSizeZ
+     */
+    public int size() {
+        return gridSizeX * gridSizeY * gridSizeZ;
+    }
+
+    public double deltaX() {
+        return deltaX;
+    }
+
+    public double deltaY() {
+        return deltaY;
+    }
+
+    public double depth(int k) {
+        return depth[k];
+    }
+
+    /**
+     * Returns the flat index of a grid point as used by {@link Solver} fields.
+     *
+     * @param i x index
+     * @param j y index
+     * @param k z index
+     * @return (i * gridSizeY + j) * gridSizeZ + k
+     */
+    public int index(int i, int j, int k) {
+        return (i * gridSizeY + j) * gridSizeZ + k;
+    }
+
+    public boolean isObstacle(int i, int j, int k) {
+        return obstacle.get(index(i, j, k));
+    }
+
+    boolean isObstacle(int index) {
+        return obstacle.get(index);
+    }
+
+    int nextObstacle(int fromIndex) {
+        return obstacle.nextSetBit(fromIndex);
+    }
+
+    public static final class Builder {
+
+        private final int gridSizeX;
+        private final int gridSizeY;
+        private final int gridSizeZ;
+        private double deltaX = 1;
+        private double deltaY = 1;
+        private double[] depths;
+        private final BitSet obstacle = new BitSet();
+
+        Builder(int gridSizeX, int gridSizeY, int gridSizeZ) {
+            Preconditions.checkArgument(gridSizeX > 0 && gridSizeY > 0 && gridSizeZ > 0,
+                    "grid sizes must be positive");
+            this.gridSizeX = gridSizeX;
+            this.gridSizeY = gridSizeY;
+            this.gridSizeZ = gridSizeZ;
+        }
+
+        public Builder deltaX(double deltaX) {
+            Preconditions.checkArgument(deltaX > 0, "deltaX must be positive");
+            this.deltaX = deltaX;
+            return this;
+        }
+
+        public Builder deltaY(double deltaY) {
+            Preconditions.checkArgument(deltaY > 0, "deltaY must be positive");
+            this.deltaY = deltaY;
+            return this;
+        }
+
+        public Builder depths(double... depths) {
+            Preconditions.checkArgument(depths.length == gridSizeZ, "there must be one depth for each k");
+            this.depths = depths.clone();
+            return this;
+        }
+
+        public Builder obstacle(int i, int j, int k) {
+            Preconditions.checkArgument(i >= 0 && i < gridSizeX && j >= 0 && j < gridSizeY && k >= 0 && k < gridSizeZ,
+                    "obstacle must be inside the grid");
+            obstacle.set((i * gridSizeY + j) * gridSizeZ + k);
+            return this;
+        }
+
+        public Geometry build() {
+            if (depths == null) {
+                depths = new double[gridSizeZ];
+                Arrays.setAll(depths, k -> k);
+            }
+            return new Geometry(gridSizeX, gridSizeY, gridSizeZ, deltaX, deltaY, depths, obstacle);
+        }
+    }
+
+}
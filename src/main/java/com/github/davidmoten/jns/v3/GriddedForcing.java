@@ -0,0 +1,115 @@
+package com.github.davidmoten.jns.v3;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.davidmoten.guavamini.Preconditions;
+import com.github.davidmoten.jns.v4.Field;
+
+/**
+ * Tidal forcing tabulated on the grid at regular times (from a tide model for
+ * example). Between two frames the forcing is interpolated linearly in time,
+ * before the first frame it is the first frame and after the last frame it is
+ * the last frame. The frames never change so one instance can be used by many
+ * solvers at once.
+ */
+public final class GriddedForcing implements TidalForcing {
+
+    private final int size;
+    private final double startTime;
+    private final double interval;
+    private final double[][] x; // per frame per grid point
+    private final double[][] y;
+
+    private GriddedForcing(Builder b) {
+        this.size = b.size;
+        this.startTime = b.startTime;
+        this.interval = b.interval;
+        this.x = b.x.toArray(new double[b.x.size()][]);
+        this.y = b.y.toArray(new double[b.y.size()][]);
+    }
+
+    public static Builder builder(Geometry geometry) {
+        return new Builder(geometry);
+    }
+
+    @Override
+    public void fill(Geometry geometry, double time, Field outX, Field outY) {
+        Preconditions.checkArgument(geometry.size() == size, "geometry does not match the forcing");
+        double position = Math.max(0, Math.min((time - startTime) / interval, x.length - 1));
+        int frame = Math.min((int) position, Math.max(x.length - 2, 0));
+        double f = position - frame;
+        if (f == 0) {
+            outX.copyFrom(x[frame]);
+            outY.copyFrom(y[frame]);
+        } else {
+            interpolate(x[frame], x[frame + 1], f, outX);
+            interpolate(y[frame], y[frame + 1], f, outY);
+        }
+    }
+
+    private static void interpolate(double[] a, double[] b, double f, Field out) {
+        for (int c = 0; c < a.length; c++) {
+            out.set(c, a[c] + f * (b[c] - a[c]));
+        }
+    }
+
+    public static final class Builder {
+
+        private final int size;
+        private double startTime;
+        private double interval = 1;
+        private final List<double[]> x = new ArrayList<>();
+        private final List<double[]> y = new ArrayList<>();
+
+        Builder(Geometry geometry) {
+            Preconditions.checkNotNull(geometry, "geometry cannot be null");
+            this.size = geometry.size();
+        }
+
+        /**
+         * Sets the time of the first frame (0 by default).
+         *
+         * @param startTime time in seconds
+         * @return this
+         */
+        public Builder startTime(double startTime) {
+            this.startTime = startTime;
+            return this;
+        }
+
+        /**
+         * Sets the time between frames (1 by default).
+         *
+         * @param interval time in seconds
+         * @return this
+         */
+        public Builder interval(double interval) {
+            Preconditions.checkArgument(interval > 0, "interval must be positive");
+            this.interval = interval;
+            return this;
+        }
+
+        /**
+         * Adds the next frame. Each array has one value per grid point indexed
+         * like the {@link Solver} fields.
+         *
+         * @param x forcing in the X-direction
+         * @param y forcing in the Y-direction
+         * @return this
+         */
+        public Builder frame(double[] x, double[] y) {
+            Preconditions.checkArgument(x.length == size && y.length == size,
+                    "frames must have one value per grid point");
+            this.x.add(x.clone());
+            this.y.add(y.clone());
+            return this;
+        }
+
+        public GriddedForcing build() {
+            Preconditions.checkArgument(!x.isEmpty(), "there must be at least one frame");
+            return new GriddedForcing(this);
+        }
+    }
+
+}
@@ -0,0 +1,185 @@
+package com.github.davidmoten.jns.v3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.github.davidmoten.guavamini.Preconditions;
+import com.github.davidmoten.jns.v4.Field;
+
+/**
+ * Tidal forcing as a sum of harmonic constituents that is separable in time,
+ * horizontal position and depth. The forcing in the X-direction at (i, j, k)
+ * is
+ *
+ * <pre>
+ * profile[k] * sum over constituents of amplitudeX(i, j) * cos(angularFrequency * time - phaseX(i, j))
+ * </pre>
+ *
+ * and likewise in the Y-direction.
+ * <p>
+ * Amplitudes and phases are stored as the coefficients of cos(angularFrequency
+ * * time) and sin(angularFrequency * time) so a fill evaluates two
+ * trigonometric functions per constituent, then one multiply-add per
+ * constituent per column and one multiply per cell. The forcing has no state
+ * that changes so one instance can be used by many solvers at once.
+ */
+public final class HarmonicForcing implements TidalForcing {
+
+    private final int gridSizeX;
+    private final int gridSizeY;
+    private final int gridSizeZ;
+    private final double[] angularFrequency; // per constituent
+    // per constituent per column (i * gridSizeY + j)
+    private final double[][] cosX; // amplitude * cos(phase)
+    private final double[][] sinX; // amplitude * sin(phase)
+    private final double[][] cosY;
+    private final double[][] sinY;
+    private final double[] profile; // per k
+
+    private HarmonicForcing(Builder b) {
+        this.gridSizeX = b.gridSizeX;
+        this.gridSizeY = b.gridSizeY;
+        this.gridSizeZ = b.gridSizeZ;
+        int constituents = b.angularFrequency.size();
+        this.angularFrequency = new double[constituents];
+        for (int n = 0; n < constituents; n++) {
+            angularFrequency[n] = b.angularFrequency.get(n);
+        }
+        this.cosX = b.cosX.toArray(new double[constituents][]);
+        this.sinX = b.sinX.toArray(new double[constituents][]);
+        this.cosY = b.cosY.toArray(new double[constituents][]);
+        this.sinY = b.sinY.toArray(new double[constituents][]);
+        this.profile = b.profile;
+    }
+
+    public static Builder builder(Geometry geometry) {
+        return new Builder(geometry);
+    }
+
+    @Override
+    public void fill(Geometry geometry, double time, Field outX, Field outY) {
+        Preconditions.checkArgument(geometry.gridSizeX == gridSizeX && geometry.gridSizeY == gridSizeY
+                && geometry.gridSizeZ == gridSizeZ, "geometry does not match the forcing");
+        int constituents = angularFrequency.length;
+        double[] cos = new double[constituents];
+        double[] sin = new double[constituents];
+        for (int n = 0; n < constituents; n++) {
+            cos[n] = Math.cos(angularFrequency[n] * time);
+            sin[n] = Math.sin(angularFrequency[n] * time);
+        }
+        int columns = gridSizeX * gridSizeY;
+        for (int column = 0; column < columns; column++) {
+            double x = 0;
+            double y = 0;
+            for (int n = 0; n < constituents; n++) {
+                x += cosX[n][column] * cos[n] + sinX[n][column] * sin[n];
+                y += cosY[n][column] * cos[n] + sinY[n][column] * sin[n];
+            }
+            int start = column * gridSizeZ;
+            for (int k = 0; k < gridSizeZ; k++) {
+                outX.set(start + k, x * profile[k]);
+                outY.set(start + k, y * profile[k]);
+            }
+        }
+    }
+
+    public static final class Builder {
+
+        private final int gridSizeX;
+        private final int gridSizeY;
+        private final int gridSizeZ;
+        private final List<Double> angularFrequency = new ArrayList<>();
+        private final List<double[]> cosX = new ArrayList<>();
+        private final List<double[]> sinX = new ArrayList<>();
+        private final List<double[]> cosY = new ArrayList<>();
+        private final List<double[]> sinY = new ArrayList<>();
+        private double[] profile;
+
+        Builder(Geometry geometry) {
+            Preconditions.checkNotNull(geometry, "geometry cannot be null");
+            this.gridSizeX = geometry.gridSizeX;
+            this.gridSizeY = geometry.gridSizeY;
+            this.gridSizeZ = geometry.gridSizeZ;
+            this.profile = new double[gridSizeZ];
+            Arrays.fill(profile, 1);
+        }
+
+        /**
+         * Adds a constituent with the same amplitude and phase everywhere.
+         *
+         * @param angularFrequency angular frequency in radians per second
+         * @param amplitudeX       amplitude in the X-direction
+         * @param phaseX           phase in the X-direction in radians
+         * @param amplitudeY       amplitude in the Y-direction
+         * @param phaseY           phase in the Y-direction in radians
+         * @return this
+         */
+        public Builder constituent(double angularFrequency, double amplitudeX, double phaseX, double amplitudeY,
+                double phaseY) {
+            int columns = gridSizeX * gridSizeY;
+            return constituent(angularFrequency, filled(columns, amplitudeX), filled(columns, phaseX),
+                    filled(columns, amplitudeY), filled(columns, phaseY));
+        }
+
+        /**
+         * Adds a constituent with amplitudes and phases that vary across the
+         * grid. Each array has one value per column indexed by i * gridSizeY +
+         * j.
+         *
+         * @param angularFrequency angular frequency in radians per second
+         * @param amplitudeX       amplitudes in the X-direction
+         * @param phaseX           phases in the X-direction in radians
+         * @param amplitudeY       amplitudes in the Y-direction
+         * @param phaseY           phases in the Y-direction in radians
+         * @return this
+         */
+        public Builder constituent(double angularFrequency, double[] amplitudeX, double[] phaseX,
+                double[] amplitudeY, double[] phaseY) {
+            int columns = gridSizeX * gridSizeY;
+            Preconditions.checkArgument(amplitudeX.length == columns && phaseX.length == columns
+                    && amplitudeY.length == columns && phaseY.length == columns,
+                    "amplitudes and phases must have one value per column");
+            double[] cx = new double[columns];
+            double[] sx = new double[columns];
+            double[] cy = new double[columns];
+            double[] sy = new double[columns];
+            for (int column = 0; column < columns; column++) {
+                cx[column] = amplitudeX[column] * Math.cos(phaseX[column]);
+                sx[column] = amplitudeX[column] * Math.sin(phaseX[column]);
+                cy[column] = amplitudeY[column] * Math.cos(phaseY[column]);
+                sy[column] = amplitudeY[column] * Math.sin(phaseY[column]);
+            }
+            this.angularFrequency.add(angularFrequency);
+            cosX.add(cx);
+            sinX.add(sx);
+            cosY.add(cy);
+            sinY.add(sy);
+            return this;
+        }
+
+        /**
+         * Sets the factor applied to the forcing at each k (1 at every k by
+         * default).
+         *
+         * @param profile one factor per k
+         * @return this
+         */
+        public Builder profile(double... profile) {
+            Preconditions.checkArgument(profile.length == gridSizeZ, "there must be one factor for each k");
+            this.profile = profile.clone();
+            return this;
+        }
+
+        public HarmonicForcing build() {
+            return new HarmonicForcing(this);
+        }
+
+        private static double[] filled(int length, double value) {
+            double[] values = new double[length];
+            Arrays.fill(values, value);
+            return values;
+        }
+    }
+
+}
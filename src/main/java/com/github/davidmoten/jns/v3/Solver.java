@@ -1,7 +1,36 @@
 package com.github.davidmoten.jns.v3;
 
+import java.util.BitSet;
+
 import com.github.davidmoten.guavamini.Preconditions;
+import com.github.davidmoten.jns.InvalidValueException;
+import com.github.davidmoten.jns.PingPong;
+import com.github.davidmoten.jns.Sweep;
+import com.github.davidmoten.jns.Util;
+import com.github.davidmoten.jns.Validation;
+import com.github.davidmoten.jns.v4.Field;
+import com.github.davidmoten.jns.v4.FieldStorage;
 
+/**
+ * Fields are indexed by (i * gridSizeY + j) * gridSizeZ + k so that k is
+ * contiguous in memory. They are created by a {@link FieldStorage}, on the
+ * heap by default or memory-mapped (see {@link FieldStorage#mapped}) so that
+ * grids can be bigger than the heap. Mapped fields are reused when
+ * they exist, so a solver constructed over the same directory resumes from the
+ * state last flushed ({@link #flush()}).
+ * <p>
+ * Each field has a current and a next buffer ({@link PingPong}). A step reads
+ * only the current buffers and writes the next ones, then the buffers are
+ * swapped so stepping does not allocate.
+ * <p>
+ * Depths, obstacles and the stencil coefficients that depend on them are held
+ * in a {@link Geometry}. A solver constructed with a {@link Geometry} shares it
+ * read-only (with the members of an {@link Ensemble} for example) and only
+ * owns its field buffers, so its obstacles and depths cannot be changed.
+ * <p>
+ * Tidal forcing is evaluated for the whole grid once per step by a
+ * {@link TidalForcing} into a pair of buffers that the per cell update reads.
+ */
 public class Solver {
 
     public static final double FLUID_DENSITY = 1.025; // density of sea water
@@ -10,112 +39,310 @@ public class Solver {
     private int gridSizeX; // Size of the grid in the X-direction
     private int gridSizeY; // Size of the grid in the Y-direction
     private int gridSizeZ; // Size of the grid in the Z-direction
-    private double[][][] u; // Velocity grid in the X-direction
-    private double[][][] v; // Velocity grid in the Y-direction
-    private double[][][] w; // Velocity grid in the Z-direction
-    private double[][][] p; // Pressure grid
-    private boolean[][][] obstacle; // Obstacle grid
-    private double[] depth; // Depth values at each grid point
+    private final int strideX; // index offset between neighbours in the X-direction
+    private final int strideY; // index offset between neighbours in the Y-direction
+    private Field u; // Velocity grid in the X-direction
+    private Field v; // Velocity grid in the Y-direction
+    private Field w; // Velocity grid in the Z-direction
+    private Field p; // Pressure grid
+    private final BitSet obstacle; // Obstacle grid, null if the geometry is shared
+    private double[] depth; // Depth values at each grid point, null if the geometry is shared
+    private Geometry geometry; // rebuilt after obstacles or depths change
     private double deltaX;
     private double deltaY;
-    private Forcing tidalForcingX;
-    private Forcing tidalForcingY;
+    private final TidalForcing tidalForcing;
+    private final Field tidalForcingX; // tidal forcing of the current step in the X-direction
+    private final Field tidalForcingY; // tidal forcing of the current step in the Y-direction
     private double timeStep;
     private double fluidDensity;
 
-    private double[][][] uNext;
-    private double[][][] vNext;
-    private double[][][] wNext;
-    private double[][][] pNext;
+    private Field uNext;
+    private Field vNext;
+    private Field wNext;
+    private Field pNext;
+
+    private final PingPong<Field> uBuffers;
+    private final PingPong<Field> vBuffers;
+    private final PingPong<Field> wBuffers;
+    private final PingPong<Field> pBuffers;
+    // which buffer of each pair is current (0 or 1), stored with the fields so
+    // that reopened storage resumes where it left off
+    private final Field state;
+    private final FieldStorage fieldStorage;
+
+    private Validation validation = Validation.SWEEP;
 
     // Constructor
     public Solver(int gridSizeX, int gridSizeY, int gridSizeZ, int deltaX, int deltaY, double[] depths,
             Forcing tidalForcingX, Forcing tidalForcingY, double timeStep, double fluidDensity) {
-        Preconditions.checkArgument(depths.length == gridSizeZ);
+        this(gridSizeX, gridSizeY, gridSizeZ, deltaX, deltaY, depths, TidalForcing.of(tidalForcingX, tidalForcingY),
+                timeStep, fluidDensity);
+    }
+
+    // Constructor with forcing evaluated for the whole grid at once
+    public Solver(int gridSizeX, int gridSizeY, int gridSizeZ, int deltaX, int deltaY, double[] depths,
+            TidalForcing tidalForcing, double timeStep, double fluidDensity) {
+        this(gridSizeX, gridSizeY, gridSizeZ, deltaX, deltaY, depths, tidalForcing, timeStep, fluidDensity,
+                FieldStorage.heap());
+    }
+
+    // Constructor with forcing evaluated for the whole grid at once and fields
+    // created by the given storage
+    public Solver(int gridSizeX, int gridSizeY, int gridSizeZ, int deltaX, int deltaY, double[] depths,
+            TidalForcing tidalForcing, double timeStep, double fluidDensity, FieldStorage fieldStorage) {
+        this(gridSizeX, gridSizeY, gridSizeZ, deltaX, deltaY, new BitSet(gridSizeX * gridSizeY * gridSizeZ),
+                checkDepths(depths, gridSizeZ), null, tidalForcing, timeStep, fluidDensity, fieldStorage);
+    }
+
+    // Constructor sharing geometry with other solvers
+    public Solver(Geometry geometry, Forcing tidalForcingX, Forcing tidalForcingY, double timeStep,
+            double fluidDensity) {
+        this(geometry, TidalForcing.of(tidalForcingX, tidalForcingY), timeStep, fluidDensity);
+    }
+
+    // Constructor sharing geometry with other solvers with forcing evaluated
+    // for the whole grid at once
+    public Solver(Geometry geometry, TidalForcing tidalForcing, double timeStep, double fluidDensity) {
+        this(geometry, tidalForcing, timeStep, fluidDensity, FieldStorage.heap());
+    }
+
+    // Constructor sharing geometry with other solvers with fields created by
+    // the given storage
+    public Solver(Geometry geometry, TidalForcing tidalForcing, double timeStep, double fluidDensity,
+            FieldStorage fieldStorage) {
+        this(geometry.gridSizeX, geometry.gridSizeY, geometry.gridSizeZ, geometry.deltaX, geometry.deltaY, null,
+                null, geometry, tidalForcing, timeStep, fluidDensity, fieldStorage);
+    }
+
+    private Solver(int gridSizeX, int gridSizeY, int gridSizeZ, double deltaX, double deltaY, BitSet obstacle,
+            double[] depths, Geometry geometry, TidalForcing tidalForcing, double timeStep, double fluidDensity,
+            FieldStorage fieldStorage) {
+        Preconditions.checkNotNull(tidalForcing);
+        Preconditions.checkNotNull(fieldStorage);
         this.gridSizeX = gridSizeX;
         this.gridSizeY = gridSizeY;
         this.gridSizeZ = gridSizeZ;
         this.deltaX = deltaX;
         this.deltaY = deltaY;
-        this.tidalForcingX = tidalForcingX;
-        this.tidalForcingY = tidalForcingY;
+        this.tidalForcing = tidalForcing;
+        this.timeStep = timeStep;
         this.fluidDensity = fluidDensity;
+        this.strideX = gridSizeY * gridSizeZ;
+        this.strideY = gridSizeZ;
+
+        this.fieldStorage = fieldStorage;
+
+        int size = gridSizeX * gridSizeY * gridSizeZ;
+        uBuffers = new PingPong<>(fieldStorage.create("u0", size), fieldStorage.create("u1", size));
+        vBuffers = new PingPong<>(fieldStorage.create("v0", size), fieldStorage.create("v1", size));
+        wBuffers = new PingPong<>(fieldStorage.create("w0", size), fieldStorage.create("w1", size));
+        pBuffers = new PingPong<>(fieldStorage.create("p0", size), fieldStorage.create("p1", size));
+        state = fieldStorage.create("state", 1);
+        if (state.get(0) != 0) {
+            uBuffers.swap();
+            vBuffers.swap();
+            wBuffers.swap();
+            pBuffers.swap();
+        }
+        updateBuffers();
 
-        u = new double[gridSizeX][gridSizeY][gridSizeZ];
-        v = new double[gridSizeX][gridSizeY][gridSizeZ];
-        w = new double[gridSizeX][gridSizeY][gridSizeZ];
-        p = new double[gridSizeX][gridSizeY][gridSizeZ];
+        tidalForcingX = fieldStorage.create("tidalForcingX", size);
+        tidalForcingY = fieldStorage.create("tidalForcingY", size);
 
-        uNext = new double[gridSizeX][gridSizeY][gridSizeZ];
-        vNext = new double[gridSizeX][gridSizeY][gridSizeZ];
-        wNext = new double[gridSizeX][gridSizeY][gridSizeZ];
-        pNext = new double[gridSizeX][gridSizeY][gridSizeZ];
+        this.obstacle = obstacle;
+        this.depth = depths;
+        this.geometry = geometry;
+    }
+
+    private static double[] checkDepths(double[] depths, int gridSizeZ) {
+        Preconditions.checkArgument(depths.length == gridSizeZ);
+        return depths;
+    }
 
-        obstacle = new boolean[gridSizeX][gridSizeY][gridSizeZ];
-        depth = depths;
+    private int index(int i, int j, int k) {
+        return (i * gridSizeY + j) * gridSizeZ + k;
     }
 
     // Set the obstacle at a given grid position
     public void setObstacle(int i, int j, int k) {
-        obstacle[i][j][k] = true;
+        checkGeometryNotShared();
+        obstacle.set(index(i, j, k));
+        geometry = null;
     }
 
     // Set the depth values for the grid
     public void setDepth(double[] depthValues) {
+        checkGeometryNotShared();
         depth = depthValues;
+        geometry = null;
+    }
+
+    private void checkGeometryNotShared() {
+        if (obstacle == null) {
+            throw new IllegalStateException("geometry is shared so cannot be changed");
+        }
+    }
+
+    // Returns the geometry, building it from the obstacles and depths set
+    // since the last step if need be
+    public Geometry geometry() {
+        if (geometry == null) {
+            geometry = new Geometry(gridSizeX, gridSizeY, gridSizeZ, deltaX, deltaY, depth, obstacle);
+        }
+        return geometry;
+    }
+
+    // Fields of the current step, read-only
+    Field u() {
+        return u;
+    }
+
+    Field v() {
+        return v;
+    }
+
+    Field w() {
+        return w;
+    }
+
+    Field p() {
+        return p;
+    }
+
+    // Writes the fields to persistent storage if the field storage has any
+    // (see FieldStorage.flush())
+    public void flush() {
+        fieldStorage.flush();
+    }
+
+    // Set how each step checks that fields are finite (SWEEP by default, DEBUG
+    // also checks the velocities before the pressure correction)
+    public void setValidation(Validation validation) {
+        Preconditions.checkNotNull(validation);
+        this.validation = validation;
     }
 
     // Calculate the next-step velocity using the lid-driven cavity problem
     // conditions and tidal forcing
     public void calculateNextStepVelocity(double currentTime) {
+        Geometry geometry = geometry();
+        tidalForcing.fill(geometry, currentTime, tidalForcingX, tidalForcingY);
+        // cells that are not updated carry over to the next step
+        copyFixedCells();
         // Update the velocity components for the entire grid
         for (int i = 1; i < gridSizeX - 1; i++) {
             for (int j = 1; j < gridSizeY - 1; j++) {
+                int row = index(i, j, 0);
                 for (int k = 1; k < gridSizeZ - 1; k++) {
-                    if (!obstacle[i][j][k]) {
-                        calculateNextStepVelocityCell(i, j, k, currentTime);
-                        calculateNextStepPressureCell(i, j, k);
+                    if (!geometry.isObstacle(row + k)) {
+                        calculateNextStepVelocityCell(k, row + k);
+                        calculateNextStepPressureCell(k, row + k);
                     }
                 }
             }
         }
-        u = uNext;
-        v = vNext;
-        w = wNext;
-        p = pNext;
+        swapBuffers();
+        if (validation == Validation.DEBUG) {
+            check("provisional u", u);
+            check("provisional v", v);
+            check("provisional w", w);
+        }
         applyPressureCorrection();
+        if (validation != Validation.OFF) {
+            check("u", u);
+            check("v", v);
+            check("w", w);
+            check("p", p);
+        }
+    }
+
+    // throws if a value of the field is NaN or infinite, see Sweep
+    private void check(String name, Field field) {
+        double sum = 0;
+        for (int c = 0; c < field.size(); c++) {
+            sum += field.get(c) * 0;
+        }
+        if (sum != 0) {
+            for (int c = 0; c < field.size(); c++) {
+                double value = field.get(c);
+                if (!Util.isValid(value)) {
+                    throw new InvalidValueException(name, Sweep.indices(c, 0, gridSizeY, gridSizeZ), value);
+                }
+            }
+        }
+    }
+
+    // Copies the cells that a step does not write (the outside faces of the
+    // grid and obstacles) from the current to the next buffers
+    private void copyFixedCells() {
+        for (int i = 0; i < gridSizeX; i++) {
+            for (int j = 0; j < gridSizeY; j++) {
+                int row = index(i, j, 0);
+                if (i == 0 || i == gridSizeX - 1 || j == 0 || j == gridSizeY - 1) {
+                    copy(row, row + gridSizeZ);
+                } else {
+                    copy(row, row + 1);
+                    copy(row + gridSizeZ - 1, row + gridSizeZ);
+                }
+            }
+        }
+        for (int c = geometry.nextObstacle(0); c >= 0; c = geometry.nextObstacle(c + 1)) {
+            copy(c, c + 1);
+        }
+    }
+
+    private void copy(int from, int to) {
+        for (int c = from; c < to; c++) {
+            uNext.set(c, u.get(c));
+            vNext.set(c, v.get(c));
+            wNext.set(c, w.get(c));
+            pNext.set(c, p.get(c));
+        }
+    }
+
+    private void swapBuffers() {
+        uBuffers.swap();
+        vBuffers.swap();
+        wBuffers.swap();
+        pBuffers.swap();
+        state.set(0, uBuffers.index());
+        updateBuffers();
+    }
+
+    private void updateBuffers() {
+        u = uBuffers.current();
+        v = vBuffers.current();
+        w = wBuffers.current();
+        p = pBuffers.current();
+        uNext = uBuffers.next();
+        vNext = vBuffers.next();
+        wNext = wBuffers.next();
+        pNext = pBuffers.next();
     }
 
     // Calculate the next-step velocity of a single cell
-    private void calculateNextStepVelocityCell(int i, int j, int k, double currentTime) {
+    private void calculateNextStepVelocityCell(int k, int c) {
 
         // Retrieve the velocity components and depth of the cell
-        double ui = u[i][j][k];
-        double vi = v[i][j][k];
-        double wi = w[i][j][k];
-        double currentDepth = depth[k];
-
-        // Calculate the grid
-        // spacing in the depth dimension
-        double deltaZPlus = (depth[k + 1] - currentDepth) / 2.0;
-        double deltaZMinus = (currentDepth - depth[k - 1]) / 2.0;
+        double ui = u.get(c);
+        double vi = v.get(c);
+        double wi = w.get(c);
 
         // Compute the gradients of velocity in each direction using central difference
         // scheme
-        double du_dx = (u[i + 1][j][k] - u[i - 1][j][k]) / 2.0;
-        double dv_dy = (v[i][j + 1][k] - v[i][j - 1][k]) / 2.0;
-        double dw_dz = (w[i][j][k + 1] - w[i][j][k - 1]) / (deltaZPlus + deltaZMinus);
+        double du_dx = (u.get(c + strideX) - u.get(c - strideX)) / 2.0;
+        double dv_dy = (v.get(c + strideY) - v.get(c - strideY)) / 2.0;
+        double dw_dz = (w.get(c + 1) - w.get(c - 1)) / geometry.deltaZ[k];
 
         // Compute the Laplacian of velocity in each direction using central difference
         // scheme
-        double d2u_dx2 = (u[i + 1][j][k] - 2 * ui + u[i - 1][j][k]) / Math.pow((deltaX), 2);
-        double d2v_dy2 = (v[i][j + 1][k] - 2 * vi + v[i][j - 1][k]) / Math.pow((deltaY), 2);
-        double d2w_dz2 = (w[i][j][k + 1] - 2 * wi + w[i][j][k - 1])
-                / (Math.pow(deltaZPlus, 2) + Math.pow(deltaZMinus, 2));
+        double d2u_dx2 = (u.get(c + strideX) - 2 * ui + u.get(c - strideX)) / geometry.deltaXSquared;
+        double d2v_dy2 = (v.get(c + strideY) - 2 * vi + v.get(c - strideY)) / geometry.deltaYSquared;
+        double d2w_dz2 = (w.get(c + 1) - 2 * wi + w.get(c - 1)) / geometry.deltaZHalvesSquared[k];
 
         // Retrieve the tidal forcing values at the current time step
-        double tidalForcingX = this.tidalForcingX.get(i, j, k, currentTime);
-        double tidalForcingY = this.tidalForcingY.get(i, j, k, currentTime);
+        double tidalForcingX = this.tidalForcingX.get(c);
+        double tidalForcingY = this.tidalForcingY.get(c);
 
         // Compute the next-step velocities using the Navier-Stokes equations with tidal
         // forcing
@@ -129,74 +356,73 @@ public class Solver {
                 - (timeStep * (ui * du_dx + vi * dv_dy + wi * dw_dz) - (timeStep / fluidDensity) * dw_dz * d2w_dz2);
 
         // Update the velocity components of the cell
-        uNext[i][j][k] = next_u;
-        vNext[i][j][k] = next_v;
-        wNext[i][j][k] = next_w;
+        uNext.set(c, next_u);
+        vNext.set(c, next_v);
+        wNext.set(c, next_w);
     }
 
     // Calculate the next-step pressure of a single cell
-    private void calculateNextStepPressureCell(int i, int j, int k) {
+    private void calculateNextStepPressureCell(int k, int c) {
         // Retrieve the velocity components and pressure of the neighboring cells
-        double uEast = u[i + 1][j][k];
-        double uWest = u[i - 1][j][k];
-        double vNorth = v[i][j + 1][k];
-        double vSouth = v[i][j - 1][k];
-        double wUp = w[i][j][k + 1];
-        double wDown = w[i][j][k - 1];
-        // double pCenter = p[i][j][k]; // not used
-        double pEast = p[i + 1][j][k];
-        double pWest = p[i - 1][j][k];
-        double pNorth = p[i][j + 1][k];
-        double pSouth = p[i][j - 1][k];
-        double pUp = p[i][j][k + 1];
-        double pDown = p[i][j][k - 1];
-
-        double currentDepth = depth[k];
-        double deltaZPlus = (depth[k + 1] - currentDepth) / 2.0;
-        double deltaZMinus = (currentDepth - depth[k - 1]) / 2.0;
-        double deltaZ = deltaZPlus + deltaZMinus;
+        double uEast = u.get(c + strideX);
+        double uWest = u.get(c - strideX);
+        double vNorth = v.get(c + strideY);
+        double vSouth = v.get(c - strideY);
+        double wUp = w.get(c + 1);
+        double wDown = w.get(c - 1);
+        // double pCenter = p[c]; // not used
+        double pEast = p.get(c + strideX);
+        double pWest = p.get(c - strideX);
+        double pNorth = p.get(c + strideY);
+        double pSouth = p.get(c - strideY);
+        double pUp = p.get(c + 1);
+        double pDown = p.get(c - 1);
+
+        double deltaZ = geometry.deltaZ[k];
 
         // Compute the next-step pressure using the Poisson equation
-        double next_p = ((pEast + pWest) / Math.pow(deltaX, 2) + (pNorth + pSouth) / Math.pow(deltaY, 2)
-                + (pUp + pDown) / Math.pow(deltaZ, 2)
+        double next_p = ((pEast + pWest) / geometry.deltaXSquared + (pNorth + pSouth) / geometry.deltaYSquared
+                + (pUp + pDown) / geometry.deltaZSquared[k]
                 - ((uEast - uWest) / deltaX + (vNorth - vSouth) / deltaY + (wUp - wDown) / deltaZ) / timeStep)
-                / (2 / (Math.pow(deltaX, 2)) + 2 / (Math.pow(deltaY, 2)) + 2 / (Math.pow(deltaZ, 2)));
+                / geometry.pressureDenominator[k];
 
         // Update the pressure of the cell
-        pNext[i][j][k] = next_p;
+        pNext.set(c, next_p);
     }
 
     // Calculate the pressure correction using the pressure correction method
     public void applyPressureCorrection() {
+        Geometry geometry = geometry();
         // Compute the pressure correction for the entire grid
         for (int i = 1; i < gridSizeX - 1; i++) {
             for (int j = 1; j < gridSizeY - 1; j++) {
+                int row = index(i, j, 0);
                 for (int k = 1; k < gridSizeZ - 1; k++) {
-                    if (!obstacle[i][j][k]) {
-                        applyPressureCorrection(i, j, k);
+                    if (!geometry.isObstacle(row + k)) {
+                        applyPressureCorrection(k, row + k);
                     }
                 }
             }
         }
     }
 
-    private void applyPressureCorrection(int i, int j, int k) {
+    private void applyPressureCorrection(int k, int c) {
         // Retrieve the pressure of the neighboring cells
-        double pEast = p[i + 1][j][k];
-        double pWest = p[i - 1][j][k];
-        double pNorth = p[i][j + 1][k];
-        double pSouth = p[i][j - 1][k];
-        double pUp = p[i][j][k + 1];
-        double pDown = p[i][j][k - 1];
-        double deltaZ = (depth[k + 1] - depth[k - 1]) / 2;
+        double pEast = p.get(c + strideX);
+        double pWest = p.get(c - strideX);
+        double pNorth = p.get(c + strideY);
+        double pSouth = p.get(c - strideY);
+        double pUp = p.get(c + 1);
+        double pDown = p.get(c - 1);
 
         // Compute the pressure correction using the pressure correction equation
-        double pressureCorrection = (pEast - pWest) / (2 * deltaX) + (pNorth - pSouth) / (2 * deltaY)
-                + (pUp - pDown) / (2 * deltaZ);
+        double pressureCorrection = (pEast - pWest) / geometry.pressureCorrectionDeltaX
+                + (pNorth - pSouth) / geometry.pressureCorrectionDeltaY
+                + (pUp - pDown) / geometry.pressureCorrectionDeltaZ[k];
 
         // Apply the pressure correction to the velocity field
-        u[i][j][k] -= (pressureCorrection * timeStep) / fluidDensity;
-        v[i][j][k] -= (pressureCorrection * timeStep) / fluidDensity;
-        w[i][j][k] -= (pressureCorrection * timeStep) / fluidDensity;
+        u.set(c, u.get(c) - (pressureCorrection * timeStep) / fluidDensity);
+        v.set(c, v.get(c) - (pressureCorrection * timeStep) / fluidDensity);
+        w.set(c, w.get(c) - (pressureCorrection * timeStep) / fluidDensity);
     }
 }
@@ -0,0 +1,53 @@
+package com.github.davidmoten.jns.v3;
+
+import com.github.davidmoten.guavamini.Preconditions;
+import com.github.davidmoten.jns.v4.Field;
+
+/**
+ * Tidal forcing of a whole grid at once. {@link Solver} calls
+ * {@link #fill(Geometry, double, Field, Field)} once per step into a
+ * pair of field buffers and the per cell update reads those buffers, so the
+ * forcing is not called through an interface for every cell.
+ */
+@FunctionalInterface
+public interface TidalForcing {
+
+    /**
+     * Writes the forcing at <code>time</code> into <code>outX</code> and
+     * <code>outY</code>, indexed like the {@link Solver} fields. Only the
+     * interior cells that are not obstacles are read.
+     *
+     * @param geometry geometry of the grid
+     * @param time     time in seconds
+     * @param outX     forcing in the X-direction, one value per grid point
+     * @param outY     forcing in the Y-direction, one value per grid point
+     */
+    void fill(Geometry geometry, double time, Field outX, Field outY);
+
+    /**
+     * Returns bulk forcing that evaluates per cell forcing for the interior
+     * cells that are not obstacles.
+     *
+     * @param tidalForcingX forcing in the X-direction
+     * @param tidalForcingY forcing in the Y-direction
+     * @return bulk forcing
+     */
+    static TidalForcing of(Forcing tidalForcingX, Forcing tidalForcingY) {
+        Preconditions.checkNotNull(tidalForcingX, "tidalForcingX cannot be null");
+        Preconditions.checkNotNull(tidalForcingY, "tidalForcingY cannot be null");
+        return (geometry, time, outX, outY) -> {
+            for (int i = 1; i < geometry.gridSizeX - 1; i++) {
+                for (int j = 1; j < geometry.gridSizeY - 1; j++) {
+                    int row = geometry.index(i, j, 0);
+                    for (int k = 1; k < geometry.gridSizeZ - 1; k++) {
+                        if (!geometry.isObstacle(row + k)) {
+                            outX.set(row + k, tidalForcingX.get(i, j, k, time));
+                            outY.set(row + k, tidalForcingY.get(i, j, k, time));
+                        }
+                    }
+                }
+            }
+        };
+    }
+
+}
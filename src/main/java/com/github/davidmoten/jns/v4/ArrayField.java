@@ -0,0 +1,49 @@
+package com.github.davidmoten.jns.v4;
+
+/**
+ * A {@link Field} held in a double array on the heap.
+ */
+public final class ArrayField implements Field {
+
+    private final double[] values;
+
+    public ArrayField(int size) {
+        this.values = new double[size];
+    }
+
+    /**
+     * Constructor. The field reads and writes <code>values</code> (it is not
+     * copied).
+     *
+     * @param values values of the field
+     */
+    public ArrayField(double[] values) {
+        this.values = values;
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    @Override
+    public double get(int index) {
+        return values[index];
+    }
+
+    @Override
+    public void set(int index, double value) {
+        values[index] = value;
+    }
+
+    @Override
+    public void copyTo(double[] values) {
+        System.arraycopy(this.values, 0, values, 0, this.values.length);
+    }
+
+    @Override
+    public void copyFrom(double[] values) {
+        System.arraycopy(values, 0, this.values, 0, this.values.length);
+    }
+
+}
@@ -0,0 +1,55 @@
+package com.github.davidmoten.jns.v4;
+
+/**
+ * The outcome of a pressure solve by a {@link PressureSolver}.
+ */
+public final class Convergence {
+
+    private final int iterations;
+    private final double initialResidual;
+    private final double residual;
+
+    public Convergence(int iterations, double initialResidual, double residual) {
+        this.iterations = iterations;
+        this.initialResidual = initialResidual;
+        this.residual = residual;
+    }
+
+    /**
+     * Returns the number of iterations (sweeps or cycles depending on the
+     * solver) performed.
+     *
+     * @return number of iterations
+     */
+    public int iterations() {
+        return iterations;
+    }
+
+    /**
+     * Returns the 2-norm of the residual before the first iteration, or NaN if
+     * the solver was not asked to calculate residuals (see
+     * {@link JacobiPressureSolver}).
+     *
+     * @return initial residual
+     */
+    public double initialResidual() {
+        return initialResidual;
+    }
+
+    /**
+     * Returns the 2-norm of the residual after the last iteration, or NaN if
+     * the solver was not asked to calculate residuals.
+     *
+     * @return residual
+     */
+    public double residual() {
+        return residual;
+    }
+
+    @Override
+    public String toString() {
+        return "Convergence [iterations=" + iterations + ", initialResidual=" + initialResidual + ", residual="
+                + residual + "]";
+    }
+
+}
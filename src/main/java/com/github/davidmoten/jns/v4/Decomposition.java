@@ -0,0 +1,180 @@
+package com.github.davidmoten.jns.v4;
+
+import com.github.davidmoten.guavamini.Preconditions;
+
+/**
+ * Splits the grid of a {@link Solver} into blocks along x so that each block
+ * can be solved by its own {@link Solver} (on its own thread, process or
+ * machine), exchanging one cell thick halo planes with its neighbours over a
+ * {@link HaloTransport} between the phases of each step.
+ * <p>
+ * The interior planes i = 1 .. nx - 2 are shared out as evenly as possible.
+ * The local grid of a block holds the planes it owns plus one plane either
+ * side, which is either a halo (owned by a neighbour) or a face of the whole
+ * grid. Each cell is computed from the same values as in a single
+ * {@link Solver} so the blocks together give exactly the result of a single
+ * solver, provided that
+ * <ul>
+ * <li>the pressure solver is {@link JacobiPressureSolver} (every sweep reads
+ * the pressure of the previous step so one exchange per step is enough),</li>
+ * <li>the time step is fixed (adaptive stepping would need the largest
+ * Courant number over all blocks) and</li>
+ * <li>the departure points of advection move less than one cell in x per
+ * step.</li>
+ * </ul>
+ */
+public final class Decomposition {
+
+    private final int nx;
+    private final int ny;
+    private final int nz;
+    private final double dx;
+    private final double dy;
+    private final double[] dz;
+    private final boolean[][][] obstacle;
+    private final int blocks;
+
+    private Decomposition(int nx, int ny, int nz, double dx, double dy, double[] dz, boolean[][][] obstacle,
+            int blocks) {
+        this.nx = nx;
+        this.ny = ny;
+        this.nz = nz;
+        this.dx = dx;
+        this.dy = dy;
+        this.dz = dz;
+        this.obstacle = obstacle;
+        this.blocks = blocks;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private int nx;
+        private int ny;
+        private int nz;
+        private double dx;
+        private double dy;
+        private double[] dz;
+        private boolean[][][] obstacle;
+        private int blocks = 1;
+
+        private Builder() {
+        }
+
+        public Builder gridSize(int nx, int ny, int nz) {
+            this.nx = nx;
+            this.ny = ny;
+            this.nz = nz;
+            return this;
+        }
+
+        public Builder dx(double dx) {
+            this.dx = dx;
+            return this;
+        }
+
+        public Builder dy(double dy) {
+            this.dy = dy;
+            return this;
+        }
+
+        /**
+         * Sets the spacing between consecutive depths (length nz - 1).
+         *
+         * @param dz spacing in z-direction
+         * @return this
+         */
+        public Builder dz(double[] dz) {
+            this.dz = dz;
+            return this;
+        }
+
+        /**
+         * Sets the obstacle mask of the whole grid. Defaults to no obstacles.
+         *
+         * @param obstacle obstacle mask
+         * @return this
+         */
+        public Builder obstacle(boolean[][][] obstacle) {
+            this.obstacle = obstacle;
+            return this;
+        }
+
+        public Builder blocks(int blocks) {
+            this.blocks = blocks;
+            return this;
+        }
+
+        public Decomposition build() {
+            Preconditions.checkNotNull(dz, "dz cannot be null");
+            Preconditions.checkArgument(dz.length == nz - 1, "dz must have length nz - 1");
+            Preconditions.checkArgument(blocks >= 1, "blocks must be 1 or more");
+            Preconditions.checkArgument(nx - 2 >= blocks, "each block must own at least one plane");
+            return new Decomposition(nx, ny, nz, dx, dy, dz,
+                    obstacle == null ? new boolean[nx][ny][nz] : obstacle, blocks);
+        }
+    }
+
+    public int blocks() {
+        return blocks;
+    }
+
+    /**
+     * Returns the x index in the whole grid of local plane 0 of the block.
+     *
+     * @param block block
+     * @return x index of the first local plane
+     */
+    public int firstI(int block) {
+        return owned(block) - 1;
+    }
+
+    /**
+     * Returns the number of planes in the local grid of the block (the planes
+     * it owns plus two).
+     *
+     * @param block block
+     * @return local grid size in x-direction
+     */
+    public int nx(int block) {
+        return owned(block + 1) - owned(block) + 2;
+    }
+
+    // the first interior plane owned by the block
+    private int owned(int block) {
+        return 1 + (int) ((long) (nx - 2) * block / blocks);
+    }
+
+    /**
+     * Returns a builder for the {@link Solver} of a block, exchanging halos
+     * over <code>transport</code>. Field storage and the pool can be set on
+     * the returned builder, the pressure solver and time stepping should be
+     * left as they are (see the class documentation).
+     *
+     * @param block     block
+     * @param transport transport to the other blocks
+     * @return solver builder for the block
+     */
+    public Solver.Builder solver(int block, HaloTransport transport) {
+        Preconditions.checkArgument(block >= 0 && block < blocks, "block out of range");
+        Preconditions.checkNotNull(transport, "transport cannot be null");
+        int first = firstI(block);
+        int n = nx(block);
+        boolean[][][] local = new boolean[n][][];
+        for (int i = 0; i < n; i++) {
+            local[i] = obstacle[first + i];
+        }
+        HaloExchange halo = new HaloExchange(transport, block, blocks, n, ny * nz, 3);
+        return Solver.builder() //
+                .gridSize(n, ny, nz) //
+                .dx(dx) //
+                .dy(dy) //
+                .dz(dz) //
+                .obstacle(local) //
+                .block(first, nx, halo);
+    }
+
+}
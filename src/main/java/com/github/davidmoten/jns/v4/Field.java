@@ -0,0 +1,29 @@
+package com.github.davidmoten.jns.v4;
+
+/**
+ * The values of a variable (a velocity component, pressure, ...) at every cell
+ * of a {@link Grid}, indexed by {@link Grid#index(int, int, int)}.
+ */
+public interface Field {
+
+    int size();
+
+    double get(int index);
+
+    void set(int index, double value);
+
+    /**
+     * Copies every value of this field into <code>values</code>.
+     *
+     * @param values array of length at least {@link #size()}
+     */
+    void copyTo(double[] values);
+
+    /**
+     * Sets every value of this field from <code>values</code>.
+     *
+     * @param values array of length at least {@link #size()}
+     */
+    void copyFrom(double[] values);
+
+}
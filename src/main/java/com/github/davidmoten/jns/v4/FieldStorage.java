@@ -0,0 +1,85 @@
+package com.github.davidmoten.jns.v4;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Creates the fields of a {@link Solver}.
+ */
+public interface FieldStorage {
+
+    /**
+     * Returns the field with the given name and size.
+     *
+     * @param name name of the field, unique within a solver
+     * @param size number of values
+     * @return field
+     */
+    Field create(String name, int size);
+
+    /**
+     * Writes any changes to the created fields to persistent storage (if
+     * any).
+     */
+    void flush();
+
+    /**
+     * Returns storage that holds fields in arrays on the heap.
+     *
+     * @return heap storage
+     */
+    static FieldStorage heap() {
+        return new FieldStorage() {
+
+            @Override
+            public Field create(String name, int size) {
+                return new ArrayField(size);
+            }
+
+            @Override
+            public void flush() {
+                // nothing to do
+            }
+        };
+    }
+
+    /**
+     * Returns storage that holds each field in the memory-mapped file
+     * <code>name.field</code> in <code>directory</code> (see
+     * {@link MappedField}). Existing files are reused with their values.
+     *
+     * @param directory directory for field files, created if it does not exist
+     * @return memory-mapped storage
+     */
+    static FieldStorage mapped(File directory) {
+        return new FieldStorage() {
+
+            private final List<MappedField> fields = new ArrayList<>();
+
+            @Override
+            public Field create(String name, int size) {
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    throw new UncheckedIOException(new IOException("could not create directory " + directory));
+                }
+                try {
+                    MappedField field = MappedField.open(new File(directory, name + ".field"), size);
+                    fields.add(field);
+                    return field;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public void flush() {
+                for (MappedField field : fields) {
+                    field.flush();
+                }
+            }
+        };
+    }
+
+}
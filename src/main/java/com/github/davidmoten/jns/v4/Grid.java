@@ -0,0 +1,221 @@
+package com.github.davidmoten.jns.v4;
+
+import java.util.BitSet;
+
+import com.github.davidmoten.guavamini.Preconditions;
+
+/**
+ * The geometry of a {@link Solver} domain: grid sizes, horizontal spacing, the
+ * depth of each vertical level and the obstacle mask. Cells on the outside
+ * faces of the grid and obstacle cells have fixed pressure, every other cell is
+ * solved for by a {@link PressureSolver}.
+ * <p>
+ * The pressure equation is the discrete Poisson equation ∇²p = div using the
+ * seven point Laplacian with spacing dx, dy and the (possibly variable)
+ * spacing between depths.
+ * <p>
+ * Fields over the grid ({@link Field}) are indexed by
+ * {@link #index(int, int, int)}.
+ */
+public final class Grid {
+
+    private final int nx;
+    private final int ny;
+    private final int nz;
+    private final double dx;
+    private final double dy;
+    private final double[] depth;
+    private final BitSet obstacle;
+
+    /**
+     * Constructor. The obstacle mask is copied.
+     *
+     * @param nx       grid size in x-direction
+     * @param ny       grid size in y-direction
+     * @param nz       grid size in z-direction
+     * @param dx       grid spacing in x-direction
+     * @param dy       grid spacing in y-direction
+     * @param depth    depth of each z index
+     * @param obstacle obstacle mask
+     */
+    public Grid(int nx, int ny, int nz, double dx, double dy, double[] depth, boolean[][][] obstacle) {
+        Preconditions.checkArgument(depth.length == nz);
+        this.nx = nx;
+        this.ny = ny;
+        this.nz = nz;
+        this.dx = dx;
+        this.dy = dy;
+        this.depth = depth;
+        this.obstacle = new BitSet(nx * ny * nz);
+        for (int i = 0; i < nx; i++) {
+            for (int j = 0; j < ny; j++) {
+                for (int k = 0; k < nz; k++) {
+                    if (obstacle[i][j][k]) {
+                        this.obstacle.set(index(i, j, k));
+                    }
+                }
+            }
+        }
+    }
+
+    public int nx() {
+        return nx;
+    }
+
+    public int ny() {
+        return ny;
+    }
+
+    public int nz() {
+        return nz;
+    }
+
+    public double dx() {
+        return dx;
+    }
+
+    public double dy() {
+        return dy;
+    }
+
+    public double depth(int k) {
+        return depth[k];
+    }
+
+    /**
+     * Returns the index of the cell in a field array.
+     *
+     * @param i x index
+     * @param j y index
+     * @param k z index
+     * @return index in fields
+     */
+    public int index(int i, int j, int k) {
+        return (i * ny + j) * nz + k;
+    }
+
+    /**
+     * Returns the number of cells (the size of fields).
+     *
+     * @return number of cells
+     */
+    public int size() {
+        return nx * ny * nz;
+    }
+
+    /**
+     * Returns the trilinear interpolation of <code>field</code> in the cell
+     * with lowest corner <code>c</code>, the 0 weights being the weights of
+     * the lower corner along each axis and the 1 weights of the upper corner.
+     *
+     * @param field field
+     * @param c     index of the lowest corner
+     * @param sx    index offset between neighbours in x-direction
+     * @param sy    index offset between neighbours in y-direction
+     * @param dx0   weight of the lower x corner
+     * @param dx1   weight of the upper x corner
+     * @param dy0   weight of the lower y corner
+     * @param dy1   weight of the upper y corner
+     * @param dz0   weight of the lower z corner
+     * @param dz1   weight of the upper z corner
+     * @return interpolated value
+     */
+    static double interpolate(Field field, int c, int sx, int sy, double dx0, double dx1, double dy0, double dy1,
+            double dz0, double dz1) {
+        return dx0
+                * (dy0 * (dz0 * field.get(c) + dz1 * field.get(c + 1))
+                        + dy1 * (dz0 * field.get(c + sy) + dz1 * field.get(c + sy + 1)))
+                + dx1 * (dy0 * (dz0 * field.get(c + sx) + dz1 * field.get(c + sx + 1))
+                        + dy1 * (dz0 * field.get(c + sx + sy) + dz1 * field.get(c + sx + sy + 1)));
+    }
+
+    public boolean isObstacle(int i, int j, int k) {
+        return obstacle.get(index(i, j, k));
+    }
+
+    public boolean isObstacle(int index) {
+        return obstacle.get(index);
+    }
+
+    /**
+     * Returns the obstacle mask (mutable, shared with {@link Solver}).
+     */
+    BitSet obstacles() {
+        return obstacle;
+    }
+
+    /**
+     * Returns true if the pressure of the cell is not solved for (the cell is
+     * on the outside of the grid or is an obstacle).
+     *
+     * @param i x index
+     * @param j y index
+     * @param k z index
+     * @return true if pressure is fixed at the cell
+     */
+    public boolean isFixed(int i, int j, int k) {
+        return i == 0 || i == nx - 1 || j == 0 || j == ny - 1 || k == 0 || k == nz - 1 || isObstacle(i, j, k);
+    }
+
+    /**
+     * Returns the 2-norm of the residual div - ∇²p over the cells that are not
+     * fixed.
+     *
+     * @param p   pressure
+     * @param div divergence
+     * @return 2-norm of the residual
+     */
+    public double residual(Field p, Field div) {
+        int sx = ny * nz;
+        int sy = nz;
+        double sum = 0;
+        for (int i = 1; i < nx - 1; i++) {
+            for (int j = 1; j < ny - 1; j++) {
+                int row = index(i, j, 0);
+                for (int k = 1; k < nz - 1; k++) {
+                    int c = row + k;
+                    if (!obstacle.get(c)) {
+                        double zm = depth[k] - depth[k - 1];
+                        double zp = depth[k + 1] - depth[k];
+                        double v = p.get(c);
+                        double laplacian = (p.get(c + sx) - 2 * v + p.get(c - sx)) / (dx * dx)
+                                + (p.get(c + sy) - 2 * v + p.get(c - sy)) / (dy * dy)
+                                + 2 / (zm + zp) * ((p.get(c + 1) - v) / zp - (v - p.get(c - 1)) / zm);
+                        double r = div.get(c) - laplacian;
+                        sum += r * r;
+                    }
+                }
+            }
+        }
+        return Math.sqrt(sum);
+    }
+
+    /**
+     * Returns the position of each cell along an axis (0 is x, 1 is y, 2 is
+     * z).
+     */
+    double[] coordinates(int axis) {
+        int n = axis == 0 ? nx : axis == 1 ? ny : nz;
+        double[] c = new double[n];
+        for (int i = 0; i < n; i++) {
+            c[i] = axis == 0 ? i * dx : axis == 1 ? i * dy : depth[i];
+        }
+        return c;
+    }
+
+    /**
+     * Returns the coefficients of the neighbour below (side 0) or above (side
+     * 1) in the second derivative at each interior point along an axis with
+     * the given coordinates.
+     */
+    static double[] coefficients(double[] c, int side) {
+        double[] a = new double[c.length];
+        for (int i = 1; i < c.length - 1; i++) {
+            double hm = c[i] - c[i - 1];
+            double hp = c[i + 1] - c[i];
+            a[i] = 2 / ((hm + hp) * (side == 0 ? hm : hp));
+        }
+        return a;
+    }
+
+}
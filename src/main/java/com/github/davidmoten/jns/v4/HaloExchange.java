@@ -0,0 +1,77 @@
+package com.github.davidmoten.jns.v4;
+
+/**
+ * Fills the halo planes (local i = 0 and i = nx - 1) of a block of a
+ * {@link Decomposition} with the edge planes owned by the neighbouring blocks.
+ * Used by {@link Solver} between the phases of a step.
+ */
+final class HaloExchange {
+
+    private final HaloTransport transport;
+    private final int left; // -1 if none
+    private final int right; // -1 if none
+    private final int nx;
+    private final int plane; // cells in a plane of constant i
+    private final double[] sendLeft;
+    private final double[] sendRight;
+    private final double[] received;
+
+    HaloExchange(HaloTransport transport, int block, int blocks, int nx, int plane, int maxFields) {
+        this.transport = transport;
+        this.left = block > 0 ? block - 1 : -1;
+        this.right = block < blocks - 1 ? block + 1 : -1;
+        this.nx = nx;
+        this.plane = plane;
+        this.sendLeft = new double[maxFields * plane];
+        this.sendRight = new double[maxFields * plane];
+        this.received = new double[maxFields * plane];
+    }
+
+    /**
+     * Sends the edge planes of <code>fields</code> to the neighbours and
+     * overwrites the halo planes with theirs, all fields in one message per
+     * neighbour.
+     *
+     * @param fields fields to exchange
+     */
+    void exchange(Field... fields) {
+        int length = fields.length * plane;
+        if (left >= 0) {
+            pack(fields, 1, sendLeft);
+            transport.send(left, sendLeft, length);
+        }
+        if (right >= 0) {
+            pack(fields, nx - 2, sendRight);
+            transport.send(right, sendRight, length);
+        }
+        if (left >= 0) {
+            transport.receive(left, received, length);
+            unpack(received, 0, fields);
+        }
+        if (right >= 0) {
+            transport.receive(right, received, length);
+            unpack(received, nx - 1, fields);
+        }
+    }
+
+    private void pack(Field[] fields, int i, double[] values) {
+        int start = i * plane;
+        int n = 0;
+        for (Field field : fields) {
+            for (int c = start; c < start + plane; c++) {
+                values[n++] = field.get(c);
+            }
+        }
+    }
+
+    private void unpack(double[] values, int i, Field[] fields) {
+        int start = i * plane;
+        int n = 0;
+        for (Field field : fields) {
+            for (int c = start; c < start + plane; c++) {
+                field.set(c, values[n++]);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,35 @@
+package com.github.davidmoten.jns.v4;
+
+/**
+ * Carries halo messages between the blocks of a {@link Decomposition}. An
+ * instance belongs to one block and sends to and receives from the
+ * neighbouring blocks. Messages between two blocks arrive in the order they
+ * were sent.
+ */
+public interface HaloTransport extends AutoCloseable {
+
+    /**
+     * Sends the first <code>length</code> values to <code>block</code>. Does
+     * not wait for the receiver, <code>values</code> can be reused as soon as
+     * this method returns.
+     *
+     * @param block  receiving block
+     * @param values values to send
+     * @param length number of values to send
+     */
+    void send(int block, double[] values, int length);
+
+    /**
+     * Waits for the next message from <code>block</code> and copies it into
+     * <code>values</code>.
+     *
+     * @param block  sending block
+     * @param values destination
+     * @param length expected number of values
+     */
+    void receive(int block, double[] values, int length);
+
+    @Override
+    void close();
+
+}
@@ -0,0 +1,145 @@
+package com.github.davidmoten.jns.v4;
+
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+
+import com.github.davidmoten.guavamini.Preconditions;
+
+/**
+ * A fixed number of Jacobi sweeps. This is the original pressure projection of
+ * {@link Solver} and assumes the spacing is dx in every direction. Every sweep
+ * reads from p so sweeps after the first repeat the first, see
+ * {@link SorPressureSolver} for an iteration that converges. Sweeps are run
+ * in slabs of i on a {@link ForkJoinPool}.
+ * <p>
+ * The residuals reported in {@link Convergence} cost two extra passes over the
+ * grid so are only calculated if asked for in the constructor (otherwise they
+ * are NaN). They are residuals of the equation the sweeps iterate (the seven
+ * point Laplacian with spacing dx along every axis), not of
+ * {@link Grid#residual(Field, Field)} which uses the spacings of the grid.
+ */
+public final class JacobiPressureSolver implements PressureSolver {
+
+    private final int iterations;
+    private final ForkJoinPool pool;
+    private final boolean residuals;
+
+    public JacobiPressureSolver(int iterations) {
+        this(iterations, ForkJoinPool.commonPool());
+    }
+
+    public JacobiPressureSolver(int iterations, ForkJoinPool pool) {
+        this(iterations, pool, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param iterations number of sweeps
+     * @param pool       pool to run sweeps on
+     * @param residuals  if true the residuals before and after the sweeps are
+     *                   calculated for {@link Convergence}
+     */
+    public JacobiPressureSolver(int iterations, ForkJoinPool pool, boolean residuals) {
+        Preconditions.checkArgument(iterations >= 1, "iterations must be 1 or more");
+        Preconditions.checkNotNull(pool);
+        this.iterations = iterations;
+        this.pool = pool;
+        this.residuals = residuals;
+    }
+
+    @Override
+    public Convergence solve(Grid grid, Field p, Field div, Field result) {
+        int nx = grid.nx();
+        int ny = grid.ny();
+        int nz = grid.nz();
+        int sx = ny * nz;
+        int sy = nz;
+        double dx = grid.dx();
+        copyFixedCells(grid, p, result);
+        double initialResidual = residuals ? residual(grid, p, div) : Double.NaN;
+        for (int iter = 0; iter < iterations; iter++) {
+            Slabs.forEach(pool, 1, nx - 1, (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    for (int j = 1; j < ny - 1; j++) {
+                        int row = grid.index(i, j, 0);
+                        for (int k = 1; k < nz - 1; k++) {
+                            int c = row + k;
+                            if (!grid.isObstacle(c)) {
+                                result.set(c, ((p.get(c + sx) + p.get(c - sx) + p.get(c + sy) + p.get(c - sy)
+                                        + p.get(c + 1) + p.get(c - 1)) - div.get(c) * dx * dx) / 6.0);
+                            }
+                        }
+                    }
+                }
+            });
+        }
+        double residual = residuals ? residual(grid, result, div) : Double.NaN;
+        return new Convergence(iterations, initialResidual, residual);
+    }
+
+    /**
+     * Copies the pressure of the cells that are not solved for (the outside
+     * faces of the grid and obstacles, see {@link Grid#isFixed(int, int, int)})
+     * from p to result. Only the faces and the set bits of the obstacle mask
+     * are visited rather than every cell.
+     */
+    private void copyFixedCells(Grid grid, Field p, Field result) {
+        int nx = grid.nx();
+        int ny = grid.ny();
+        int nz = grid.nz();
+        BitSet obstacle = grid.obstacles();
+        Slabs.forEach(pool, 0, nx, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                for (int j = 0; j < ny; j++) {
+                    int row = grid.index(i, j, 0);
+                    if (i == 0 || i == nx - 1 || j == 0 || j == ny - 1) {
+                        for (int c = row; c < row + nz; c++) {
+                            result.set(c, p.get(c));
+                        }
+                    } else {
+                        result.set(row, p.get(row));
+                        result.set(row + nz - 1, p.get(row + nz - 1));
+                        int c = obstacle.nextSetBit(row + 1);
+                        while (c >= 0 && c < row + nz - 1) {
+                            result.set(c, p.get(c));
+                            c = obstacle.nextSetBit(c + 1);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the 2-norm of the residual div - ∇²p over the cells that are not
+     * fixed where ∇² is the Laplacian the sweeps iterate.
+     */
+    private double residual(Grid grid, Field p, Field div) {
+        int ny = grid.ny();
+        int nz = grid.nz();
+        int sx = ny * nz;
+        int sy = nz;
+        double dx2 = grid.dx() * grid.dx();
+        double sum = Slabs.sum(pool, 1, grid.nx() - 1, (from, to) -> {
+            double s = 0;
+            for (int i = from; i < to; i++) {
+                for (int j = 1; j < ny - 1; j++) {
+                    int row = grid.index(i, j, 0);
+                    for (int k = 1; k < nz - 1; k++) {
+                        int c = row + k;
+                        if (!grid.isObstacle(c)) {
+                            double laplacian = (p.get(c + sx) + p.get(c - sx) + p.get(c + sy) + p.get(c - sy)
+                                    + p.get(c + 1) + p.get(c - 1) - 6 * p.get(c)) / dx2;
+                            double r = div.get(c) - laplacian;
+                            s += r * r;
+                        }
+                    }
+                }
+            }
+            return s;
+        });
+        return Math.sqrt(sum);
+    }
+
+}
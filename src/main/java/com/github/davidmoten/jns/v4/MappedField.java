@@ -0,0 +1,117 @@
+package com.github.davidmoten.jns.v4;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import com.github.davidmoten.guavamini.Preconditions;
+
+/**
+ * A {@link Field} held in a memory-mapped file of little-endian doubles. The
+ * operating system pages the file in and out so fields (and so grids) can be
+ * bigger than the heap or physical memory, and an existing file is used as is
+ * so state can be reopened without reading it in.
+ * <p>
+ * A single mapping is limited to 2GB so the file is mapped in chunks.
+ */
+public final class MappedField implements Field {
+
+    // 2^27 doubles is 1GB per mapping
+    private static final int CHUNK_BITS = 27;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final int size;
+    private final MappedByteBuffer[] buffers;
+    private final DoubleBuffer[] chunks;
+
+    private MappedField(int size, MappedByteBuffer[] buffers) {
+        this.size = size;
+        this.buffers = buffers;
+        this.chunks = new DoubleBuffer[buffers.length];
+        for (int i = 0; i < buffers.length; i++) {
+            chunks[i] = buffers[i].order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        }
+    }
+
+    /**
+     * Maps <code>file</code> as a field of <code>size</code> values. If the
+     * file does not exist it is created with every value zero, if it exists
+     * it must hold exactly <code>size</code> values and its values are kept.
+     *
+     * @param file file to map
+     * @param size number of values
+     * @return field
+     * @throws IOException if the file cannot be created or mapped
+     */
+    public static MappedField open(File file, int size) throws IOException {
+        Preconditions.checkArgument(size >= 0, "size must be 0 or more");
+        long bytes = (long) size * Double.BYTES;
+        try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+            if (f.length() == 0) {
+                f.setLength(bytes);
+            } else if (f.length() != bytes) {
+                throw new IllegalArgumentException(
+                        "file " + file + " has length " + f.length() + " but expected " + bytes);
+            }
+            FileChannel channel = f.getChannel();
+            int n = (int) ((size + (long) CHUNK_SIZE - 1) >>> CHUNK_BITS);
+            MappedByteBuffer[] buffers = new MappedByteBuffer[n];
+            for (int i = 0; i < n; i++) {
+                long position = (long) i * CHUNK_SIZE * Double.BYTES;
+                buffers[i] = channel.map(MapMode.READ_WRITE, position, Math.min(bytes - position,
+                        (long) CHUNK_SIZE * Double.BYTES));
+            }
+            // the mappings stay valid after the channel is closed
+            return new MappedField(size, buffers);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public double get(int index) {
+        return chunks[index >>> CHUNK_BITS].get(index & CHUNK_MASK);
+    }
+
+    @Override
+    public void set(int index, double value) {
+        chunks[index >>> CHUNK_BITS].put(index & CHUNK_MASK, value);
+    }
+
+    @Override
+    public void copyTo(double[] values) {
+        for (int i = 0; i < chunks.length; i++) {
+            DoubleBuffer chunk = chunks[i].duplicate();
+            chunk.position(0);
+            chunk.get(values, i * CHUNK_SIZE, chunk.remaining());
+        }
+    }
+
+    @Override
+    public void copyFrom(double[] values) {
+        for (int i = 0; i < chunks.length; i++) {
+            DoubleBuffer chunk = chunks[i].duplicate();
+            chunk.position(0);
+            chunk.put(values, i * CHUNK_SIZE, chunk.remaining());
+        }
+    }
+
+    /**
+     * Writes any changes to the file.
+     */
+    public void flush() {
+        for (MappedByteBuffer buffer : buffers) {
+            buffer.force();
+        }
+    }
+
+}
@@ -0,0 +1,538 @@
+package com.github.davidmoten.jns.v4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.davidmoten.guavamini.Preconditions;
+
+/**
+ * Geometric multigrid solver for the pressure equation of {@link Grid}.
+ * <p>
+ * Each coarser level keeps every second point of the finer level along each
+ * axis (plus the last point) so coarse points sit at fine point positions and
+ * the variable spacing of depth carries through to every level. The Laplacian
+ * is rediscretised on each level, a coarse point is fixed if the fine point at
+ * the same position is fixed, residuals are restricted by full weighting and
+ * corrections prolonged by trilinear interpolation. Smoothing is red-black
+ * Gauss-Seidel (black-red after the coarse grid correction so the cycle is
+ * symmetric).
+ * <p>
+ * Plain V or W cycles slow down badly when the depth spacing differs from the
+ * horizontal spacing or obstacles don't line up with coarse points, so each
+ * cycle is used as the preconditioner of a conjugate gradient iteration on
+ * the equation weighted by cell volume (which makes the matrix symmetric).
+ * Iteration stops when the 2-norm of the residual has been reduced by the
+ * tolerance factor (or the maximum number of cycles is reached). The work per
+ * cycle is proportional to the number of cells.
+ * <p>
+ * The levels are held in arrays on the heap (the fine level holds several
+ * arrays the size of the grid), fields are copied in and out once per solve.
+ * <p>
+ * Not thread safe, use one instance per {@link Solver}.
+ */
+public final class MultigridPressureSolver implements PressureSolver {
+
+    private static final Logger log = LoggerFactory.getLogger(MultigridPressureSolver.class);
+
+    private static final int COARSEST_SWEEPS = 50;
+
+    public enum Cycle {
+        V(1), W(2);
+
+        // number of times the next coarser level is visited per cycle
+        private final int visits;
+
+        private Cycle(int visits) {
+            this.visits = visits;
+        }
+    }
+
+    private final double tolerance;
+    private final int maxCycles;
+    private final Cycle cycle;
+    private final int preSmoothing;
+    private final int postSmoothing;
+
+    private Grid grid;
+    private Level[] levels;
+
+    // conjugate gradient vectors over the finest level
+    private double[] x;
+    private double[] b;
+    private double[] r;
+    private double[] d;
+    private double[] ad;
+    private double[] volume;
+
+    private MultigridPressureSolver(double tolerance, int maxCycles, Cycle cycle, int preSmoothing,
+            int postSmoothing) {
+        this.tolerance = tolerance;
+        this.maxCycles = maxCycles;
+        this.cycle = cycle;
+        this.preSmoothing = preSmoothing;
+        this.postSmoothing = postSmoothing;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private double tolerance = 1e-8;
+        private int maxCycles = 100;
+        private Cycle cycle = Cycle.V;
+        private int preSmoothing = 2;
+        private int postSmoothing = 2;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the factor by which the 2-norm of the residual must be reduced.
+         * Defaults to 1e-8.
+         *
+         * @param tolerance relative residual
+         * @return this
+         */
+        public Builder tolerance(double tolerance) {
+            this.tolerance = tolerance;
+            return this;
+        }
+
+        public Builder maxCycles(int maxCycles) {
+            this.maxCycles = maxCycles;
+            return this;
+        }
+
+        public Builder cycle(Cycle cycle) {
+            this.cycle = cycle;
+            return this;
+        }
+
+        public Builder preSmoothing(int sweeps) {
+            this.preSmoothing = sweeps;
+            return this;
+        }
+
+        public Builder postSmoothing(int sweeps) {
+            this.postSmoothing = sweeps;
+            return this;
+        }
+
+        public MultigridPressureSolver build() {
+            Preconditions.checkArgument(tolerance > 0, "tolerance must be >0");
+            Preconditions.checkArgument(maxCycles >= 1, "maxCycles must be 1 or more");
+            Preconditions.checkNotNull(cycle);
+            Preconditions.checkArgument(preSmoothing >= 0, "preSmoothing must be 0 or more");
+            Preconditions.checkArgument(postSmoothing >= 0, "postSmoothing must be 0 or more");
+            Preconditions.checkArgument(preSmoothing + postSmoothing >= 1, "at least one smoothing sweep is required");
+            return new MultigridPressureSolver(tolerance, maxCycles, cycle, preSmoothing, postSmoothing);
+        }
+    }
+
+    @Override
+    public Convergence solve(Grid grid, Field p, Field div, Field result) {
+        if (grid != this.grid) {
+            initialize(grid);
+        }
+        Level fine = levels[0];
+        fine.loadFixed(grid);
+        for (int l = 1; l < levels.length; l++) {
+            levels[l].restrictFixed(levels[l - 1]);
+        }
+        p.copyTo(x);
+        div.copyTo(b);
+        double initialResidual = fine.residual(x, b, r);
+        double residual = initialResidual;
+        int cycles = 0;
+        double rz = 0;
+        while (residual > tolerance * initialResidual && cycles < maxCycles) {
+            // precondition with one cycle on A z = r from z = 0
+            System.arraycopy(r, 0, fine.rhs, 0, r.length);
+            Arrays.fill(fine.p, 0);
+            cycle(0);
+            double[] z = fine.p;
+            double rzNext = 0;
+            for (int c = 0; c < r.length; c++) {
+                rzNext += volume[c] * r[c] * z[c];
+            }
+            if (cycles == 0) {
+                System.arraycopy(z, 0, d, 0, d.length);
+            } else {
+                double beta = rzNext / rz;
+                for (int c = 0; c < d.length; c++) {
+                    d[c] = z[c] + beta * d[c];
+                }
+            }
+            rz = rzNext;
+            fine.apply(d, ad);
+            double dad = 0;
+            for (int c = 0; c < d.length; c++) {
+                dad += volume[c] * d[c] * ad[c];
+            }
+            double alpha = rz / dad;
+            double sum = 0;
+            for (int c = 0; c < d.length; c++) {
+                x[c] += alpha * d[c];
+                r[c] -= alpha * ad[c];
+                sum += r[c] * r[c];
+            }
+            residual = Math.sqrt(sum);
+            cycles++;
+        }
+        if (residual > tolerance * initialResidual) {
+            log.warn("multigrid did not reach tolerance after {} cycles, relative residual={}", cycles,
+                    residual / initialResidual);
+        }
+        log.debug("pressure solved in {} cycles, residual={}", cycles, residual);
+        result.copyFrom(x);
+        return new Convergence(cycles, initialResidual, residual);
+    }
+
+    private void initialize(Grid grid) {
+        this.levels = hierarchy(grid);
+        this.grid = grid;
+        Level fine = levels[0];
+        int n = fine.p.length;
+        x = new double[n];
+        b = new double[n];
+        r = new double[n];
+        d = new double[n];
+        ad = new double[n];
+        volume = new double[n];
+        double[] wx = widths(fine.x);
+        double[] wy = widths(fine.y);
+        double[] wz = widths(fine.z);
+        for (int i = 0; i < fine.nx; i++) {
+            for (int j = 0; j < fine.ny; j++) {
+                for (int k = 0; k < fine.nz; k++) {
+                    volume[fine.index(i, j, k)] = wx[i] * wy[j] * wz[k];
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the width of the control volume around each interior point
+     * along an axis.
+     */
+    private static double[] widths(double[] c) {
+        double[] w = new double[c.length];
+        for (int i = 1; i < c.length - 1; i++) {
+            w[i] = (c[i + 1] - c[i - 1]) / 2;
+        }
+        return w;
+    }
+
+    private void cycle(int l) {
+        Level level = levels[l];
+        if (l == levels.length - 1) {
+            level.smooth(COARSEST_SWEEPS, false);
+            level.smooth(COARSEST_SWEEPS, true);
+            return;
+        }
+        level.smooth(preSmoothing, false);
+        level.residual(level.p, level.rhs, level.r);
+        Level coarse = levels[l + 1];
+        coarse.restrictResidual(level);
+        for (int v = 0; v < cycle.visits; v++) {
+            cycle(l + 1);
+        }
+        coarse.prolong(level);
+        level.smooth(postSmoothing, true);
+    }
+
+    private static Level[] hierarchy(Grid grid) {
+        double[] x = grid.coordinates(0);
+        double[] y = grid.coordinates(1);
+        double[] z = grid.coordinates(2);
+        List<Level> list = new ArrayList<>();
+        Level level = new Level(x, y, z, null);
+        list.add(level);
+        // grids with a dimension under 3 have no cells to solve for
+        if (x.length >= 3 && y.length >= 3 && z.length >= 3) {
+            while (level.nx >= 4 || level.ny >= 4 || level.nz >= 4) {
+                level = level.coarsen();
+                list.add(level);
+            }
+        }
+        return list.toArray(new Level[0]);
+    }
+
+    /**
+     * Indices along an axis of the points kept by the next coarser level.
+     */
+    private static int[] coarseIndices(int n) {
+        if (n < 4) {
+            int[] identity = new int[n];
+            for (int i = 0; i < n; i++) {
+                identity[i] = i;
+            }
+            return identity;
+        }
+        int[] indices = new int[(n - 1) / 2 + 1 + (n - 1) % 2];
+        for (int i = 0; i <= (n - 1) / 2; i++) {
+            indices[i] = 2 * i;
+        }
+        indices[indices.length - 1] = n - 1;
+        return indices;
+    }
+
+    private static double[] select(double[] values, int[] indices) {
+        double[] a = new double[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            a[i] = values[indices[i]];
+        }
+        return a;
+    }
+
+    private static final class Level {
+
+        final int nx;
+        final int ny;
+        final int nz;
+        final double[] x;
+        final double[] y;
+        final double[] z;
+
+        final double[] cxm;
+        final double[] cxp;
+        final double[] cym;
+        final double[] cyp;
+        final double[] czm;
+        final double[] czp;
+
+        final boolean[] fixed;
+        final double[] p;
+        final double[] rhs;
+        final double[] r;
+
+        // for each axis the finer level index of each point of this level, null
+        // on the finest level
+        final int[] mapX;
+        final int[] mapY;
+        final int[] mapZ;
+
+        // for each point of the finer level along each axis the lower point
+        // of this level to interpolate from and the weight of the upper point
+        final int[] lowX;
+        final int[] lowY;
+        final int[] lowZ;
+        final double[] tX;
+        final double[] tY;
+        final double[] tZ;
+
+        Level(double[] x, double[] y, double[] z, Level finer) {
+            this.nx = x.length;
+            this.ny = y.length;
+            this.nz = z.length;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.cxm = Grid.coefficients(x, 0);
+            this.cxp = Grid.coefficients(x, 1);
+            this.cym = Grid.coefficients(y, 0);
+            this.cyp = Grid.coefficients(y, 1);
+            this.czm = Grid.coefficients(z, 0);
+            this.czp = Grid.coefficients(z, 1);
+            int n = nx * ny * nz;
+            this.fixed = new boolean[n];
+            this.p = new double[n];
+            this.rhs = new double[n];
+            this.r = new double[n];
+            if (finer == null) {
+                mapX = mapY = mapZ = lowX = lowY = lowZ = null;
+                tX = tY = tZ = null;
+            } else {
+                mapX = coarseIndices(finer.nx);
+                mapY = coarseIndices(finer.ny);
+                mapZ = coarseIndices(finer.nz);
+                lowX = new int[finer.nx];
+                tX = new double[finer.nx];
+                interpolation(finer.x, x, lowX, tX);
+                lowY = new int[finer.ny];
+                tY = new double[finer.ny];
+                interpolation(finer.y, y, lowY, tY);
+                lowZ = new int[finer.nz];
+                tZ = new double[finer.nz];
+                interpolation(finer.z, z, lowZ, tZ);
+            }
+        }
+
+        Level coarsen() {
+            return new Level(select(x, coarseIndices(nx)), select(y, coarseIndices(ny)),
+                    select(z, coarseIndices(nz)), this);
+        }
+
+        private static void interpolation(double[] fine, double[] coarse, int[] low, double[] t) {
+            int lo = 0;
+            for (int f = 0; f < fine.length; f++) {
+                while (lo < coarse.length - 2 && coarse[lo + 1] <= fine[f]) {
+                    lo++;
+                }
+                low[f] = lo;
+                t[f] = (fine[f] - coarse[lo]) / (coarse[lo + 1] - coarse[lo]);
+            }
+        }
+
+        int index(int i, int j, int k) {
+            return (i * ny + j) * nz + k;
+        }
+
+        void loadFixed(Grid grid) {
+            for (int i = 0; i < nx; i++) {
+                for (int j = 0; j < ny; j++) {
+                    for (int k = 0; k < nz; k++) {
+                        fixed[index(i, j, k)] = grid.isFixed(i, j, k);
+                    }
+                }
+            }
+        }
+
+        void restrictFixed(Level fine) {
+            for (int i = 0; i < nx; i++) {
+                for (int j = 0; j < ny; j++) {
+                    for (int k = 0; k < nz; k++) {
+                        fixed[index(i, j, k)] = fine.fixed[fine.index(mapX[i], mapY[j], mapZ[k])];
+                    }
+                }
+            }
+        }
+
+        void smooth(int sweeps, boolean reverse) {
+            int sx = ny * nz;
+            int sy = nz;
+            for (int s = 0; s < sweeps; s++) {
+                for (int pass = 0; pass < 2; pass++) {
+                    int colour = reverse ? 1 - pass : pass;
+                    for (int i = 1; i < nx - 1; i++) {
+                        for (int j = 1; j < ny - 1; j++) {
+                            int row = index(i, j, 0);
+                            for (int k = 1 + ((i + j + 1 + colour) & 1); k < nz - 1; k += 2) {
+                                int c = row + k;
+                                if (!fixed[c]) {
+                                    double diagonal = cxm[i] + cxp[i] + cym[j] + cyp[j] + czm[k] + czp[k];
+                                    p[c] = (cxm[i] * p[c - sx] + cxp[i] * p[c + sx] + cym[j] * p[c - sy]
+                                            + cyp[j] * p[c + sy] + czm[k] * p[c - 1] + czp[k] * p[c + 1] - rhs[c])
+                                            / diagonal;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Sets out to b - Av over the free points (zero elsewhere) and returns
+         * its 2-norm.
+         */
+        double residual(double[] v, double[] b, double[] out) {
+            apply(v, out);
+            double sum = 0;
+            for (int c = 0; c < out.length; c++) {
+                if (!fixed[c]) {
+                    double value = b[c] - out[c];
+                    out[c] = value;
+                    sum += value * value;
+                }
+            }
+            return Math.sqrt(sum);
+        }
+
+        /**
+         * Sets out to the Laplacian of v over the free points (zero
+         * elsewhere).
+         */
+        void apply(double[] v, double[] out) {
+            int sx = ny * nz;
+            int sy = nz;
+            Arrays.fill(out, 0);
+            for (int i = 1; i < nx - 1; i++) {
+                for (int j = 1; j < ny - 1; j++) {
+                    int row = index(i, j, 0);
+                    for (int k = 1; k < nz - 1; k++) {
+                        int c = row + k;
+                        if (!fixed[c]) {
+                            out[c] = cxm[i] * (v[c - sx] - v[c]) + cxp[i] * (v[c + sx] - v[c])
+                                    + cym[j] * (v[c - sy] - v[c]) + cyp[j] * (v[c + sy] - v[c])
+                                    + czm[k] * (v[c - 1] - v[c]) + czp[k] * (v[c + 1] - v[c]);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Sets the right hand side of this level to the full weighted residual
+         * of the finer level and zeros the correction.
+         */
+        void restrictResidual(Level fine) {
+            Arrays.fill(p, 0);
+            boolean cx = nx < fine.nx;
+            boolean cy = ny < fine.ny;
+            boolean cz = nz < fine.nz;
+            for (int i = 0; i < nx; i++) {
+                for (int j = 0; j < ny; j++) {
+                    for (int k = 0; k < nz; k++) {
+                        int c = index(i, j, k);
+                        if (fixed[c]) {
+                            rhs[c] = 0;
+                            continue;
+                        }
+                        double sum = 0;
+                        for (int a = cx ? -1 : 0; a <= (cx ? 1 : 0); a++) {
+                            double wa = cx ? weight(a) : 1;
+                            for (int b = cy ? -1 : 0; b <= (cy ? 1 : 0); b++) {
+                                double wb = wa * (cy ? weight(b) : 1);
+                                for (int d = cz ? -1 : 0; d <= (cz ? 1 : 0); d++) {
+                                    double w = wb * (cz ? weight(d) : 1);
+                                    sum += w * fine.r[fine.index(mapX[i] + a, mapY[j] + b, mapZ[k] + d)];
+                                }
+                            }
+                        }
+                        rhs[c] = sum;
+                    }
+                }
+            }
+        }
+
+        private static double weight(int offset) {
+            return offset == 0 ? 0.5 : 0.25;
+        }
+
+        /**
+         * Adds the trilinear interpolation of the correction on this level to
+         * the free points of the finer level.
+         */
+        void prolong(Level fine) {
+            int sx = ny * nz;
+            int sy = nz;
+            for (int i = 1; i < fine.nx - 1; i++) {
+                double tx = tX[i];
+                for (int j = 1; j < fine.ny - 1; j++) {
+                    double ty = tY[j];
+                    int base = index(lowX[i], lowY[j], 0);
+                    int row = fine.index(i, j, 0);
+                    for (int k = 1; k < fine.nz - 1; k++) {
+                        if (!fine.fixed[row + k]) {
+                            double tz = tZ[k];
+                            int c = base + lowZ[k];
+                            double e = (1 - tx) * ((1 - ty) * ((1 - tz) * p[c] + tz * p[c + 1])
+                                    + ty * ((1 - tz) * p[c + sy] + tz * p[c + sy + 1]))
+                                    + tx * ((1 - ty) * ((1 - tz) * p[c + sx] + tz * p[c + sx + 1])
+                                            + ty * ((1 - tz) * p[c + sx + sy] + tz * p[c + sx + sy + 1]));
+                            fine.p[row + k] += e;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+}
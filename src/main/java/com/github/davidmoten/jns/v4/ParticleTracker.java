@@ -0,0 +1,277 @@
+package com.github.davidmoten.jns.v4;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import com.github.davidmoten.guavamini.Preconditions;
+
+/**
+ * Lagrangian particle tracker for drift prediction. Particles are advected
+ * through the velocity field of a {@link Solver} (u, v and w interpolated
+ * trilinearly as in the advection step of the solver) with the classic fourth
+ * order Runge-Kutta method.
+ * <p>
+ * Positions are held in primitive arrays (one per axis) in grid index
+ * coordinates, where the velocity is u/dx, v/dy and w over the spacing between
+ * the depths either side, so a step does no depth lookups. Steps run in slabs
+ * of particles across the threads of a {@link ForkJoinPool}, each particle is
+ * written by one slab only.
+ * <p>
+ * A particle that would move into an obstacle cell (the cell with the nearest
+ * grid point) or out of the grid is reflected off it one axis at a time, and
+ * if the reflected position is blocked too it stays where it was along that
+ * axis.
+ */
+public final class ParticleTracker {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Grid grid;
+    private final Field u;
+    private final Field v;
+    private final Field w;
+    private final ForkJoinPool pool;
+    private final int sx;
+    private final int sy;
+    private final double maxI;
+    private final double maxJ;
+    private final double maxK;
+    private final double[] depth;
+    private final double[] spacing; // depth[k + 1] - depth[k]
+    private final double dxInverse;
+    private final double dyInverse;
+    private final double[] spacingInverse;
+
+    // positions in grid index coordinates
+    private double[] x = new double[INITIAL_CAPACITY];
+    private double[] y = new double[INITIAL_CAPACITY];
+    private double[] z = new double[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * Constructor tracking particles through the current velocity field of
+     * <code>solver</code>.
+     *
+     * @param solver solver
+     * @param pool   pool to step particles on
+     */
+    public ParticleTracker(Solver solver, ForkJoinPool pool) {
+        this(solver.grid(), solver.u(), solver.v(), solver.w(), pool);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param grid grid of the fields
+     * @param u    x-velocity component
+     * @param v    y-velocity component
+     * @param w    z-velocity component (towards greater depth)
+     * @param pool pool to step particles on
+     */
+    public ParticleTracker(Grid grid, Field u, Field v, Field w, ForkJoinPool pool) {
+        Preconditions.checkArgument(grid.nx() > 1 && grid.ny() > 1 && grid.nz() > 1,
+                "grid must have at least two points along each axis");
+        Preconditions.checkArgument(u.size() == grid.size() && v.size() == grid.size() && w.size() == grid.size(),
+                "fields must be the size of the grid");
+        Preconditions.checkNotNull(pool, "pool cannot be null");
+        this.grid = grid;
+        this.u = u;
+        this.v = v;
+        this.w = w;
+        this.pool = pool;
+        this.sx = grid.ny() * grid.nz();
+        this.sy = grid.nz();
+        this.maxI = grid.nx() - 1;
+        this.maxJ = grid.ny() - 1;
+        this.maxK = grid.nz() - 1;
+        this.depth = new double[grid.nz()];
+        this.spacing = new double[grid.nz() - 1];
+        for (int k = 0; k < depth.length; k++) {
+            depth[k] = grid.depth(k);
+        }
+        this.spacingInverse = new double[spacing.length];
+        for (int k = 0; k < spacing.length; k++) {
+            spacing[k] = depth[k + 1] - depth[k];
+            spacingInverse[k] = 1 / spacing[k];
+        }
+        this.dxInverse = 1 / grid.dx();
+        this.dyInverse = 1 / grid.dy();
+    }
+
+    /**
+     * Adds a particle at the given position, clamped to the grid.
+     *
+     * @param x     distance in metres along the x axis from grid point i = 0
+     * @param y     distance in metres along the y axis from grid point j = 0
+     * @param depth depth in metres
+     * @return index of the particle
+     */
+    public int add(double x, double y, double depth) {
+        if (size == this.x.length) {
+            int capacity = size * 2;
+            this.x = Arrays.copyOf(this.x, capacity);
+            this.y = Arrays.copyOf(this.y, capacity);
+            this.z = Arrays.copyOf(this.z, capacity);
+        }
+        this.x[size] = clamp(x / grid.dx(), maxI);
+        this.y[size] = clamp(y / grid.dy(), maxJ);
+        this.z[size] = clamp(indexOfDepth(depth), maxK);
+        return size++;
+    }
+
+    /**
+     * Returns the number of particles.
+     *
+     * @return number of particles
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the x position of a particle.
+     *
+     * @param particle index of the particle
+     * @return distance in metres along the x axis from grid point i = 0
+     */
+    public double x(int particle) {
+        checkIndex(particle);
+        return x[particle] * grid.dx();
+    }
+
+    /**
+     * Returns the y position of a particle.
+     *
+     * @param particle index of the particle
+     * @return distance in metres along the y axis from grid point j = 0
+     */
+    public double y(int particle) {
+        checkIndex(particle);
+        return y[particle] * grid.dy();
+    }
+
+    /**
+     * Returns the depth of a particle.
+     *
+     * @param particle index of the particle
+     * @return depth in metres
+     */
+    public double depth(int particle) {
+        checkIndex(particle);
+        double k = z[particle];
+        int k0 = Math.min((int) k, spacing.length - 1);
+        return depth[k0] + (k - k0) * spacing[k0];
+    }
+
+    /**
+     * Advects every particle by one RK4 step of <code>dt</code> through the
+     * current velocity field, which is taken to be constant over the step.
+     *
+     * @param dt time step in seconds
+     */
+    public void step(double dt) {
+        Slabs.forEach(pool, 0, size, (from, to) -> step(from, to, dt));
+    }
+
+    private void step(int from, int to, double dt) {
+        double[] k1 = new double[3];
+        double[] k2 = new double[3];
+        double[] k3 = new double[3];
+        double[] k4 = new double[3];
+        double half = dt / 2;
+        for (int p = from; p < to; p++) {
+            double x0 = x[p];
+            double y0 = y[p];
+            double z0 = z[p];
+            velocity(x0, y0, z0, k1);
+            velocity(x0 + half * k1[0], y0 + half * k1[1], z0 + half * k1[2], k2);
+            velocity(x0 + half * k2[0], y0 + half * k2[1], z0 + half * k2[2], k3);
+            velocity(x0 + dt * k3[0], y0 + dt * k3[1], z0 + dt * k3[2], k4);
+            double x1 = x0 + dt / 6 * (k1[0] + 2 * k2[0] + 2 * k3[0] + k4[0]);
+            double y1 = y0 + dt / 6 * (k1[1] + 2 * k2[1] + 2 * k3[1] + k4[1]);
+            double z1 = z0 + dt / 6 * (k1[2] + 2 * k2[2] + 2 * k3[2] + k4[2]);
+            move(p, x0, y0, z0, x1, y1, z1);
+        }
+    }
+
+    // velocity in grid index coordinates per second at a position
+    private void velocity(double x, double y, double z, double[] out) {
+        x = clamp(x, maxI);
+        y = clamp(y, maxJ);
+        z = clamp(z, maxK);
+        int i0 = Math.min((int) x, grid.nx() - 2);
+        int j0 = Math.min((int) y, grid.ny() - 2);
+        int k0 = Math.min((int) z, grid.nz() - 2);
+        double dx1 = x - i0;
+        double dx0 = 1.0 - dx1;
+        double dy1 = y - j0;
+        double dy0 = 1.0 - dy1;
+        double dz1 = z - k0;
+        double dz0 = 1.0 - dz1;
+        int c = i0 * sx + j0 * sy + k0;
+        out[0] = Grid.interpolate(u, c, sx, sy, dx0, dx1, dy0, dy1, dz0, dz1) * dxInverse;
+        out[1] = Grid.interpolate(v, c, sx, sy, dx0, dx1, dy0, dy1, dz0, dz1) * dyInverse;
+        out[2] = Grid.interpolate(w, c, sx, sy, dx0, dx1, dy0, dy1, dz0, dz1) * spacingInverse[k0];
+    }
+
+    // moves a particle one axis at a time reflecting off obstacles and the
+    // outside of the grid
+    private void move(int p, double x0, double y0, double z0, double x1, double y1, double z1) {
+        double x = reflect(x1, maxI);
+        if (isObstacle(x, y0, z0)) {
+            x = reflect(2 * x0 - x, maxI);
+            if (isObstacle(x, y0, z0)) {
+                x = x0;
+            }
+        }
+        double y = reflect(y1, maxJ);
+        if (isObstacle(x, y, z0)) {
+            y = reflect(2 * y0 - y, maxJ);
+            if (isObstacle(x, y, z0)) {
+                y = y0;
+            }
+        }
+        double z = reflect(z1, maxK);
+        if (isObstacle(x, y, z)) {
+            z = reflect(2 * z0 - z, maxK);
+            if (isObstacle(x, y, z)) {
+                z = z0;
+            }
+        }
+        this.x[p] = x;
+        this.y[p] = y;
+        this.z[p] = z;
+    }
+
+    private boolean isObstacle(double x, double y, double z) {
+        return grid.isObstacle((int) (x + 0.5), (int) (y + 0.5), (int) (z + 0.5));
+    }
+
+    // reflects a coordinate off 0 and max
+    private static double reflect(double value, double max) {
+        if (value < 0) {
+            value = -value;
+        } else if (value > max) {
+            value = 2 * max - value;
+        }
+        return clamp(value, max);
+    }
+
+    private static double clamp(double value, double max) {
+        return Math.max(0, Math.min(value, max));
+    }
+
+    private double indexOfDepth(double d) {
+        int k = Arrays.binarySearch(depth, d);
+        if (k >= 0) {
+            return k;
+        }
+        int k0 = Math.min(Math.max(-k - 2, 0), spacing.length - 1);
+        return k0 + (d - depth[k0]) / spacing[k0];
+    }
+
+    private void checkIndex(int particle) {
+        Preconditions.checkArgument(particle >= 0 && particle < size, "no particle " + particle);
+    }
+
+}
@@ -0,0 +1,24 @@
+package com.github.davidmoten.jns.v4;
+
+/**
+ * Solves the pressure Poisson equation of the projection step of
+ * {@link Solver} (see {@link Grid}).
+ */
+public interface PressureSolver {
+
+    /**
+     * Writes the pressure that solves ∇²p = div into <code>result</code>, using
+     * <code>p</code> as the starting point. Cells that are fixed (see
+     * {@link Grid#isFixed(int, int, int)}) keep their value from
+     * <code>p</code>.
+     *
+     * @param grid   geometry
+     * @param p      pressure at the start of the time step (indexed by
+     *               {@link Grid#index(int, int, int)}), not modified
+     * @param div    divergence of the intermediate velocity field
+     * @param result pressure at the end of the time step
+     * @return iterations and residual of the solve
+     */
+    Convergence solve(Grid grid, Field p, Field div, Field result);
+
+}
@@ -0,0 +1,73 @@
+package com.github.davidmoten.jns.v4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.github.davidmoten.guavamini.Preconditions;
+
+/**
+ * A {@link HaloTransport} between blocks running in the same JVM (one thread
+ * per block) using blocking queues. Each message is copied.
+ */
+public final class QueueHaloTransport implements HaloTransport {
+
+    // queues[from][to]
+    private final BlockingQueue<double[]>[][] queues;
+    private final int block;
+
+    private QueueHaloTransport(BlockingQueue<double[]>[][] queues, int block) {
+        this.queues = queues;
+        this.block = block;
+    }
+
+    /**
+     * Returns connected transports for <code>blocks</code> blocks, element
+     * <code>b</code> of the list is the transport of block <code>b</code>.
+     *
+     * @param blocks number of blocks
+     * @return transport of each block
+     */
+    public static List<HaloTransport> create(int blocks) {
+        Preconditions.checkArgument(blocks >= 1, "blocks must be 1 or more");
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        BlockingQueue<double[]>[][] queues = new BlockingQueue[blocks][blocks];
+        for (int from = 0; from < blocks; from++) {
+            for (int to = 0; to < blocks; to++) {
+                queues[from][to] = new LinkedBlockingQueue<>();
+            }
+        }
+        List<HaloTransport> list = new ArrayList<>(blocks);
+        for (int b = 0; b < blocks; b++) {
+            list.add(new QueueHaloTransport(queues, b));
+        }
+        return list;
+    }
+
+    @Override
+    public void send(int block, double[] values, int length) {
+        queues[this.block][block].add(Arrays.copyOf(values, length));
+    }
+
+    @Override
+    public void receive(int block, double[] values, int length) {
+        double[] message;
+        try {
+            message = queues[block][this.block].take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        Preconditions.checkArgument(message.length == length,
+                "expected " + length + " values from block " + block + " but received " + message.length);
+        System.arraycopy(message, 0, values, 0, length);
+    }
+
+    @Override
+    public void close() {
+        // nothing to release
+    }
+
+}
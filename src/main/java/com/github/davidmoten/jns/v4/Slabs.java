@@ -0,0 +1,109 @@
+package com.github.davidmoten.jns.v4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.DoubleBinaryOperator;
+
+/**
+ * Runs a loop over a range of i indices as contiguous slabs across the threads
+ * of a {@link ForkJoinPool}, returning when every slab is done (so calls act
+ * as a barrier between phases).
+ */
+final class Slabs {
+
+    private Slabs() {
+        // prevent instantiation
+    }
+
+    @FunctionalInterface
+    interface SlabTask {
+        void run(int from, int to);
+    }
+
+    @FunctionalInterface
+    interface SlabValue {
+        double run(int from, int to);
+    }
+
+    /**
+     * Runs <code>task</code> over slabs that cover <code>from</code>
+     * (inclusive) to <code>to</code> (exclusive).
+     *
+     * @param pool pool to run on
+     * @param from first index
+     * @param to   index after the last
+     * @param task task to run for each slab
+     */
+    static void forEach(ForkJoinPool pool, int from, int to, SlabTask task) {
+        sum(pool, from, to, (a, b) -> {
+            task.run(a, b);
+            return 0;
+        });
+    }
+
+    /**
+     * As {@link #forEach(ForkJoinPool, int, int, SlabTask)} but returns the
+     * sum of the values returned by each slab (added in slab order so the
+     * result does not depend on thread timing).
+     *
+     * @param pool pool to run on
+     * @param from first index
+     * @param to   index after the last
+     * @param task task to run for each slab
+     * @return sum over slabs
+     */
+    static double sum(ForkJoinPool pool, int from, int to, SlabValue task) {
+        return reduce(pool, from, to, task, Double::sum);
+    }
+
+    /**
+     * As {@link #sum(ForkJoinPool, int, int, SlabValue)} but returns the
+     * maximum of the values returned by each slab.
+     *
+     * @param pool pool to run on
+     * @param from first index
+     * @param to   index after the last
+     * @param task task to run for each slab
+     * @return maximum over slabs
+     */
+    static double max(ForkJoinPool pool, int from, int to, SlabValue task) {
+        return reduce(pool, from, to, task, Math::max);
+    }
+
+    private static double reduce(ForkJoinPool pool, int from, int to, SlabValue task, DoubleBinaryOperator op) {
+        int slabs = Math.min(pool.getParallelism(), to - from);
+        if (slabs <= 1) {
+            return task.run(from, to);
+        }
+        List<Callable<Double>> tasks = new ArrayList<>(slabs);
+        for (int s = 0; s < slabs; s++) {
+            int a = from + (int) ((long) (to - from) * s / slabs);
+            int b = from + (int) ((long) (to - from) * (s + 1) / slabs);
+            tasks.add(() -> task.run(a, b));
+        }
+        double result = 0;
+        boolean first = true;
+        for (Future<Double> future : pool.invokeAll(tasks)) {
+            try {
+                double value = future.get();
+                result = first ? value : op.applyAsDouble(result, value);
+                first = false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                } else {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,255 @@
+package com.github.davidmoten.jns.v4;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.davidmoten.guavamini.Preconditions;
+
+/**
+ * A {@link HaloTransport} over TCP between blocks of a {@link Decomposition}
+ * running in separate processes (on one machine or several). Block b listens
+ * on its address for block b + 1 and connects to the address of block b - 1.
+ * <p>
+ * Sends are written by a thread per connection so that two neighbours sending
+ * large faces to each other at the same time cannot block each other.
+ */
+public final class SocketHaloTransport implements HaloTransport {
+
+    private static final Logger log = LoggerFactory.getLogger(SocketHaloTransport.class);
+
+    private final int block;
+    private final Connection left;
+    private final Connection right;
+
+    private SocketHaloTransport(int block, Connection left, Connection right) {
+        this.block = block;
+        this.left = left;
+        this.right = right;
+    }
+
+    /**
+     * Connects block <code>block</code> to its neighbours, waiting up to
+     * <code>timeoutMs</code> for them to start.
+     *
+     * @param block     this block
+     * @param addresses address of every block
+     * @param timeoutMs how long to wait for neighbours
+     * @return connected transport
+     * @throws IOException if a neighbour cannot be reached
+     */
+    public static SocketHaloTransport open(int block, List<InetSocketAddress> addresses, long timeoutMs)
+            throws IOException {
+        Preconditions.checkArgument(block >= 0 && block < addresses.size(), "block out of range");
+        ServerSocket server = null;
+        if (block < addresses.size() - 1) {
+            server = new ServerSocket();
+            try {
+                server.setReuseAddress(true);
+                server.bind(addresses.get(block));
+            } catch (IOException | RuntimeException e) {
+                server.close();
+                throw e;
+            }
+        }
+        return open(block, server, block > 0 ? addresses.get(block - 1) : null, timeoutMs);
+    }
+
+    /**
+     * Connects block <code>block</code> to its neighbours through a listener
+     * that is already bound, for example to port 0 with the chosen port then
+     * passed on to block <code>block + 1</code>. This avoids picking a free
+     * port that another process could take before it is bound. The listener
+     * is closed once block <code>block + 1</code> has connected.
+     *
+     * @param block       this block
+     * @param server      bound listener for block <code>block + 1</code> or
+     *                    null if this is the last block
+     * @param leftAddress address of block <code>block - 1</code> or null if
+     *                    this is block 0
+     * @param timeoutMs   how long to wait for neighbours
+     * @return connected transport
+     * @throws IOException if a neighbour cannot be reached
+     */
+    public static SocketHaloTransport open(int block, ServerSocket server, InetSocketAddress leftAddress,
+            long timeoutMs) throws IOException {
+        Connection right = null;
+        Connection left = null;
+        try {
+            Preconditions.checkArgument(block >= 0, "block cannot be negative");
+            Preconditions.checkArgument((block == 0) == (leftAddress == null), 
+                    "leftAddress must be null only for block 0");
+            Preconditions.checkArgument(server == null || server.isBound(), "server must be bound");
+            if (leftAddress != null) {
+                left = new Connection(connect(leftAddress, timeoutMs));
+                left.out.writeInt(block);
+                left.out.flush();
+            }
+            if (server != null) {
+                server.setSoTimeout((int) Math.min(Integer.MAX_VALUE, timeoutMs));
+                right = new Connection(server.accept());
+                int from = right.in.readInt();
+                if (from != block + 1) {
+                    throw new IOException("expected connection from block " + (block + 1) + " but was " + from);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            close(left);
+            close(right);
+            throw e;
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+        log.debug("block {} connected", block);
+        return new SocketHaloTransport(block, left, right);
+    }
+
+    private static Socket connect(InetSocketAddress address, long timeoutMs) throws IOException {
+        long start = System.currentTimeMillis();
+        while (true) {
+            Socket socket = new Socket();
+            try {
+                socket.connect(address, (int) Math.min(Integer.MAX_VALUE, timeoutMs));
+                return socket;
+            } catch (IOException e) {
+                socket.close();
+                if (System.currentTimeMillis() - start > timeoutMs) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(ie);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void send(int block, double[] values, int length) {
+        connection(block).send(values, length);
+    }
+
+    @Override
+    public void receive(int block, double[] values, int length) {
+        connection(block).receive(values, length);
+    }
+
+    private Connection connection(int block) {
+        if (block == this.block - 1 && left != null) {
+            return left;
+        } else if (block == this.block + 1 && right != null) {
+            return right;
+        } else {
+            throw new IllegalArgumentException("block " + block + " is not a neighbour of block " + this.block);
+        }
+    }
+
+    @Override
+    public void close() {
+        close(left);
+        close(right);
+    }
+
+    private static void close(Connection connection) {
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    private static final class Connection {
+
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private final ExecutorService sender;
+        private byte[] received = new byte[0];
+        private volatile IOException error;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            this.sender = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "halo-sender");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        void send(double[] values, int length) {
+            checkError();
+            ByteBuffer bb = ByteBuffer.allocate(Integer.BYTES + length * Double.BYTES);
+            bb.putInt(length);
+            bb.asDoubleBuffer().put(values, 0, length);
+            byte[] bytes = bb.array();
+            OutputStream o = out;
+            sender.execute(() -> {
+                try {
+                    o.write(bytes);
+                    o.flush();
+                } catch (IOException e) {
+                    error = e;
+                }
+            });
+        }
+
+        void receive(double[] values, int length) {
+            checkError();
+            try {
+                int n = in.readInt();
+                if (n != length) {
+                    throw new IllegalStateException("expected " + length + " values but received " + n);
+                }
+                int bytes = n * Double.BYTES;
+                if (received.length < bytes) {
+                    received = new byte[bytes];
+                }
+                in.readFully(received, 0, bytes);
+                ByteBuffer.wrap(received, 0, bytes).asDoubleBuffer().get(values, 0, n);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void checkError() {
+            if (error != null) {
+                throw new UncheckedIOException(error);
+            }
+        }
+
+        void close() {
+            sender.shutdown();
+            try {
+                sender.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+}
@@ -1,12 +1,48 @@
 package com.github.davidmoten.jns.v4;
 
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+
 import com.github.davidmoten.guavamini.Preconditions;
+import com.github.davidmoten.jns.Checkpoint;
+import com.github.davidmoten.jns.CheckpointWriter;
+import com.github.davidmoten.jns.InvalidValueException;
+import com.github.davidmoten.jns.PingPong;
+import com.github.davidmoten.jns.Sweep;
+import com.github.davidmoten.jns.Util;
+import com.github.davidmoten.jns.Validation;
 
 /**
  * Navier Stokes solver for incompressible fluid using Chorin's method. Created
  * via conversation with ChatGPT 3 and looks to be very wrong so take with large
  * grain of salt!
- *
+ * <p>
+ * Fields are {@link Field}s indexed by {@link Grid#index(int, int, int)} so
+ * that k is contiguous in memory. They are created by the {@link FieldStorage}
+ * of the builder, on the heap by default or in memory-mapped files for grids
+ * bigger than the heap (the obstacle mask stays on the heap at one bit per
+ * cell).
+ * <p>
+ * Each phase of a step runs in slabs of i across the threads of a
+ * {@link ForkJoinPool}, every cell is written by one slab and only read by the
+ * others so the result is the same as a serial run.
+ * <p>
+ * The time step is fixed unless a target Courant number is set on the
+ * builder, in which case each step picks the next time step from the largest
+ * |u|/dx + |v|/dy + |w|/dz of the new velocity field (found while it is
+ * written) and the viscous stability limit of the grid. {@link #runUntil(double)}
+ * advances the simulated time to a target.
+ * <p>
+ * A solver can also be one block of a {@link Decomposition}, in which case it
+ * exchanges halo planes with the neighbouring blocks between phases.
+ * <p>
+ * Each step ends with a {@link Validation#SWEEP} of u, v, w and p for NaN and
+ * infinite values unless another validation is set on the builder.
+ * <p>
+ * {@link #checkpoint()} copies the state of the solver into a
+ * {@link Checkpoint} that can be written to disk (on a background thread with
+ * a {@link CheckpointWriter}) and {@link #restore(Checkpoint)} restarts a solver
+ * built with the same grid from it.
  */
 public class Solver {
 
@@ -15,73 +51,363 @@ public class Solver {
     private static final double viscosity = 1.02;
     private static final double gravity = 9.81; // m/s²
 
-    private static final double dt = 0.0001; // time step
+    private static final double DEFAULT_TIME_STEP = 0.0001;
+
+    // slots of the state field
+    private static final int STATE_PRESSURE_BUFFER = 0;
+    private static final int STATE_TIME = 1;
+    private static final int STATE_TIME_STEP = 2;
+
+    private double dt; // time step
+    private double time; // simulated time
+    private double courant; // Courant number of the last step
+    private final double targetCourant; // 0 for a fixed time step
+    private final double maxTimeStep;
+    private final double viscousTimeStep; // stability limit of viscous term
     private double dx; // grid spacing in x-direction
     private double dy; // grid spacing in y-direction
 
-    private double[][][] u; // x-velocity component
-    private double[][][] v; // y-velocity component
-    private double[][][] w; // z-velocity component
-    private double[][][] p; // pressure
-    private boolean[][][] obstacle; // obstacles
+    private final Field u; // x-velocity component
+    private final Field v; // y-velocity component
+    private final Field w; // z-velocity component
+    private Field p; // pressure
+    private final BitSet obstacle; // obstacles
 
     private int nx; // grid size in x-direction
     private int ny; // grid size in y-direction
     private int nz; // grid size in z-direction
+    private final int sx; // index offset between neighbours in x-direction
+    private final int sy; // index offset between neighbours in y-direction
 
     // intermediate variables declared here for reuse to save allocations
-    private double[][][] div;
-    private double[][][] uNext; // x-velocity component
-    private double[][][] vNext; // y-velocity component
-    private double[][][] wNext; // z-velocity component
-    private double[][][] pNext; // pressure
+    private final Field div;
+    private final Field uNext; // x-velocity component
+    private final Field vNext; // y-velocity component
+    private final Field wNext; // z-velocity component
+    private Field pNext; // pressure
+    private final PingPong<Field> pressure; // p and pNext
+    // which of the two pressure fields holds p (0 or 1), the simulated time
+    // and the time step, stored with the fields so that reopened storage
+    // resumes where it left off
+    private final Field state;
     private double[] depth;
+    private final double[] dz; // spacing between depths
+    private final double[] deltaZ; // spacing around each depth
+    private final double[] deltaZSquared;
+
+    private final Grid grid;
+    private final FieldStorage fieldStorage;
+    private final PressureSolver pressureSolver;
+    private final ForkJoinPool pool;
+    private Convergence pressureConvergence;
+    private final Validation validation;
+
+    // when the solver is a block of a Decomposition
+    private final int firstI; // x index of local plane 0 in the whole grid
+    private final int globalNx; // grid size in x-direction of the whole grid
+    private final HaloExchange halo; // null if not a block
+    private final Field[] velocity;
+    private final Field[] velocityNext;
+    private final Field[] pressureOnly = new Field[1];
 
     public Solver(int nx, int ny, int nz, double dx, double dy, double[] dz, boolean[][][] obstacle) {
-        Preconditions.checkArgument(dz.length == nz - 1);
-        this.nx = nx;
-        this.ny = ny;
-        this.nz = nz;
-        this.dx = dx;
-        this.dy = dy;
-        this.obstacle = obstacle;
-
-        u = new double[nx][ny][nz];
-        v = new double[nx][ny][nz];
-        w = new double[nx][ny][nz];
-        p = new double[nx][ny][nz];
-
-        uNext = new double[nx][ny][nz];
-        vNext = new double[nx][ny][nz];
-        wNext = new double[nx][ny][nz];
-        pNext = new double[nx][ny][nz];
-
-        div = new double[nx][ny][nz];
+        this(builder().gridSize(nx, ny, nz).dx(dx).dy(dy).dz(dz).obstacle(obstacle));
+    }
+
+    public Solver(int nx, int ny, int nz, double dx, double dy, double[] dz, boolean[][][] obstacle,
+            PressureSolver pressureSolver) {
+        this(builder().gridSize(nx, ny, nz).dx(dx).dy(dy).dz(dz).obstacle(obstacle).pressureSolver(pressureSolver));
+    }
+
+    private Solver(Builder b) {
+        Preconditions.checkNotNull(b.dz, "dz cannot be null");
+        Preconditions.checkArgument(b.dz.length == b.nz - 1, "dz must have length nz - 1");
+        Preconditions.checkNotNull(b.pool, "pool cannot be null");
+        Preconditions.checkNotNull(b.fieldStorage, "fieldStorage cannot be null");
+        Preconditions.checkNotNull(b.validation, "validation cannot be null");
+        if (b.halo != null) {
+            Preconditions.checkArgument(b.pressureSolver == null || b.pressureSolver instanceof JacobiPressureSolver,
+                    "blocks of a decomposition must use JacobiPressureSolver");
+            Preconditions.checkArgument(b.courant == 0, "blocks of a decomposition must use a fixed time step");
+        }
+        this.nx = b.nx;
+        this.ny = b.ny;
+        this.nz = b.nz;
+        this.dx = b.dx;
+        this.dy = b.dy;
+        this.sx = ny * nz;
+        this.sy = nz;
+        this.fieldStorage = b.fieldStorage;
+
+        int size = nx * ny * nz;
+        u = fieldStorage.create("u", size);
+        v = fieldStorage.create("v", size);
+        w = fieldStorage.create("w", size);
+        Field p0 = fieldStorage.create("p0", size);
+        Field p1 = fieldStorage.create("p1", size);
+        state = fieldStorage.create("state", 3);
+        pressure = new PingPong<>(p0, p1);
+        if (state.get(STATE_PRESSURE_BUFFER) != 0) {
+            pressure.swap();
+        }
+        p = pressure.current();
+        pNext = pressure.next();
 
+        uNext = fieldStorage.create("uNext", size);
+        vNext = fieldStorage.create("vNext", size);
+        wNext = fieldStorage.create("wNext", size);
+
+        div = fieldStorage.create("div", size);
+
+        dz = b.dz.clone();
         depth = new double[nz];
         double sum = 0;
         for (int i = 0; i < depth.length; i++) {
             depth[i] = sum;
-            if (i < dz.length) {
-                sum += dz[i];
+            if (i < b.dz.length) {
+                sum += b.dz[i];
             }
         }
+        deltaZ = new double[nz];
+        deltaZSquared = new double[nz];
+        for (int k = 1; k < nz - 1; k++) {
+            deltaZ[k] = (depth[k + 1] - depth[k - 1]) / 2;
+            deltaZSquared[k] = deltaZ[k] * deltaZ[k];
+        }
+        grid = new Grid(nx, ny, nz, dx, dy, depth, b.obstacle == null ? new boolean[nx][ny][nz] : b.obstacle);
+        this.obstacle = grid.obstacles();
+        this.pool = b.pool;
+        this.pressureSolver = b.pressureSolver == null
+                ? new JacobiPressureSolver(NUM_PRESSURE_PROJECTION_ITERATIONS, pool)
+                : b.pressureSolver;
+
+        this.firstI = b.firstI;
+        this.globalNx = b.halo == null ? nx : b.globalNx;
+        this.halo = b.halo;
+        this.velocity = new Field[] { u, v, w };
+        this.velocityNext = new Field[] { uNext, vNext, wNext };
+        this.validation = b.validation;
+        this.targetCourant = b.courant;
+        this.maxTimeStep = b.maxTimeStep;
+        double dzMin = Double.MAX_VALUE;
+        for (int k = 0; k < nz - 1; k++) {
+            dzMin = Math.min(dzMin, depth[k + 1] - depth[k]);
+        }
+        this.viscousTimeStep = 1 / (2 * viscosity * (1 / (dx * dx) + 1 / (dy * dy) + 1 / (dzMin * dzMin)));
+
+        if (b.initializePressure) {
+            // uses pressure due to depth only
+            initializePressure();
+            time = 0;
+            dt = b.timeStep;
+        } else {
+            time = state.get(STATE_TIME);
+            dt = state.get(STATE_TIME_STEP) > 0 ? state.get(STATE_TIME_STEP) : b.timeStep;
+        }
+        state.set(STATE_TIME, time);
+        state.set(STATE_TIME_STEP, dt);
+    }
 
-        // uses pressure due to depth only
-        initializePressure();
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private int nx;
+        private int ny;
+        private int nz;
+        private double dx;
+        private double dy;
+        private double[] dz;
+        private boolean[][][] obstacle;
+        private PressureSolver pressureSolver;
+        private FieldStorage fieldStorage = FieldStorage.heap();
+        private ForkJoinPool pool = ForkJoinPool.commonPool();
+        private boolean initializePressure = true;
+        private double timeStep = DEFAULT_TIME_STEP;
+        private double courant;
+        private double maxTimeStep = Double.MAX_VALUE;
+        private Validation validation = Validation.SWEEP;
+        private int firstI;
+        private int globalNx;
+        private HaloExchange halo;
+
+        private Builder() {
+        }
+
+        public Builder gridSize(int nx, int ny, int nz) {
+            this.nx = nx;
+            this.ny = ny;
+            this.nz = nz;
+            return this;
+        }
+
+        public Builder dx(double dx) {
+            this.dx = dx;
+            return this;
+        }
+
+        public Builder dy(double dy) {
+            this.dy = dy;
+            return this;
+        }
+
+        /**
+         * Sets the spacing between consecutive depths (length nz - 1).
+         *
+         * @param dz spacing in z-direction
+         * @return this
+         */
+        public Builder dz(double[] dz) {
+            this.dz = dz;
+            return this;
+        }
+
+        /**
+         * Sets the obstacle mask. Defaults to no obstacles.
+         *
+         * @param obstacle obstacle mask
+         * @return this
+         */
+        public Builder obstacle(boolean[][][] obstacle) {
+            this.obstacle = obstacle;
+            return this;
+        }
+
+        /**
+         * Sets the pressure solver. Defaults to 20 Jacobi sweeps on the pool
+         * of this builder.
+         *
+         * @param pressureSolver pressure solver
+         * @return this
+         */
+        public Builder pressureSolver(PressureSolver pressureSolver) {
+            Preconditions.checkNotNull(pressureSolver, "pressureSolver cannot be null");
+            this.pressureSolver = pressureSolver;
+            return this;
+        }
+
+        /**
+         * Sets the pool that each phase of a step is run on, split into slabs
+         * of i (one per thread of the pool). The result does not depend on the
+         * number of threads, use <code>new ForkJoinPool(1)</code> to run
+         * serially. Defaults to the common pool.
+         *
+         * @param pool pool to run on
+         * @return this
+         */
+        public Builder pool(ForkJoinPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        /**
+         * Sets where the fields are stored. Defaults to
+         * {@link FieldStorage#heap()}.
+         *
+         * @param fieldStorage field storage
+         * @return this
+         */
+        public Builder fieldStorage(FieldStorage fieldStorage) {
+            this.fieldStorage = fieldStorage;
+            return this;
+        }
+
+        /**
+         * Sets whether the pressure is set to the hydrostatic pressure on
+         * construction. Defaults to true, use false to resume from fields
+         * already in the field storage (for example reopened memory-mapped
+         * files).
+         *
+         * @param initializePressure whether to initialize the pressure
+         * @return this
+         */
+        public Builder initializePressure(boolean initializePressure) {
+            this.initializePressure = initializePressure;
+            return this;
+        }
+
+        /**
+         * Sets the time step, or the first time step if a target Courant
+         * number is set. Defaults to 0.0001.
+         *
+         * @param timeStep time step in seconds
+         * @return this
+         */
+        public Builder timeStep(double timeStep) {
+            Preconditions.checkArgument(timeStep > 0, "timeStep must be >0");
+            this.timeStep = timeStep;
+            return this;
+        }
+
+        /**
+         * Turns on adaptive time stepping: after each step the time step is
+         * set so that the largest |u|/dx + |v|/dy + |w|/dz times the time step
+         * is <code>courant</code>, limited by the viscous stability limit of
+         * the grid and by {@link #maxTimeStep(double)}.
+         *
+         * @param courant target Courant number
+         * @return this
+         */
+        public Builder courant(double courant) {
+            Preconditions.checkArgument(courant > 0, "courant must be >0");
+            this.courant = courant;
+            return this;
+        }
+
+        /**
+         * Sets the largest time step that adaptive time stepping can choose.
+         * Defaults to no limit other than the viscous stability limit.
+         *
+         * @param maxTimeStep maximum time step in seconds
+         * @return this
+         */
+        public Builder maxTimeStep(double maxTimeStep) {
+            Preconditions.checkArgument(maxTimeStep > 0, "maxTimeStep must be >0");
+            this.maxTimeStep = maxTimeStep;
+            return this;
+        }
+
+        /**
+         * Sets how each step checks that fields are finite. Defaults to
+         * {@link Validation#SWEEP} which sweeps u, v, w and p at the end of
+         * each step, {@link Validation#DEBUG} also sweeps the advected
+         * velocities and the new pressure after the phases that write them.
+         *
+         * @param validation validation
+         * @return this
+         */
+        public Builder validation(Validation validation) {
+            this.validation = validation;
+            return this;
+        }
+
+        // makes the solver a block of a Decomposition
+        Builder block(int firstI, int globalNx, HaloExchange halo) {
+            this.firstI = firstI;
+            this.globalNx = globalNx;
+            this.halo = halo;
+            return this;
+        }
+
+        public Solver build() {
+            return new Solver(this);
+        }
     }
 
     public void setLidDrivenCavityBoundary(double speed) {
         for (int i = 0; i < nx; i++) {
             for (int j = 0; j < ny; j++) {
-                u[i][j][0] = 1;
+                u.set(grid.index(i, j, 0), 1);
             }
         }
         for (int i = 0; i < nx; i += 1) {
             for (int j = 0; j < ny; j++) {
                 for (int k = 1; k < nz; k++) {
-                    if (i == 0 || i == nx - 1 || j == 0 || j == ny - 1 || k == nz - 1) {
-                        obstacle[i][j][k] = true;
+                    int gi = i + firstI;
+                    if (gi == 0 || gi == globalNx - 1 || j == 0 || j == ny - 1 || k == nz - 1) {
+                        obstacle.set(grid.index(i, j, k));
                     }
                 }
             }
@@ -89,10 +415,12 @@ public class Solver {
     }
 
     private void initializePressure() {
-        for (int i = 1; i < nx - 1; i++) {
+        // interior of the whole grid, which includes halo planes of a block
+        for (int i = Math.max(0, 1 - firstI); i < Math.min(nx, globalNx - 1 - firstI); i++) {
             for (int j = 1; j < ny - 1; j++) {
+                int row = grid.index(i, j, 0);
                 for (int k = 1; k < nz - 1; k++) {
-                    p[i][j][k] = seawaterDensity * gravity * depth[k];
+                    p.set(row + k, seawaterDensity * gravity * depth[k]);
                 }
             }
         }
@@ -102,13 +430,16 @@ public class Solver {
         // Chorin's Projection method
 
         setObstaclePressureToAverageOfNeighbours();
-
-        printMaxesByDepth();
+        exchangeHalo(pressure());
 
         // Perform velocity advection and store in *next
-        advect(u, uNext, false);
-        advect(v, vNext, false);
-        advect(w, wNext, true);
+        advect();
+        exchangeHalo(velocityNext);
+        if (validation == Validation.DEBUG) {
+            check("uNext", uNext);
+            check("vNext", vNext);
+            check("wNext", wNext);
+        }
 
         // Calculate the divergence of the velocity field and store in div
         computeDivergence(uNext, vNext, wNext, div);
@@ -118,133 +449,375 @@ public class Solver {
 
         // swap p and pNext
         swapPressures();
+        exchangeHalo(pressure());
+        if (validation == Validation.DEBUG) {
+            check("p", p);
+        }
 
         // Subtract the pressure gradient and store in u, v, w
-        subtractPressureGradient(uNext, p, false, u);
-        subtractPressureGradient(vNext, p, false, v);
-        subtractPressureGradient(wNext, p, true, w);
+        double rate = subtractPressureGradient();
+        exchangeHalo(velocity);
+        if (validation != Validation.OFF) {
+            check("u", u);
+            check("v", v);
+            check("w", w);
+            check("p", p);
+        }
+
+        time += dt;
+        courant = rate * dt;
+        if (targetCourant > 0) {
+            dt = Math.min(Math.min(targetCourant / rate, viscousTimeStep), maxTimeStep);
+        }
+        state.set(STATE_TIME, time);
+        state.set(STATE_TIME_STEP, dt);
+    }
+
+    /**
+     * Calls {@link #solve()} until the simulated time reaches
+     * <code>time</code>, shortening the last step to land on it exactly.
+     *
+     * @param time simulated time to stop at
+     */
+    public void runUntil(double time) {
+        Preconditions.checkArgument(time >= this.time, "time must not be before the current time");
+        while (this.time < time) {
+            double remaining = time - this.time;
+            if (dt >= remaining) {
+                double next = dt;
+                dt = remaining;
+                solve();
+                this.time = time;
+                if (targetCourant == 0) {
+                    dt = next;
+                }
+                state.set(STATE_TIME, this.time);
+                state.set(STATE_TIME_STEP, dt);
+            } else {
+                solve();
+            }
+        }
+    }
+
+    /**
+     * Returns the simulated time (the sum of the time steps taken).
+     *
+     * @return simulated time in seconds
+     */
+    public double time() {
+        return time;
+    }
+
+    /**
+     * Returns the time step of the next call to {@link #solve()}.
+     *
+     * @return time step in seconds
+     */
+    public double timeStep() {
+        return dt;
+    }
+
+    /**
+     * Returns the largest |u|/dx + |v|/dy + |w|/dz times the time step of the
+     * last call to {@link #solve()} (0 before the first step).
+     *
+     * @return Courant number of the last step
+     */
+    public double courant() {
+        return courant;
+    }
 
+    // throws if a value of the field is NaN or infinite, see Sweep
+    private void check(String name, Field field) {
+        double sum = Slabs.sum(pool, 0, nx, (from, to) -> {
+            double s = 0;
+            for (int c = from * sx; c < to * sx; c++) {
+                s += field.get(c) * 0;
+            }
+            return s;
+        });
+        if (sum != 0) {
+            for (int c = 0; c < field.size(); c++) {
+                double value = field.get(c);
+                if (!Util.isValid(value)) {
+                    throw new InvalidValueException(name, Sweep.indices(c, firstI, ny, nz), value);
+                }
+            }
+        }
+    }
+
+    private Field[] pressure() {
+        pressureOnly[0] = p;
+        return pressureOnly;
+    }
+
+    // fills the halo planes from the neighbouring blocks of a decomposition
+    private void exchangeHalo(Field[] fields) {
+        if (halo != null) {
+            halo.exchange(fields);
+        }
     }
 
     private void swapPressures() {
-        // swap p and pNext
-        double[][][] temp = p;
-        p = pNext;
-        pNext = temp;
+        // swap p and pNext (the pressure solver has copied the fixed cells
+        // of p to pNext)
+        pressure.swap();
+        p = pressure.current();
+        pNext = pressure.next();
+        state.set(STATE_PRESSURE_BUFFER, pressure.index());
     }
 
     private void setObstaclePressureToAverageOfNeighbours() {
-        for (int i = 1; i < nx - 1; i++) {
-            for (int j = 1; j < ny - 1; j++) {
-                for (int k = 1; k < nz - 1; k++) {
-                    if (obstacle[i][j][k]) {
-                        p[i][j][k] = averageOfNeighboringPressure(i, j, k);
+        // only reads the pressure of cells that are not obstacles so slabs
+        // are independent
+        Slabs.forEach(pool, 1, nx - 1, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                for (int j = 1; j < ny - 1; j++) {
+                    int row = grid.index(i, j, 0);
+                    for (int k = 1; k < nz - 1; k++) {
+                        if (obstacle.get(row + k)) {
+                            p.set(row + k, averageOfNeighboringPressure(i, j, k));
+                        }
                     }
                 }
             }
-        }
+        });
     }
 
-    private void advect(double[][][] field, double[][][] result, boolean includeGravity) {
-        for (int i = 1; i < nx - 1; i++) {
-            for (int j = 1; j < ny - 1; j++) {
-                for (int k = 1; k < nz - 1; k++) {
-                    if (!obstacle[i][j][k]) {
-                        double deltaZ = (depth[k + 1] - depth[k - 1]) / 2;
-
-                        double x = i - dt * u[i][j][k] / dx;
-                        double y = j - dt * v[i][j][k] / dy;
-                        double z = k - dt * w[i][j][k] / deltaZ;
-
-                        double interpolatedValue = trilinearInterpolate(field, x, y, z);
-
-                        // Calculate the second-order derivatives for viscosity
-                        double d2udx2 = (u[i + 1][j][k] - 2 * u[i][j][k] + u[i - 1][j][k]) / (dx * dx);
-                        double d2udy2 = (u[i][j + 1][k] - 2 * u[i][j][k] + u[i][j - 1][k]) / (dy * dy);
-                        double d2udz2 = (u[i][j][k + 1] - 2 * u[i][j][k] + u[i][j][k - 1]) / (deltaZ * deltaZ);
-
-                        double d2vdx2 = (v[i + 1][j][k] - 2 * v[i][j][k] + v[i - 1][j][k]) / (dx * dx);
-                        double d2vdy2 = (v[i][j + 1][k] - 2 * v[i][j][k] + v[i][j - 1][k]) / (dy * dy);
-                        double d2vdz2 = (v[i][j][k + 1] - 2 * v[i][j][k] + v[i][j][k - 1]) / (deltaZ * deltaZ);
-
-                        double d2wdx2 = (w[i + 1][j][k] - 2 * w[i][j][k] + w[i - 1][j][k]) / (dx * dx);
-                        double d2wdy2 = (w[i][j + 1][k] - 2 * w[i][j][k] + w[i][j - 1][k]) / (dy * dy);
-                        double d2wdz2 = (w[i][j][k + 1] - 2 * w[i][j][k] + w[i][j][k - 1]) / (deltaZ * deltaZ);
-
-                        // Apply advection with viscosity
-                        result[i][j][k] = interpolatedValue
-                                - dt * (u[i][j][k] * (interpolatedValue - trilinearInterpolate(u, x, y, z)) / dx
-                                        + v[i][j][k] * (interpolatedValue - trilinearInterpolate(v, x, y, z)) / dy
-                                        + w[i][j][k] * (interpolatedValue - trilinearInterpolate(w, x, y, z)) / deltaZ)
-                                + dt * viscosity * (d2udx2 + d2udy2 + d2udz2 + d2vdx2 + d2vdy2 + d2vdz2 + d2wdx2
-                                        + d2wdy2 + d2wdz2)
-                                + (includeGravity ? dt * gravity : 0);
+    // advects u, v and w in one pass so the stencils and the interpolation at
+    // the departure point are shared
+    private void advect() {
+        Slabs.forEach(pool, 1, nx - 1, (from, to) -> {
+            double[] viscous = new double[nz];
+            for (int i = from; i < to; i++) {
+                for (int j = 1; j < ny - 1; j++) {
+                    int row = grid.index(i, j, 0);
+                    // runs of cells along k between obstacles
+                    int k = 1;
+                    while (k < nz - 1) {
+                        int start = obstacle.nextClearBit(row + k) - row;
+                        if (start >= nz - 1) {
+                            break;
+                        }
+                        int next = obstacle.nextSetBit(row + start);
+                        int end = next < 0 ? nz - 1 : Math.min(next - row, nz - 1);
+                        viscous(row, start, end, viscous);
+                        for (k = start; k < end; k++) {
+                            advect(i, j, k, row + k, viscous[k]);
+                        }
+                        k = end + 1;
                     }
                 }
             }
+        });
+    }
+
+    // the viscous term of cells row + start to row + end (exclusive), the
+    // loop body is straight line arithmetic on contiguous cells so that the
+    // JIT can vectorise it
+    private void viscous(int row, int start, int end, double[] viscous) {
+        Field u = this.u;
+        Field v = this.v;
+        Field w = this.w;
+        double dx2 = dx * dx;
+        double dy2 = dy * dy;
+        for (int k = start; k < end; k++) {
+            int c = row + k;
+            double dz2 = deltaZSquared[k];
+            double uc = u.get(c);
+            double vc = v.get(c);
+            double wc = w.get(c);
+            viscous[k] = dt * viscosity * ((u.get(c + sx) - 2 * uc + u.get(c - sx)) / dx2
+                    + (u.get(c + sy) - 2 * uc + u.get(c - sy)) / dy2 + (u.get(c + 1) - 2 * uc + u.get(c - 1)) / dz2
+                    + (v.get(c + sx) - 2 * vc + v.get(c - sx)) / dx2 + (v.get(c + sy) - 2 * vc + v.get(c - sy)) / dy2
+                    + (v.get(c + 1) - 2 * vc + v.get(c - 1)) / dz2 + (w.get(c + sx) - 2 * wc + w.get(c - sx)) / dx2
+                    + (w.get(c + sy) - 2 * wc + w.get(c - sy)) / dy2 + (w.get(c + 1) - 2 * wc + w.get(c - 1)) / dz2);
         }
     }
 
-    private double trilinearInterpolate(double[][][] field, double x, double y, double z) {
-        int i = (int) Math.floor(x);
-        int j = (int) Math.floor(y);
-        int k = (int) Math.floor(z);
+    private void advect(int i, int j, int k, int c, double viscous) {
+        double deltaZ = this.deltaZ[k];
+
+        double uc = u.get(c);
+        double vc = v.get(c);
+        double wc = w.get(c);
+
+        // departure point (x in the whole grid so a block rounds the weights
+        // exactly as a single solver does)
+        double x = i + firstI - dt * uc / dx;
+        double y = j - dt * vc / dy;
+        double z = k - dt * wc / deltaZ;
 
-        double dx1 = x - i;
+        // trilinear interpolation weights, shared by u, v and w
+        int i0 = (int) Math.floor(x);
+        int j0 = (int) Math.floor(y);
+        int k0 = (int) Math.floor(z);
+
+        double dx1 = x - i0;
         double dx0 = 1.0 - dx1;
-        double dy1 = y - j;
+        double dy1 = y - j0;
         double dy0 = 1.0 - dy1;
-        double dz1 = z - k;
+        double dz1 = z - k0;
         double dz0 = 1.0 - dz1;
 
-        return dx0
-                * (dy0 * (dz0 * field[i][j][k] + dz1 * field[i][j][k + 1])
-                        + dy1 * (dz0 * field[i][j + 1][k] + dz1 * field[i][j + 1][k + 1]))
-                + dx1 * (dy0 * (dz0 * field[i + 1][j][k] + dz1 * field[i + 1][j][k + 1])
-                        + dy1 * (dz0 * field[i + 1][j + 1][k] + dz1 * field[i + 1][j + 1][k + 1]));
+        int d = grid.index(i0 - firstI, j0, k0);
+        double iu = interpolate(u, d, dx0, dx1, dy0, dy1, dz0, dz1);
+        double iv = interpolate(v, d, dx0, dx1, dy0, dy1, dz0, dz1);
+        double iw = interpolate(w, d, dx0, dx1, dy0, dy1, dz0, dz1);
+
+        // Apply advection with viscosity
+        uNext.set(c, advected(iu, uc, vc, wc, iu, iv, iw, deltaZ) + viscous);
+        vNext.set(c, advected(iv, uc, vc, wc, iu, iv, iw, deltaZ) + viscous);
+        wNext.set(c, advected(iw, uc, vc, wc, iu, iv, iw, deltaZ) + viscous + dt * gravity);
     }
 
-    private void computeDivergence(double[][][] u, double[][][] v, double[][][] w, double[][][] div) {
-        for (int i = 1; i < nx - 1; i++) {
-            for (int j = 1; j < ny - 1; j++) {
-                for (int k = 1; k < nz - 1; k++) {
-                    div[i][j][k] = (u[i + 1][j][k] - u[i - 1][j][k] + v[i][j + 1][k] - v[i][j - 1][k] + w[i][j][k + 1]
-                            - w[i][j][k - 1]) / (2 * dx);
-                }
-            }
-        }
+    private double advected(double interpolatedValue, double uc, double vc, double wc, double iu, double iv,
+            double iw, double deltaZ) {
+        return interpolatedValue - dt * (uc * (interpolatedValue - iu) / dx + vc * (interpolatedValue - iv) / dy
+                + wc * (interpolatedValue - iw) / deltaZ);
     }
 
-    private void projectPressure(double[][][] p, double[][][] div, double[][][] result) {
-        for (int iter = 0; iter < NUM_PRESSURE_PROJECTION_ITERATIONS; iter++) {
-            for (int i = 1; i < nx - 1; i++) {
+    // trilinear interpolation of field in the cell with lowest corner c
+    private double interpolate(Field field, int c, double dx0, double dx1, double dy0, double dy1, double dz0,
+            double dz1) {
+        return Grid.interpolate(field, c, sx, sy, dx0, dx1, dy0, dy1, dz0, dz1);
+    }
+
+    private void computeDivergence(Field u, Field v, Field w, Field div) {
+        Slabs.forEach(pool, 1, nx - 1, (from, to) -> {
+            for (int i = from; i < to; i++) {
                 for (int j = 1; j < ny - 1; j++) {
+                    int row = grid.index(i, j, 0);
                     for (int k = 1; k < nz - 1; k++) {
-                        if (!obstacle[i][j][k]) {
-                            result[i][j][k] = ((p[i + 1][j][k] + p[i - 1][j][k] + p[i][j + 1][k] + p[i][j - 1][k]
-                                    + p[i][j][k + 1] + p[i][j][k - 1]) - div[i][j][k] * dx * dx) / 6.0;
-                        }
+                        int c = row + k;
+                        div.set(c, (u.get(c + sx) - u.get(c - sx) + v.get(c + sy) - v.get(c - sy) + w.get(c + 1)
+                                - w.get(c - 1)) / (2 * dx));
                     }
                 }
             }
-        }
+        });
     }
 
-    private void subtractPressureGradient(double[][][] field, double[][][] p, boolean includeGravity,
-            double[][][] result) {
-        for (int i = 1; i < nx - 1; i++) {
-            for (int j = 1; j < ny - 1; j++) {
-                for (int k = 1; k < nz - 1; k++) {
-                    if (!obstacle[i][j][k]) {
-                        double deltaZ = (depth[k + 1] - depth[k - 1]) / 2;
-                        result[i][j][k] = field[i][j][k] - 0.5 * dt * (p[i + 1][j][k] - p[i - 1][j][k]) / dx
-                                - 0.5 * dt * (p[i][j + 1][k] - p[i][j - 1][k]) / dy
-                                - 0.5 * dt * (p[i][j][k + 1] - p[i][j][k - 1]) / deltaZ
-                                - (includeGravity ? dt * gravity : 0);
+    private void projectPressure(Field p, Field div, Field result) {
+        pressureConvergence = pressureSolver.solve(grid, p, div, result);
+    }
+
+    /**
+     * Returns the iterations and residual of the pressure solve of the last
+     * call to {@link #solve()}, or null if not called yet.
+     *
+     * @return convergence of the last pressure solve
+     */
+    public Convergence pressureConvergence() {
+        return pressureConvergence;
+    }
+
+    public Grid grid() {
+        return grid;
+    }
+
+    public Field u() {
+        return u;
+    }
+
+    public Field v() {
+        return v;
+    }
+
+    public Field w() {
+        return w;
+    }
+
+    public Field p() {
+        return p;
+    }
+
+    /**
+     * Returns a copy of the state of this solver (u, v, w, p, the time and the
+     * time step) that can be written while the solver carries on stepping.
+     * The grid of a block of a {@link Decomposition} is its local grid.
+     *
+     * @return checkpoint
+     */
+    public Checkpoint checkpoint() {
+        return Checkpoint.builder() //
+                .gridSize(nx, ny, nz) //
+                .dx(dx) //
+                .dy(dy) //
+                .dz(dz) //
+                .time(time) //
+                .timeStep(dt) //
+                .field("u", values(u)) //
+                .field("v", values(v)) //
+                .field("w", values(w)) //
+                .field("p", values(p)) //
+                .build();
+    }
+
+    /**
+     * Sets u, v, w, p, the time and the time step from a checkpoint of a
+     * solver with the same grid sizes. The obstacle mask is not part of a
+     * checkpoint so must be set up as it was for the checkpointed solver.
+     *
+     * @param checkpoint checkpoint
+     */
+    public void restore(Checkpoint checkpoint) {
+        Preconditions.checkArgument(checkpoint.nx() == nx && checkpoint.ny() == ny && checkpoint.nz() == nz,
+                "checkpoint grid size " + checkpoint.nx() + "x" + checkpoint.ny() + "x" + checkpoint.nz()
+                        + " does not match " + nx + "x" + ny + "x" + nz);
+        int size = nx * ny * nz;
+        u.copyFrom(checkpoint.field("u", size));
+        v.copyFrom(checkpoint.field("v", size));
+        w.copyFrom(checkpoint.field("w", size));
+        p.copyFrom(checkpoint.field("p", size));
+        time = checkpoint.time();
+        dt = checkpoint.timeStep();
+        state.set(STATE_TIME, time);
+        state.set(STATE_TIME_STEP, dt);
+    }
+
+    private static double[] values(Field field) {
+        double[] values = new double[field.size()];
+        field.copyTo(values);
+        return values;
+    }
+
+    /**
+     * Writes the fields to persistent storage if the field storage has any
+     * (see {@link FieldStorage#flush()}).
+     */
+    public void flush() {
+        fieldStorage.flush();
+    }
+
+    // updates u, v and w in one pass so the pressure gradient is read once,
+    // returns the largest |u|/dx + |v|/dy + |w|/dz of the updated cells
+    private double subtractPressureGradient() {
+        return Slabs.max(pool, 1, nx - 1, (from, to) -> {
+            double max = 0;
+            for (int i = from; i < to; i++) {
+                for (int j = 1; j < ny - 1; j++) {
+                    int row = grid.index(i, j, 0);
+                    for (int k = 1; k < nz - 1; k++) {
+                        int c = row + k;
+                        if (!obstacle.get(c)) {
+                            double deltaZ = (depth[k + 1] - depth[k - 1]) / 2;
+                            double gx = 0.5 * dt * (p.get(c + sx) - p.get(c - sx)) / dx;
+                            double gy = 0.5 * dt * (p.get(c + sy) - p.get(c - sy)) / dy;
+                            double gz = 0.5 * dt * (p.get(c + 1) - p.get(c - 1)) / deltaZ;
+                            double un = uNext.get(c) - gx - gy - gz;
+                            double vn = vNext.get(c) - gx - gy - gz;
+                            double wn = wNext.get(c) - gx - gy - gz - dt * gravity;
+                            u.set(c, un);
+                            v.set(c, vn);
+                            w.set(c, wn);
+                            max = Math.max(max, Math.abs(un) / dx + Math.abs(vn) / dy + Math.abs(wn) / deltaZ);
+                        }
                     }
                 }
             }
-        }
+            return max;
+        });
     }
 
     // Get the pressure value from neighboring obstacle cells
@@ -266,7 +839,7 @@ public class Solver {
                     int neighborJ = j + dj;
                     int neighborK = k + dk;
                     if (!isObstacle(neighborI, neighborJ, neighborK)) {
-                        pressureSum += p[neighborI][neighborJ][neighborK];
+                        pressureSum += p.get(grid.index(neighborI, neighborJ, neighborK));
                         count++;
                     }
                 }
@@ -291,7 +864,7 @@ public class Solver {
         }
 
         // Return true if the cell is an obstacle
-        return obstacle[i][j][k];
+        return obstacle.get(grid.index(i, j, k));
     }
 
     public void printMaxesByDepth() {
@@ -299,7 +872,7 @@ public class Solver {
             double max = 0;
             for (int i = 1; i < nx - 1; i++) {
                 for (int j = 1; j < ny - 1; j++) {
-                    double x = Math.abs(u[i][j][k]);
+                    double x = Math.abs(u.get(grid.index(i, j, k)));
                     if (x > max) {
                         max = x;
                     }
@@ -327,6 +900,7 @@ public class Solver {
         Solver solver = new Solver(nx, ny, nz, dx, dy, dz, new boolean[nx][ny][nz]);
         for (int i = 0; i < 1; i++) {
             solver.setLidDrivenCavityBoundary(1);
+            solver.printMaxesByDepth();
             solver.solve();
         }
         solver.printMaxesByDepth();
@@ -0,0 +1,217 @@
+package com.github.davidmoten.jns.v4;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.davidmoten.guavamini.Preconditions;
+
+/**
+ * Red-black successive over-relaxation for the pressure equation of
+ * {@link Grid}. Cells are updated in place, all cells with i + j + k even
+ * first then all with i + j + k odd. Cells of one colour only have neighbours
+ * of the other colour so each colour pass is split into slabs of i and run on
+ * a {@link ForkJoinPool} with the same result as a serial pass.
+ * <p>
+ * The 2-norm of the residual is checked every <code>checkInterval</code>
+ * iterations and iteration stops once it has been reduced by the tolerance
+ * factor (or the maximum number of iterations is reached).
+ * <p>
+ * Not thread safe, use one instance per {@link Solver}.
+ */
+public final class SorPressureSolver implements PressureSolver {
+
+    private static final Logger log = LoggerFactory.getLogger(SorPressureSolver.class);
+
+    private final double omega;
+    private final double tolerance;
+    private final int maxIterations;
+    private final int checkInterval;
+    private final ForkJoinPool pool;
+
+    private Grid grid;
+    private double[] cxm;
+    private double[] cxp;
+    private double[] cym;
+    private double[] cyp;
+    private double[] czm;
+    private double[] czp;
+
+    private SorPressureSolver(double omega, double tolerance, int maxIterations, int checkInterval,
+            ForkJoinPool pool) {
+        this.omega = omega;
+        this.tolerance = tolerance;
+        this.maxIterations = maxIterations;
+        this.checkInterval = checkInterval;
+        this.pool = pool;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private double omega = 1.7;
+        private double tolerance = 1e-6;
+        private int maxIterations = 10000;
+        private int checkInterval = 10;
+        private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the over-relaxation factor (1 is Gauss-Seidel). Must be
+         * between 0 and 2 exclusive. Defaults to 1.7.
+         *
+         * @param omega over-relaxation factor
+         * @return this
+         */
+        public Builder omega(double omega) {
+            this.omega = omega;
+            return this;
+        }
+
+        /**
+         * Sets the factor by which the 2-norm of the residual must be reduced.
+         * Defaults to 1e-6.
+         *
+         * @param tolerance relative residual
+         * @return this
+         */
+        public Builder tolerance(double tolerance) {
+            this.tolerance = tolerance;
+            return this;
+        }
+
+        public Builder maxIterations(int maxIterations) {
+            this.maxIterations = maxIterations;
+            return this;
+        }
+
+        /**
+         * Sets the number of iterations between residual checks (a residual
+         * check costs about as much as an iteration). Defaults to 10.
+         *
+         * @param checkInterval iterations between residual checks
+         * @return this
+         */
+        public Builder checkInterval(int checkInterval) {
+            this.checkInterval = checkInterval;
+            return this;
+        }
+
+        public Builder pool(ForkJoinPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        public SorPressureSolver build() {
+            Preconditions.checkArgument(omega > 0 && omega < 2, "omega must be between 0 and 2 exclusive");
+            Preconditions.checkArgument(tolerance > 0, "tolerance must be >0");
+            Preconditions.checkArgument(maxIterations >= 1, "maxIterations must be 1 or more");
+            Preconditions.checkArgument(checkInterval >= 1, "checkInterval must be 1 or more");
+            Preconditions.checkNotNull(pool);
+            return new SorPressureSolver(omega, tolerance, maxIterations, checkInterval, pool);
+        }
+    }
+
+    @Override
+    public Convergence solve(Grid grid, Field p, Field div, Field result) {
+        if (grid != this.grid) {
+            initialize(grid);
+        }
+        int size = grid.size();
+        for (int c = 0; c < size; c++) {
+            result.set(c, p.get(c));
+        }
+        double initialResidual = residual(result, div);
+        double residual = initialResidual;
+        int iterations = 0;
+        while (residual > tolerance * initialResidual && iterations < maxIterations) {
+            sweep(result, div, 0);
+            sweep(result, div, 1);
+            iterations++;
+            if (iterations % checkInterval == 0 || iterations == maxIterations) {
+                residual = residual(result, div);
+            }
+        }
+        if (residual > tolerance * initialResidual) {
+            log.warn("SOR did not reach tolerance after {} iterations, relative residual={}", iterations,
+                    residual / initialResidual);
+        }
+        log.debug("pressure solved in {} iterations, residual={}", iterations, residual);
+        return new Convergence(iterations, initialResidual, residual);
+    }
+
+    private void initialize(Grid grid) {
+        this.grid = grid;
+        double[] x = grid.coordinates(0);
+        double[] y = grid.coordinates(1);
+        double[] z = grid.coordinates(2);
+        cxm = Grid.coefficients(x, 0);
+        cxp = Grid.coefficients(x, 1);
+        cym = Grid.coefficients(y, 0);
+        cyp = Grid.coefficients(y, 1);
+        czm = Grid.coefficients(z, 0);
+        czp = Grid.coefficients(z, 1);
+    }
+
+    private void sweep(Field p, Field div, int colour) {
+        Grid g = grid;
+        int ny = g.ny();
+        int nz = g.nz();
+        int sx = ny * nz;
+        int sy = nz;
+        Slabs.forEach(pool, 1, g.nx() - 1, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                for (int j = 1; j < ny - 1; j++) {
+                    int row = g.index(i, j, 0);
+                    double cx = cxm[i] + cxp[i] + cym[j] + cyp[j];
+                    for (int k = 1 + ((i + j + 1 + colour) & 1); k < nz - 1; k += 2) {
+                        int c = row + k;
+                        if (!g.isObstacle(c)) {
+                            double gs = (cxm[i] * p.get(c - sx) + cxp[i] * p.get(c + sx) + cym[j] * p.get(c - sy)
+                                    + cyp[j] * p.get(c + sy) + czm[k] * p.get(c - 1) + czp[k] * p.get(c + 1)
+                                    - div.get(c)) / (cx + czm[k] + czp[k]);
+                            double v = p.get(c);
+                            p.set(c, v + omega * (gs - v));
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    private double residual(Field p, Field div) {
+        Grid g = grid;
+        int ny = g.ny();
+        int nz = g.nz();
+        int sx = ny * nz;
+        int sy = nz;
+        double sum = Slabs.sum(pool, 1, g.nx() - 1, (from, to) -> {
+            double s = 0;
+            for (int i = from; i < to; i++) {
+                for (int j = 1; j < ny - 1; j++) {
+                    int row = g.index(i, j, 0);
+                    for (int k = 1; k < nz - 1; k++) {
+                        int c = row + k;
+                        if (!g.isObstacle(c)) {
+                            double v = p.get(c);
+                            double laplacian = cxm[i] * (p.get(c - sx) - v) + cxp[i] * (p.get(c + sx) - v)
+                                    + cym[j] * (p.get(c - sy) - v) + cyp[j] * (p.get(c + sy) - v)
+                                    + czm[k] * (p.get(c - 1) - v) + czp[k] * (p.get(c + 1) - v);
+                            double r = div.get(c) - laplacian;
+                            s += r * r;
+                        }
+                    }
+                }
+            }
+            return s;
+        });
+        return Math.sqrt(sum);
+    }
+
+}
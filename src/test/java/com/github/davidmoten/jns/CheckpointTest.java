@@ -0,0 +1,140 @@
+package com.github.davidmoten.jns;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CheckpointTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        checkRoundTrip(false);
+    }
+
+    @Test
+    public void testCompressedRoundTrip() throws IOException {
+        checkRoundTrip(true);
+    }
+
+    @Test
+    public void testCompressionShrinksSmoothFields() throws IOException {
+        final Checkpoint checkpoint = checkpoint();
+        final File plain = folder.newFile();
+        final File compressed = folder.newFile();
+        checkpoint.write(plain, false);
+        checkpoint.write(compressed, true);
+        assertTrue(compressed.length() < plain.length());
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadOfOtherFileFails() throws IOException {
+        final File file = folder.newFile();
+        try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+            f.write(new byte[100]);
+        }
+        Checkpoint.read(file);
+    }
+
+    @Test
+    public void testWriterWritesInBackground() throws Exception {
+        final File file = folder.newFile();
+        try (CheckpointWriter writer = new CheckpointWriter(true)) {
+            assertEquals(file, writer.write(checkpoint(), file).get());
+        }
+        assertArrayEquals(checkpoint().field("big"), Checkpoint.read(file).field("big"), 0);
+    }
+
+    @Test
+    public void testDenseMeshRestoresAndResumes() throws IOException {
+        final ForkJoinPool pool = ForkJoinPool.commonPool();
+        final Mesh stepped = TestingUtil.createDenseMesh().step(0.1).materialize(pool);
+        final File file = folder.newFile();
+        stepped.checkpoint().write(file, true);
+        final Mesh restored = TestingUtil.createDenseMesh().restore(Checkpoint.read(file));
+        final Cell a = stepped.step(0.1).cell(5, 5, 5);
+        final Cell b = restored.step(0.1).cell(5, 5, 5);
+        assertEquals(a.velocity().east(), b.velocity().east(), 0);
+        assertEquals(a.velocity().up(), b.velocity().up(), 0);
+        assertEquals(a.pressure(), b.pressure(), 0);
+    }
+
+    @Test
+    public void testV2MeshRestoresAndResumes() throws IOException {
+        final com.github.davidmoten.jns.v2.Mesh a = v2Mesh();
+        run(a);
+        final File file = folder.newFile();
+        a.checkpoint().write(file);
+        final com.github.davidmoten.jns.v2.Mesh b = v2Mesh();
+        b.restore(Checkpoint.read(file));
+        run(a);
+        run(b);
+        assertEquals(a.toString(), b.toString());
+    }
+
+    private void checkRoundTrip(boolean compress) throws IOException {
+        final Checkpoint checkpoint = checkpoint();
+        final File file = folder.newFile();
+        checkpoint.write(file, compress);
+        final Checkpoint read = Checkpoint.read(file);
+        assertEquals(4, read.nx());
+        assertEquals(5, read.ny());
+        assertEquals(6, read.nz());
+        assertEquals(0.1, read.dx(), 0);
+        assertEquals(0.2, read.dy(), 0);
+        assertArrayEquals(new double[] { 0.3, 0.4 }, read.dz(), 0);
+        assertEquals(12.5, read.time(), 0);
+        assertEquals(0.01, read.timeStep(), 0);
+        assertEquals(Arrays.asList("big", "empty", "special"),
+                Arrays.asList(read.fieldNames().toArray()));
+        for (final String name : checkpoint.fieldNames()) {
+            assertArrayEquals(checkpoint.field(name), read.field(name), 0);
+        }
+    }
+
+    private static Checkpoint checkpoint() {
+        // spans several chunks
+        final double[] big = new double[300001];
+        for (int i = 0; i < big.length; i++) {
+            big[i] = Math.sin(i / 1000.0);
+        }
+        return Checkpoint.builder() //
+                .gridSize(4, 5, 6) //
+                .dx(0.1) //
+                .dy(0.2) //
+                .dz(0.3, 0.4) //
+                .time(12.5) //
+                .timeStep(0.01) //
+                .field("big", big) //
+                .field("empty", new double[0]) //
+                .field("special", new double[] { Double.NaN, Double.NEGATIVE_INFINITY, -0.0,
+                        Double.MIN_VALUE }) //
+                .build();
+    }
+
+    private static com.github.davidmoten.jns.v2.Mesh v2Mesh() {
+        // the initial velocity must be lx by ly
+        final int size = 32;
+        return new com.github.davidmoten.jns.v2.Mesh(size, size, size, size, 0.00109, 1.025, null,
+                null);
+    }
+
+    private static void run(com.github.davidmoten.jns.v2.Mesh mesh) {
+        final double[] top = new double[34];
+        Arrays.fill(top, 1.0);
+        mesh.run(top, null, null, null, null, null, null, null, 1);
+    }
+
+}
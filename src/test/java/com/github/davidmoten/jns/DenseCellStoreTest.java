@@ -0,0 +1,49 @@
+package com.github.davidmoten.jns;
+
+import static com.github.davidmoten.jns.TestingUtil.createDenseMesh;
+import static com.github.davidmoten.jns.TestingUtil.createMesh;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class DenseCellStoreTest {
+
+    @Test
+    public void testDenseMeshAgreesWithMapMesh() {
+        final Mesh mesh = createMesh();
+        final Mesh dense = createDenseMesh();
+        for (int e = -3; e <= 12; e++) {
+            for (int n = -3; n <= 12; n++) {
+                for (int u = -3; u <= 12; u++) {
+                    final Cell a = mesh.cell(e, n, u);
+                    final Cell b = dense.cell(e, n, u);
+                    assertEquals(a.type(), b.type());
+                    assertEquals(a.position(), b.position());
+                    assertEquals(a.isBoundary(), b.isBoundary());
+                    if (a.type() == CellType.FLUID) {
+                        assertEquals(a.velocity(), b.velocity());
+                        assertEquals(a.pressure(), b.pressure(), 0);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDenseCellNeighbours() {
+        final Cell cell = createDenseMesh().cell(5, 5, 0);
+        assertEquals(Vector.create(5, 6, -9), cell.north().position());
+        assertEquals(Vector.create(4, 5, -9), cell.west().position());
+        assertEquals(CellType.OBSTACLE, cell.down().type());
+        assertEquals(CellType.OBSTACLE, cell.down().down().down().type());
+    }
+
+    @Test
+    public void testIndexRoundTrip() {
+        final DenseCellStore store = new DenseCellStore(3, 4, 5);
+        for (int i = 0; i < store.size(); i++) {
+            assertEquals(i, store.index(store.east(i), store.north(i), store.up(i)));
+        }
+    }
+
+}
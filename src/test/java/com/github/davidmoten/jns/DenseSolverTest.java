@@ -0,0 +1,50 @@
+package com.github.davidmoten.jns;
+
+import static com.github.davidmoten.jns.TestingUtil.createDenseMesh;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class DenseSolverTest {
+
+    @Test
+    public void testAgreesWithSolverOnStillWater() {
+        checkAgreesWithSolver(createDenseMesh());
+    }
+
+    @Test
+    public void testAgreesWithSolverOnStillWater2D() {
+        checkAgreesWithSolver(Mesh.builder().cellSize(1).creator(new CellCreator(10, 10, 1))
+                .dense(10, 10, 1).build());
+    }
+
+    @Test
+    public void testAgreesWithSolverOnWhirlpool() {
+        checkAgreesWithSolver(TestingUtil.createDenseMeshForWhirlpool2DTenByTen());
+    }
+
+    private static void checkAgreesWithSolver(Mesh mesh) {
+        final DenseCellStore store = mesh.store().get();
+        final DenseCellStore target = new DenseCellStore(store.cellsEast(), store.cellsNorth(),
+                store.cellsUp());
+        final DenseSolver denseSolver = new DenseSolver(store);
+        final Solver solver = new Solver();
+        for (int e = 0; e < store.cellsEast(); e++) {
+            for (int n = 0; n < store.cellsNorth(); n++) {
+                for (int u = 0; u < store.cellsUp(); u++) {
+                    final int index = store.index(e, n, u);
+                    denseSolver.step(index, 1, target);
+                    assertEquals(store.type(index), target.type(index));
+                    if (store.type(index) == CellType.FLUID) {
+                        final VelocityPressure vp = solver.step(mesh.cell(e, n, u), 1);
+                        assertEquals(vp.getVelocity(),
+                                Vector.create(target.velocityEast[index],
+                                        target.velocityNorth[index], target.velocityUp[index]));
+                        assertEquals(Double.doubleToLongBits(vp.getPressure()),
+                                Double.doubleToLongBits(target.pressure[index]));
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.github.davidmoten.jns;
+
+import static com.github.davidmoten.jns.TestingUtil.createDenseMeshForWhirlpool2DTenByTen;
+import static com.github.davidmoten.jns.TestingUtil.createMesh;
+import static com.github.davidmoten.jns.TestingUtil.createMeshForWhirlpool2DTenByTen;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class MeshTest {
+
+    @Test(expected = IllegalStateException.class)
+    public void testMaterializeWithoutExtentThrows() {
+        createMesh().step(1).materialize(ForkJoinPool.commonPool());
+    }
+
+    @Test
+    public void testStepMultipleParallelAgreesWithLazy() {
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            final Mesh lazy = createMeshForWhirlpool2DTenByTen().stepMultiple(1, 2);
+            final Mesh parallel = createDenseMeshForWhirlpool2DTenByTen()
+                    .stepMultipleParallel(1, 2, pool);
+            checkSameFluidValues(lazy, parallel, 10, 10, 1);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testLeastRecentlyUsedCacheAgreesWithUnbounded() {
+        final Mesh lazy = createMeshForWhirlpool2DTenByTen().stepMultiple(1, 2);
+        final Mesh bounded = Util.createMeshForWhirlpool2D(10, 10, false)
+                .withCachePolicy(CachePolicy.leastRecentlyUsed(20)).stepMultiple(1, 2);
+        checkSameFluidValues(lazy, bounded, 10, 10, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLeastRecentlyUsedCacheSmallerThanStencilIsRejected() {
+        CachePolicy.leastRecentlyUsed(12);
+    }
+
+    @Test
+    public void testDependencyConeAgreesWithUnbounded() {
+        final Mesh lazy = createMeshForWhirlpool2DTenByTen().stepMultiple(1, 3);
+        final Mesh cone = createMeshForWhirlpool2DTenByTen()
+                .withCachePolicy(CachePolicy.dependencyCone()).stepMultiple(1, 3);
+        checkSameFluidValues(lazy, cone, 10, 10, 1);
+    }
+
+    @Test
+    public void testDependencyConeAgreesWithUnboundedWhenMaterialized() {
+        final ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            final Mesh lazy = createMeshForWhirlpool2DTenByTen().stepMultiple(1, 2);
+            final Mesh dense = createDenseMeshForWhirlpool2DTenByTen()
+                    .withCachePolicy(CachePolicy.dependencyCone());
+            checkSameFluidValues(lazy, dense.stepMultipleParallel(1, 2, pool), 10, 10, 1);
+            checkSameFluidValues(lazy, dense.stepMultiple(1, 2).materialize(pool), 10, 10, 1);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testDependencyConeMemoryDoesNotGrowWithSteps() {
+        final Mesh mesh = createMeshForWhirlpool2DTenByTen()
+                .withCachePolicy(CachePolicy.dependencyCone());
+        final Indices probe = new Indices(4, 5, 0);
+        final Mesh few = mesh.stepMultiple(0.01, 5);
+        assertTrue(Double.isFinite(few.cell(probe).pressure()));
+        final Mesh many = mesh.stepMultiple(0.01, 200);
+        assertTrue(Double.isFinite(many.cell(probe).pressure()));
+        // only the level at time zero is reachable and only the cells
+        // evaluated with the probe are cached, however many steps
+        assertEquals(1, few.earlierLevelsReachable());
+        assertEquals(1, many.earlierLevelsReachable());
+        assertEquals(few.cachedCells(), many.cachedCells());
+        // whereas every level is held by the default policy
+        final Mesh unbounded = createMeshForWhirlpool2DTenByTen().stepMultiple(0.01, 200);
+        assertEquals(200, unbounded.earlierLevelsReachable());
+    }
+
+    @Test
+    public void testDependencyConeWithChangingTimeStepAgreesWithUnbounded() {
+        final double[] timeSteps = { 0.5, 1, 1, 0.25 };
+        Mesh lazy = createMeshForWhirlpool2DTenByTen();
+        Mesh cone = createMeshForWhirlpool2DTenByTen()
+                .withCachePolicy(CachePolicy.dependencyCone());
+        for (final double timeStep : timeSteps) {
+            lazy = lazy.step(timeStep);
+            cone = cone.step(timeStep);
+        }
+        checkSameFluidValues(lazy, cone, 10, 10, 1);
+    }
+
+    @Test
+    public void testDependencyConeWithAlternatingTimeStepDoesNotHoldLevels() {
+        Mesh mesh = createMeshForWhirlpool2DTenByTen()
+                .withCachePolicy(CachePolicy.dependencyCone());
+        for (int i = 0; i < 200; i++) {
+            mesh = mesh.step(i % 2 == 0 ? 0.01 : 0.02);
+        }
+        assertTrue(Double.isFinite(mesh.cell(new Indices(4, 5, 0)).pressure()));
+        assertEquals(1, mesh.earlierLevelsReachable());
+    }
+
+    @Test
+    public void testDependencyConeReadsOfALevelShareOnePass() {
+        final Mesh level = createMeshForWhirlpool2DTenByTen()
+                .withCachePolicy(CachePolicy.dependencyCone()).stepMultiple(1, 2);
+        // stepping under another policy reads the stencil of every cell
+        final Mesh next = level.withCachePolicy(CachePolicy.unbounded());
+        checkSameFluidValues(createMeshForWhirlpool2DTenByTen().stepMultiple(1, 3), next.step(1),
+                10, 10, 1);
+        assertEquals(1, next.lineageEvaluations());
+    }
+
+    @Test
+    public void testValidationModesAgree() {
+        final Mesh lazy = createMeshForWhirlpool2DTenByTen().stepMultiple(1, 2);
+        final Mesh off = createMeshForWhirlpool2DTenByTen().withValidation(Validation.OFF)
+                .stepMultiple(1, 2);
+        final Mesh debug = createMeshForWhirlpool2DTenByTen().withValidation(Validation.DEBUG)
+                .stepMultiple(1, 2);
+        checkSameFluidValues(lazy, off, 10, 10, 1);
+        checkSameFluidValues(lazy, debug, 10, 10, 1);
+    }
+
+    @Test
+    public void testCompletedLevelIsReleased() {
+        final Mesh mesh = createDenseMeshForWhirlpool2DTenByTen()
+                .withCachePolicy(CachePolicy.releaseCompletedLevels());
+        final Mesh stepped = mesh.step(1).step(1);
+        assertFalse(stepped.isReleased());
+        // reading every fluid cell completes the time level
+        checkSameFluidValues(createMeshForWhirlpool2DTenByTen().stepMultiple(1, 2), stepped, 10,
+                10, 1);
+        assertTrue(stepped.isReleased());
+        checkSameFluidValues(createMeshForWhirlpool2DTenByTen().stepMultiple(1, 2), stepped, 10,
+                10, 1);
+    }
+
+    @Test
+    public void testQueryAgreesWithStepMultiple() {
+        final Mesh lazy = createMeshForWhirlpool2DTenByTen().stepMultiple(1, 3);
+        final List<Indices> probes = Arrays.asList(new Indices(4, 5, 0), new Indices(1, 1, 0),
+                new Indices(5, 9, 0));
+        final AtomicInteger levels = new AtomicInteger();
+        final Map<Indices, VelocityPressure> values = createMeshForWhirlpool2DTenByTen().query()
+                .probes(probes).timeStepSeconds(1).steps(3)
+                .listener((step, steps, cells) -> levels.incrementAndGet()).run();
+        assertEquals(3, levels.get());
+        for (final Indices probe : probes) {
+            final Cell cell = lazy.cell(probe);
+            assertEquals(cell.velocity(), values.get(probe).getVelocity());
+            assertEquals(cell.pressure(), values.get(probe).getPressure(), 0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testQueryOfNonFluidCellThrows() {
+        createMeshForWhirlpool2DTenByTen().query(Arrays.asList(new Indices(-1, 0, 0)), 1, 1);
+    }
+
+    static void checkSameFluidValues(Mesh a, Mesh b, int cellsEast, int cellsNorth,
+            int cellsUp) {
+        for (int e = 0; e < cellsEast; e++) {
+            for (int n = 0; n < cellsNorth; n++) {
+                for (int u = 0; u < cellsUp; u++) {
+                    final Cell x = a.cell(e, n, u);
+                    final Cell y = b.cell(e, n, u);
+                    assertEquals(x.type(), y.type());
+                    if (x.type() == CellType.FLUID) {
+                        assertEquals(x.velocity(), y.velocity());
+                        assertEquals(x.pressure(), y.pressure(), 0);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.github.davidmoten.jns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class MutableVector3Test {
+
+    @Test
+    public void testOperationsAgreeWithVector() {
+        final Vector a = Vector.create(1.5, -2, 3.25);
+        final Vector b = Vector.create(0.1, 0.2, -0.3);
+        final MutableVector3 m = new MutableVector3().set(a);
+        assertSame(m, m.times(3).minus(b).add(a).divideBy(7));
+        assertEquals(a.times(3).minus(b).add(a).divideBy(7), m.toVector());
+        assertEquals(a.dotProduct(b), new MutableVector3().set(a).dotProduct(b), 0);
+        assertEquals(a.dotProduct(b), a.dotProduct(b.east(), b.north(), b.up()), 0);
+    }
+
+    @Test
+    public void testMatrix3TimesAgreesWithMatrix() {
+        final Vector row1 = Vector.create(1, 2, 3);
+        final Vector row2 = Vector.create(-4, 5, 0.5);
+        final Vector row3 = Vector.create(7, -8, 9);
+        final Vector v = Vector.create(0.3, -1.1, 2);
+        final Matrix3 m = new Matrix3() //
+                .setRow(Direction.EAST, 1, 2, 3) //
+                .setRow(Direction.NORTH, -4, 5, 0.5) //
+                .setRow(Direction.UP, 7, -8, 9);
+        final Matrix matrix = Matrixes.createWithRows(row1, row2, row3);
+        final MutableVector3 out = new MutableVector3();
+        assertSame(out, m.times(v, out));
+        assertEquals(matrix.times(v), out.toVector());
+        assertEquals(matrix.times(v), matrix.times(v, new MutableVector3()).toVector());
+        assertEquals(0.5, m.value(Direction.NORTH, Direction.UP), 0);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testValidateThrowsOnInfinity() {
+        new MutableVector3(0, Double.POSITIVE_INFINITY, 0).validate();
+    }
+
+}
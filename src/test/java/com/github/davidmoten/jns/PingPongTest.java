@@ -0,0 +1,33 @@
+package com.github.davidmoten.jns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class PingPongTest {
+
+    @Test
+    public void testSwapExchangesBuffers() {
+        double[] a = new double[1];
+        double[] b = new double[1];
+        PingPong<double[]> buffers = new PingPong<>(a, b);
+        assertSame(a, buffers.current());
+        assertSame(b, buffers.next());
+        assertEquals(0, buffers.index());
+        buffers.swap();
+        assertSame(b, buffers.current());
+        assertSame(a, buffers.next());
+        assertEquals(1, buffers.index());
+        buffers.swap();
+        assertSame(a, buffers.current());
+        assertEquals(0, buffers.index());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuffersMustBeDistinct() {
+        double[] a = new double[1];
+        new PingPong<>(a, a);
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.github.davidmoten.jns;
+
+import static com.github.davidmoten.jns.TestingUtil.createDenseMesh;
+import static com.github.davidmoten.jns.TestingUtil.createDenseMeshForWhirlpool2DTenByTen;
+import static com.github.davidmoten.jns.TestingUtil.createMeshForWhirlpool2DTenByTen;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class PressureProjectionTest {
+
+    private static final PressureProjection PROJECTION = PressureProjection.builder().build();
+
+    @Test
+    public void testStillWaterIsUnchanged() {
+        final Mesh mesh = createDenseMesh();
+        final Mesh stepped = mesh.stepMultipleParallel(1, 2, ForkJoinPool.commonPool(),
+                PROJECTION);
+        for (int e = 0; e < 10; e++) {
+            for (int n = 0; n < 10; n++) {
+                for (int u = 0; u < 10; u++) {
+                    final Cell a = mesh.cell(e, n, u);
+                    final Cell b = stepped.cell(e, n, u);
+                    assertEquals(a.type(), b.type());
+                    if (a.type() == CellType.FLUID) {
+                        assertEquals(0, b.velocity().magnitude(), 1e-6);
+                        assertEquals(a.pressure(), b.pressure(), 1e-4);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testVelocitiesAgreeWithSolverAfterOneStep() {
+        final Mesh lazy = createMeshForWhirlpool2DTenByTen().step(1);
+        final Mesh projected = createDenseMeshForWhirlpool2DTenByTen()
+                .stepMultipleParallel(1, 1, ForkJoinPool.commonPool(), PROJECTION);
+        for (int e = 0; e < 10; e++) {
+            for (int n = 0; n < 10; n++) {
+                final Cell a = lazy.cell(e, n, 0);
+                final Cell b = projected.cell(e, n, 0);
+                if (a.type() == CellType.FLUID) {
+                    // velocities are advanced the same way, only the pressure
+                    // solve differs
+                    assertEquals(a.velocity(), b.velocity());
+                    assertTrue(b.pressure() > 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPressuresSatisfyContinuityEquation() {
+        // every interior cell of the whirlpool has an obstacle below and air
+        // above, and the cells along the sides have obstacle neighbours
+        DenseCellStore store = createDenseMeshForWhirlpool2DTenByTen().store().get();
+        for (int step = 0; step < 2; step++) {
+            final DenseCellStore next = PROJECTION.step(store, 1, ForkJoinPool.commonPool());
+            double residual = 0;
+            double scale = 0;
+            int unknowns = 0;
+            for (int i = 0; i < store.size(); i++) {
+                if (store.type[i] == CellType.FLUID.ordinal() && !store.boundary[i]
+                        && store.isInterior(store.east(i), store.north(i), store.up(i))) {
+                    final double[] row = continuity(store, next, i);
+                    residual += row[0] * row[0];
+                    scale += row[1] * row[1];
+                    unknowns++;
+                }
+            }
+            assertEquals(64, unknowns);
+            assertTrue(residual + " " + scale, Math.sqrt(residual) <= 1e-10 * Math.sqrt(scale));
+            store = next;
+        }
+    }
+
+    /**
+     * Returns the continuity function at slot <code>i</code> with the
+     * pressures of <code>next</code> and the magnitude of its terms. An
+     * obstacle neighbour is in hydrostatic equilibrium with the new pressure of
+     * the cell and an air neighbour with the pressure of the cell at the start
+     * of the step.
+     */
+    private static double[] continuity(DenseCellStore store, DenseCellStore next, int i) {
+        final double p = next.pressure[i];
+        final double velocityTerm = new DenseSolver(next).velocityTerm(i);
+        double laplacian = 0;
+        double magnitude = Math.abs(velocityTerm);
+        for (int axis = 0; axis < 3; axis++) {
+            final int s = store.stride(Direction.values()[axis]);
+            final double d = store.position(i + s, axis) - store.position(i - s, axis);
+            for (final int c : new int[] { i - s, i + s }) {
+                final double neighbour;
+                if (store.type[c] == CellType.FLUID.ordinal())
+                    neighbour = next.pressure[c];
+                else if (store.type[c] == CellType.OBSTACLE.ordinal())
+                    neighbour = p + hydrostatic(store, c, i);
+                else
+                    neighbour = store.pressure[i] + hydrostatic(store, c, i);
+                laplacian += (neighbour - p) / (d * d);
+                magnitude += Math.abs(neighbour) / (d * d);
+            }
+        }
+        return new double[] { laplacian + velocityTerm, magnitude };
+    }
+
+    private static double hydrostatic(DenseCellStore store, int c, int wrt) {
+        final double density = store.density[wrt];
+        return (store.positionEast[c] - store.positionEast[wrt]) * Util.GRAVITY.east() * density
+                + (store.positionNorth[c] - store.positionNorth[wrt]) * Util.GRAVITY.north()
+                        * density
+                + (store.positionUp[c] - store.positionUp[wrt]) * Util.GRAVITY.up() * density;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testToleranceMustBePositive() {
+        PressureProjection.builder().tolerance(0).build();
+    }
+}
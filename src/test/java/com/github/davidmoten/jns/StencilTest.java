@@ -0,0 +1,78 @@
+package com.github.davidmoten.jns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class StencilTest {
+
+    @Test
+    public void testTableAgreesWithTransform() {
+        for (final CellType below : CellType.values()) {
+            for (final CellType centre : CellType.values()) {
+                for (final CellType above : CellType.values()) {
+                    final Cell c1 = cell(below, -1);
+                    final Cell c2 = cell(centre, 0);
+                    final Cell c3 = cell(above, 1);
+                    checkAgrees(Stencil.classify(below, centre, above), c1, c2, c3);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCachedClassesAgreeWithNeighbours() {
+        checkCachedClasses(TestingUtil.createMesh());
+        checkCachedClasses(TestingUtil.createDenseMesh());
+        checkCachedClasses(TestingUtil.createMesh().stepMultiple(0.1, 1));
+    }
+
+    private static void checkAgrees(byte stencil, Cell c1, Cell c2, Cell c3) {
+        final String message = c1.type() + "," + c2.type() + "," + c3.type();
+        if (c2.type() == CellType.OBSTACLE) {
+            assertEquals(message, Stencil.OBSTACLE, stencil);
+            return;
+        }
+        final CellTriplet t;
+        try {
+            t = Solver.transform(CellTriplet.create(c1, c2, c3));
+        } catch (final RuntimeException e) {
+            assertEquals(message, Stencil.NOT_HANDLED, stencil);
+            return;
+        }
+        if (t.c3().type() == CellType.UNKNOWN) {
+            // two point difference
+            if (t.c2() == c2) {
+                assertTrue(message, stencil == Stencil.FFU || stencil == Stencil.OFU);
+            } else {
+                assertSame(message, c2, t.c1());
+                assertTrue(message, stencil == Stencil.UFF || stencil == Stencil.UFO);
+            }
+        } else {
+            assertSame(message, c2, t.c2());
+            assertTrue(message, stencil <= Stencil.OFO);
+        }
+        assertEquals(message, c1.type() == CellType.OBSTACLE, Stencil.mirrorsBelow(stencil));
+        assertEquals(message, c3.type() == CellType.OBSTACLE, Stencil.mirrorsAbove(stencil));
+    }
+
+    private static void checkCachedClasses(Mesh mesh) {
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j < 10; j++) {
+                for (int k = -1; k <= 10; k++) {
+                    final Cell cell = mesh.cell(i, j, k);
+                    assertEquals(Stencil.classify(cell), cell.stencils());
+                }
+            }
+        }
+    }
+
+    private static Cell cell(CellType type, double up) {
+        return CellImpl.builder().type(type).position(0, 0, up).pressure(0)
+                .density(Util.SEAWATER_MEAN_DENSITY_KG_PER_M3).viscosity(30)
+                .velocity(0, 0, 0).build();
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.github.davidmoten.jns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class SweepTest {
+
+    @Test
+    public void testIsValidRejectsNaN() {
+        assertFalse(Util.isValid(Double.NaN));
+        assertFalse(Util.isValid(Double.NEGATIVE_INFINITY));
+        assertTrue(Util.isValid(-1.5));
+    }
+
+    @Test
+    public void testFirstInvalid() {
+        final double[] values = new double[11];
+        assertEquals(-1, Sweep.firstInvalid(values, 0, values.length));
+        values[9] = Double.POSITIVE_INFINITY;
+        values[7] = Double.NaN;
+        assertEquals(7, Sweep.firstInvalid(values, 0, values.length));
+        assertEquals(9, Sweep.firstInvalid(values, 8, values.length));
+        assertEquals(-1, Sweep.firstInvalid(values, 0, 7));
+    }
+
+    @Test
+    public void testCheckReportsIndicesOfFlatArray() {
+        // nx = 2, ny = 3, nz = 4
+        final double[] values = new double[24];
+        values[(1 * 3 + 2) * 4 + 3] = Double.NaN;
+        try {
+            Sweep.check("p", values, 3, 4);
+            fail();
+        } catch (final InvalidValueException e) {
+            assertEquals("p", e.field());
+            assertEquals(new Indices(1, 2, 3), e.indices());
+            assertTrue(Double.isNaN(e.value()));
+        }
+    }
+
+    @Test
+    public void testV2MeshReportsFirstInvalidCell() {
+        final com.github.davidmoten.jns.v2.Mesh mesh = v2MeshWithNaN();
+        try {
+            mesh.run(null, null, null, null, null, null, null, null, 1);
+            fail();
+        } catch (final InvalidValueException e) {
+            assertEquals("u", e.field());
+        }
+    }
+
+    @Test
+    public void testV2MeshWithValidationOffDoesNotThrow() {
+        final com.github.davidmoten.jns.v2.Mesh mesh = v2MeshWithNaN();
+        mesh.setValidation(Validation.OFF);
+        mesh.run(null, null, null, null, null, null, null, null, 1);
+    }
+
+    private static com.github.davidmoten.jns.v2.Mesh v2MeshWithNaN() {
+        // the initial velocity must be lx by ly
+        final int size = 32;
+        final double[][] u = new double[size][size];
+        u[2][1] = Double.NaN;
+        return new com.github.davidmoten.jns.v2.Mesh(size, size, size, size, 0.00109, 1.025, u,
+                null);
+    }
+
+}
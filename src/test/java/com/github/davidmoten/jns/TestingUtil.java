@@ -6,6 +6,11 @@ class TestingUtil {
         return Mesh.builder().cellSize(1).creator(new CellCreator(10, 10, 10)).build();
     }
 
+    static Mesh createDenseMesh() {
+        return Mesh.builder().cellSize(1).creator(new CellCreator(10, 10, 10)).dense(10, 10, 10)
+                .build();
+    }
+
     static Mesh createMesh2D() {
         return Mesh.builder().cellSize(1).creator(new CellCreator(10, 10, 1)).build();
     }
@@ -13,4 +18,8 @@ class TestingUtil {
     static Mesh createMeshForWhirlpool2DTenByTen() {
         return Util.createMeshForWhirlpool2D(10, 10);
     }
+
+    static Mesh createDenseMeshForWhirlpool2DTenByTen() {
+        return Util.createMeshForWhirlpool2D(10, 10, true);
+    }
 }
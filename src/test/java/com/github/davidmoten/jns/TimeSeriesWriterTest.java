@@ -0,0 +1,101 @@
+package com.github.davidmoten.jns;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.davidmoten.jns.TimeSeriesWriter.Overflow;
+
+public class TimeSeriesWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFieldsAndProbesRoundTrip() throws IOException {
+        final double[] field = new double[1000];
+        final File file = folder.newFile();
+        final double[][] expected = new double[5][];
+        try (TimeSeriesWriter writer = TimeSeriesWriter.builder(file) //
+                .variable("field", field.length, values -> System.arraycopy(field, 0, values, 0,
+                        field.length)) //
+                .probes("probes", i -> field[i], 3, 997) //
+                .every(2) //
+                .overflow(Overflow.BLOCK) //
+                .recordsPerChunk(2) //
+                .build()) {
+            for (int step = 1; step <= 10; step++) {
+                Arrays.fill(field, step);
+                field[3] = -step;
+                assertEquals(step % 2 == 0, writer.append(step, step * 0.5));
+                if (step % 2 == 0)
+                    expected[step / 2 - 1] = field.clone();
+                // the record was copied so changing the field does not change it
+                Arrays.fill(field, Double.NaN);
+            }
+        }
+        final TimeSeries series = TimeSeries.read(file);
+        assertEquals(Arrays.asList("field", "probes"),
+                Arrays.asList(series.variableNames().toArray()));
+        assertEquals(5, series.size());
+        for (int r = 0; r < series.size(); r++) {
+            final int step = 2 * (r + 1);
+            assertEquals(step, series.step(r));
+            assertEquals(step * 0.5, series.time(r), 0);
+            assertArrayEquals(expected[r], series.values("field", r), 0);
+            assertArrayEquals(new double[] { -step, step }, series.values("probes", r), 0);
+        }
+    }
+
+    @Test
+    public void testDropPolicyAccountsForEveryRecord() throws IOException {
+        final double[] field = new double[100000];
+        final File file = folder.newFile();
+        final int appends = 200;
+        int queued = 0;
+        final TimeSeriesWriter writer = TimeSeriesWriter.builder(file) //
+                .variable("field", field.length, values -> System.arraycopy(field, 0, values, 0,
+                        field.length)) //
+                .queueSize(1) //
+                .build();
+        try {
+            for (int step = 0; step < appends; step++) {
+                if (writer.append(step, step))
+                    queued++;
+            }
+        } finally {
+            writer.close();
+        }
+        assertEquals(appends, queued + writer.dropped());
+        assertEquals(queued, writer.written());
+        assertEquals(queued, TimeSeries.read(file).size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAppendAfterCloseFails() throws IOException {
+        final TimeSeriesWriter writer = TimeSeriesWriter.builder(folder.newFile())
+                .probes("p", i -> i, 1).build();
+        writer.close();
+        writer.append(0, 0);
+    }
+
+    @Test
+    public void testSkippedStepsAreNotCounted() throws IOException {
+        try (TimeSeriesWriter writer = TimeSeriesWriter.builder(folder.newFile())
+                .probes("p", i -> i, 1).every(3).build()) {
+            assertFalse(writer.append(1, 0));
+            assertTrue(writer.append(3, 0));
+            assertEquals(0, writer.dropped());
+        }
+    }
+
+}
@@ -0,0 +1,25 @@
+package com.github.davidmoten.jns.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts the cells updated by a benchmark so that JMH reports cell updates per
+ * second (in throughput mode) alongside the time per step (in average time
+ * mode). Run with <code>-prof gc</code> for allocation rates.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class CellUpdates {
+
+    public long cellUpdates;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        cellUpdates = 0;
+    }
+
+}
@@ -0,0 +1,107 @@
+package com.github.davidmoten.jns.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.davidmoten.jns.v4.Decomposition;
+import com.github.davidmoten.jns.v4.HaloTransport;
+import com.github.davidmoten.jns.v4.QueueHaloTransport;
+import com.github.davidmoten.jns.v4.Solver;
+
+/**
+ * Weak scaling of a {@link Decomposition}: one step of a lid driven cavity
+ * split along x into <code>blocks</code> blocks that are each a size^3 grid
+ * (halo planes included), each block solved on its own thread with halos
+ * exchanged through a {@link QueueHaloTransport}. The work per block is fixed
+ * so with perfect scaling the time per step stays the same as blocks are added
+ * (given at least <code>blocks</code> cores), any growth is the cost of halo
+ * exchange and of blocks waiting on each other.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DecompositionBenchmark {
+
+    @Param({ "32", "64" })
+    public int size;
+
+    @Param({ "1", "2", "4" })
+    public int blocks;
+
+    private List<Solver> solvers;
+    private List<ForkJoinPool> pools;
+    private ExecutorService executor;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        final int nx = blocks * (size - 2) + 2;
+        final double[] dz = new double[size - 1];
+        for (int k = 0; k < dz.length; k++) {
+            dz[k] = 0.1;
+        }
+        final Decomposition d = Decomposition.builder() //
+                .gridSize(nx, size, size) //
+                .dx(0.1) //
+                .dy(0.1) //
+                .dz(dz) //
+                .blocks(blocks) //
+                .build();
+        final List<HaloTransport> transports = QueueHaloTransport.create(blocks);
+        solvers = new ArrayList<>();
+        pools = new ArrayList<>();
+        for (int b = 0; b < blocks; b++) {
+            final ForkJoinPool pool = new ForkJoinPool(1);
+            pools.add(pool);
+            solvers.add(d.solver(b, transports.get(b)).pool(pool).build());
+        }
+        executor = Executors.newFixedThreadPool(blocks);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        executor.shutdownNow();
+        for (ForkJoinPool pool : pools) {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public List<Solver> step(CellUpdates counter) throws InterruptedException, ExecutionException {
+        final List<Future<?>> futures = new ArrayList<>(blocks);
+        for (Solver solver : solvers) {
+            futures.add(executor.submit(() -> {
+                solver.setLidDrivenCavityBoundary(1);
+                solver.solve();
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        counter.cellUpdates += blocks * V3SolverBenchmark.interiorCells(size);
+        return solvers;
+    }
+
+}
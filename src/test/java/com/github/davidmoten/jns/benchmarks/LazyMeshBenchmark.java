@@ -0,0 +1,59 @@
+package com.github.davidmoten.jns.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.davidmoten.jns.CellCreator;
+import com.github.davidmoten.jns.Mesh;
+
+/**
+ * One time step of the lazy {@link Mesh} over a still water cube with every
+ * cell evaluated through the lazy path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LazyMeshBenchmark {
+
+    // every cell of a lazy mesh is an object so larger grids do not fit in a
+    // default heap
+    @Param({ "16", "32", "64" })
+    public int size;
+
+    private Mesh mesh;
+
+    @Setup
+    public void setup() {
+        mesh = Mesh.builder().cellSize(1).creator(new CellCreator(size, size, size)).build();
+    }
+
+    @Benchmark
+    public double step(CellUpdates counter) {
+        final Mesh m = mesh.step(1);
+        double sum = 0;
+        for (int e = 0; e < size; e++) {
+            for (int n = 0; n < size; n++) {
+                for (int u = 0; u < size; u++) {
+                    sum += m.cell(e, n, u).pressure();
+                }
+            }
+        }
+        counter.cellUpdates += (long) size * size * size;
+        return sum;
+    }
+
+}
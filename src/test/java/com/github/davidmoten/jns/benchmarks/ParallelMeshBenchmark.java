@@ -0,0 +1,77 @@
+package com.github.davidmoten.jns.benchmarks;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.davidmoten.jns.CellCreator;
+import com.github.davidmoten.jns.Mesh;
+import com.github.davidmoten.jns.PressureProjection;
+
+/**
+ * One time step of a dense {@link Mesh} over a still water cube evaluated
+ * across a pool of <code>threads</code> threads with
+ * {@link Mesh#stepMultipleParallel}, solving for pressure cell by cell or with
+ * a {@link PressureProjection}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ParallelMeshBenchmark {
+
+    // a dense store holds about 80 bytes per cell and a step holds two of them
+    // plus the projection's arrays, so 256 (over 1 GB a store) would run out
+    // of a default heap
+    @Param({ "16", "32", "64", "128" })
+    public int size;
+
+    @Param({ "1", "2", "4", "8" })
+    public int threads;
+
+    private Mesh mesh;
+    private ForkJoinPool pool;
+    private PressureProjection projection;
+
+    @Setup
+    public void setup() {
+        mesh = Mesh.builder().cellSize(1).creator(new CellCreator(size, size, size))
+                .dense(size, size, size).build();
+        pool = new ForkJoinPool(threads);
+        projection = PressureProjection.builder().build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public Mesh step(CellUpdates counter) {
+        final Mesh m = mesh.stepMultipleParallel(1, 1, pool);
+        counter.cellUpdates += (long) size * size * size;
+        return m;
+    }
+
+    @Benchmark
+    public Mesh projectionStep(CellUpdates counter) {
+        final Mesh m = mesh.stepMultipleParallel(1, 1, pool, projection);
+        counter.cellUpdates += (long) size * size * size;
+        return m;
+    }
+
+}
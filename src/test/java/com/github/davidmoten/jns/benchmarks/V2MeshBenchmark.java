@@ -0,0 +1,53 @@
+package com.github.davidmoten.jns.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.davidmoten.jns.v2.Mesh;
+
+/**
+ * One time step of the 2D staggered {@link Mesh} for a lid driven cavity of
+ * size x size cells.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class V2MeshBenchmark {
+
+    @Param({ "16", "32", "64", "128", "256" })
+    public int size;
+
+    private Mesh mesh;
+    private double[] uTop;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        mesh = new Mesh(size, size, 1, 1, 0.00109, 1.025);
+        uTop = new double[size + 2];
+        Arrays.fill(uTop, 1.0);
+    }
+
+    @Benchmark
+    public Mesh step(CellUpdates counter) {
+        mesh.run(uTop, null, null, null, null, null, null, null, 0.001);
+        counter.cellUpdates += (long) size * size;
+        return mesh;
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.github.davidmoten.jns.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.davidmoten.jns.v3.Solver;
+
+/**
+ * One call of {@link Solver#calculateNextStepVelocity(double)} on a size^3
+ * grid with no tidal forcing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class V3SolverBenchmark {
+
+    @Param({ "16", "32", "64", "128", "256" })
+    public int size;
+
+    private Solver solver;
+    private double time;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        final double[] depths = new double[size];
+        for (int k = 0; k < size; k++) {
+            depths[k] = k;
+        }
+        solver = new Solver(size, size, size, 1, 1, depths, (i, j, k, t) -> 0,
+                (i, j, k, t) -> 0, 1, Solver.FLUID_DENSITY);
+        time = 0;
+    }
+
+    @Benchmark
+    public Solver step(CellUpdates counter) {
+        solver.calculateNextStepVelocity(time);
+        time += 1;
+        counter.cellUpdates += interiorCells(size);
+        return solver;
+    }
+
+    static long interiorCells(int size) {
+        return (long) (size - 2) * (size - 2) * (size - 2);
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.github.davidmoten.jns.benchmarks;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.davidmoten.jns.v4.JacobiPressureSolver;
+import com.github.davidmoten.jns.v4.MultigridPressureSolver;
+import com.github.davidmoten.jns.v4.PressureSolver;
+import com.github.davidmoten.jns.v4.Solver;
+import com.github.davidmoten.jns.v4.SorPressureSolver;
+
+/**
+ * One call of {@link Solver#solve()} for a lid driven cavity on a size^3 grid.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class V4SolverBenchmark {
+
+    @Param({ "16", "32", "64", "128", "256" })
+    public int size;
+
+    @Param({ "jacobi", "multigrid", "sor" })
+    public String pressureSolver;
+
+    @Param({ "1", "4" })
+    public int threads;
+
+    private Solver solver;
+    private ForkJoinPool pool;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        final double[] dz = new double[size - 1];
+        for (int k = 0; k < dz.length; k++) {
+            dz[k] = 0.1;
+        }
+        pool = new ForkJoinPool(threads);
+        final PressureSolver ps;
+        if (pressureSolver.equals("jacobi")) {
+            ps = new JacobiPressureSolver(20, pool);
+        } else if (pressureSolver.equals("multigrid")) {
+            ps = MultigridPressureSolver.builder().build();
+        } else {
+            ps = SorPressureSolver.builder().pool(pool).build();
+        }
+        solver = Solver.builder() //
+                .gridSize(size, size, size) //
+                .dx(0.1) //
+                .dy(0.1) //
+                .dz(dz) //
+                .pressureSolver(ps) //
+                .pool(pool) //
+                .build();
+        solver.setLidDrivenCavityBoundary(1);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public Solver step(CellUpdates counter) {
+        solver.solve();
+        counter.cellUpdates += V3SolverBenchmark.interiorCells(size);
+        return solver;
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.github.davidmoten.jns.v2;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.data.DMatrixSparseCSC;
+import org.ejml.sparse.csc.CommonOps_DSCC;
+import org.junit.Test;
+
+public class MeshTest {
+
+    private static final double NU = 0.00109;
+    private static final double RHO = 1.025;
+
+    @Test
+    public void testFactoredLaplacianAgreesWithSolvingEachStep() {
+        checkAgreesWithSolvingEachStep(8, 8);
+        checkAgreesWithSolvingEachStep(17, 17);
+        checkAgreesWithSolvingEachStep(12, 20);
+    }
+
+    private static void checkAgreesWithSolvingEachStep(int nx, int ny) {
+        Mesh mesh = new Mesh(nx, ny, 1, 1, NU, RHO);
+        Mesh reference = new Mesh(nx, ny, 1, 1, NU, RHO) {
+            @Override
+            void solvePressure(DMatrixRMaj rhs, DMatrixRMaj p) {
+                // as run() did before the Laplacian was factored once
+                CommonOps_DSCC.solve(laplacian(nx, ny), rhs, p);
+            }
+        };
+        double[] uTop = new double[nx + 2];
+        Arrays.fill(uTop, 1.0);
+        for (int step = 0; step < 5; step++) {
+            mesh.run(uTop, null, null, null, null, null, null, null, 0.01);
+            reference.run(uTop, null, null, null, null, null, null, null, 0.01);
+            for (int i = 1; i <= nx; i++) {
+                for (int j = 1; j <= ny; j++) {
+                    assertEquals(reference.u(i, j), mesh.u(i, j), 0);
+                    assertEquals(reference.v(i, j), mesh.v(i, j), 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Assembles the pressure Laplacian of a unit square mesh entry by entry.
+     */
+    private static DMatrixSparseCSC laplacian(int nx, int ny) {
+        double dxi = nx;
+        double dyi = ny;
+        DMatrixSparseCSC laplacian = new DMatrixSparseCSC(nx * ny, nx * ny);
+        for (int j = 1; j <= ny; j++) {
+            for (int i = 1; i <= nx; i++) {
+                int row = i + (j - 1) * nx - 1;
+                laplacian.set(row, row, 2 * dxi * dxi + 2 * dyi * dyi);
+                for (int ii = i - 1; ii <= i + 1; ii += 2) {
+                    if (ii > 0 && ii < nx) {
+                        laplacian.set(row, ii + (j - 1) * nx - 1, -dxi * dxi);
+                    } else {
+                        laplacian.set(row, row, laplacian.get(row, row) - dxi * dxi);
+                    }
+                }
+                for (int jj = j - 1; jj <= j + 1; jj += 2) {
+                    if (jj > 0 && jj < ny) {
+                        laplacian.set(row, i + (jj - 1) * nx - 1, -dyi * dyi);
+                    } else {
+                        laplacian.set(row, row, laplacian.get(row, row) - dyi * dyi);
+                    }
+                }
+            }
+        }
+        return laplacian;
+    }
+
+}
@@ -0,0 +1,121 @@
+package com.github.davidmoten.jns.v3;
+
+import static com.github.davidmoten.jns.v3.SolverTest.values;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class EnsembleTest {
+
+    private static final int N = 8;
+    private static final double TIME_STEP = 0.01;
+
+    @Test
+    public void testSharedGeometryMatchesOwnGeometry() {
+        Solver own = new Solver(N, N, N, 1, 1, depths(), forcingX(3), forcingY(3), TIME_STEP,
+                Solver.FLUID_DENSITY);
+        own.setObstacle(3, 4, 2);
+        own.setObstacle(4, 4, 2);
+        Solver shared = new Solver(geometry(), forcingX(3), forcingY(3), TIME_STEP, Solver.FLUID_DENSITY);
+        for (int step = 0; step < 10; step++) {
+            own.calculateNextStepVelocity(step * TIME_STEP);
+            shared.calculateNextStepVelocity(step * TIME_STEP);
+        }
+        assertArrayEquals(values(own.u()), values(shared.u()), 0);
+        assertArrayEquals(values(own.v()), values(shared.v()), 0);
+        assertArrayEquals(values(own.w()), values(shared.w()), 0);
+        assertArrayEquals(values(own.p()), values(shared.p()), 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSharedGeometryCannotBeChanged() {
+        new Solver(geometry(), forcingX(0), forcingY(0), TIME_STEP, Solver.FLUID_DENSITY).setObstacle(1, 1, 1);
+    }
+
+    @Test
+    public void testStatisticsMatchMembersRunSeparately() {
+        int members = 7;
+        int steps = 5;
+        ForkJoinPool pool = new ForkJoinPool(3);
+        Ensemble.Statistics statistics;
+        try {
+            statistics = Ensemble.builder(geometry()) //
+                    .members(members) //
+                    .tidalForcing(EnsembleTest::forcingX, EnsembleTest::forcingY) //
+                    .timeStep(TIME_STEP) //
+                    .steps(steps) //
+                    .pool(pool) //
+                    .build() //
+                    .run();
+        } finally {
+            pool.shutdown();
+        }
+        double[][] u = new double[members][];
+        for (int m = 0; m < members; m++) {
+            Solver solver = new Solver(geometry(), forcingX(m), forcingY(m), TIME_STEP, Solver.FLUID_DENSITY);
+            for (int step = 0; step < steps; step++) {
+                solver.calculateNextStepVelocity(step * TIME_STEP);
+            }
+            u[m] = values(solver.u());
+        }
+        assertEquals(members, statistics.u().count());
+        for (int c = 0; c < N * N * N; c++) {
+            double mean = 0;
+            for (int m = 0; m < members; m++) {
+                mean += u[m][c];
+            }
+            mean /= members;
+            double variance = 0;
+            for (int m = 0; m < members; m++) {
+                variance += (u[m][c] - mean) * (u[m][c] - mean);
+            }
+            variance /= members - 1;
+            assertEquals(mean, statistics.u().mean(c), 1e-15);
+            assertEquals(variance, statistics.u().variance(c), 1e-15);
+        }
+    }
+
+    @Test
+    public void testCombinedStatisticsMatchAllSamples() {
+        FieldStatistics all = new FieldStatistics(2);
+        FieldStatistics a = new FieldStatistics(2);
+        FieldStatistics b = new FieldStatistics(2);
+        for (int n = 0; n < 10; n++) {
+            double[] values = { n, n * n - 3 };
+            all.add(values);
+            (n < 4 ? a : b).add(values);
+        }
+        a.combine(b);
+        assertEquals(10, a.count());
+        for (int c = 0; c < 2; c++) {
+            assertEquals(all.mean(c), a.mean(c), 1e-12);
+            assertEquals(all.variance(c), a.variance(c), 1e-12);
+        }
+        assertEquals(4.5, a.mean(0), 1e-12);
+        assertEquals(55.0 / 6, a.variance(0), 1e-12);
+    }
+
+    private static Geometry geometry() {
+        return Geometry.builder(N, N, N).depths(depths()).obstacle(3, 4, 2).obstacle(4, 4, 2).build();
+    }
+
+    private static double[] depths() {
+        double[] depths = new double[N];
+        for (int k = 0; k < N; k++) {
+            depths[k] = k + 0.05 * k * k;
+        }
+        return depths;
+    }
+
+    private static Forcing forcingX(int member) {
+        return (i, j, k, time) -> 0.001 * (1 + 0.1 * member) * Math.sin(i + time);
+    }
+
+    private static Forcing forcingY(int member) {
+        return (i, j, k, time) -> 0.0005 * Math.cos(j - member * time);
+    }
+
+}
@@ -0,0 +1,239 @@
+package com.github.davidmoten.jns.v3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.davidmoten.jns.v4.Field;
+import com.github.davidmoten.jns.v4.FieldStorage;
+
+public class SolverTest {
+
+    private static final int N = 5;
+    private static final double TIME_STEP = 0.01;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testStepReadsOnlyThePreviousStep() {
+        Solver solver = solver();
+        randomize(solver);
+        double[][] expected = referenceStep(solver);
+        solver.calculateNextStepVelocity(0);
+        assertFields(expected, solver, 1e-12);
+    }
+
+    @Test
+    public void testSecondStepReadsOnlyThePreviousStep() {
+        // from the second step on the buffers have been swapped
+        Solver solver = solver();
+        randomize(solver);
+        solver.calculateNextStepVelocity(0);
+        double[][] expected = referenceStep(solver);
+        solver.calculateNextStepVelocity(TIME_STEP);
+        assertFields(expected, solver, 1e-12);
+    }
+
+    @Test
+    public void testFixedCellsKeepTheirValuesAfterOddAndEvenSteps() {
+        Solver solver = solver();
+        randomize(solver);
+        double[][] initial = copy(solver);
+        for (int step = 1; step <= 4; step++) {
+            solver.calculateNextStepVelocity(step * TIME_STEP);
+            double[][] fields = fields(solver);
+            for (int i = 0; i < N; i++) {
+                for (int j = 0; j < N; j++) {
+                    for (int k = 0; k < N; k++) {
+                        if (isFixed(solver, i, j, k)) {
+                            int c = solver.geometry().index(i, j, k);
+                            for (int f = 0; f < fields.length; f++) {
+                                assertEquals(initial[f][c], fields[f][c], 0);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testStepsDoNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        // from rest without forcing so that many steps stay finite
+        Solver solver = solver((i, j, k, time) -> 0, (i, j, k, time) -> 0);
+        // warm up so that allocation by class loading and compilation is not
+        // counted
+        for (int step = 0; step < 200; step++) {
+            solver.calculateNextStepVelocity(0);
+        }
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(id);
+        for (int step = 0; step < 1000; step++) {
+            solver.calculateNextStepVelocity(0);
+        }
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+        // a field buffer is N^3 doubles, far more than this allows per step
+        assertTrue("allocated " + allocated, allocated < 1000 * 8);
+    }
+
+    @Test
+    public void testMappedFieldsResumeWhereTheyLeftOff() throws Exception {
+        File directory = folder.newFolder();
+        Solver heap = solver();
+        Solver mapped = solver(FieldStorage.mapped(directory));
+        // an odd number of steps so that the next buffers are current
+        for (int step = 0; step < 3; step++) {
+            heap.calculateNextStepVelocity(step * TIME_STEP);
+            mapped.calculateNextStepVelocity(step * TIME_STEP);
+        }
+        assertFields(fields(heap), mapped, 0);
+        mapped.flush();
+        Solver reopened = solver(FieldStorage.mapped(directory));
+        assertFields(fields(heap), reopened, 0);
+        for (int step = 3; step < 5; step++) {
+            heap.calculateNextStepVelocity(step * TIME_STEP);
+            reopened.calculateNextStepVelocity(step * TIME_STEP);
+        }
+        assertFields(fields(heap), reopened, 0);
+    }
+
+    private static Solver solver(FieldStorage fieldStorage) {
+        Solver solver = new Solver(N, N, N, 1, 1, depths(),
+                TidalForcing.of((i, j, k, time) -> 0.001 * i, (i, j, k, time) -> -0.002 * j), TIME_STEP,
+                Solver.FLUID_DENSITY, fieldStorage);
+        solver.setObstacle(2, 2, 2);
+        return solver;
+    }
+
+    private static Solver solver() {
+        return solver((i, j, k, time) -> 0.001 * i, (i, j, k, time) -> -0.002 * j);
+    }
+
+    private static Solver solver(Forcing tidalForcingX, Forcing tidalForcingY) {
+        Solver solver = new Solver(N, N, N, 1, 1, depths(), tidalForcingX, tidalForcingY, TIME_STEP,
+                Solver.FLUID_DENSITY);
+        solver.setObstacle(2, 2, 2);
+        return solver;
+    }
+
+    private static double[] depths() {
+        double[] depths = new double[N];
+        for (int k = 0; k < N; k++) {
+            depths[k] = k + 0.1 * k * k;
+        }
+        return depths;
+    }
+
+    private static void randomize(Solver solver) {
+        Random random = new Random(123);
+        for (Field field : new Field[] { solver.u(), solver.v(), solver.w(), solver.p() }) {
+            for (int c = 0; c < field.size(); c++) {
+                field.set(c, random.nextDouble() * 0.01);
+            }
+        }
+    }
+
+    private static boolean isFixed(Solver solver, int i, int j, int k) {
+        return i == 0 || i == N - 1 || j == 0 || j == N - 1 || k == 0 || k == N - 1
+                || solver.geometry().isObstacle(i, j, k);
+    }
+
+    // one step of the v3 scheme written out cell by cell from copies of the
+    // fields so that no value of the step being computed can be read
+    private static double[][] referenceStep(Solver solver) {
+        Geometry g = solver.geometry();
+        double[][] old = copy(solver);
+        double[] u = old[0];
+        double[] v = old[1];
+        double[] w = old[2];
+        double[] p = old[3];
+        double[][] next = copy(solver);
+        int sx = N * N;
+        int sy = N;
+        double dt = TIME_STEP;
+        double rho = Solver.FLUID_DENSITY;
+        for (int i = 1; i < N - 1; i++) {
+            for (int j = 1; j < N - 1; j++) {
+                for (int k = 1; k < N - 1; k++) {
+                    if (g.isObstacle(i, j, k)) {
+                        continue;
+                    }
+                    int c = g.index(i, j, k);
+                    double dzPlus = (g.depth(k + 1) - g.depth(k)) / 2.0;
+                    double dzMinus = (g.depth(k) - g.depth(k - 1)) / 2.0;
+                    double dz = dzPlus + dzMinus;
+                    double du = (u[c + sx] - u[c - sx]) / 2.0;
+                    double dv = (v[c + sy] - v[c - sy]) / 2.0;
+                    double dw = (w[c + 1] - w[c - 1]) / dz;
+                    double d2u = u[c + sx] - 2 * u[c] + u[c - sx];
+                    double d2v = v[c + sy] - 2 * v[c] + v[c - sy];
+                    double d2w = (w[c + 1] - 2 * w[c] + w[c - 1]) / (dzPlus * dzPlus + dzMinus * dzMinus);
+                    double advection = dt * (u[c] * du + v[c] * dv + w[c] * dw);
+                    next[0][c] = u[c] - (advection - dt / rho * du * d2u) + 0.001 * i;
+                    next[1][c] = v[c] - (advection - dt / rho * dv * d2v) - 0.002 * j;
+                    next[2][c] = w[c] - (advection - dt / rho * dw * d2w);
+                    next[3][c] = ((p[c + sx] + p[c - sx]) + (p[c + sy] + p[c - sy])
+                            + (p[c + 1] + p[c - 1]) / (dz * dz)
+                            - ((u[c + sx] - u[c - sx]) + (v[c + sy] - v[c - sy]) + (w[c + 1] - w[c - 1]) / dz) / dt)
+                            / (4 + 2 / (dz * dz));
+                }
+            }
+        }
+        double[] pNext = next[3];
+        for (int i = 1; i < N - 1; i++) {
+            for (int j = 1; j < N - 1; j++) {
+                for (int k = 1; k < N - 1; k++) {
+                    if (g.isObstacle(i, j, k)) {
+                        continue;
+                    }
+                    int c = g.index(i, j, k);
+                    double dz = (g.depth(k + 1) - g.depth(k - 1)) / 2;
+                    double correction = (pNext[c + sx] - pNext[c - sx]) / 2 + (pNext[c + sy] - pNext[c - sy]) / 2
+                            + (pNext[c + 1] - pNext[c - 1]) / (2 * dz);
+                    for (int f = 0; f < 3; f++) {
+                        next[f][c] -= correction * dt / rho;
+                    }
+                }
+            }
+        }
+        return next;
+    }
+
+    // copies of the current fields
+    private static double[][] fields(Solver solver) {
+        return new double[][] { values(solver.u()), values(solver.v()), values(solver.w()), values(solver.p()) };
+    }
+
+    private static double[][] copy(Solver solver) {
+        return fields(solver);
+    }
+
+    static double[] values(Field field) {
+        double[] values = new double[field.size()];
+        field.copyTo(values);
+        return values;
+    }
+
+    private static void assertFields(double[][] expected, Solver solver, double tolerance) {
+        double[][] fields = fields(solver);
+        for (int f = 0; f < fields.length; f++) {
+            for (int c = 0; c < fields[f].length; c++) {
+                assertEquals("field " + f + " cell " + c, expected[f][c], fields[f][c], tolerance);
+            }
+        }
+    }
+
+}
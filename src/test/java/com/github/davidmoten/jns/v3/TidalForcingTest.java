@@ -0,0 +1,96 @@
+package com.github.davidmoten.jns.v3;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.github.davidmoten.jns.v4.ArrayField;
+
+public class TidalForcingTest {
+
+    private static final int N = 6;
+    private static final double M2 = 2 * Math.PI / (12.42 * 3600);
+    private static final double S2 = 2 * Math.PI / (12 * 3600);
+
+    @Test
+    public void testHarmonicForcingMatchesConstituents() {
+        Geometry geometry = Geometry.builder(N, N, N).build();
+        double[] amplitude = new double[N * N];
+        double[] phase = new double[N * N];
+        for (int column = 0; column < amplitude.length; column++) {
+            amplitude[column] = 0.1 + 0.01 * column;
+            phase[column] = 0.2 * column;
+        }
+        double[] profile = { 1, 0.9, 0.8, 0.7, 0.6, 0.5 };
+        TidalForcing forcing = HarmonicForcing.builder(geometry) //
+                .constituent(M2, 0.3, 1.0, 0.2, -0.5) //
+                .constituent(S2, amplitude, phase, amplitude, phase) //
+                .profile(profile) //
+                .build();
+        double[] x = new double[geometry.size()];
+        double[] y = new double[geometry.size()];
+        double time = 7000;
+        forcing.fill(geometry, time, new ArrayField(x), new ArrayField(y));
+        for (int i = 0; i < N; i++) {
+            for (int j = 0; j < N; j++) {
+                int column = i * N + j;
+                for (int k = 0; k < N; k++) {
+                    double s2 = amplitude[column] * Math.cos(S2 * time - phase[column]);
+                    double expectedX = profile[k] * (0.3 * Math.cos(M2 * time - 1.0) + s2);
+                    double expectedY = profile[k] * (0.2 * Math.cos(M2 * time + 0.5) + s2);
+                    assertEquals(expectedX, x[geometry.index(i, j, k)], 1e-15);
+                    assertEquals(expectedY, y[geometry.index(i, j, k)], 1e-15);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testGriddedForcingInterpolatesInTime() {
+        Geometry geometry = Geometry.builder(N, N, N).build();
+        double[] a = new double[geometry.size()];
+        double[] b = new double[geometry.size()];
+        for (int c = 0; c < a.length; c++) {
+            a[c] = c;
+            b[c] = -c;
+        }
+        TidalForcing forcing = GriddedForcing.builder(geometry) //
+                .startTime(100) //
+                .interval(10) //
+                .frame(a, b) //
+                .frame(b, a) //
+                .build();
+        double[] x = new double[geometry.size()];
+        double[] y = new double[geometry.size()];
+        ArrayField fx = new ArrayField(x);
+        ArrayField fy = new ArrayField(y);
+        int c = geometry.index(2, 3, 4);
+        forcing.fill(geometry, 102.5, fx, fy);
+        assertEquals(0.5 * c, x[c], 1e-12);
+        assertEquals(-0.5 * c, y[c], 1e-12);
+        forcing.fill(geometry, 50, fx, fy);
+        assertEquals(c, x[c], 0);
+        forcing.fill(geometry, 500, fx, fy);
+        assertEquals(-c, x[c], 0);
+    }
+
+    @Test
+    public void testSolverWithHarmonicForcingMatchesPerCellForcing() {
+        Geometry geometry = Geometry.builder(N, N, N).obstacle(2, 2, 2).build();
+        TidalForcing harmonic = HarmonicForcing.builder(geometry) //
+                .constituent(M2, 0.001, 0.3, 0.002, 0.7) //
+                .build();
+        Solver bulk = new Solver(geometry, harmonic, 1, Solver.FLUID_DENSITY);
+        Solver perCell = new Solver(geometry, (i, j, k, time) -> 0.001 * Math.cos(M2 * time - 0.3),
+                (i, j, k, time) -> 0.002 * Math.cos(M2 * time - 0.7), 1, Solver.FLUID_DENSITY);
+        for (int step = 0; step < 5; step++) {
+            bulk.calculateNextStepVelocity(step * 600);
+            perCell.calculateNextStepVelocity(step * 600);
+        }
+        for (int c = 0; c < geometry.size(); c++) {
+            assertEquals(perCell.u().get(c), bulk.u().get(c), 1e-15);
+            assertEquals(perCell.v().get(c), bulk.v().get(c), 1e-15);
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.github.davidmoten.jns.v4;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Runs one block of {@link DecompositionTest} in its own process and writes
+ * its u, v, w and p fields to files.
+ * <p>
+ * The listener for the next block is bound to a free port before its number is
+ * written to the file <code>port</code> in the output directory, where the
+ * next block waits for it, so no other process can take the port in between.
+ * <p>
+ * Arguments: block, blocks, steps, output directory, output directory of the
+ * previous block (not needed for block 0).
+ */
+public final class BlockProcess {
+
+    private static final long TIMEOUT_MS = 30000;
+
+    private BlockProcess() {
+        // prevent instantiation
+    }
+
+    public static void main(String[] args) throws Exception {
+        int block = Integer.parseInt(args[0]);
+        int blocks = Integer.parseInt(args[1]);
+        File directory = new File(args[3]);
+        ServerSocket server = null;
+        if (block < blocks - 1) {
+            server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+            File tmp = new File(directory, "port.tmp");
+            Files.write(tmp.toPath(), String.valueOf(server.getLocalPort()).getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), new File(directory, "port").toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        InetSocketAddress left = block == 0 ? null
+                : new InetSocketAddress(InetAddress.getLoopbackAddress(), port(new File(args[4], "port")));
+        Decomposition d = DecompositionTest.decomposition(blocks);
+        try (SocketHaloTransport transport = SocketHaloTransport.open(block, server, left, TIMEOUT_MS)) {
+            Solver solver = d.solver(block, transport).build();
+            for (int i = 0; i < Integer.parseInt(args[2]); i++) {
+                solver.setLidDrivenCavityBoundary(1);
+                solver.solve();
+            }
+            write(solver.u(), new File(directory, "u"));
+            write(solver.v(), new File(directory, "v"));
+            write(solver.w(), new File(directory, "w"));
+            write(solver.p(), new File(directory, "p"));
+        }
+    }
+
+    private static int port(File file) throws Exception {
+        long start = System.currentTimeMillis();
+        while (!file.exists()) {
+            if (System.currentTimeMillis() - start > TIMEOUT_MS) {
+                throw new IOException("timed out waiting for " + file);
+            }
+            Thread.sleep(50);
+        }
+        return Integer.parseInt(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+    }
+
+    private static void write(Field field, File file) throws Exception {
+        double[] values = new double[field.size()];
+        field.copyTo(values);
+        MappedField f = MappedField.open(file, values.length);
+        f.copyFrom(values);
+        f.flush();
+    }
+
+}
@@ -0,0 +1,172 @@
+package com.github.davidmoten.jns.v4;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DecompositionTest {
+
+    private static final int N = 12;
+    private static final int STEPS = 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testBlocksCoverInteriorPlanes() {
+        Decomposition d = decomposition(4);
+        assertEquals(0, d.firstI(0));
+        for (int b = 1; b < d.blocks(); b++) {
+            // local plane nx - 2 of one block is the plane before local
+            // plane 1 of the next
+            assertEquals(d.firstI(b - 1) + d.nx(b - 1) - 2, d.firstI(b));
+        }
+        assertEquals(N - 1, d.firstI(3) + d.nx(3) - 1);
+    }
+
+    @Test
+    public void testQueueTransportMatchesSingleSolver() throws Exception {
+        int blocks = 3;
+        Decomposition d = decomposition(blocks);
+        List<HaloTransport> transports = QueueHaloTransport.create(blocks);
+        ExecutorService executor = Executors.newFixedThreadPool(blocks);
+        try {
+            List<Future<Solver>> futures = new ArrayList<>();
+            for (int b = 0; b < blocks; b++) {
+                int block = b;
+                futures.add(executor.submit(() -> run(d.solver(block, transports.get(block)).build())));
+            }
+            Solver single = run(single());
+            for (int b = 0; b < blocks; b++) {
+                Solver s = futures.get(b).get(60, TimeUnit.SECONDS);
+                assertSameOwnedPlanes(single.u(), s.u(), d, b);
+                assertSameOwnedPlanes(single.v(), s.v(), d, b);
+                assertSameOwnedPlanes(single.w(), s.w(), d, b);
+                assertSameOwnedPlanes(single.p(), s.p(), d, b);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSocketTransportBetweenProcessesMatchesSingleSolver() throws Exception {
+        int blocks = 2;
+        Decomposition d = decomposition(blocks);
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        List<Process> processes = new ArrayList<>();
+        List<File> directories = new ArrayList<>();
+        for (int b = 0; b < blocks; b++) {
+            File directory = folder.newFolder();
+            String left = b == 0 ? "" : directories.get(b - 1).getPath();
+            directories.add(directory);
+            processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    BlockProcess.class.getName(), String.valueOf(b), String.valueOf(blocks), String.valueOf(STEPS),
+                    directory.getPath(), left) //
+                            .redirectErrorStream(true) //
+                            .redirectOutput(new File(directory, "out.txt")) //
+                            .start());
+        }
+        try {
+            for (Process process : processes) {
+                assertTrue(process.waitFor(60, TimeUnit.SECONDS));
+                assertEquals(0, process.exitValue());
+            }
+        } finally {
+            for (Process process : processes) {
+                process.destroyForcibly();
+            }
+        }
+        Solver single = run(single());
+        for (int b = 0; b < blocks; b++) {
+            int size = d.nx(b) * N * N;
+            File directory = directories.get(b);
+            assertSameOwnedPlanes(single.u(), MappedField.open(new File(directory, "u"), size), d, b);
+            assertSameOwnedPlanes(single.v(), MappedField.open(new File(directory, "v"), size), d, b);
+            assertSameOwnedPlanes(single.w(), MappedField.open(new File(directory, "w"), size), d, b);
+            assertSameOwnedPlanes(single.p(), MappedField.open(new File(directory, "p"), size), d, b);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBlocksMustUseJacobi() {
+        decomposition(2).solver(0, QueueHaloTransport.create(2).get(0))
+                .pressureSolver(SorPressureSolver.builder().build()).build();
+    }
+
+    static Decomposition decomposition(int blocks) {
+        return Decomposition.builder() //
+                .gridSize(N, N, N) //
+                .dx(0.1) //
+                .dy(0.1) //
+                .dz(dz()) //
+                .obstacle(obstacle()) //
+                .blocks(blocks) //
+                .build();
+    }
+
+    static Solver run(Solver solver) {
+        for (int i = 0; i < STEPS; i++) {
+            solver.setLidDrivenCavityBoundary(1);
+            solver.solve();
+        }
+        return solver;
+    }
+
+    private static Solver single() {
+        return Solver.builder() //
+                .gridSize(N, N, N) //
+                .dx(0.1) //
+                .dy(0.1) //
+                .dz(dz()) //
+                .obstacle(obstacle()) //
+                .build();
+    }
+
+    private static double[] dz() {
+        double[] dz = new double[N - 1];
+        for (int k = 0; k < dz.length; k++) {
+            dz[k] = 0.1 * (1 + 0.1 * k);
+        }
+        return dz;
+    }
+
+    private static boolean[][][] obstacle() {
+        boolean[][][] obstacle = new boolean[N][N][N];
+        for (int i = 3; i < 8; i++) {
+            for (int j = 4; j < 7; j++) {
+                for (int k = 4; k < 7; k++) {
+                    obstacle[i][j][k] = true;
+                }
+            }
+        }
+        return obstacle;
+    }
+
+    private static void assertSameOwnedPlanes(Field expected, Field actual, Decomposition d, int block)
+            throws IOException {
+        int plane = N * N;
+        int owned = (d.nx(block) - 2) * plane;
+        double[] e = new double[owned];
+        double[] a = new double[owned];
+        for (int c = 0; c < owned; c++) {
+            e[c] = expected.get((d.firstI(block) + 1) * plane + c);
+            a[c] = actual.get(plane + c);
+        }
+        assertArrayEquals(e, a, 0);
+    }
+
+}
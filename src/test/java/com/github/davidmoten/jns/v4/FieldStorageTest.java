@@ -0,0 +1,121 @@
+package com.github.davidmoten.jns.v4;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.davidmoten.jns.Checkpoint;
+import com.github.davidmoten.jns.CheckpointWriter;
+
+public class FieldStorageTest {
+
+    private static final int N = 8;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMappedStorageMatchesHeapStorage() throws IOException {
+        Solver heap = solver(FieldStorage.heap(), true);
+        Solver mapped = solver(FieldStorage.mapped(folder.newFolder()), true);
+        step(heap, 3);
+        step(mapped, 3);
+        assertSameFields(heap, mapped);
+    }
+
+    @Test
+    public void testReopenedMappedStorageResumes() throws IOException {
+        File directory = folder.newFolder();
+        Solver first = solver(FieldStorage.mapped(directory), true);
+        // an odd number of steps leaves the pressure in the second buffer
+        step(first, 1);
+        first.flush();
+        Solver reopened = solver(FieldStorage.mapped(directory), false);
+        step(reopened, 2);
+
+        Solver heap = solver(FieldStorage.heap(), true);
+        step(heap, 3);
+        assertSameFields(heap, reopened);
+    }
+
+    @Test
+    public void testRestoredCheckpointResumes() throws Exception {
+        Solver first = solver(FieldStorage.heap(), true);
+        step(first, 1);
+        File file = folder.newFile();
+        try (CheckpointWriter writer = new CheckpointWriter(true)) {
+            writer.write(first.checkpoint(), file).get();
+        }
+        Solver restored = solver(FieldStorage.heap(), true);
+        restored.restore(Checkpoint.read(file));
+        assertEquals(first.time(), restored.time(), 0);
+        step(restored, 2);
+
+        Solver heap = solver(FieldStorage.heap(), true);
+        step(heap, 3);
+        assertSameFields(heap, restored);
+        assertEquals(heap.time(), restored.time(), 0);
+    }
+
+    @Test
+    public void testMappedFieldKeepsValues() throws IOException {
+        File file = folder.newFile();
+        MappedField a = MappedField.open(file, 10);
+        a.set(3, 1.5);
+        a.copyFrom(new double[] { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9 });
+        a.set(9, -1);
+        a.flush();
+        MappedField b = MappedField.open(file, 10);
+        assertEquals(10, b.size());
+        assertArrayEquals(new double[] { 0, 1, 2, 3, 4, 5, 6, 7, 8, -1 }, values(b), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMappedFieldOfWrongSizeIsRejected() throws IOException {
+        File file = folder.newFile();
+        MappedField.open(file, 10);
+        MappedField.open(file, 11);
+    }
+
+    private static Solver solver(FieldStorage storage, boolean initializePressure) {
+        double[] dz = new double[N - 1];
+        for (int k = 0; k < dz.length; k++) {
+            dz[k] = 0.1;
+        }
+        return Solver.builder() //
+                .gridSize(N, N, N) //
+                .dx(0.1) //
+                .dy(0.1) //
+                .dz(dz) //
+                .fieldStorage(storage) //
+                .initializePressure(initializePressure) //
+                .build();
+    }
+
+    private static void step(Solver solver, int steps) {
+        for (int i = 0; i < steps; i++) {
+            solver.setLidDrivenCavityBoundary(1);
+            solver.solve();
+        }
+    }
+
+    private static void assertSameFields(Solver expected, Solver actual) {
+        assertArrayEquals(values(expected.u()), values(actual.u()), 0);
+        assertArrayEquals(values(expected.v()), values(actual.v()), 0);
+        assertArrayEquals(values(expected.w()), values(actual.w()), 0);
+        assertArrayEquals(values(expected.p()), values(actual.p()), 0);
+    }
+
+    private static double[] values(Field field) {
+        double[] values = new double[field.size()];
+        field.copyTo(values);
+        return values;
+    }
+
+}
@@ -0,0 +1,92 @@
+package com.github.davidmoten.jns.v4;
+
+import static com.github.davidmoten.jns.v4.MultigridPressureSolverTest.divergence;
+import static com.github.davidmoten.jns.v4.MultigridPressureSolverTest.grid;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class JacobiPressureSolverTest {
+
+    @Test
+    public void testFixedCellsAreCopiedAndOthersSolved() {
+        Grid grid = grid(17, 13, 11, true);
+        double[] p = pressure(grid);
+        double[] result = new double[grid.size()];
+        Arrays.fill(result, Double.NaN);
+        new JacobiPressureSolver(3).solve(grid, new ArrayField(p), new ArrayField(divergence(grid)),
+                new ArrayField(result));
+        for (int i = 0; i < grid.nx(); i++) {
+            for (int j = 0; j < grid.ny(); j++) {
+                for (int k = 0; k < grid.nz(); k++) {
+                    int c = grid.index(i, j, k);
+                    if (grid.isFixed(i, j, k)) {
+                        assertEquals(p[c], result[c], 0);
+                    } else {
+                        assertTrue(Double.isFinite(result[c]));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testResidualsAreOnlyCalculatedWhenAskedFor() {
+        Grid grid = grid(17, 13, 11, false);
+        double[] p = pressure(grid);
+        double[] div = divergence(grid);
+        double[] result = new double[grid.size()];
+        Convergence none = new JacobiPressureSolver(3).solve(grid, new ArrayField(p), new ArrayField(div),
+                new ArrayField(result));
+        assertTrue(Double.isNaN(none.initialResidual()));
+        assertTrue(Double.isNaN(none.residual()));
+        Convergence c = new JacobiPressureSolver(3, ForkJoinPool.commonPool(), true).solve(grid,
+                new ArrayField(p), new ArrayField(div), new ArrayField(result));
+        // with equal spacing along every axis the Laplacian the sweeps iterate
+        // is the Laplacian of the grid
+        assertEquals(grid.residual(new ArrayField(p), new ArrayField(div)), c.initialResidual(),
+                1e-9 * c.initialResidual());
+        assertEquals(grid.residual(new ArrayField(result), new ArrayField(div)), c.residual(),
+                1e-9 * c.residual());
+    }
+
+    @Test
+    public void testParallelMatchesSerial() {
+        Grid grid = grid(17, 13, 11, true);
+        double[] p = pressure(grid);
+        double[] div = divergence(grid);
+        double[] serial = new double[grid.size()];
+        double[] parallel = new double[grid.size()];
+        ForkJoinPool one = new ForkJoinPool(1);
+        ForkJoinPool four = new ForkJoinPool(4);
+        try {
+            Convergence a = new JacobiPressureSolver(5, one, true).solve(grid, new ArrayField(p),
+                    new ArrayField(div), new ArrayField(serial));
+            Convergence b = new JacobiPressureSolver(5, four, true).solve(grid, new ArrayField(p),
+                    new ArrayField(div), new ArrayField(parallel));
+            assertArrayEquals(serial, parallel, 0);
+            // the sum of squares is added per slab so depends on the number
+            // of slabs in the last bits
+            assertEquals(a.residual(), b.residual(), 1e-12 * a.residual());
+        } finally {
+            one.shutdown();
+            four.shutdown();
+        }
+    }
+
+    private static double[] pressure(Grid grid) {
+        Random r = new Random(2);
+        double[] p = new double[grid.size()];
+        for (int c = 0; c < p.length; c++) {
+            p[c] = r.nextDouble();
+        }
+        return p;
+    }
+
+}
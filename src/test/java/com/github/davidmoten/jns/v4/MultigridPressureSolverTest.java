@@ -0,0 +1,104 @@
+package com.github.davidmoten.jns.v4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.davidmoten.jns.v4.MultigridPressureSolver.Cycle;
+
+public class MultigridPressureSolverTest {
+
+    @Test
+    public void testVCycleConvergesWithObstaclesAndVariableDepthSpacing() {
+        Grid grid = grid(17, 13, 11, true);
+        double[] div = divergence(grid);
+        double[] p = new double[grid.size()];
+        p[grid.index(0, 5, 5)] = 100;
+        double[] result = new double[grid.size()];
+        Convergence c = MultigridPressureSolver.builder().tolerance(1e-8).build().solve(grid, new ArrayField(p),
+                new ArrayField(div), new ArrayField(result));
+        assertTrue(c.toString(), c.iterations() < 20);
+        assertTrue(c.residual() <= 1e-8 * c.initialResidual());
+        // the residual reported agrees with the residual of the Grid equation
+        assertEquals(grid.residual(new ArrayField(result), new ArrayField(div)), c.residual(),
+                1e-6 * c.initialResidual());
+        // fixed cells keep their pressure
+        assertEquals(100, result[grid.index(0, 5, 5)], 0);
+        assertEquals(0, result[grid.index(4, 4, 4)], 0);
+    }
+
+    @Test
+    public void testWCycleConverges() {
+        Grid grid = grid(17, 13, 11, true);
+        double[] div = divergence(grid);
+        double[] result = new double[grid.size()];
+        Convergence c = MultigridPressureSolver.builder().cycle(Cycle.W).build()
+                .solve(grid, new ArrayField(grid.size()), new ArrayField(div), new ArrayField(result));
+        assertTrue(c.toString(), c.iterations() < 20);
+        assertTrue(c.residual() <= 1e-8 * c.initialResidual());
+    }
+
+    @Test
+    public void testCyclesDoNotGrowWithGridSize() {
+        int small = cycles(grid(17, 17, 17, false));
+        int large = cycles(grid(65, 65, 33, false));
+        assertTrue(small + " " + large, large <= small + 2);
+    }
+
+    @Test
+    public void testSolverUsesPressureSolver() {
+        int n = 10;
+        double[] dz = new double[n - 1];
+        for (int k = 0; k < dz.length; k++) {
+            dz[k] = 0.1;
+        }
+        Solver solver = new Solver(n, n, n, 0.1, 0.1, dz, new boolean[n][n][n],
+                MultigridPressureSolver.builder().build());
+        solver.setLidDrivenCavityBoundary(1);
+        solver.solve();
+        Convergence c = solver.pressureConvergence();
+        assertTrue(c.residual() <= 1e-8 * c.initialResidual());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testToleranceMustBePositive() {
+        MultigridPressureSolver.builder().tolerance(0).build();
+    }
+
+    private static int cycles(Grid grid) {
+        double[] result = new double[grid.size()];
+        return MultigridPressureSolver.builder().build().solve(grid, new ArrayField(grid.size()),
+                new ArrayField(divergence(grid)), new ArrayField(result)).iterations();
+    }
+
+    // obstacle block in the middle and optionally depth spacing growing with
+    // depth
+    static Grid grid(int nx, int ny, int nz, boolean variableDepthSpacing) {
+        double[] depth = new double[nz];
+        for (int k = 1; k < nz; k++) {
+            depth[k] = depth[k - 1] + 0.1 * (variableDepthSpacing ? 1 + 0.1 * k : 1);
+        }
+        boolean[][][] obstacle = new boolean[nx][ny][nz];
+        for (int i = nx / 4; i < nx / 2; i++) {
+            for (int j = ny / 4; j < ny / 2; j++) {
+                for (int k = nz / 4; k < nz / 2; k++) {
+                    obstacle[i][j][k] = true;
+                }
+            }
+        }
+        return new Grid(nx, ny, nz, 0.1, 0.1, depth, obstacle);
+    }
+
+    static double[] divergence(Grid grid) {
+        Random r = new Random(1);
+        double[] div = new double[grid.size()];
+        for (int c = 0; c < div.length; c++) {
+            div[c] = r.nextDouble() - 0.5;
+        }
+        return div;
+    }
+
+}
@@ -0,0 +1,168 @@
+package com.github.davidmoten.jns.v4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class ParticleTrackerTest {
+
+    private static final int N = 21;
+
+    @Test
+    public void testUniformFlow() {
+        Grid grid = grid(new boolean[N][N][N]);
+        Field[] velocity = velocity(grid, (i, j, k) -> 0.5, (i, j, k) -> -0.25, (i, j, k) -> 0.1);
+        ParticleTracker tracker = tracker(grid, velocity, ForkJoinPool.commonPool());
+        int p = tracker.add(5, 6, 7);
+        for (int n = 0; n < 10; n++) {
+            tracker.step(0.2);
+        }
+        assertEquals(6, tracker.x(p), 1e-12);
+        assertEquals(5.5, tracker.y(p), 1e-12);
+        assertEquals(7.2, tracker.depth(p), 1e-12);
+    }
+
+    @Test
+    public void testSolidBodyRotationReturnsToStart() {
+        Grid grid = grid(new boolean[N][N][N]);
+        double omega = 0.1;
+        double centre = (N - 1) / 2.0;
+        Field[] velocity = velocity(grid, (i, j, k) -> -omega * (j - centre), (i, j, k) -> omega * (i - centre),
+                (i, j, k) -> 0);
+        ParticleTracker tracker = tracker(grid, velocity, ForkJoinPool.commonPool());
+        int p = tracker.add(centre + 5, centre, 3);
+        int steps = 200;
+        double dt = 2 * Math.PI / omega / steps;
+        for (int n = 0; n < steps; n++) {
+            tracker.step(dt);
+        }
+        assertEquals(centre + 5, tracker.x(p), 1e-6);
+        assertEquals(centre, tracker.y(p), 1e-6);
+        assertEquals(3, tracker.depth(p), 1e-12);
+    }
+
+    @Test
+    public void testParticlesBounceOffObstacles() {
+        boolean[][][] obstacle = new boolean[N][N][N];
+        for (int j = 0; j < N; j++) {
+            for (int k = 0; k < N; k++) {
+                obstacle[15][j][k] = true;
+            }
+        }
+        Grid grid = grid(obstacle);
+        Field[] velocity = velocity(grid, (i, j, k) -> 1, (i, j, k) -> 0, (i, j, k) -> 0);
+        ParticleTracker tracker = tracker(grid, velocity, ForkJoinPool.commonPool());
+        int p = tracker.add(10, 10, 10);
+        for (int n = 0; n < 100; n++) {
+            tracker.step(0.3);
+            assertFalse(grid.isObstacle((int) (tracker.x(p) + 0.5), 10, 10));
+        }
+        assertEquals(10, tracker.y(p), 0);
+    }
+
+    @Test
+    public void testParticlesStayInsideTheGrid() {
+        Grid grid = grid(new boolean[N][N][N]);
+        Field[] velocity = velocity(grid, (i, j, k) -> -1, (i, j, k) -> 1, (i, j, k) -> 1);
+        ParticleTracker tracker = tracker(grid, velocity, ForkJoinPool.commonPool());
+        int p = tracker.add(1, N - 2, 1);
+        for (int n = 0; n < 100; n++) {
+            tracker.step(0.7);
+        }
+        double x = tracker.x(p);
+        double y = tracker.y(p);
+        double depth = tracker.depth(p);
+        assertEquals(true, x >= 0 && x <= N - 1 && y >= 0 && y <= N - 1 && depth >= 0 && depth <= N - 1);
+    }
+
+    @Test
+    public void testDepthIsKeptWithVariableSpacing() {
+        double[] depth = new double[N];
+        for (int k = 1; k < N; k++) {
+            depth[k] = depth[k - 1] + 0.5 + 0.1 * k;
+        }
+        Grid grid = new Grid(N, N, N, 1, 1, depth, new boolean[N][N][N]);
+        Field[] velocity = velocity(grid, (i, j, k) -> 0, (i, j, k) -> 0, (i, j, k) -> 0);
+        ParticleTracker tracker = tracker(grid, velocity, ForkJoinPool.commonPool());
+        int p = tracker.add(3, 4, 17.3);
+        tracker.step(1);
+        assertEquals(17.3, tracker.depth(p), 1e-12);
+    }
+
+    @Test
+    public void testParallelMatchesSerial() {
+        Solver solver = Solver.builder().gridSize(12, 12, 12).dx(0.1).dy(0.1).dz(dz(12, 0.1)).build();
+        solver.setLidDrivenCavityBoundary(1);
+        solver.solve();
+        ForkJoinPool one = new ForkJoinPool(1);
+        ForkJoinPool four = new ForkJoinPool(4);
+        try {
+            ParticleTracker serial = new ParticleTracker(solver, one);
+            ParticleTracker parallel = new ParticleTracker(solver, four);
+            for (int n = 0; n < 1000; n++) {
+                double x = 0.1 + 0.9 * (n % 10) / 10;
+                double y = 0.1 + 0.9 * (n / 10 % 10) / 10;
+                double depth = 0.05 + 0.9 * (n / 100) / 10;
+                serial.add(x, y, depth);
+                parallel.add(x, y, depth);
+            }
+            for (int n = 0; n < 5; n++) {
+                serial.step(0.001);
+                parallel.step(0.001);
+            }
+            for (int p = 0; p < serial.size(); p++) {
+                assertEquals(serial.x(p), parallel.x(p), 0);
+                assertEquals(serial.y(p), parallel.y(p), 0);
+                assertEquals(serial.depth(p), parallel.depth(p), 0);
+            }
+        } finally {
+            one.shutdown();
+            four.shutdown();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Value {
+        double at(int i, int j, int k);
+    }
+
+    private static Grid grid(boolean[][][] obstacle) {
+        double[] depth = new double[N];
+        for (int k = 0; k < N; k++) {
+            depth[k] = k;
+        }
+        return new Grid(N, N, N, 1, 1, depth, obstacle);
+    }
+
+    private static Field[] velocity(Grid grid, Value u, Value v, Value w) {
+        Field[] fields = new Field[3];
+        Value[] values = { u, v, w };
+        for (int n = 0; n < 3; n++) {
+            fields[n] = new ArrayField(grid.size());
+            for (int i = 0; i < grid.nx(); i++) {
+                for (int j = 0; j < grid.ny(); j++) {
+                    for (int k = 0; k < grid.nz(); k++) {
+                        fields[n].set(grid.index(i, j, k), values[n].at(i, j, k));
+                    }
+                }
+            }
+        }
+        return fields;
+    }
+
+    private static ParticleTracker tracker(Grid grid, Field[] velocity, ForkJoinPool pool) {
+        return new ParticleTracker(grid, velocity[0], velocity[1], velocity[2], pool);
+    }
+
+    private static double[] dz(int n, double spacing) {
+        double[] dz = new double[n - 1];
+        for (int k = 0; k < dz.length; k++) {
+            dz[k] = spacing;
+        }
+        return dz;
+    }
+
+}
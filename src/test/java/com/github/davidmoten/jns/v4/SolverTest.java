@@ -0,0 +1,143 @@
+package com.github.davidmoten.jns.v4;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import com.github.davidmoten.jns.InvalidValueException;
+import com.github.davidmoten.jns.Validation;
+
+public class SolverTest {
+
+    @Test
+    public void testParallelMatchesSerial() {
+        ForkJoinPool one = new ForkJoinPool(1);
+        ForkJoinPool four = new ForkJoinPool(4);
+        try {
+            Solver serial = solver(one);
+            Solver parallel = solver(four);
+            for (int i = 0; i < 3; i++) {
+                serial.setLidDrivenCavityBoundary(1);
+                serial.solve();
+                parallel.setLidDrivenCavityBoundary(1);
+                parallel.solve();
+            }
+            assertArrayEquals(values(serial.u()), values(parallel.u()), 0);
+            assertArrayEquals(values(serial.v()), values(parallel.v()), 0);
+            assertArrayEquals(values(serial.w()), values(parallel.w()), 0);
+            assertArrayEquals(values(serial.p()), values(parallel.p()), 0);
+        } finally {
+            one.shutdown();
+            four.shutdown();
+        }
+    }
+
+    @Test
+    public void testRunUntilWithFixedTimeStep() {
+        Solver solver = builder().build();
+        solver.setLidDrivenCavityBoundary(1);
+        solver.runUntil(0.00055);
+        assertEquals(0.00055, solver.time(), 0);
+        // the shortened last step does not change the time step
+        assertEquals(0.0001, solver.timeStep(), 0);
+        assertTrue(solver.courant() > 0);
+    }
+
+    @Test
+    public void testAdaptiveTimeStepTargetsCourantNumber() {
+        Solver solver = builder().courant(0.5).build();
+        solver.setLidDrivenCavityBoundary(1);
+        for (int i = 0; i < 3; i++) {
+            double used = solver.timeStep();
+            solver.solve();
+            double rate = solver.courant() / used;
+            // limited by the Courant number or the viscous stability limit
+            assertTrue(solver.timeStep() <= 0.5 / rate * (1 + 1e-12));
+        }
+        solver.runUntil(solver.time() + 0.001);
+        assertTrue(solver.courant() <= 0.5 * 1.5);
+    }
+
+    @Test
+    public void testAdaptiveTimeStepIsLimitedByMaxTimeStep() {
+        Solver solver = builder().courant(0.5).maxTimeStep(1e-6).build();
+        solver.setLidDrivenCavityBoundary(1);
+        solver.solve();
+        assertEquals(1e-6, solver.timeStep(), 0);
+    }
+
+    @Test
+    public void testSweepReportsFirstInvalidCell() {
+        Solver solver = builder().build();
+        solver.setLidDrivenCavityBoundary(1);
+        solver.u().set(solver.grid().index(5, 2, 3), Double.NaN);
+        try {
+            solver.solve();
+            fail();
+        } catch (InvalidValueException e) {
+            assertEquals("u", e.field());
+            assertTrue(Double.isNaN(e.value()));
+            assertTrue(Double.isNaN(solver.u().get(
+                    solver.grid().index(e.indices().east(), e.indices().north(), e.indices().up()))));
+        }
+    }
+
+    @Test
+    public void testDebugValidationReportsAdvectedField() {
+        Solver solver = builder().validation(Validation.DEBUG).build();
+        solver.setLidDrivenCavityBoundary(1);
+        solver.u().set(solver.grid().index(5, 2, 3), Double.NaN);
+        try {
+            solver.solve();
+            fail();
+        } catch (InvalidValueException e) {
+            assertEquals("uNext", e.field());
+        }
+    }
+
+    @Test
+    public void testValidationOffDoesNotThrow() {
+        Solver solver = builder().validation(Validation.OFF).build();
+        solver.setLidDrivenCavityBoundary(1);
+        solver.u().set(solver.grid().index(5, 2, 3), Double.NaN);
+        solver.solve();
+    }
+
+    private static Solver solver(ForkJoinPool pool) {
+        return builder().pool(pool).build();
+    }
+
+    private static Solver.Builder builder() {
+        int n = 12;
+        double[] dz = new double[n - 1];
+        for (int k = 0; k < dz.length; k++) {
+            dz[k] = 0.1 * (1 + 0.1 * k);
+        }
+        boolean[][][] obstacle = new boolean[n][n][n];
+        for (int i = 4; i < 7; i++) {
+            for (int j = 4; j < 7; j++) {
+                for (int k = 4; k < 7; k++) {
+                    obstacle[i][j][k] = true;
+                }
+            }
+        }
+        return Solver.builder() //
+                .gridSize(n, n, n) //
+                .dx(0.1) //
+                .dy(0.1) //
+                .dz(dz) //
+                .obstacle(obstacle);
+    }
+
+    private static double[] values(Field field) {
+        double[] values = new double[field.size()];
+        field.copyTo(values);
+        return values;
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.github.davidmoten.jns.v4;
+
+import static com.github.davidmoten.jns.v4.MultigridPressureSolverTest.divergence;
+import static com.github.davidmoten.jns.v4.MultigridPressureSolverTest.grid;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class SorPressureSolverTest {
+
+    @Test
+    public void testConvergesAndAgreesWithMultigrid() {
+        Grid grid = grid(17, 13, 11, true);
+        double[] div = divergence(grid);
+        double[] p = new double[grid.size()];
+        double[] result = new double[grid.size()];
+        Convergence c = SorPressureSolver.builder().tolerance(1e-10).checkInterval(1).build().solve(grid,
+                new ArrayField(p), new ArrayField(div), new ArrayField(result));
+        assertTrue(c.toString(), c.residual() <= 1e-10 * c.initialResidual());
+        assertEquals(grid.residual(new ArrayField(result), new ArrayField(div)), c.residual(),
+                1e-6 * c.initialResidual());
+
+        double[] expected = new double[grid.size()];
+        MultigridPressureSolver.builder().tolerance(1e-10).build().solve(grid, new ArrayField(p),
+                new ArrayField(div), new ArrayField(expected));
+        assertArrayEquals(expected, result, 1e-8);
+    }
+
+    @Test
+    public void testParallelMatchesSerial() {
+        Grid grid = grid(17, 13, 11, true);
+        double[] div = divergence(grid);
+        double[] p = new double[grid.size()];
+        double[] serial = new double[grid.size()];
+        double[] parallel = new double[grid.size()];
+        ForkJoinPool one = new ForkJoinPool(1);
+        ForkJoinPool four = new ForkJoinPool(4);
+        try {
+            Convergence a = SorPressureSolver.builder().pool(one).build().solve(grid, new ArrayField(p),
+                    new ArrayField(div), new ArrayField(serial));
+            Convergence b = SorPressureSolver.builder().pool(four).build().solve(grid, new ArrayField(p),
+                    new ArrayField(div), new ArrayField(parallel));
+            assertEquals(a.iterations(), b.iterations());
+            assertArrayEquals(serial, parallel, 0);
+        } finally {
+            one.shutdown();
+            four.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOmegaMustBeLessThanTwo() {
+        SorPressureSolver.builder().omega(2).build();
+    }
+
+}